@@ -25,6 +25,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.Reader;
 import java.net.HttpURLConnection;
+import java.util.HashMap;
 
 public class MockConnection implements ObaConnection {
 
@@ -38,6 +39,8 @@ public class MockConnection implements ObaConnection {
 
     private int mResponseCode = HttpURLConnection.HTTP_OK;
 
+    private final HashMap<String, String> mRequestProperties = new HashMap<String, String>();
+
     MockConnection(Context context,
             MockConnectionFactory.UriMap map,
             Uri uri) {
@@ -69,6 +72,24 @@ public class MockConnection implements ObaConnection {
 
     @Override
     public int getResponseCode() throws IOException {
+        // Emulate conditional GETs: the ETag of a mock response never changes.
+        String ifNoneMatch = mRequestProperties.get("If-None-Match");
+        if (ifNoneMatch != null && ifNoneMatch.equals(getHeaderField("ETag"))) {
+            return HttpURLConnection.HTTP_NOT_MODIFIED;
+        }
         return mResponseCode;
     }
+
+    @Override
+    public void setRequestProperty(String field, String value) {
+        mRequestProperties.put(field, value);
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+        if ("ETag".equalsIgnoreCase(name)) {
+            return "\"" + mUriMap.getUri(mUri) + "\"";
+        }
+        return null;
+    }
 }
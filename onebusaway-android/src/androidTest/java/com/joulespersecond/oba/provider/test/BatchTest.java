@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.oba.provider.test;
+
+import com.joulespersecond.oba.provider.ObaContract;
+import com.joulespersecond.oba.provider.ObaProvider;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.test.ProviderTestCase2;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+public class BatchTest extends ProviderTestCase2<ObaProvider> {
+
+    private static final String TAG = "BatchTest";
+
+    private static final int ROWS = 1000;
+
+    private static final String STOP_ID = "1_10914";
+
+    public BatchTest() {
+        super(ObaProvider.class, ObaContract.AUTHORITY);
+    }
+
+    public void testStopRouteFilters() {
+        ArrayList<String> filter = new ArrayList<String>();
+        filter.add("1_10");
+        filter.add("1_11");
+        filter.add("1_43");
+        ObaContract.StopRouteFilters.set(getMockContext(), STOP_ID, filter);
+        assertEquals(filter, ObaContract.StopRouteFilters.get(getMockContext(), STOP_ID));
+
+        // Setting it again replaces the old filter.
+        filter.remove(0);
+        ObaContract.StopRouteFilters.set(getMockContext(), STOP_ID, filter);
+        assertEquals(filter, ObaContract.StopRouteFilters.get(getMockContext(), STOP_ID));
+    }
+
+    public void testRollback() throws Exception {
+        ContentResolver cr = getMockContentResolver();
+        cr.bulkInsert(ObaContract.StopRouteFilters.CONTENT_URI, newFilters("old", 10));
+        assertEquals(10, getCount());
+
+        // The last operation fails, so the delete and the inserts
+        // before it are all undone.
+        ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
+        ops.add(ContentProviderOperation.newDelete(ObaContract.StopRouteFilters.CONTENT_URI)
+                .build());
+        for (ContentValues values : newFilters("new", 5)) {
+            ops.add(ContentProviderOperation.newInsert(ObaContract.StopRouteFilters.CONTENT_URI)
+                    .withValues(values)
+                    .build());
+        }
+        ops.add(ContentProviderOperation.newDelete(ObaContract.StopRouteFilters.CONTENT_URI)
+                .withExpectedCount(1)
+                .build());
+        try {
+            cr.applyBatch(ObaContract.AUTHORITY, ops);
+            fail("Expected the batch to fail");
+        } catch (OperationApplicationException e) {
+            // Expected
+        }
+        assertEquals(10, getCount());
+
+        // Without the failing operation it all goes through.
+        ops.remove(ops.size() - 1);
+        cr.applyBatch(ObaContract.AUTHORITY, ops);
+        assertEquals(5, getCount());
+    }
+
+    public void testBenchmark() throws Exception {
+        ContentResolver cr = getMockContentResolver();
+
+        // One transaction per row.
+        long start = SystemClock.elapsedRealtime();
+        for (ContentValues values : newFilters("single", ROWS)) {
+            cr.insert(ObaContract.StopRouteFilters.CONTENT_URI, values);
+        }
+        final long singleMs = SystemClock.elapsedRealtime() - start;
+        assertEquals(ROWS, getCount());
+        cr.delete(ObaContract.StopRouteFilters.CONTENT_URI, null, null);
+
+        start = SystemClock.elapsedRealtime();
+        cr.bulkInsert(ObaContract.StopRouteFilters.CONTENT_URI, newFilters("bulk", ROWS));
+        final long bulkMs = SystemClock.elapsedRealtime() - start;
+        assertEquals(ROWS, getCount());
+        cr.delete(ObaContract.StopRouteFilters.CONTENT_URI, null, null);
+
+        ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>(ROWS);
+        for (ContentValues values : newFilters("batch", ROWS)) {
+            ops.add(ContentProviderOperation.newInsert(ObaContract.StopRouteFilters.CONTENT_URI)
+                    .withValues(values)
+                    .build());
+        }
+        start = SystemClock.elapsedRealtime();
+        cr.applyBatch(ObaContract.AUTHORITY, ops);
+        final long batchMs = SystemClock.elapsedRealtime() - start;
+        assertEquals(ROWS, getCount());
+
+        Log.i(TAG, String.format("%d rows: insert %d ms, bulkInsert %d ms, applyBatch %d ms",
+                ROWS, singleMs, bulkMs, batchMs));
+    }
+
+    private static ContentValues[] newFilters(String prefix, int count) {
+        ContentValues[] result = new ContentValues[count];
+        for (int i = 0; i < count; ++i) {
+            ContentValues values = new ContentValues();
+            values.put(ObaContract.StopRouteFilters.STOP_ID, STOP_ID);
+            values.put(ObaContract.StopRouteFilters.ROUTE_ID, prefix + "_" + i);
+            result[i] = values;
+        }
+        return result;
+    }
+
+    private int getCount() {
+        Cursor c = getMockContentResolver().query(ObaContract.StopRouteFilters.CONTENT_URI,
+                new String[]{ObaContract.StopRouteFilters.ROUTE_ID}, null, null, null);
+        assertNotNull(c);
+        try {
+            return c.getCount();
+        } finally {
+            c.close();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.oba.provider.test;
+
+import com.joulespersecond.oba.provider.ObaContract;
+import com.joulespersecond.oba.provider.ObaProvider;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.ProviderTestCase2;
+
+/**
+ * A test on a fresh provider, with the stop and route the tests write
+ * and helpers to read single values back.
+ */
+public class ObaProviderTestCase extends ProviderTestCase2<ObaProvider> {
+
+    public static final String STOP_ID = "1_10914";
+
+    public static final String STOP_NAME = "NE 45th St & 15th Ave NE";
+
+    public static final double STOP_LATITUDE = 47.661;
+
+    public static final String ROUTE_ID = "1_100";
+
+    public ObaProviderTestCase() {
+        super(ObaProvider.class, ObaContract.AUTHORITY);
+    }
+
+    /**
+     * @return The values of the stop at NE 45th St & 15th Ave NE, without its ID.
+     */
+    public static ContentValues newStop() {
+        return newStop(STOP_NAME);
+    }
+
+    /**
+     * @return The values of the same stop with another name, without its ID.
+     */
+    public static ContentValues newStop(String name) {
+        ContentValues values = new ContentValues();
+        values.put(ObaContract.Stops.CODE, "10914");
+        values.put(ObaContract.Stops.NAME, name);
+        values.put(ObaContract.Stops.DIRECTION, "S");
+        values.put(ObaContract.Stops.LATITUDE, STOP_LATITUDE);
+        values.put(ObaContract.Stops.LONGITUDE, -122.312);
+        return values;
+    }
+
+    /**
+     * @return The values of route 10, without its ID.
+     */
+    public static ContentValues newRoute() {
+        ContentValues values = new ContentValues();
+        values.put(ObaContract.Routes.SHORTNAME, "10");
+        values.put(ObaContract.Routes.LONGNAME, "Capitol Hill");
+        return values;
+    }
+
+    protected boolean exists(Uri uri) {
+        Cursor c = getMockContentResolver().query(uri, new String[]{ObaContract.Stops._ID},
+                null, null, null);
+        assertNotNull(c);
+        try {
+            return c.moveToFirst();
+        } finally {
+            c.close();
+        }
+    }
+
+    protected int getInt(Uri uri, String column) {
+        return (int) getLong(uri, column);
+    }
+
+    protected long getLong(Uri uri, String column) {
+        Cursor c = query(uri, column);
+        try {
+            return c.getLong(0);
+        } finally {
+            c.close();
+        }
+    }
+
+    protected double getDouble(Uri uri, String column) {
+        Cursor c = query(uri, column);
+        try {
+            return c.getDouble(0);
+        } finally {
+            c.close();
+        }
+    }
+
+    protected String getString(Uri uri, String column) {
+        Cursor c = query(uri, column);
+        try {
+            return c.getString(0);
+        } finally {
+            c.close();
+        }
+    }
+
+    private Cursor query(Uri uri, String column) {
+        Cursor c = getMockContentResolver().query(uri, new String[]{column}, null, null, null);
+        assertNotNull(c);
+        if (!c.moveToFirst()) {
+            c.close();
+            fail("No row for " + uri);
+        }
+        return c;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.oba.provider.test;
+
+import com.joulespersecond.oba.provider.ObaContract;
+import com.joulespersecond.oba.provider.ObaProvider;
+
+import android.net.Uri;
+import android.test.ProviderTestCase2;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Checks that the queries the app makes are answered by searching an index,
+ * rather than by reading the whole table or the whole of an index.
+ *
+ * The queries that list all the rows of a table (the trip list, the regions)
+ * are expected to read the whole table, so they aren't here.
+ */
+public class ProviderQueryPlanTest extends ProviderTestCase2<ObaProvider> {
+
+    // Old versions of SQLite say "SCAN TABLE stops", newer ones "SCAN stops".
+    // Either is followed by "USING INDEX" if the rows are read in index order.
+    private static final Pattern TABLE_SCAN =
+            Pattern.compile("^SCAN (TABLE )?(stops|routes|trips|trip_alerts|" +
+                    "stop_routes_filter|service_alerts|regions|region_bounds)\\b.*");
+
+    private static final Pattern SCAN_INDEX = Pattern.compile(" USING (COVERING )?INDEX (\\w+)");
+
+    // The only indexes a query may scan rather than search, and the column
+    // the query must be sorted by to do it. Anything else that reads a
+    // whole table or index fails, even if it uses an index.
+    private static final HashMap<String, String> ORDERED_SCANS = new HashMap<String, String>();
+
+    static {
+        // The recent lists are the 20 most recently used: reading the index
+        // from the newest access stops at the 20th match, where searching
+        // would find every match and then sort them.
+        ORDERED_SCANS.put("stops_access_time", ObaContract.Stops.ACCESS_TIME);
+        ORDERED_SCANS.put("routes_access_time", ObaContract.Routes.ACCESS_TIME);
+    }
+
+    private static final String REGION_WHERE = "(%s=1 OR %s IS NULL)";
+
+    public ProviderQueryPlanTest() {
+        super(ObaProvider.class, ObaContract.AUTHORITY);
+    }
+
+    public void testStarredStops() {
+        // MyStarredStopsFragment
+        assertIndexed(ObaContract.Stops.CONTENT_URI,
+                ObaContract.Stops.FAVORITE + "=1 AND " +
+                        getRegionWhere(ObaContract.Stops.REGION_ID),
+                null,
+                ObaContract.Stops.USE_COUNT + " desc");
+        assertIndexed(ObaContract.Stops.CONTENT_URI,
+                ObaContract.Stops.FAVORITE + "=1",
+                null,
+                ObaContract.Stops.USE_COUNT + " desc");
+    }
+
+    public void testRecentStops() {
+        // QueryUtils.newRecentQuery
+        assertIndexed(getRecentUri(ObaContract.Stops.CONTENT_URI),
+                getRecentWhere(ObaContract.Stops.ACCESS_TIME, ObaContract.Stops.USE_COUNT) +
+                        " AND " + getRegionWhere(ObaContract.Stops.REGION_ID),
+                null,
+                getRecentOrder(ObaContract.Stops.ACCESS_TIME, ObaContract.Stops.USE_COUNT));
+        assertIndexed(getRecentUri(ObaContract.Stops.CONTENT_URI),
+                getRecentWhere(ObaContract.Stops.ACCESS_TIME, ObaContract.Stops.USE_COUNT),
+                null,
+                getRecentOrder(ObaContract.Stops.ACCESS_TIME, ObaContract.Stops.USE_COUNT));
+    }
+
+    public void testRecentRoutes() {
+        assertIndexed(getRecentUri(ObaContract.Routes.CONTENT_URI),
+                getRecentWhere(ObaContract.Routes.ACCESS_TIME, ObaContract.Routes.USE_COUNT) +
+                        " AND " + getRegionWhere(ObaContract.Routes.REGION_ID),
+                null,
+                getRecentOrder(ObaContract.Routes.ACCESS_TIME, ObaContract.Routes.USE_COUNT));
+    }
+
+    public void testStopUserInfo() {
+        // UIHelp.StopUserInfoMap
+        assertIndexed(ObaContract.Stops.CONTENT_URI,
+                "(" + ObaContract.Stops.USER_NAME + " >= '')" + "OR (" +
+                        ObaContract.Stops.FAVORITE + "=1)",
+                null, null);
+    }
+
+    public void testById() {
+        assertIndexed(Uri.withAppendedPath(ObaContract.Stops.CONTENT_URI, "1_10914"),
+                null, null, null);
+        assertIndexed(Uri.withAppendedPath(ObaContract.Routes.CONTENT_URI, "1_100"),
+                null, null, null);
+        assertIndexed(ObaContract.Trips.buildUri("1_12345", "1_10914"), null, null, null);
+        assertIndexed(ObaContract.TripAlerts.buildUri(1), null, null, null);
+        assertIndexed(ObaContract.Regions.buildUri(1), null, null, null);
+    }
+
+    public void testTripsForStop() {
+        // ArrivalsListFragment
+        assertIndexed(ObaContract.Trips.CONTENT_URI,
+                ObaContract.Trips.STOP_ID + "=?",
+                new String[]{"1_10914"},
+                null);
+    }
+
+    public void testTripAlerts() {
+        // PollerTask, with the reminder from the trips table
+        assertIndexed(ObaContract.TripAlerts.CONTENT_URI,
+                new String[]{
+                        ObaContract.TripAlerts._ID,
+                        ObaContract.TripAlerts.TRIP_REMINDER
+                },
+                ObaContract.TripAlerts.STATE + "<>" + ObaContract.TripAlerts.STATE_CANCELLED +
+                        " AND " + ObaContract.TripAlerts._ID + " IN (1,2,3)",
+                null, null);
+        assertIndexed(ObaContract.TripAlerts.CONTENT_URI,
+                ObaContract.TripAlerts.STATE + " IN (0,1,2)",
+                null, null);
+        // SchedulerTask
+        assertIndexed(ObaContract.TripAlerts.CONTENT_URI,
+                ObaContract.TripAlerts.TRIP_ID + "=? AND " +
+                        ObaContract.TripAlerts.STOP_ID + "=? AND " +
+                        ObaContract.TripAlerts.START_TIME + "=?",
+                new String[]{"1_12345", "1_10914", "1000"},
+                null);
+        assertIndexed("DELETE FROM " + ObaContract.TripAlerts.PATH +
+                " WHERE " + ObaContract.TripAlerts.START_TIME + " < 1000", null);
+        // The trip_alerts_cleanup trigger
+        assertIndexed("DELETE FROM " + ObaContract.TripAlerts.PATH +
+                " WHERE " + ObaContract.TripAlerts.TRIP_ID + " = ?" +
+                " AND " + ObaContract.TripAlerts.STOP_ID + " = ?",
+                new String[]{"1_12345", "1_10914"});
+    }
+
+    public void testStopRouteFilters() {
+        // StopRouteFilters.get
+        assertIndexed(ObaContract.StopRouteFilters.CONTENT_URI,
+                ObaContract.StopRouteFilters.STOP_ID + "=?",
+                new String[]{"1_10914"},
+                null);
+    }
+
+    public void testRegionBounds() {
+        // RegionBounds.getRegion
+        assertIndexed(ObaContract.RegionBounds.CONTENT_URI,
+                "(" + ObaContract.RegionBounds.REGION_ID + " = 1)",
+                null, null);
+        // The region_bounds_cleanup trigger
+        assertIndexed("DELETE FROM " + ObaContract.RegionBounds.PATH +
+                " WHERE " + ObaContract.RegionBounds.REGION_ID + " = 1", null);
+    }
+
+    private void assertIndexed(Uri uri, String selection, String[] selectionArgs,
+            String sortOrder) {
+        assertIndexed(uri, null, selection, selectionArgs, sortOrder);
+    }
+
+    private void assertIndexed(Uri uri, String[] projection, String selection,
+            String[] selectionArgs, String sortOrder) {
+        assertNoTableScan(uri + " " + selection, getProvider().getQueryPlan(uri, projection,
+                selection, selectionArgs, sortOrder), sortOrder);
+    }
+
+    private void assertIndexed(String sql, String[] selectionArgs) {
+        assertNoTableScan(sql, getProvider().getQueryPlan(sql, selectionArgs), null);
+    }
+
+    private static void assertNoTableScan(String query, List<String> plan, String sortOrder) {
+        assertFalse(query, plan.isEmpty());
+        for (String step : plan) {
+            if (!TABLE_SCAN.matcher(step).matches()) {
+                continue;
+            }
+            Matcher index = SCAN_INDEX.matcher(step);
+            final String column = index.find() ? ORDERED_SCANS.get(index.group(2)) : null;
+            assertTrue(query + ": " + step, column != null && sortOrder != null &&
+                    sortOrder.startsWith(column + " "));
+        }
+    }
+
+    private static String getRegionWhere(String column) {
+        return String.format(REGION_WHERE, column, column);
+    }
+
+    private static Uri getRecentUri(Uri uri) {
+        return uri.buildUpon().appendQueryParameter("limit", "20").build();
+    }
+
+    private static String getRecentWhere(String accessTime, String useCount) {
+        return "((" + accessTime + " IS NOT NULL AND " + accessTime + " > 1000" +
+                ") OR (" + useCount + " > 0))";
+    }
+
+    private static String getRecentOrder(String accessTime, String useCount) {
+        return accessTime + " desc, " + useCount + " desc";
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.oba.provider.test;
+
+import com.joulespersecond.oba.provider.ObaContract;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * Measures how long the stop list queries take while another thread
+ * keeps writing, like a region refresh or a burst of stop views.
+ */
+public class ReadLatencyTest extends ObaProviderTestCase {
+
+    private static final String TAG = "ReadLatencyTest";
+
+    private static final int STOPS = 200;
+
+    private static final int READS = 200;
+
+    private static final int BATCH = 100;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        ContentValues[] values = new ContentValues[STOPS];
+        for (int i = 0; i < STOPS; ++i) {
+            values[i] = newNumberedStop(i);
+            values[i].put(ObaContract.Stops.FAVORITE, i % 2);
+        }
+        ObaContract.Stops.insertOrUpdate(getMockContext(), values, true);
+    }
+
+    public void testInserter() {
+        ContentValues values = new ContentValues();
+        values.put(ObaContract.TripAlerts.TRIP_ID, "1_12345");
+        values.put(ObaContract.TripAlerts.STOP_ID, STOP_ID);
+        values.put(ObaContract.TripAlerts.START_TIME, 1000);
+        // The state isn't given, so it gets its default.
+        assertNotNull(getMockContentResolver().insert(ObaContract.TripAlerts.CONTENT_URI, values));
+        Cursor c = getMockContentResolver().query(ObaContract.TripAlerts.CONTENT_URI,
+                new String[]{ObaContract.TripAlerts.STATE}, null, null, null);
+        assertNotNull(c);
+        try {
+            assertTrue(c.moveToFirst());
+            assertEquals(ObaContract.TripAlerts.STATE_SCHEDULED, c.getInt(0));
+        } finally {
+            c.close();
+        }
+    }
+
+    public void testCheckpoint() {
+        // Nothing else is using the database, so the whole log is copied.
+        assertTrue(getProvider().checkpoint());
+        Cursor c = getMockContentResolver().query(ObaContract.Stops.CONTENT_URI,
+                new String[]{ObaContract.Stops._ID}, null, null, null);
+        assertNotNull(c);
+        try {
+            // An open reader doesn't block it: everything it reads is in the file.
+            assertEquals(STOPS, c.getCount());
+            assertTrue(getProvider().checkpoint());
+        } finally {
+            c.close();
+        }
+    }
+
+    public void testReadsUnderWriteLoad() throws InterruptedException {
+        final long[] idle = measureReads();
+
+        final boolean[] done = {false};
+        final int[] writes = {0};
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                ContentValues[] values = new ContentValues[BATCH];
+                int n = 0;
+                while (true) {
+                    synchronized (done) {
+                        if (done[0]) {
+                            return;
+                        }
+                    }
+                    for (int i = 0; i < BATCH; ++i) {
+                        values[i] = newNumberedStop(n++);
+                    }
+                    ObaContract.Stops.insertOrUpdate(getMockContext(), values, true);
+                    synchronized (done) {
+                        writes[0] += BATCH;
+                    }
+                }
+            }
+        };
+        writer.start();
+        final long[] loaded;
+        try {
+            loaded = measureReads();
+        } finally {
+            synchronized (done) {
+                done[0] = true;
+            }
+            writer.join();
+        }
+
+        Log.i(TAG, String.format("%d reads idle: median %d ms, max %d ms", READS,
+                idle[READS / 2], idle[READS - 1]));
+        Log.i(TAG, String.format("%d reads with %d writes: median %d ms, max %d ms", READS,
+                writes[0], loaded[READS / 2], loaded[READS - 1]));
+    }
+
+    //
+    // Returns the sorted latencies of the reads.
+    //
+    private long[] measureReads() {
+        long[] result = new long[READS];
+        for (int i = 0; i < READS; ++i) {
+            final long start = SystemClock.elapsedRealtime();
+            Cursor c = getMockContentResolver().query(ObaContract.Stops.CONTENT_URI,
+                    new String[]{ObaContract.Stops._ID, ObaContract.Stops.UI_NAME},
+                    ObaContract.Stops.FAVORITE + "=1",
+                    null,
+                    ObaContract.Stops.USE_COUNT + " desc");
+            assertNotNull(c);
+            try {
+                assertEquals(STOPS / 2, c.getCount());
+            } finally {
+                c.close();
+            }
+            result[i] = SystemClock.elapsedRealtime() - start;
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    private static ContentValues newNumberedStop(int i) {
+        final String id = "1_" + (i % STOPS);
+        ContentValues values = newStop("Stop " + id);
+        values.put(ObaContract.Stops._ID, id);
+        return values;
+    }
+}
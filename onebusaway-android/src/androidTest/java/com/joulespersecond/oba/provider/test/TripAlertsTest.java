@@ -20,6 +20,7 @@ import com.joulespersecond.oba.provider.ObaContract.TripAlerts;
 import com.joulespersecond.oba.provider.ObaProvider;
 
 import android.content.ContentResolver;
+import android.content.ContentValues;
 import android.database.Cursor;
 import android.net.Uri;
 import android.test.ProviderTestCase2;
@@ -89,4 +90,47 @@ public class TripAlertsTest extends ProviderTestCase2<ObaProvider> {
 
         cr.delete(uri, null, null);
     }
+
+    public void testTripReminder() {
+        ContentResolver cr = getMockContentResolver();
+        ContentValues values = new ContentValues();
+        values.put(ObaContract.Trips._ID, "1_12345");
+        values.put(ObaContract.Trips.STOP_ID, "1_STOP");
+        values.put(ObaContract.Trips.ROUTE_ID, "1_ROUTE");
+        values.put(ObaContract.Trips.DEPARTURE, 0);
+        values.put(ObaContract.Trips.HEADSIGN, "Downtown");
+        values.put(ObaContract.Trips.NAME, "");
+        values.put(ObaContract.Trips.REMINDER, 10);
+        values.put(ObaContract.Trips.DAYS, 0);
+        assertNotNull(cr.insert(ObaContract.Trips.CONTENT_URI, values));
+
+        final Uri uri1 = TripAlerts.insertIfNotExists(cr, "1_12345", "1_STOP", 1000);
+        // An alert for the same trip at another stop
+        final Uri uri2 = TripAlerts.insertIfNotExists(cr, "1_12345", "1_OTHER", 1000);
+
+        final String[] PROJECTION = {TripAlerts.TRIP_REMINDER};
+        Cursor c = cr.query(uri1, PROJECTION, null, null, null);
+        assertNotNull(c);
+        assertTrue(c.moveToNext());
+        assertEquals(10, c.getInt(0));
+        c.close();
+
+        c = cr.query(uri2, PROJECTION, null, null, null);
+        assertNotNull(c);
+        assertTrue(c.moveToNext());
+        assertTrue(c.isNull(0));
+        c.close();
+
+        // The trip_alerts columns can still be used unqualified in selections.
+        c = cr.query(TripAlerts.CONTENT_URI, PROJECTION,
+                TripAlerts.TRIP_ID + "=? AND " + TripAlerts.STOP_ID + "=?",
+                new String[]{"1_12345", "1_STOP"}, null);
+        assertNotNull(c);
+        assertEquals(1, c.getCount());
+        c.close();
+
+        cr.delete(uri1, null, null);
+        cr.delete(uri2, null, null);
+        cr.delete(ObaContract.Trips.buildUri("1_12345", "1_STOP"), null, null);
+    }
 }
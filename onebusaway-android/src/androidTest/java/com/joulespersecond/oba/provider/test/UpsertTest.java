@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.oba.provider.test;
+
+import com.joulespersecond.oba.provider.ObaContract;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+
+public class UpsertTest extends ObaProviderTestCase {
+
+    private static final int THREADS = 8;
+
+    private static final int USES = 50;
+
+    public void testStop() {
+        final Uri uri = Uri.withAppendedPath(ObaContract.Stops.CONTENT_URI, STOP_ID);
+        assertEquals(uri, ObaContract.Stops.insertOrUpdate(getMockContext(), STOP_ID,
+                newStop(), false));
+        assertEquals(0, getInt(uri, ObaContract.Stops.USE_COUNT));
+
+        final long before = System.currentTimeMillis();
+        ObaContract.Stops.insertOrUpdate(getMockContext(), STOP_ID,
+                newStop(), true);
+        ObaContract.Stops.insertOrUpdate(getMockContext(), STOP_ID,
+                newStop("15th Ave NE & NE 45th St"), true);
+        assertEquals(2, getInt(uri, ObaContract.Stops.USE_COUNT));
+        assertTrue(getLong(uri, ObaContract.Stops.ACCESS_TIME) >= before);
+        assertEquals("15th Ave NE & NE 45th St", getString(uri, ObaContract.Stops.NAME));
+
+        // Updating the values without using it leaves the count alone.
+        ObaContract.Stops.insertOrUpdate(getMockContext(), STOP_ID,
+                newStop(), false);
+        assertEquals(2, getInt(uri, ObaContract.Stops.USE_COUNT));
+        assertEquals(STOP_NAME, getString(uri, ObaContract.Stops.NAME));
+    }
+
+    public void testRoute() {
+        final Uri uri = Uri.withAppendedPath(ObaContract.Routes.CONTENT_URI, ROUTE_ID);
+        ObaContract.Routes.insertOrUpdate(getMockContext(), ROUTE_ID, newRoute(), true);
+
+        // Only some of the values, which mustn't clear the others.
+        ContentValues values = new ContentValues();
+        values.put(ObaContract.Routes.SHORTNAME, "10E");
+        ObaContract.Routes.insertOrUpdate(getMockContext(), ROUTE_ID, values, false);
+        assertEquals(1, getInt(uri, ObaContract.Routes.USE_COUNT));
+        assertEquals("10E", getString(uri, ObaContract.Routes.SHORTNAME));
+        assertEquals("Capitol Hill", getString(uri, ObaContract.Routes.LONGNAME));
+    }
+
+    public void testOnlyId() {
+        final Uri uri = Uri.withAppendedPath(ObaContract.Stops.CONTENT_URI, STOP_ID);
+        ObaContract.Stops.insertOrUpdate(getMockContext(), STOP_ID,
+                newStop(), false);
+
+        // Nothing but the ID: the stop is only used, or not touched at all.
+        ObaContract.Stops.insertOrUpdate(getMockContext(), STOP_ID, new ContentValues(), true);
+        ObaContract.Stops.insertOrUpdate(getMockContext(), STOP_ID, new ContentValues(), false);
+        assertEquals(1, getInt(uri, ObaContract.Stops.USE_COUNT));
+        assertEquals(STOP_NAME, getString(uri, ObaContract.Stops.NAME));
+
+        Cursor c = getMockContentResolver().query(ObaContract.Stops.CONTENT_URI,
+                new String[]{ObaContract.Stops._ID}, null, null, null);
+        assertNotNull(c);
+        assertEquals(1, c.getCount());
+        c.close();
+    }
+
+    public void testBatch() {
+        ContentValues[] values = new ContentValues[20];
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = newStop("Stop " + i);
+            values[i].put(ObaContract.Stops._ID, "1_" + i);
+        }
+        assertEquals(values.length,
+                ObaContract.Stops.insertOrUpdate(getMockContext(), values, true));
+        assertEquals(values.length,
+                ObaContract.Stops.insertOrUpdate(getMockContext(), values, true));
+        for (int i = 0; i < values.length; ++i) {
+            final Uri uri = Uri.withAppendedPath(ObaContract.Stops.CONTENT_URI, "1_" + i);
+            assertEquals(2, getInt(uri, ObaContract.Stops.USE_COUNT));
+        }
+    }
+
+    public void testConcurrentUses() throws InterruptedException {
+        final Context context = getMockContext();
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; ++i) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < USES; ++j) {
+                        ObaContract.Stops.insertOrUpdate(context, STOP_ID,
+                                newStop(), true);
+                    }
+                }
+            };
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        final Uri uri = Uri.withAppendedPath(ObaContract.Stops.CONTENT_URI, STOP_ID);
+        assertEquals(THREADS * USES, getInt(uri, ObaContract.Stops.USE_COUNT));
+    }
+}
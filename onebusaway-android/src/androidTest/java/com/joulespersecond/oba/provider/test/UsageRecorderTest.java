@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.oba.provider.test;
+
+import com.joulespersecond.oba.provider.ObaContract;
+import com.joulespersecond.oba.provider.UsageRecorder;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+
+public class UsageRecorderTest extends ObaProviderTestCase {
+
+    private static final String JOURNAL_NAME = "usage_journal_test";
+
+    private SharedPreferences mJournal;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mJournal = getContext().getSharedPreferences(JOURNAL_NAME, Context.MODE_PRIVATE);
+        mJournal.edit().clear().commit();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mJournal.edit().clear().commit();
+        super.tearDown();
+    }
+
+    public void testCoalesce() {
+        UsageRecorder recorder = new UsageRecorder(getMockContentResolver(), mJournal);
+        for (int i = 0; i < 3; ++i) {
+            recorder.recordStop(STOP_ID, newStop());
+        }
+        recorder.recordRoute(ROUTE_ID, newRoute());
+        recorder.recordRoute(ROUTE_ID, newRoute());
+        assertEquals(2, recorder.getPendingCount());
+        // Nothing has been written yet.
+        assertEquals(-1, getUseCount(ObaContract.Stops.CONTENT_URI, STOP_ID));
+
+        assertTrue(recorder.flush());
+        assertEquals(0, recorder.getPendingCount());
+        assertEquals(3, getUseCount(ObaContract.Stops.CONTENT_URI, STOP_ID));
+        assertEquals(2, getUseCount(ObaContract.Routes.CONTENT_URI, ROUTE_ID));
+        assertTrue(mJournal.getAll().isEmpty());
+
+        // Later uses add to the ones already written.
+        recorder.recordStop(STOP_ID, newStop());
+        assertTrue(recorder.flush());
+        assertEquals(4, getUseCount(ObaContract.Stops.CONTENT_URI, STOP_ID));
+        recorder.close();
+    }
+
+    public void testRestore() {
+        UsageRecorder recorder = new UsageRecorder(getMockContentResolver(), mJournal);
+        recorder.recordStop(STOP_ID, newStop());
+        recorder.recordStop(STOP_ID, newStop());
+        recorder.recordRoute(ROUTE_ID, newRoute());
+
+        // The process dies before the uses are written, and a new recorder
+        // reads them from the journal.
+        recorder.close();
+        UsageRecorder restored = new UsageRecorder(getMockContentResolver(), mJournal);
+        restored.restore();
+        assertTrue(restored.flush());
+        assertEquals(2, getUseCount(ObaContract.Stops.CONTENT_URI, STOP_ID));
+        assertEquals(1, getUseCount(ObaContract.Routes.CONTENT_URI, ROUTE_ID));
+        restored.close();
+
+        final Uri uri = Uri.withAppendedPath(ObaContract.Stops.CONTENT_URI, STOP_ID);
+        assertEquals(STOP_NAME, getString(uri, ObaContract.Stops.NAME));
+        assertEquals(STOP_LATITUDE, getDouble(uri, ObaContract.Stops.LATITUDE), 0.0001);
+    }
+
+    private int getUseCount(Uri contentUri, String id) {
+        final Uri uri = Uri.withAppendedPath(contentUri, id);
+        return exists(uri) ? getInt(uri, ObaContract.Stops.USE_COUNT) : -1;
+    }
+}
@@ -22,12 +22,14 @@ import com.joulespersecond.oba.elements.ObaRoute;
 import com.joulespersecond.oba.elements.ObaSituation;
 import com.joulespersecond.oba.elements.ObaStop;
 import com.joulespersecond.oba.mock.MockRegion;
+import com.joulespersecond.oba.mock.Resources;
 import com.joulespersecond.oba.request.ObaArrivalInfoRequest;
 import com.joulespersecond.oba.request.ObaArrivalInfoResponse;
 import com.joulespersecond.seattlebusbot.Application;
 import com.joulespersecond.seattlebusbot.test.UriAssert;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 
 @SuppressWarnings("serial")
@@ -187,6 +189,54 @@ public class ArrivalInfoRequestTest extends ObaTestCase {
         );
     }
 
+    public void testWindowRequest() {
+        ObaArrivalInfoRequest request =
+                ObaArrivalInfoRequest.newRequest(getContext(), "1_29261", 1234567890000L, 30);
+        UriAssert.assertUriMatch(
+                "http://api.pugetsound.onebusaway.org/api/where/arrivals-and-departures-for-stop/1_29261.json",
+                new HashMap<String, String>() {{
+                    put("key", "*");
+                    put("version", "2");
+                    put("time", "1234567890000");
+                    put("minutesBefore", "0");
+                    put("minutesAfter", "30");
+                }},
+                request
+        );
+    }
+
+    public void testMerge() {
+        ObaArrivalInfoResponse earlier = Resources.readAs(getContext(),
+                Resources.getTestUri("arrivals_and_departures_for_stop_1_29261"),
+                ObaArrivalInfoResponse.class);
+        ObaArrivalInfoResponse later = Resources.readAs(getContext(),
+                Resources.getTestUri("arrivals_and_departures_for_stop_1_10020"),
+                ObaArrivalInfoResponse.class);
+
+        // Arrivals in both windows are only listed once.
+        ObaArrivalInfoResponse same = earlier.merge(earlier);
+        assertOK(same);
+        assertEquals(earlier.getArrivalInfo().length, same.getArrivalInfo().length);
+
+        ObaArrivalInfoResponse merged = earlier.merge(later);
+        assertOK(merged);
+        assertEquals(earlier.getCurrentTime(), merged.getCurrentTime());
+        assertEquals("1_29261", merged.getStop().getId());
+        HashSet<String> keys = new HashSet<String>();
+        for (ObaArrivalInfo info : earlier.getArrivalInfo()) {
+            keys.add(info.getTripId() + info.getServiceDate() + "/" + info.getStopSequence());
+        }
+        for (ObaArrivalInfo info : later.getArrivalInfo()) {
+            keys.add(info.getTripId() + info.getServiceDate() + "/" + info.getStopSequence());
+        }
+        assertEquals(keys.size(), merged.getArrivalInfo().length);
+        // The references of both responses can be used.
+        for (ObaArrivalInfo info : merged.getArrivalInfo()) {
+            assertNotNull(merged.getRoute(info.getRouteId()));
+            assertNotNull(merged.getTrip(info.getTripId()));
+        }
+    }
+
     // TODO: get/create situation response (not much of a test, otherwise)
     public void testStopSituation() throws Exception {
         ObaArrivalInfoResponse response =
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.oba.request.test;
+
+import com.joulespersecond.oba.ObaApi;
+import com.joulespersecond.oba.elements.ObaElement;
+import com.joulespersecond.oba.elements.ObaRoute;
+import com.joulespersecond.oba.elements.ObaStop;
+import com.joulespersecond.oba.elements.ObaTrip;
+import com.joulespersecond.oba.elements.ObaTripDetails;
+import com.joulespersecond.oba.elements.ObaTripStatus;
+import com.joulespersecond.oba.mock.Resources;
+import com.joulespersecond.oba.request.ObaResponseWithRefs;
+import com.joulespersecond.oba.request.ObaStopsForLocationResponse;
+import com.joulespersecond.oba.request.ObaTripsForLocationResponse;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tests the lookup of references by ID, and compares the indexed lookup
+ * against the linear search it replaced.
+ *
+ * Results are written to the log under the "ReferencesBenchmark" tag.
+ */
+public class ReferencesBenchmarkTest extends ObaTestCase {
+
+    private static final String TAG = "ReferencesBenchmark";
+
+    private static final int ITERATIONS = 20;
+
+    // Element types for resolve()
+    private static final int STOP = 0;
+
+    private static final int ROUTE = 1;
+
+    private static final int TRIP = 2;
+
+    private static final int AGENCY = 3;
+
+    /**
+     * The IDs that a typical consumer of a response resolves, grouped by type.
+     */
+    private static final class Workload {
+
+        final LinkedHashSet<String> stopIds = new LinkedHashSet<String>();
+
+        final LinkedHashSet<String> routeIds = new LinkedHashSet<String>();
+
+        final LinkedHashSet<String> tripIds = new LinkedHashSet<String>();
+
+        final LinkedHashSet<String> agencyIds = new LinkedHashSet<String>();
+
+        int size() {
+            return stopIds.size() + routeIds.size() + tripIds.size() + agencyIds.size();
+        }
+    }
+
+    public void testStopsForLocation() throws IOException {
+        ObaStopsForLocationResponse response =
+                read("stops_for_location_downtown_seattle", ObaStopsForLocationResponse.class);
+        assertOK(response);
+        Workload workload = new Workload();
+        for (ObaStop stop : response.getStops()) {
+            for (String routeId : stop.getRouteIds()) {
+                workload.routeIds.add(routeId);
+                ObaRoute route = response.getRoute(routeId);
+                assertNotNull(route);
+                workload.agencyIds.add(route.getAgencyId());
+            }
+        }
+        assertTrue(workload.routeIds.size() > 0);
+        checkAndMeasure("stops_for_location_downtown_seattle", response, workload);
+    }
+
+    public void testTripsForLocation() throws IOException {
+        ObaTripsForLocationResponse response =
+                read("trips_for_location_test1", ObaTripsForLocationResponse.class);
+        assertOK(response);
+        Workload workload = new Workload();
+        for (ObaTripDetails details : response.getTrips()) {
+            workload.tripIds.add(details.getId());
+            ObaTrip trip = response.getTrip(details.getId());
+            assertNotNull(trip);
+            workload.routeIds.add(trip.getRouteId());
+            ObaTripStatus status = details.getStatus();
+            if (status != null && status.getClosestStop() != null) {
+                workload.stopIds.add(status.getClosestStop());
+            }
+        }
+        assertTrue(workload.tripIds.size() > 0);
+        checkAndMeasure("trips_for_location_test1", response, workload);
+    }
+
+    public void testLists() throws IOException {
+        ObaStopsForLocationResponse response =
+                read("stops_for_location_downtown_seattle", ObaStopsForLocationResponse.class);
+        final ObaStop stop = response.getStops()[0];
+        final String[] routeIds = stop.getRouteIds();
+        assertTrue(routeIds.length > 0);
+
+        // Unknown IDs are skipped, and the order of the IDs is kept.
+        String[] ids = new String[routeIds.length + 1];
+        ids[0] = "not_a_route";
+        for (int i = 0; i < routeIds.length; ++i) {
+            ids[routeIds.length - i] = routeIds[i];
+        }
+        List<ObaRoute> routes = response.getRoutes(ids);
+        assertEquals(routeIds.length, routes.size());
+        for (int i = 0; i < routeIds.length; ++i) {
+            assertEquals(routeIds[routeIds.length - 1 - i], routes.get(i).getId());
+        }
+        assertNull(response.getRoute("not_a_route"));
+        assertNull(response.getRoute(null));
+        assertNull(response.getSituation("not_a_situation"));
+    }
+
+    public void testConcurrentReaders() throws Exception {
+        // A fresh response, so that the threads race to build the index.
+        final ObaStopsForLocationResponse response =
+                read("stops_for_location_downtown_seattle", ObaStopsForLocationResponse.class);
+        final String routeId = response.getStops()[0].getRouteIds()[0];
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            ArrayList<Future<ObaRoute>> futures = new ArrayList<Future<ObaRoute>>();
+            for (int i = 0; i < 8; ++i) {
+                futures.add(executor.submit(new Callable<ObaRoute>() {
+                    @Override
+                    public ObaRoute call() {
+                        return response.getRoute(routeId);
+                    }
+                }));
+            }
+            final ObaRoute route = futures.get(0).get();
+            assertNotNull(route);
+            for (Future<ObaRoute> future : futures) {
+                assertSame(route, future.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void checkAndMeasure(String name, ObaResponseWithRefs response, Workload workload) {
+        // The baseline: the elements in arrays, searched linearly as before.
+        final ObaElement[] stops = resolve(response, workload.stopIds, STOP);
+        final ObaElement[] routes = resolve(response, workload.routeIds, ROUTE);
+        final ObaElement[] trips = resolve(response, workload.tripIds, TRIP);
+        final ObaElement[] agencies = resolve(response, workload.agencyIds, AGENCY);
+
+        // Both approaches return the same objects.
+        for (String id : workload.routeIds) {
+            assertSame(findById(routes, id), response.getRoute(id));
+        }
+        for (String id : workload.tripIds) {
+            assertSame(findById(trips, id), response.getTrip(id));
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i) {
+            lookupLinear(stops, workload.stopIds);
+            lookupLinear(routes, workload.routeIds);
+            lookupLinear(trips, workload.tripIds);
+            lookupLinear(agencies, workload.agencyIds);
+        }
+        final double linear = (System.nanoTime() - start) / 1e6 / ITERATIONS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i) {
+            for (String id : workload.stopIds) {
+                response.getStop(id);
+            }
+            for (String id : workload.routeIds) {
+                response.getRoute(id);
+            }
+            for (String id : workload.tripIds) {
+                response.getTrip(id);
+            }
+            for (String id : workload.agencyIds) {
+                response.getAgency(id);
+            }
+        }
+        final double indexed = (System.nanoTime() - start) / 1e6 / ITERATIONS;
+
+        Log.i(TAG, String.format("%s (%d lookups): linear %.3f ms, indexed %.3f ms",
+                name, workload.size(), linear, indexed));
+    }
+
+    private static ObaElement[] resolve(ObaResponseWithRefs response,
+            LinkedHashSet<String> ids, int type) {
+        ArrayList<ObaElement> result = new ArrayList<ObaElement>();
+        for (String id : ids) {
+            ObaElement element;
+            switch (type) {
+                case STOP:
+                    element = response.getStop(id);
+                    break;
+                case ROUTE:
+                    element = response.getRoute(id);
+                    break;
+                case TRIP:
+                    element = response.getTrip(id);
+                    break;
+                default:
+                    element = response.getAgency(id);
+                    break;
+            }
+            if (element != null) {
+                result.add(element);
+            }
+        }
+        return result.toArray(new ObaElement[result.size()]);
+    }
+
+    private static void lookupLinear(ObaElement[] objects, LinkedHashSet<String> ids) {
+        for (String id : ids) {
+            findById(objects, id);
+        }
+    }
+
+    private static ObaElement findById(ObaElement[] objects, String id) {
+        final int len = objects.length;
+        for (int i = 0; i < len; ++i) {
+            final ObaElement obj = objects[i];
+            if (obj.getId().equals(id)) {
+                return obj;
+            }
+        }
+        return null;
+    }
+
+    private <T> T read(String name, Class<T> cls) throws IOException {
+        Reader reader = Resources.read(getContext(), Resources.getTestUri(name));
+        return ObaApi.getSerializer(cls).deserialize(reader, cls);
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.oba.request.test;
+
+import com.joulespersecond.oba.ObaApi;
+import com.joulespersecond.oba.ObaConnection;
+import com.joulespersecond.oba.ObaConnectionFactory;
+import com.joulespersecond.oba.request.ObaArrivalInfoRequest;
+import com.joulespersecond.oba.request.ObaArrivalInfoResponse;
+import com.joulespersecond.oba.request.ObaResponse;
+import com.joulespersecond.oba.request.ObaRouteRequest;
+
+import android.net.Uri;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stress tests for coalescing concurrent identical requests, and for cancelling them.
+ */
+public class RequestCoalescingTest extends ObaTestCase {
+
+    private static final int THREADS = 16;
+
+    private GatedConnectionFactory mFactory;
+
+    @Override
+    protected void setUp() {
+        super.setUp();
+        mFactory = new GatedConnectionFactory(ObaApi.getDefaultContext().getConnectionFactory());
+        ObaApi.getDefaultContext().setConnectionFactory(mFactory);
+    }
+
+    public void testIdenticalRequestsShareOneFetch() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            ArrayList<Future<ObaArrivalInfoResponse>> futures =
+                    new ArrayList<Future<ObaArrivalInfoResponse>>();
+            for (int i = 0; i < THREADS; ++i) {
+                futures.add(executor.submit(new Callable<ObaArrivalInfoResponse>() {
+                    @Override
+                    public ObaArrivalInfoResponse call() {
+                        return ObaArrivalInfoRequest.newRequest(getContext(), "1_29261").call();
+                    }
+                }));
+            }
+            // Give every thread time to join the in-flight request.
+            Thread.sleep(500);
+            mFactory.open();
+
+            ObaArrivalInfoResponse first = futures.get(0).get(10, TimeUnit.SECONDS);
+            assertOK(first);
+            for (Future<ObaArrivalInfoResponse> future : futures) {
+                assertSame(first, future.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(1, mFactory.getConnectionCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testDistinctRequestsAreNotShared() throws Exception {
+        final String[] stops = {"1_29261", "1_75403"};
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            ArrayList<Future<? extends ObaResponse>> futures =
+                    new ArrayList<Future<? extends ObaResponse>>();
+            for (int i = 0; i < THREADS; ++i) {
+                final String stopId = stops[i % stops.length];
+                futures.add(executor.submit(new Callable<ObaArrivalInfoResponse>() {
+                    @Override
+                    public ObaArrivalInfoResponse call() {
+                        return ObaArrivalInfoRequest.newRequest(getContext(), stopId).call();
+                    }
+                }));
+            }
+            // A different response type for the same server is never shared.
+            futures.add(executor.submit(new Callable<ObaResponse>() {
+                @Override
+                public ObaResponse call() {
+                    return ObaRouteRequest.newRequest(getContext(), "1_10").call();
+                }
+            }));
+            Thread.sleep(500);
+            mFactory.open();
+
+            for (Future<? extends ObaResponse> future : futures) {
+                assertOK(future.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(stops.length + 1, mFactory.getConnectionCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testSequentialRequestsAreNotShared() {
+        mFactory.open();
+        ObaArrivalInfoResponse first =
+                ObaArrivalInfoRequest.newRequest(getContext(), "1_29261").call();
+        ObaArrivalInfoResponse second =
+                ObaArrivalInfoRequest.newRequest(getContext(), "1_29261").call();
+        assertOK(first);
+        assertOK(second);
+        assertNotSame(first, second);
+        assertEquals(2, mFactory.getConnectionCount());
+    }
+
+    public void testRepeatedBursts() throws Exception {
+        mFactory.open();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (int round = 0; round < 20; ++round) {
+                ArrayList<Future<ObaArrivalInfoResponse>> futures =
+                        new ArrayList<Future<ObaArrivalInfoResponse>>();
+                for (int i = 0; i < THREADS; ++i) {
+                    futures.add(executor.submit(new Callable<ObaArrivalInfoResponse>() {
+                        @Override
+                        public ObaArrivalInfoResponse call() {
+                            return ObaArrivalInfoRequest.newRequest(getContext(), "1_75403")
+                                    .call();
+                        }
+                    }));
+                }
+                for (Future<ObaArrivalInfoResponse> future : futures) {
+                    assertOK(future.get(10, TimeUnit.SECONDS));
+                }
+            }
+            // Without a gate, overlap isn't guaranteed, but there must never be
+            // more fetches than calls.
+            assertTrue(mFactory.getConnectionCount() <= 20 * THREADS);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testCancelOneWaiter() throws Exception {
+        final ObaArrivalInfoRequest first = ObaArrivalInfoRequest.newRequest(getContext(),
+                "1_29261");
+        final ObaArrivalInfoRequest second = ObaArrivalInfoRequest.newRequest(getContext(),
+                "1_29261");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<ObaArrivalInfoResponse> firstResult = executor.submit(call(first));
+            Thread.sleep(250);
+            Future<ObaArrivalInfoResponse> secondResult = executor.submit(call(second));
+            Thread.sleep(250);
+
+            // The request that started the fetch leaves, but the other one is still waiting.
+            first.cancel();
+            assertEquals(0, mFactory.getDisconnectCount());
+            mFactory.open();
+
+            assertEquals(ObaApi.OBA_IO_EXCEPTION,
+                    firstResult.get(10, TimeUnit.SECONDS).getCode());
+            assertOK(secondResult.get(10, TimeUnit.SECONDS));
+            assertEquals(1, mFactory.getConnectionCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testCancelEveryWaiter() throws Exception {
+        final ObaArrivalInfoRequest first = ObaArrivalInfoRequest.newRequest(getContext(),
+                "1_29261");
+        final ObaArrivalInfoRequest second = ObaArrivalInfoRequest.newRequest(getContext(),
+                "1_29261");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<ObaArrivalInfoResponse> firstResult = executor.submit(call(first));
+            Future<ObaArrivalInfoResponse> secondResult = executor.submit(call(second));
+            Thread.sleep(500);
+
+            second.cancel();
+            assertEquals(0, mFactory.getDisconnectCount());
+            // The last one to leave disconnects, without waiting for the response.
+            first.cancel();
+            assertEquals(1, mFactory.getDisconnectCount());
+            mFactory.open();
+
+            assertEquals(ObaApi.OBA_IO_EXCEPTION,
+                    firstResult.get(10, TimeUnit.SECONDS).getCode());
+            assertEquals(ObaApi.OBA_IO_EXCEPTION,
+                    secondResult.get(10, TimeUnit.SECONDS).getCode());
+
+            // The abandoned fetch isn't shared with anyone who comes later.
+            assertOK(ObaArrivalInfoRequest.newRequest(getContext(), "1_29261").call());
+            assertEquals(2, mFactory.getConnectionCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Callable<ObaArrivalInfoResponse> call(final ObaArrivalInfoRequest request) {
+        return new Callable<ObaArrivalInfoResponse>() {
+            @Override
+            public ObaArrivalInfoResponse call() {
+                return request.call();
+            }
+        };
+    }
+
+    /**
+     * Counts connections, and holds every request until open() is called.
+     */
+    private static class GatedConnectionFactory implements ObaConnectionFactory {
+
+        private final ObaConnectionFactory mFactory;
+
+        private final CountDownLatch mGate = new CountDownLatch(1);
+
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        private final AtomicInteger mDisconnects = new AtomicInteger();
+
+        GatedConnectionFactory(ObaConnectionFactory factory) {
+            mFactory = factory;
+        }
+
+        void open() {
+            mGate.countDown();
+        }
+
+        int getConnectionCount() {
+            return mCount.get();
+        }
+
+        int getDisconnectCount() {
+            return mDisconnects.get();
+        }
+
+        @Override
+        public ObaConnection newConnection(Uri uri) throws IOException {
+            mCount.incrementAndGet();
+            final ObaConnection conn = mFactory.newConnection(uri);
+            return new ObaConnection() {
+                @Override
+                public void disconnect() {
+                    mDisconnects.incrementAndGet();
+                    conn.disconnect();
+                }
+
+                @Override
+                public Reader get() throws IOException {
+                    await();
+                    return conn.get();
+                }
+
+                @Override
+                public Reader post(String string) throws IOException {
+                    await();
+                    return conn.post(string);
+                }
+
+                @Override
+                public int getResponseCode() throws IOException {
+                    await();
+                    return conn.getResponseCode();
+                }
+
+                @Override
+                public void setRequestProperty(String field, String value) {
+                    conn.setRequestProperty(field, value);
+                }
+
+                @Override
+                public String getHeaderField(String name) {
+                    return conn.getHeaderField(name);
+                }
+            };
+        }
+
+        private void await() throws IOException {
+            try {
+                mGate.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e.toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.oba.request.test;
+
+import com.joulespersecond.oba.ObaApi;
+import com.joulespersecond.oba.ObaConnection;
+import com.joulespersecond.oba.ObaConnectionFactory;
+import com.joulespersecond.oba.request.ObaAgencyRequest;
+import com.joulespersecond.oba.request.ObaArrivalInfoRequest;
+import com.joulespersecond.oba.request.ObaArrivalInfoResponse;
+import com.joulespersecond.oba.request.ObaCurrentTimeRequest;
+import com.joulespersecond.oba.request.ObaCurrentTimeResponse;
+import com.joulespersecond.oba.request.ObaRouteRequest;
+import com.joulespersecond.oba.request.ObaRouteResponse;
+import com.joulespersecond.oba.request.ObaStopRequest;
+import com.joulespersecond.oba.request.ObaTripRequest;
+import com.joulespersecond.oba.request.RequestExecutor;
+import com.joulespersecond.oba.request.RequestFuture;
+
+import android.net.Uri;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests prioritization and cancellation of asynchronous requests.
+ */
+public class RequestExecutorTest extends ObaTestCase {
+
+    private static final long TIMEOUT = 10000;
+
+    private GatedConnectionFactory mFactory;
+
+    @Override
+    protected void setUp() {
+        super.setUp();
+        mFactory = new GatedConnectionFactory(ObaApi.getDefaultContext().getConnectionFactory());
+        ObaApi.getDefaultContext().setConnectionFactory(mFactory);
+    }
+
+    @Override
+    protected void tearDown() {
+        // Never leave the shared executor's threads blocked.
+        mFactory.release(1000);
+        super.tearDown();
+    }
+
+    public void testCallAsync() {
+        mFactory.release(1000);
+        final long completed = RequestExecutor.getInstance().getCompletedCount();
+        RequestFuture<ObaArrivalInfoResponse> future =
+                ObaArrivalInfoRequest.newRequest(getContext(), "1_29261")
+                        .callAsync(RequestExecutor.PRIORITY_NORMAL);
+        ObaArrivalInfoResponse response = future.getResponse();
+        assertOK(response);
+        assertEquals("1_29261", response.getStop().getId());
+        assertTrue(future.isDone());
+        assertTrue(RequestExecutor.getInstance().getCompletedCount() > completed);
+    }
+
+    public void testPriorityOrdering() throws Exception {
+        fillPool();
+
+        RequestFuture<ObaRouteResponse> background = ObaRouteRequest
+                .newRequest(getContext(), "1_10")
+                .callAsync(RequestExecutor.PRIORITY_BACKGROUND);
+        RequestFuture<ObaCurrentTimeResponse> foreground = ObaCurrentTimeRequest
+                .newRequest(getContext())
+                .callAsync(RequestExecutor.PRIORITY_FOREGROUND);
+        assertTrue(RequestExecutor.getInstance().getQueueDepth() >= 2);
+        assertTrue(RequestExecutor.getInstance().getMaxQueueDepth() >= 2);
+
+        // Free a single thread: it must pick up the foreground request,
+        // even though it was submitted last.
+        mFactory.release(1);
+        mFactory.waitForConnections(4);
+        assertEquals("/api/where/current-time.json", mFactory.getPaths().get(3));
+
+        mFactory.release(1000);
+        assertOK(foreground.getResponse());
+        assertOK(background.getResponse());
+    }
+
+    public void testRaisePriority() throws Exception {
+        fillPool();
+
+        RequestFuture<ObaRouteResponse> first = ObaRouteRequest
+                .newRequest(getContext(), "1_10")
+                .callAsync(RequestExecutor.PRIORITY_BACKGROUND);
+        RequestFuture<ObaCurrentTimeResponse> second = ObaCurrentTimeRequest
+                .newRequest(getContext())
+                .callAsync(RequestExecutor.PRIORITY_BACKGROUND);
+        assertTrue(RequestExecutor.getInstance()
+                .raisePriority(second, RequestExecutor.PRIORITY_FOREGROUND));
+        assertEquals(RequestExecutor.PRIORITY_FOREGROUND, second.getPriority());
+
+        // The raised request runs first, even though it was submitted last.
+        mFactory.release(1);
+        mFactory.waitForConnections(4);
+        assertEquals("/api/where/current-time.json", mFactory.getPaths().get(3));
+
+        mFactory.release(1000);
+        assertOK(second.getResponse());
+        assertOK(first.getResponse());
+        // Raising a request that has finished does nothing.
+        assertTrue(RequestExecutor.getInstance()
+                .raisePriority(first, RequestExecutor.PRIORITY_FOREGROUND));
+        assertEquals(RequestExecutor.PRIORITY_BACKGROUND, first.getPriority());
+    }
+
+    public void testCancelQueued() throws Exception {
+        fillPool();
+
+        RequestFuture<ObaRouteResponse> future = ObaRouteRequest
+                .newRequest(getContext(), "1_10")
+                .callAsync(RequestExecutor.PRIORITY_NORMAL);
+        assertTrue(future.cancel(true));
+        mFactory.release(1000);
+
+        ObaRouteResponse response = future.getResponse();
+        assertEquals(ObaApi.OBA_IO_EXCEPTION, response.getCode());
+        assertTrue(future.isCancelled());
+        // Wait for the pool to drain; the cancelled request never connects.
+        Thread.sleep(500);
+        assertEquals(3, mFactory.getPaths().size());
+    }
+
+    public void testCancelRunningDisconnects() throws Exception {
+        RequestFuture<ObaRouteResponse> future = ObaRouteRequest
+                .newRequest(getContext(), "1_10")
+                .callAsync(RequestExecutor.PRIORITY_FOREGROUND);
+        mFactory.waitForConnections(1);
+        Thread.sleep(100);
+
+        assertTrue(future.cancel(true));
+        // The connection is disconnected by cancel() itself,
+        // not when the request eventually finishes.
+        assertEquals(1, mFactory.getDisconnectCount());
+        assertEquals(ObaApi.OBA_IO_EXCEPTION, future.getResponse().getCode());
+    }
+
+    public void testCancelSharedRequest() throws Exception {
+        RequestFuture<ObaArrivalInfoResponse> first =
+                ObaArrivalInfoRequest.newRequest(getContext(), "1_29261")
+                        .callAsync(RequestExecutor.PRIORITY_FOREGROUND);
+        RequestFuture<ObaArrivalInfoResponse> second =
+                ObaArrivalInfoRequest.newRequest(getContext(), "1_29261")
+                        .callAsync(RequestExecutor.PRIORITY_FOREGROUND);
+        mFactory.waitForConnections(1);
+        // Give the second request time to join the first.
+        Thread.sleep(500);
+
+        assertTrue(first.cancel(true));
+        // Someone is still waiting on the response, so it isn't disconnected.
+        assertEquals(0, mFactory.getDisconnectCount());
+
+        mFactory.release(1000);
+        assertOK(second.getResponse());
+        assertEquals(1, mFactory.getPaths().size());
+    }
+
+    public void testQueueIsBounded() throws Exception {
+        fillPool();
+        final RequestExecutor executor = RequestExecutor.getInstance();
+        final long dropped = executor.getDroppedCount();
+
+        ArrayList<RequestFuture<ObaRouteResponse>> background =
+                new ArrayList<RequestFuture<ObaRouteResponse>>();
+        for (int i = 0; i < RequestExecutor.MAX_QUEUE_DEPTH; ++i) {
+            background.add(ObaRouteRequest.newRequest(getContext(), "1_10")
+                    .callAsync(RequestExecutor.PRIORITY_BACKGROUND));
+        }
+        assertEquals(RequestExecutor.MAX_QUEUE_DEPTH, executor.getQueueDepth());
+
+        // Nothing waiting is less important, so this one is turned away.
+        RequestFuture<ObaRouteResponse> rejected = ObaRouteRequest
+                .newRequest(getContext(), "1_10")
+                .callAsync(RequestExecutor.PRIORITY_BACKGROUND);
+        assertTrue(rejected.isCancelled());
+        assertEquals(ObaApi.OBA_IO_EXCEPTION, rejected.getResponse().getCode());
+
+        // This one takes the place of the newest background request.
+        RequestFuture<ObaCurrentTimeResponse> foreground = ObaCurrentTimeRequest
+                .newRequest(getContext())
+                .callAsync(RequestExecutor.PRIORITY_FOREGROUND);
+        assertFalse(foreground.isCancelled());
+        assertTrue(background.get(background.size() - 1).isCancelled());
+        assertFalse(background.get(0).isCancelled());
+        assertEquals(RequestExecutor.MAX_QUEUE_DEPTH, executor.getQueueDepth());
+        assertEquals(dropped + 2, executor.getDroppedCount());
+
+        mFactory.release(1000);
+        assertOK(foreground.getResponse());
+        assertOK(background.get(0).getResponse());
+    }
+
+    /**
+     * Occupies every thread of the executor with a blocked request.
+     */
+    private void fillPool() throws InterruptedException {
+        ObaStopRequest.newRequest(getContext(), "1_29261")
+                .callAsync(RequestExecutor.PRIORITY_BACKGROUND);
+        ObaTripRequest.newRequest(getContext(), "1_18196913")
+                .callAsync(RequestExecutor.PRIORITY_BACKGROUND);
+        ObaAgencyRequest.newRequest(getContext(), "1")
+                .callAsync(RequestExecutor.PRIORITY_BACKGROUND);
+        mFactory.waitForConnections(3);
+    }
+
+    /**
+     * Records connections, and blocks every request until a permit is released.
+     * Like a socket read, the wait isn't interruptible.
+     */
+    private static class GatedConnectionFactory implements ObaConnectionFactory {
+
+        private final ObaConnectionFactory mFactory;
+
+        private final Semaphore mGate = new Semaphore(0);
+
+        private final List<String> mPaths = Collections.synchronizedList(new ArrayList<String>());
+
+        private final AtomicInteger mDisconnects = new AtomicInteger();
+
+        GatedConnectionFactory(ObaConnectionFactory factory) {
+            mFactory = factory;
+        }
+
+        void release(int permits) {
+            mGate.release(permits);
+        }
+
+        List<String> getPaths() {
+            synchronized (mPaths) {
+                return new ArrayList<String>(mPaths);
+            }
+        }
+
+        int getDisconnectCount() {
+            return mDisconnects.get();
+        }
+
+        void waitForConnections(int count) throws InterruptedException {
+            final long end = System.currentTimeMillis() + TIMEOUT;
+            while (mPaths.size() < count) {
+                assertTrue("Timed out waiting for connections",
+                        System.currentTimeMillis() < end);
+                Thread.sleep(10);
+            }
+        }
+
+        @Override
+        public ObaConnection newConnection(Uri uri) throws IOException {
+            mPaths.add(uri.getPath());
+            final ObaConnection conn = mFactory.newConnection(uri);
+            return new ObaConnection() {
+                private boolean mPassed;
+
+                @Override
+                public void disconnect() {
+                    mDisconnects.incrementAndGet();
+                    conn.disconnect();
+                }
+
+                @Override
+                public Reader get() throws IOException {
+                    await();
+                    return conn.get();
+                }
+
+                @Override
+                public Reader post(String string) throws IOException {
+                    await();
+                    return conn.post(string);
+                }
+
+                @Override
+                public int getResponseCode() throws IOException {
+                    await();
+                    return conn.getResponseCode();
+                }
+
+                @Override
+                public void setRequestProperty(String field, String value) {
+                    conn.setRequestProperty(field, value);
+                }
+
+                @Override
+                public String getHeaderField(String name) {
+                    return conn.getHeaderField(name);
+                }
+
+                private synchronized void await() {
+                    // Each connection takes a single permit.
+                    if (!mPassed) {
+                        mGate.acquireUninterruptibly();
+                        mPassed = true;
+                    }
+                }
+            };
+        }
+    }
+}
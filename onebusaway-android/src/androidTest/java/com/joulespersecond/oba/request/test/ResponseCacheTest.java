@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.oba.request.test;
+
+import com.joulespersecond.oba.ObaApi;
+import com.joulespersecond.oba.ObaCachingConnectionFactory;
+import com.joulespersecond.oba.request.ObaArrivalInfoRequest;
+import com.joulespersecond.oba.request.ObaArrivalInfoResponse;
+import com.joulespersecond.oba.request.ObaRouteRequest;
+import com.joulespersecond.oba.request.ObaRouteResponse;
+import com.joulespersecond.oba.request.ObaStopRequest;
+import com.joulespersecond.oba.request.ObaStopResponse;
+
+import java.io.File;
+
+/**
+ * Tests the caching connection factory on top of the mock connection factory.
+ */
+public class ResponseCacheTest extends ObaTestCase {
+
+    private ObaCachingConnectionFactory mCache;
+
+    @Override
+    protected void setUp() {
+        super.setUp();
+        File dir = new File(getContext().getCacheDir(), "test-responses");
+        mCache = new ObaCachingConnectionFactory(
+                ObaApi.getDefaultContext().getConnectionFactory(), dir, 1024 * 1024);
+        mCache.clear();
+        ObaApi.getDefaultContext().setConnectionFactory(mCache);
+    }
+
+    @Override
+    protected void tearDown() {
+        mCache.clear();
+        super.tearDown();
+    }
+
+    public void testHitAndMiss() {
+        ObaRouteResponse response = ObaRouteRequest.newRequest(getContext(), "1_10").call();
+        assertOK(response);
+        assertEquals(1, mCache.getMissCount());
+        assertEquals(0, mCache.getHitCount());
+
+        response = ObaRouteRequest.newRequest(getContext(), "1_10").call();
+        assertOK(response);
+        assertEquals("1_10", response.getId());
+        assertEquals("10", response.getShortName());
+        assertEquals(1, mCache.getMissCount());
+        assertEquals(1, mCache.getHitCount());
+        assertEquals(0, mCache.getRevalidationCount());
+    }
+
+    public void testStopHitAndMiss() {
+        // The stop has a "code" of its own, before the response's code.
+        ObaStopResponse response = ObaStopRequest.newRequest(getContext(), "1_29261").call();
+        assertOK(response);
+        assertEquals(1, mCache.getMissCount());
+        assertEquals(0, mCache.getHitCount());
+
+        response = ObaStopRequest.newRequest(getContext(), "1_29261").call();
+        assertOK(response);
+        assertEquals("1_29261", response.getId());
+        assertEquals(1, mCache.getMissCount());
+        assertEquals(1, mCache.getHitCount());
+    }
+
+    public void testIgnoresVolatileParams() {
+        assertOK(ObaRouteRequest.newRequest(getContext(), "1_10").call());
+
+        final String oldKey = ObaApi.getDefaultContext().getApiKey();
+        ObaApi.getDefaultContext().setApiKey("some-other-key");
+        try {
+            assertOK(ObaRouteRequest.newRequest(getContext(), "1_10").call());
+        } finally {
+            ObaApi.getDefaultContext().setApiKey(oldKey);
+        }
+        assertEquals(1, mCache.getMissCount());
+        assertEquals(1, mCache.getHitCount());
+    }
+
+    public void testRevalidation() {
+        // Always revalidate, the mock returns 304 for a matching ETag
+        mCache.setTimeToLive("/where/route/", 0);
+
+        assertOK(ObaRouteRequest.newRequest(getContext(), "1_10").call());
+        ObaRouteResponse response = ObaRouteRequest.newRequest(getContext(), "1_10").call();
+        assertOK(response);
+        assertEquals("1_10", response.getId());
+        assertEquals(1, mCache.getMissCount());
+        assertEquals(0, mCache.getHitCount());
+        assertEquals(1, mCache.getRevalidationCount());
+    }
+
+    public void testUncachedEndpoint() {
+        ObaArrivalInfoResponse response =
+                ObaArrivalInfoRequest.newRequest(getContext(), "1_29261").call();
+        assertOK(response);
+        response = ObaArrivalInfoRequest.newRequest(getContext(), "1_29261").call();
+        assertOK(response);
+        assertEquals(0, mCache.getMissCount());
+        assertEquals(0, mCache.getHitCount());
+    }
+
+    public void testErrorsNotCached() {
+        // This returns an error code in the body of an HTTP 200 response
+        ObaStopResponse response = ObaStopRequest.newRequest(getContext(), "404test").call();
+        assertEquals(ObaApi.OBA_INTERNAL_ERROR, response.getCode());
+        response = ObaStopRequest.newRequest(getContext(), "404test").call();
+        assertEquals(ObaApi.OBA_INTERNAL_ERROR, response.getCode());
+        assertEquals(2, mCache.getMissCount());
+        assertEquals(0, mCache.getHitCount());
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.oba.request.test;
+
+import com.joulespersecond.oba.ObaApi;
+import com.joulespersecond.oba.elements.ObaDecodedShape;
+import com.joulespersecond.oba.elements.ObaShape;
+import com.joulespersecond.oba.elements.ObaShapeCache;
+import com.joulespersecond.oba.elements.ObaShapeElement;
+import com.joulespersecond.oba.mock.Resources;
+import com.joulespersecond.oba.request.ObaShapeResponse;
+import com.joulespersecond.oba.request.ObaStopsForRouteResponse;
+
+import android.os.Debug;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Compares decoding shapes into Location objects against decoding them
+ * into packed arrays, and against the decoded shape cache. Also measures
+ * the simplification of shapes for each zoom level.
+ *
+ * Results are written to the log under the "ShapeBenchmark" tag.
+ */
+public class ShapeBenchmarkTest extends ObaTestCase {
+
+    private static final String TAG = "ShapeBenchmark";
+
+    private static final int WARMUP = 3;
+
+    private static final int ITERATIONS = 50;
+
+    public void testShape() throws IOException {
+        ObaShapeResponse response = read("shape_1_40046045", ObaShapeResponse.class);
+        assertOK(response);
+        measure("shape_1_40046045", new ObaShape[]{response});
+    }
+
+    public void testStopsForRoute() throws IOException {
+        ObaStopsForRouteResponse response =
+                read("stops_for_route_1_44", ObaStopsForRouteResponse.class);
+        assertOK(response);
+        measure("stops_for_route_1_44", response.getShapes());
+    }
+
+    private void measure(String name, ObaShape[] shapes) {
+        int points = 0;
+        for (ObaShape shape : shapes) {
+            points += shape.getDecodedShape().size();
+        }
+        assertTrue(points > 0);
+
+        for (int i = 0; i < WARMUP; ++i) {
+            decodeLocations(shapes);
+            decodePacked(shapes);
+        }
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocSize();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i) {
+            decodeLocations(shapes);
+        }
+        final double locationMillis = (System.nanoTime() - start) / 1e6 / ITERATIONS;
+        final long locationBytes = Debug.getThreadAllocSize() / ITERATIONS;
+
+        Debug.resetThreadAllocSize();
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i) {
+            decodePacked(shapes);
+        }
+        final double packedMillis = (System.nanoTime() - start) / 1e6 / ITERATIONS;
+        final long packedBytes = Debug.getThreadAllocSize() / ITERATIONS;
+        Debug.stopAllocCounting();
+
+        // Repeated lookups of the same shapes, as when a route is shown again.
+        ObaShapeCache cache = new ObaShapeCache(points * 2);
+        for (int j = 0; j < shapes.length; ++j) {
+            cache.get(name + "#" + j, shapes[j]);
+        }
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i) {
+            for (int j = 0; j < shapes.length; ++j) {
+                cache.get(name + "#" + j, shapes[j]);
+            }
+        }
+        final double cachedMillis = (System.nanoTime() - start) / 1e6 / ITERATIONS;
+        assertEquals(ITERATIONS * shapes.length, cache.getHitCount());
+
+        Log.i(TAG, String.format("%s (%d points): Location %.3f ms/%d bytes, "
+                        + "packed %.3f ms/%d bytes, cached %.3f ms",
+                name, points, locationMillis, locationBytes,
+                packedMillis, packedBytes, cachedMillis));
+    }
+
+    public void testSimplification() throws IOException {
+        ObaShapeResponse shape = read("shape_1_40046045", ObaShapeResponse.class);
+        measureSimplification("shape_1_40046045", new ObaShape[]{shape});
+        ObaStopsForRouteResponse route =
+                read("stops_for_route_1_44", ObaStopsForRouteResponse.class);
+        measureSimplification("stops_for_route_1_44", route.getShapes());
+    }
+
+    private void measureSimplification(String name, ObaShape[] shapes) {
+        // Rank freshly decoded shapes, since the ranking is cached in each shape.
+        ObaDecodedShape[] decoded = new ObaDecodedShape[shapes.length];
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i) {
+            for (int j = 0; j < shapes.length; ++j) {
+                decoded[j] = ObaDecodedShape.decode(shapes[j].getRawPoints(),
+                        shapes[j].getRawLevels(), shapes[j].getLength());
+                decoded[j].prepare();
+            }
+        }
+        final double rankMillis = (System.nanoTime() - start) / 1e6 / ITERATIONS;
+
+        StringBuilder counts = new StringBuilder();
+        for (int zoom = 10; zoom <= 18; ++zoom) {
+            int count = 0;
+            start = System.nanoTime();
+            for (ObaDecodedShape shape : decoded) {
+                count += shape.getIndicesForZoom(zoom).length;
+            }
+            final double micros = (System.nanoTime() - start) / 1e3;
+            counts.append(String.format(" z%d=%d (%.0f us)", zoom, count, micros));
+        }
+        int total = 0;
+        for (ObaDecodedShape shape : decoded) {
+            total += shape.size();
+        }
+        Log.i(TAG, String.format("%s (%d points): decode+rank %.3f ms; vertices:%s",
+                name, total, rankMillis, counts));
+    }
+
+    private static void decodeLocations(ObaShape[] shapes) {
+        for (ObaShape shape : shapes) {
+            ObaShapeElement.decodeLine(shape.getRawPoints(), shape.getLength());
+            ObaShapeElement.decodeLevels(shape.getRawLevels(), shape.getLength());
+        }
+    }
+
+    private static void decodePacked(ObaShape[] shapes) {
+        for (ObaShape shape : shapes) {
+            ObaShapeElement.decodeLineE5(shape.getRawPoints(), shape.getLength());
+            ObaShapeElement.decodeLevelsArray(shape.getRawLevels(), shape.getLength());
+        }
+    }
+
+    private <T> T read(String name, Class<T> cls) throws IOException {
+        Reader reader = Resources.read(getContext(), Resources.getTestUri(name));
+        return ObaApi.getSerializer(cls).deserialize(reader, cls);
+    }
+}
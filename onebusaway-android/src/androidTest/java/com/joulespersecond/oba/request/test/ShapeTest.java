@@ -15,11 +15,21 @@
  */
 package com.joulespersecond.oba.request.test;
 
+import com.joulespersecond.oba.ObaApi;
+import com.joulespersecond.oba.elements.ObaDecodedShape;
+import com.joulespersecond.oba.elements.ObaShape;
+import com.joulespersecond.oba.elements.ObaShapeCache;
 import com.joulespersecond.oba.elements.ObaShapeElement;
+import com.joulespersecond.oba.mock.Resources;
+import com.joulespersecond.oba.request.ObaShapeResponse;
+import com.joulespersecond.oba.request.ObaStopsForRouteResponse;
 
 import android.location.Location;
 import android.test.AndroidTestCase;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
 import java.util.List;
 
 public class ShapeTest extends AndroidTestCase {
@@ -66,4 +76,201 @@ public class ShapeTest extends AndroidTestCase {
         assertEquals(3, (int) list.get(2));
         assertEquals(3, (int) list.get(3));
     }
+
+    public void testDecodeArrays() {
+        int[] coords = ObaShapeElement.decodeLineE5("_p~iF~ps|U_ulLnnqC_mqNvxq`@", 3);
+        assertTrue(Arrays.equals(new int[]{
+                3850000, -12020000,
+                4070000, -12095000,
+                4325200, -12645300}, coords));
+        // The size is only a hint
+        assertEquals(6, ObaShapeElement.decodeLineE5("_p~iF~ps|U_ulLnnqC_mqNvxq`@", 0).length);
+        assertEquals(6, ObaShapeElement.decodeLineE5("_p~iF~ps|U_ulLnnqC_mqNvxq`@", 10).length);
+        assertEquals(0, ObaShapeElement.decodeLineE5("", 0).length);
+
+        assertTrue(Arrays.equals(new int[]{3, 3, 3, 3},
+                ObaShapeElement.decodeLevelsArray("BBBB", 1)));
+    }
+
+    public void testDecodedShape() throws IOException {
+        ObaShapeResponse response = read("shape_1_40046045", ObaShapeResponse.class);
+        ObaDecodedShape decoded = response.getDecodedShape();
+        // Decoded once
+        assertSame(decoded, response.getDecodedShape());
+
+        List<Location> points = ObaShapeElement.decodeLine(response.getRawPoints(),
+                response.getLength());
+        assertEquals(points.size(), decoded.size());
+        for (int i = 0; i < points.size(); ++i) {
+            assertEquals(points.get(i).getLatitude(), decoded.getLatitude(i));
+            assertEquals(points.get(i).getLongitude(), decoded.getLongitude(i));
+            assertEquals((int) Math.round(points.get(i).getLatitude() * 1E6),
+                    decoded.getLatitudeE6(i));
+        }
+        assertEquals(points.size(), response.getPoints().size());
+        assertEquals(ObaShapeElement.decodeLevels(response.getRawLevels(), response.getLength()),
+                response.getLevels());
+    }
+
+    public void testShapeCache() throws IOException {
+        ObaStopsForRouteResponse response =
+                read("stops_for_route_1_44", ObaStopsForRouteResponse.class);
+        ObaShape[] shapes = response.getShapes();
+        assertTrue(shapes.length > 2);
+        final int size0 = shapes[0].getDecodedShape().size();
+        final int size1 = shapes[1].getDecodedShape().size();
+
+        // Room for the first two shapes only
+        ObaShapeCache cache = new ObaShapeCache(size0 + size1);
+        ObaDecodedShape decoded = cache.get("1_44#0", shapes[0]);
+        assertEquals(1, cache.getMissCount());
+        assertSame(decoded, cache.get("1_44#0", shapes[0]));
+        assertEquals(1, cache.getHitCount());
+
+        // A new response with the same shape is served from the cache.
+        ObaStopsForRouteResponse response2 =
+                read("stops_for_route_1_44", ObaStopsForRouteResponse.class);
+        assertSame(decoded, cache.get("1_44#0", response2.getShapes()[0]));
+        assertEquals(2, cache.getHitCount());
+
+        // A different shape for the same ID replaces the old one.
+        ObaDecodedShape other = cache.get("1_44#0", shapes[1]);
+        assertNotSame(decoded, other);
+        assertEquals(size1, cache.getPointCount());
+
+        cache.get("1_44#1", shapes[1]);
+        cache.get("1_44#0", shapes[0]);
+        assertEquals(size0 + size1, cache.getPointCount());
+        // Adding a third shape evicts the least recently used one, 1_44#1.
+        cache.get("1_44#2", shapes[2]);
+        assertEquals(size0 + shapes[2].getDecodedShape().size(), cache.getPointCount());
+        final int misses = cache.getMissCount();
+        cache.get("1_44#1", shapes[1]);
+        assertEquals(misses + 1, cache.getMissCount());
+
+        cache.clear();
+        assertEquals(0, cache.getPointCount());
+    }
+
+    public void testShapeCacheCollision() {
+        // "Aa" and "BB" have the same hash code, so these do too.
+        final ObaShape first = new TestShape("AaAa??");
+        final ObaShape second = new TestShape("BBBB??");
+        assertEquals(first.getRawPoints().hashCode(), second.getRawPoints().hashCode());
+        assertEquals(first.getRawPoints().length(), second.getRawPoints().length());
+        assertEquals(2, first.getDecodedShape().size());
+        assertEquals(3, second.getDecodedShape().size());
+
+        ObaShapeCache cache = new ObaShapeCache(1000);
+        assertSame(first.getDecodedShape(), cache.get("1_44#0", first));
+        // The same route with a different shape is decoded again.
+        assertSame(second.getDecodedShape(), cache.get("1_44#0", second));
+        assertEquals(2, cache.getMissCount());
+        assertEquals(0, cache.getHitCount());
+    }
+
+    public void testSimplifyByDistance() throws IOException {
+        ObaShapeResponse response = read("shape_1_40046045", ObaShapeResponse.class);
+        ObaDecodedShape shape = response.getDecodedShape();
+        assertFalse(shape.hasLevels());
+        final int size = shape.size();
+
+        int previous = 0;
+        for (int zoom = 0; zoom <= ObaDecodedShape.MAX_ZOOM; ++zoom) {
+            final int[] indices = shape.getIndicesForZoom(zoom);
+            assertEquals(indices.length, shape.getVertexCount(zoom));
+            assertTrue(indices.length >= previous);
+            previous = indices.length;
+            // The end points are always drawn
+            assertEquals(0, indices[0]);
+            assertEquals(size - 1, indices[indices.length - 1]);
+
+            // Every point that is left out is within a pixel of the simplified line
+            final double pixel = 360.0 / 256 * 1E5 / Math.pow(2, zoom);
+            for (int k = 1; k < indices.length; ++k) {
+                assertTrue(indices[k] > indices[k - 1]);
+                for (int i = indices[k - 1] + 1; i < indices[k]; ++i) {
+                    assertTrue(distanceE5(shape, i, indices[k - 1], indices[k]) <= pixel + 1E-6);
+                }
+            }
+        }
+        assertTrue(shape.getVertexCount(10) < size);
+        assertEquals(size, shape.getVertexCount(ObaDecodedShape.MAX_ZOOM));
+    }
+
+    public void testSimplifyByLevels() {
+        ObaDecodedShape shape =
+                ObaDecodedShape.decode("_p~iF~ps|U_ulLnnqC_mqNvxq`@", "BBB", 3);
+        assertTrue(shape.hasLevels());
+        // A level of 3 is shown from zoom 14
+        assertTrue(Arrays.equals(new int[]{0, 2}, shape.getIndicesForZoom(13)));
+        assertTrue(Arrays.equals(new int[]{0, 1, 2}, shape.getIndicesForZoom(14)));
+    }
+
+    private static double distanceE5(ObaDecodedShape shape, int i, int first, int last) {
+        final double x = shape.getLongitude(i) * 1E5;
+        final double y = shape.getLatitude(i) * 1E5;
+        final double x1 = shape.getLongitude(first) * 1E5;
+        final double y1 = shape.getLatitude(first) * 1E5;
+        final double dx = shape.getLongitude(last) * 1E5 - x1;
+        final double dy = shape.getLatitude(last) * 1E5 - y1;
+        final double lengthSquared = dx * dx + dy * dy;
+        double t = 0;
+        if (lengthSquared > 0) {
+            t = Math.max(0, Math.min(1, ((x - x1) * dx + (y - y1) * dy) / lengthSquared));
+        }
+        return Math.hypot(x1 + t * dx - x, y1 + t * dy - y);
+    }
+
+    private <T> T read(String name, Class<T> cls) throws IOException {
+        Reader reader = Resources.read(getContext(), Resources.getTestUri(name));
+        T result = ObaApi.getSerializer(cls).deserialize(reader, cls);
+        assertNotNull(result);
+        return result;
+    }
+
+    /**
+     * A shape with only encoded points.
+     */
+    private static class TestShape implements ObaShape {
+
+        private final String mPoints;
+
+        private final ObaDecodedShape mDecoded;
+
+        TestShape(String points) {
+            mPoints = points;
+            mDecoded = ObaDecodedShape.decode(points, null, 0);
+        }
+
+        @Override
+        public int getLength() {
+            return mDecoded.size();
+        }
+
+        @Override
+        public String getRawLevels() {
+            return "";
+        }
+
+        @Override
+        public List<Integer> getLevels() {
+            return mDecoded.toLevelList();
+        }
+
+        @Override
+        public List<Location> getPoints() {
+            return mDecoded.toLocations();
+        }
+
+        @Override
+        public String getRawPoints() {
+            return mPoints;
+        }
+
+        @Override
+        public ObaDecodedShape getDecodedShape() {
+            return mDecoded;
+        }
+    }
 }
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.oba.request.test;
+
+import com.joulespersecond.oba.ObaSnapshotStore;
+import com.joulespersecond.oba.elements.ObaArrivalInfo;
+import com.joulespersecond.oba.mock.Resources;
+import com.joulespersecond.oba.request.ObaArrivalInfoResponse;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+
+/**
+ * Tests storing the last good arrivals for a stop, and reading them back
+ * the way a stop screen does when it's opened.
+ */
+public class SnapshotStoreTest extends ObaTestCase {
+
+    private static final String TAG = "SnapshotStoreTest";
+
+    private static final String FIXTURE = "arrivals_and_departures_for_stop_1_29261";
+
+    private File mDir;
+
+    private ObaSnapshotStore mStore;
+
+    @Override
+    protected void setUp() {
+        super.setUp();
+        mDir = new File(getContext().getCacheDir(), "test-snapshots");
+        mStore = new ObaSnapshotStore(mDir, 1024 * 1024);
+        mStore.clear();
+    }
+
+    @Override
+    protected void tearDown() {
+        mStore.clear();
+        super.tearDown();
+    }
+
+    public void testRoundTrip() {
+        ObaArrivalInfoResponse response = read();
+        mStore.put("arrivals/1_29261", response);
+        // Not written yet, but already readable.
+        assertSame(response,
+                mStore.get("arrivals/1_29261", ObaArrivalInfoResponse.class));
+        mStore.flush();
+        assertTrue(mStore.size() > 0);
+
+        // As if the process had died and the stop was opened again.
+        ObaSnapshotStore store = new ObaSnapshotStore(mDir, 1024 * 1024);
+        final long start = SystemClock.elapsedRealtime();
+        ObaArrivalInfoResponse snapshot =
+                store.get("arrivals/1_29261", ObaArrivalInfoResponse.class);
+        final long elapsed = SystemClock.elapsedRealtime() - start;
+        Log.i(TAG, "Read the snapshot in " + elapsed + " ms");
+
+        assertOK(snapshot);
+        assertEquals(response.getCurrentTime(), snapshot.getCurrentTime());
+        assertEquals("1_29261", snapshot.getStop().getId());
+        assertEquals(response.getNearbyStops().size(), snapshot.getNearbyStops().size());
+        final ObaArrivalInfo[] expected = response.getArrivalInfo();
+        final ObaArrivalInfo[] actual = snapshot.getArrivalInfo();
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; ++i) {
+            assertEquals(expected[i].getTripId(), actual[i].getTripId());
+            assertEquals(expected[i].getShortName(), actual[i].getShortName());
+            assertEquals(expected[i].getHeadsign(), actual[i].getHeadsign());
+            assertEquals(expected[i].getPredicted(), actual[i].getPredicted());
+            assertEquals(expected[i].getPredictedArrivalTime(),
+                    actual[i].getPredictedArrivalTime());
+            assertEquals(expected[i].getScheduledArrivalTime(),
+                    actual[i].getScheduledArrivalTime());
+            assertEquals(expected[i].getLastUpdateTime(), actual[i].getLastUpdateTime());
+            assertEquals(expected[i].getStopSequence(), actual[i].getStopSequence());
+            assertNotNull(snapshot.getRoute(actual[i].getRouteId()));
+        }
+
+        assertNull(store.get("arrivals/1_10020", ObaArrivalInfoResponse.class));
+    }
+
+    public void testStale() {
+        ObaArrivalInfoResponse response = read();
+        mStore.put("arrivals/1_29261", response);
+        mStore.flush();
+        final long age = System.currentTimeMillis() - response.getCurrentTime();
+        assertTrue(age > 35 * 60 * 1000L);
+
+        ObaSnapshotStore store = new ObaSnapshotStore(mDir, 1024 * 1024);
+        // All the arrivals in the next 35 minutes have long gone.
+        assertNull(store.get("arrivals/1_29261", ObaArrivalInfoResponse.class,
+                35 * 60 * 1000L));
+        assertNull(mStore.get("arrivals/1_29261", ObaArrivalInfoResponse.class,
+                35 * 60 * 1000L));
+        // With enough minutes after it, some of them would still be to come.
+        assertOK(store.get("arrivals/1_29261", ObaArrivalInfoResponse.class,
+                age + 60 * 60 * 1000L));
+    }
+
+    public void testEviction() {
+        ObaArrivalInfoResponse response = read();
+        mStore.put("arrivals/a", response);
+        mStore.flush();
+        final long size = mStore.size();
+        assertTrue(size > 0);
+
+        // Room for two snapshots.
+        ObaSnapshotStore store = new ObaSnapshotStore(mDir, size * 5 / 2);
+        store.put("arrivals/b", response);
+        store.flush();
+        // Opening a stop makes it the most recently used.
+        assertNotNull(store.get("arrivals/a", ObaArrivalInfoResponse.class));
+        store.put("arrivals/c", response);
+        store.flush();
+
+        assertTrue(store.size() <= size * 5 / 2);
+        assertNotNull(store.get("arrivals/a", ObaArrivalInfoResponse.class));
+        assertNull(store.get("arrivals/b", ObaArrivalInfoResponse.class));
+        assertNotNull(store.get("arrivals/c", ObaArrivalInfoResponse.class));
+    }
+
+    private ObaArrivalInfoResponse read() {
+        return Resources.readAs(getContext(), Resources.getTestUri(FIXTURE),
+                ObaArrivalInfoResponse.class);
+    }
+}
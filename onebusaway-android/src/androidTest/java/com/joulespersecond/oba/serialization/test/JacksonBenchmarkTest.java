@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.oba.serialization.test;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.introspect.VisibilityChecker;
+import com.fasterxml.jackson.databind.node.TreeTraversingParser;
+import com.joulespersecond.oba.ObaApi;
+import com.joulespersecond.oba.mock.Resources;
+import com.joulespersecond.oba.request.ObaArrivalInfoResponse;
+import com.joulespersecond.oba.request.ObaResponse;
+import com.joulespersecond.oba.request.ObaScheduleForStopResponse;
+import com.joulespersecond.oba.request.ObaStopsForLocationResponse;
+import com.joulespersecond.oba.request.ObaStopsForRouteResponse;
+import com.joulespersecond.oba.request.ObaTripsForLocationResponse;
+import com.joulespersecond.oba.request.test.ObaTestCase;
+
+import android.os.Debug;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+/**
+ * Compares the streaming deserialization path in JacksonSerializer against
+ * the previous approach of building a JsonNode tree and then binding from it.
+ *
+ * Results are written to the log under the "JacksonBenchmark" tag.
+ */
+public class JacksonBenchmarkTest extends ObaTestCase {
+
+    private static final String TAG = "JacksonBenchmark";
+
+    private static final int WARMUP = 3;
+
+    private static final int ITERATIONS = 20;
+
+    private static final Object[][] FIXTURES = {
+            {"stops_for_location_downtown_seattle", ObaStopsForLocationResponse.class},
+            {"trips_for_location_test1", ObaTripsForLocationResponse.class},
+            {"schedule_for_stop_1_75403", ObaScheduleForStopResponse.class},
+            {"stops_for_route_1_44", ObaStopsForRouteResponse.class},
+            {"arrivals_and_departures_for_stop_1_29261", ObaArrivalInfoResponse.class},
+    };
+
+    // Configured the same way as the mapper in JacksonSerializer, but
+    // without the hand-written deserializers, so it serves as the baseline
+    // for both the tree vs. streaming and reflective vs. hand-written comparisons.
+    private static final ObjectMapper mTreeMapper = new ObjectMapper();
+
+    static {
+        mTreeMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        mTreeMapper.setVisibilityChecker(
+                VisibilityChecker.Std.defaultInstance()
+                        .withFieldVisibility(JsonAutoDetect.Visibility.ANY));
+    }
+
+    public void testStreamingVsTree() throws Exception {
+        for (Object[] fixture : FIXTURES) {
+            final String name = (String) fixture[0];
+            @SuppressWarnings("unchecked")
+            final Class<? extends ObaResponse> cls = (Class<? extends ObaResponse>) fixture[1];
+            final String json = readFixture(name);
+
+            // Both paths must produce an equivalent response.
+            ObaResponse streamed = deserializeStreaming(json, cls);
+            ObaResponse tree = deserializeTree(json, cls);
+            assertOK(streamed);
+            assertOK(tree);
+            assertEquals(tree.getCurrentTime(), streamed.getCurrentTime());
+
+            for (int i = 0; i < WARMUP; ++i) {
+                deserializeTree(json, cls);
+                deserializeStreaming(json, cls);
+            }
+
+            Result treeResult = measure(json, cls, false);
+            Result streamResult = measure(json, cls, true);
+
+            Log.i(TAG, String.format("%s (%d chars): tree %.2f ms/%d bytes, "
+                            + "streaming %.2f ms/%d bytes",
+                    name, json.length(),
+                    treeResult.millis, treeResult.bytes,
+                    streamResult.millis, streamResult.bytes));
+        }
+    }
+
+    public void testHandWrittenVsReflective() throws Exception {
+        final Object[][] fixtures = {
+                {"arrivals_and_departures_for_stop_1_29261", ObaArrivalInfoResponse.class},
+                {"stops_for_location_downtown_seattle", ObaStopsForLocationResponse.class},
+        };
+        for (Object[] fixture : fixtures) {
+            final String name = (String) fixture[0];
+            @SuppressWarnings("unchecked")
+            final Class<? extends ObaResponse> cls = (Class<? extends ObaResponse>) fixture[1];
+            final String json = readFixture(name);
+
+            for (int i = 0; i < WARMUP; ++i) {
+                mTreeMapper.readValue(json, cls);
+                deserializeStreaming(json, cls);
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; ++i) {
+                mTreeMapper.readValue(new StringReader(json), cls);
+            }
+            final double reflective = (System.nanoTime() - start) / 1e6 / ITERATIONS;
+
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; ++i) {
+                deserializeStreaming(json, cls);
+            }
+            final double handWritten = (System.nanoTime() - start) / 1e6 / ITERATIONS;
+
+            Log.i(TAG, String.format("%s: reflective %.2f ms, hand-written %.2f ms",
+                    name, reflective, handWritten));
+        }
+    }
+
+    public void testStreamingErrors() {
+        ObaApi.SerializationHandler serializer =
+                ObaApi.getSerializer(ObaStopsForLocationResponse.class);
+
+        ObaStopsForLocationResponse response = serializer.deserialize(
+                new StringReader(""), ObaStopsForLocationResponse.class);
+        assertNotNull(response);
+        assertEquals(ObaApi.OBA_INTERNAL_ERROR, response.getCode());
+
+        response = serializer.deserialize(
+                new StringReader("<response><code>200</code></response>"),
+                ObaStopsForLocationResponse.class);
+        assertNotNull(response);
+        assertEquals(ObaApi.OBA_INTERNAL_ERROR, response.getCode());
+    }
+
+    private static final class Result {
+
+        double millis;
+
+        long bytes;
+    }
+
+    private Result measure(String json, Class<? extends ObaResponse> cls, boolean streaming)
+            throws IOException {
+        Result result = new Result();
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocSize();
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i) {
+            if (streaming) {
+                deserializeStreaming(json, cls);
+            } else {
+                deserializeTree(json, cls);
+            }
+        }
+        final long end = System.nanoTime();
+        result.bytes = Debug.getThreadAllocSize() / ITERATIONS;
+        Debug.stopAllocCounting();
+        result.millis = (end - start) / 1e6 / ITERATIONS;
+        return result;
+    }
+
+    private static <T> T deserializeStreaming(String json, Class<T> cls) {
+        return ObaApi.getSerializer(cls).deserialize(new StringReader(json), cls);
+    }
+
+    private static <T> T deserializeTree(String json, Class<T> cls) throws IOException {
+        TreeTraversingParser parser =
+                new TreeTraversingParser(mTreeMapper.readTree(new StringReader(json)));
+        parser.setCodec(mTreeMapper);
+        return parser.readValueAs(cls);
+    }
+
+    private String readFixture(String name) throws IOException {
+        Reader reader = Resources.read(getContext(), Resources.getTestUri(name));
+        StringWriter writer = new StringWriter();
+        char[] buffer = new char[8 * 1024];
+        int n;
+        while ((n = reader.read(buffer)) != -1) {
+            writer.write(buffer, 0, n);
+        }
+        reader.close();
+        return writer.toString();
+    }
+}
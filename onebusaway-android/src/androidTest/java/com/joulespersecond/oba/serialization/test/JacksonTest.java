@@ -15,9 +15,16 @@
  */
 package com.joulespersecond.oba.serialization.test;
 
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.introspect.VisibilityChecker;
 import com.joulespersecond.oba.ObaApi;
+import com.joulespersecond.oba.elements.ObaArrivalInfo;
+import com.joulespersecond.oba.elements.ObaStop;
 import com.joulespersecond.oba.mock.Resources;
+import com.joulespersecond.oba.request.ObaArrivalInfoResponse;
 import com.joulespersecond.oba.request.ObaResponse;
 import com.joulespersecond.oba.request.ObaStopsForLocationResponse;
 import com.joulespersecond.oba.request.test.ObaTestCase;
@@ -26,6 +33,7 @@ import com.joulespersecond.oba.serialization.JacksonSerializer;
 import android.util.Log;
 
 import java.io.Reader;
+import java.util.Arrays;
 
 public class JacksonTest extends ObaTestCase {
 
@@ -71,6 +79,94 @@ public class JacksonTest extends ObaTestCase {
         assertNotNull(response);
     }
 
+    public void testArrivalInfoDeserializer() throws Exception {
+        final String[] fixtures = {
+                "arrivals_and_departures_for_stop_1_29261",
+                "arrivals_and_departures_for_stop_1_10020",
+                "arrivals_and_departures_for_stop_1_75403",
+                "arrivals_and_departures_for_stop_hart_3105"
+        };
+        for (String name : fixtures) {
+            ObaArrivalInfoResponse fast = ObaApi.getSerializer(ObaArrivalInfoResponse.class)
+                    .deserialize(Resources.read(getContext(), Resources.getTestUri(name)),
+                            ObaArrivalInfoResponse.class);
+            ObaArrivalInfoResponse reflective = newReflectiveMapper().readValue(
+                    Resources.read(getContext(), Resources.getTestUri(name)),
+                    ObaArrivalInfoResponse.class);
+            assertOK(fast);
+            ObaArrivalInfo[] expected = reflective.getArrivalInfo();
+            ObaArrivalInfo[] actual = fast.getArrivalInfo();
+            assertEquals(expected.length, actual.length);
+            for (int i = 0; i < expected.length; ++i) {
+                assertArrivalEquals(expected[i], actual[i]);
+            }
+        }
+    }
+
+    public void testStopDeserializer() throws Exception {
+        final String name = "stops_for_location_downtown_seattle";
+        ObaStopsForLocationResponse fast = ObaApi.getSerializer(ObaStopsForLocationResponse.class)
+                .deserialize(Resources.read(getContext(), Resources.getTestUri(name)),
+                        ObaStopsForLocationResponse.class);
+        ObaStopsForLocationResponse reflective = newReflectiveMapper().readValue(
+                Resources.read(getContext(), Resources.getTestUri(name)),
+                ObaStopsForLocationResponse.class);
+        assertOK(fast);
+        ObaStop[] expected = reflective.getStops();
+        ObaStop[] actual = fast.getStops();
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; ++i) {
+            assertEquals(expected[i].getId(), actual[i].getId());
+            assertEquals(expected[i].getName(), actual[i].getName());
+            assertEquals(expected[i].getStopCode(), actual[i].getStopCode());
+            assertEquals(expected[i].getDirection(), actual[i].getDirection());
+            assertEquals(expected[i].getLatitude(), actual[i].getLatitude());
+            assertEquals(expected[i].getLongitude(), actual[i].getLongitude());
+            assertEquals(expected[i].getLocationType(), actual[i].getLocationType());
+            assertTrue(Arrays.equals(expected[i].getRouteIds(), actual[i].getRouteIds()));
+        }
+    }
+
+    /**
+     * @return A mapper configured like JacksonSerializer's, but without
+     * the hand-written streaming deserializers.
+     */
+    private static ObjectMapper newReflectiveMapper() {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        mapper.setVisibilityChecker(
+                VisibilityChecker.Std.defaultInstance()
+                        .withFieldVisibility(JsonAutoDetect.Visibility.ANY));
+        return mapper;
+    }
+
+    private static void assertArrivalEquals(ObaArrivalInfo expected, ObaArrivalInfo actual) {
+        assertEquals(expected.getRouteId(), actual.getRouteId());
+        assertEquals(expected.getShortName(), actual.getShortName());
+        assertEquals(expected.getRouteLongName(), actual.getRouteLongName());
+        assertEquals(expected.getTripId(), actual.getTripId());
+        assertEquals(expected.getHeadsign(), actual.getHeadsign());
+        assertEquals(expected.getStopId(), actual.getStopId());
+        assertEquals(expected.getPredictedArrivalTime(), actual.getPredictedArrivalTime());
+        assertEquals(expected.getScheduledArrivalTime(), actual.getScheduledArrivalTime());
+        assertEquals(expected.getPredictedDepartureTime(), actual.getPredictedDepartureTime());
+        assertEquals(expected.getScheduledDepartureTime(), actual.getScheduledDepartureTime());
+        assertEquals(expected.getStatus(), actual.getStatus());
+        assertEquals(expected.getFrequency() == null, actual.getFrequency() == null);
+        assertEquals(expected.getVehicleId(), actual.getVehicleId());
+        assertEquals(expected.getDistanceFromStop(), actual.getDistanceFromStop());
+        assertEquals(expected.getNumberOfStopsAway(), actual.getNumberOfStopsAway());
+        assertEquals(expected.getServiceDate(), actual.getServiceDate());
+        assertEquals(expected.getLastUpdateTime(), actual.getLastUpdateTime());
+        assertEquals(expected.getPredicted(), actual.getPredicted());
+        assertEquals(expected.getTripStatus() == null, actual.getTripStatus() == null);
+        assertTrue(Arrays.equals(expected.getSituationIds(), actual.getSituationIds()));
+        assertEquals(expected.getArrivalEnabled(), actual.getArrivalEnabled());
+        assertEquals(expected.getDepartureEnabled(), actual.getDepartureEnabled());
+        assertEquals(expected.getStopSequence(), actual.getStopSequence());
+        assertEquals(expected.getBlockTripSequence(), actual.getBlockTripSequence());
+    }
+
     @JsonPropertyOrder(value = {"code", "version", "text"})
     public class MockResponse {
 
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.seattlebusbot;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.joulespersecond.oba.elements.ObaArrivalInfo;
+import com.joulespersecond.oba.mock.Resources;
+import com.joulespersecond.oba.request.ObaArrivalInfoResponse;
+
+import java.util.ArrayList;
+
+/**
+ * Tests the order of converted arrivals, and compares converting them
+ * again on every refresh against converting only what changed.
+ * It's in the same package as ArrivalInfo, which is package-private.
+ *
+ * Results are written to the log under the "ArrivalInfoBenchmark" tag.
+ */
+public class ArrivalInfoTest extends AndroidTestCase {
+
+    private static final String TAG = "ArrivalInfoBenchmark";
+
+    private static final long ONE_MINUTE = 60 * 1000;
+
+    private static final int ITERATIONS = 2000;
+
+    // The fixture with the most arrivals.
+    private static final String FIXTURE = "arrivals_and_departures_for_stop_1_10020";
+
+    public void testOrder() {
+        final long now = 1000000 * ONE_MINUTE;
+        ObaArrivalInfo[] arrivals = new ObaArrivalInfo[]{
+                newArrival("late", now + 10 * ONE_MINUTE + 50 * 1000),
+                newArrival("early", now + 10 * ONE_MINUTE + 10 * 1000),
+                newArrival("departed", now - 5 * ONE_MINUTE),
+                newArrival("far", now + 60 * 24 * ONE_MINUTE),
+                newArrival("now", now),
+        };
+        ArrayList<ArrivalInfo> list =
+                new ArrivalInfo.Converter(getContext()).convert(arrivals, null, now);
+        assertEquals(arrivals.length, list.size());
+        assertEquals("departed", list.get(0).getInfo().getTripId());
+        assertEquals("now", list.get(1).getInfo().getTripId());
+        // Both arrive in ten minutes; the earlier one comes first.
+        assertEquals("early", list.get(2).getInfo().getTripId());
+        assertEquals("late", list.get(3).getInfo().getTripId());
+        assertEquals(list.get(2).getEta(), list.get(3).getEta());
+        assertEquals("far", list.get(4).getInfo().getTripId());
+    }
+
+    public void testFixtureOrder() {
+        ObaArrivalInfoResponse response = read();
+        ArrayList<ArrivalInfo> list = new ArrivalInfo.Converter(getContext())
+                .convert(response.getArrivalInfo(), null, response.getCurrentTime());
+        assertEquals(response.getArrivalInfo().length, list.size());
+        for (int i = 1; i < list.size(); ++i) {
+            final ArrivalInfo prev = list.get(i - 1);
+            final ArrivalInfo info = list.get(i);
+            assertTrue(prev.getEta() <= info.getEta());
+            if (prev.getEta() == info.getEta()) {
+                assertTrue(prev.getDisplayTime() <= info.getDisplayTime());
+            }
+        }
+    }
+
+    public void testFilter() {
+        ObaArrivalInfoResponse response = read();
+        final ObaArrivalInfo[] arrivals = response.getArrivalInfo();
+        final String routeId = arrivals[0].getRouteId();
+        ArrayList<String> filter = new ArrayList<String>();
+        filter.add(routeId);
+        int expected = 0;
+        for (ObaArrivalInfo info : arrivals) {
+            if (routeId.equals(info.getRouteId())) {
+                expected++;
+            }
+        }
+        ArrayList<ArrivalInfo> list = new ArrivalInfo.Converter(getContext())
+                .convert(arrivals, filter, response.getCurrentTime());
+        assertEquals(expected, list.size());
+        for (ArrivalInfo info : list) {
+            assertEquals(routeId, info.getInfo().getRouteId());
+        }
+    }
+
+    public void testReuse() {
+        final ObaArrivalInfoResponse response = read();
+        final long now = response.getCurrentTime();
+        ArrivalInfo.Converter converter = new ArrivalInfo.Converter(getContext());
+        ArrayList<ArrivalInfo> first = converter.convert(response.getArrivalInfo(), null, now);
+
+        // The same arrivals in the same minute aren't converted again.
+        ArrayList<ArrivalInfo> same = converter.convert(response.getArrivalInfo(), null, now);
+        assertEquals(first.size(), same.size());
+        for (int i = 0; i < first.size(); ++i) {
+            assertSame(first.get(i), same.get(i));
+        }
+
+        // A refresh with the same times keeps the new information, and the labels.
+        ObaArrivalInfoResponse refreshed = read();
+        ArrayList<ArrivalInfo> next = converter.convert(refreshed.getArrivalInfo(), null, now);
+        for (int i = 0; i < first.size(); ++i) {
+            assertNotSame(first.get(i).getInfo(), next.get(i).getInfo());
+            assertSame(first.get(i).getStatusText(), next.get(i).getStatusText());
+            assertEquals(first.get(i).getEta(), next.get(i).getEta());
+        }
+
+        // A minute later the ETAs change.
+        ArrayList<ArrivalInfo> later = converter.convert(refreshed.getArrivalInfo(), null,
+                now + ONE_MINUTE);
+        for (int i = 0; i < first.size(); ++i) {
+            assertEquals(first.get(i).getEta() - 1, later.get(i).getEta());
+        }
+    }
+
+    public void testLoopingTrip() {
+        final long now = 1000000 * ONE_MINUTE;
+        // A trip that passes the stop twice: each visit is its own row.
+        ObaArrivalInfo[] arrivals = new ObaArrivalInfo[]{
+                newArrival("loop", now + 5 * ONE_MINUTE, 5),
+                newArrival("loop", now + 40 * ONE_MINUTE, 25),
+        };
+        ArrivalInfo.Converter converter = new ArrivalInfo.Converter(getContext());
+        ArrayList<ArrivalInfo> first = converter.convert(arrivals, null, now);
+        assertEquals(2, first.size());
+        assertEquals(5, first.get(0).getEta());
+        assertEquals(40, first.get(1).getEta());
+
+        ArrayList<ArrivalInfo> same = converter.convert(arrivals, null, now);
+        assertSame(first.get(0), same.get(0));
+        assertSame(first.get(1), same.get(1));
+    }
+
+    public void testBenchmark() {
+        // Two copies, like two refreshes that didn't change anything.
+        final ObaArrivalInfo[][] refreshes = new ObaArrivalInfo[][]{
+                read().getArrivalInfo(), read().getArrivalInfo()
+        };
+        final long now = read().getCurrentTime();
+
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < ITERATIONS; ++i) {
+            ArrivalInfo.convertObaArrivalInfo(getContext(), refreshes[i % 2], null);
+        }
+        final long scratch = SystemClock.elapsedRealtime() - start;
+
+        ArrivalInfo.Converter converter = new ArrivalInfo.Converter(getContext());
+        start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < ITERATIONS; ++i) {
+            converter.convert(refreshes[i % 2], null, now);
+        }
+        final long incremental = SystemClock.elapsedRealtime() - start;
+
+        Log.i(TAG, String.format("%s, %d arrivals x %d: from scratch %d ms, incremental %d ms",
+                FIXTURE, refreshes[0].length, ITERATIONS, scratch, incremental));
+    }
+
+    private ObaArrivalInfoResponse read() {
+        return Resources.readAs(getContext(), Resources.getTestUri(FIXTURE),
+                ObaArrivalInfoResponse.class);
+    }
+
+    private static ObaArrivalInfo newArrival(String tripId, long predicted) {
+        return newArrival(tripId, predicted, 5);
+    }
+
+    private static ObaArrivalInfo newArrival(String tripId, long predicted, int stopSequence) {
+        return new ObaArrivalInfo("1_10", "10", "Capitol Hill", tripId, "Capitol Hill", "1_10914",
+                predicted, predicted - ONE_MINUTE, predicted, predicted - ONE_MINUTE,
+                "default", null, "1_1234", null, null, 0, predicted, true, null, null,
+                true, true, stopSequence, 0);
+    }
+}
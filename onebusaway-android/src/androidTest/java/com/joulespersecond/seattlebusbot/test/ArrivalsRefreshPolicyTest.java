@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.seattlebusbot.test;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.joulespersecond.oba.elements.ObaArrivalInfo;
+import com.joulespersecond.oba.elements.ObaTripStatusElement;
+import com.joulespersecond.oba.mock.Resources;
+import com.joulespersecond.oba.request.ObaArrivalInfoResponse;
+import com.joulespersecond.seattlebusbot.ArrivalsRefreshPolicy;
+
+/**
+ * Simulates watching each stop in the recorded arrivals for half an hour,
+ * refreshing with the adaptive policy and every minute as the list used to.
+ *
+ * The arrival times don't change while the stop is watched, and the
+ * vehicles keep reporting, so every response has each prediction as old
+ * as it was when it was recorded.
+ */
+public class ArrivalsRefreshPolicyTest extends AndroidTestCase {
+
+    private static final String TAG = "ArrivalsRefreshPolicyTest";
+
+    private static final long ONE_MINUTE = 60 * 1000;
+
+    private static final long WATCH_MS = 30 * ONE_MINUTE;
+
+    // How often the age of the list is looked at between refreshes.
+    private static final long STEP_MS = 1000;
+
+    private static final String[] FIXTURES = {
+            "arrivals_and_departures_for_stop_1_10020",
+            "arrivals_and_departures_for_stop_1_29261",
+            "arrivals_and_departures_for_stop_1_75403",
+            "arrivals_and_departures_for_stop_hart_3105",
+    };
+
+    public void testBounds() {
+        ArrivalsRefreshPolicy policy = new ArrivalsRefreshPolicy();
+        assertEquals(policy.getMinMs(), policy.getInterval(ONE_MINUTE, true, 0, true));
+        assertEquals(policy.getMaxMs(), policy.getInterval(120 * ONE_MINUTE, true, 0, true));
+        // No more buses.
+        assertEquals(policy.getMaxMs(), policy.getInterval(-1, false, 0, true));
+        assertEquals(policy.getMaxMs(), policy.getInterval(null, 0, true));
+
+        try {
+            new ArrivalsRefreshPolicy(ONE_MINUTE, ONE_MINUTE / 2);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    public void testStalePredictions() {
+        ArrivalsRefreshPolicy policy = new ArrivalsRefreshPolicy();
+        final long eta = 10 * ONE_MINUTE;
+        final long fresh = policy.getInterval(eta, true, 0, true);
+        // A vehicle that stopped reporting is refreshed like a schedule.
+        assertTrue(fresh < policy.getInterval(eta, true, 10 * ONE_MINUTE, true));
+        assertEquals(policy.getInterval(eta, false, 0, true),
+                policy.getInterval(eta, true, 10 * ONE_MINUTE, true));
+    }
+
+    public void testRefreshedWhenNear() {
+        ArrivalsRefreshPolicy policy = new ArrivalsRefreshPolicy();
+        final long eta = ArrivalsRefreshPolicy.NEAR_MS + ONE_MINUTE / 2;
+        // Not a fraction of the time, which would run past when the bus gets near.
+        assertEquals(policy.getMinMs(), policy.getInterval(eta, false, 0, true));
+        assertEquals(2 * ONE_MINUTE,
+                policy.getInterval(ArrivalsRefreshPolicy.NEAR_MS + 2 * ONE_MINUTE,
+                        false, 0, true));
+    }
+
+    public void testBackgroundAndOverride() {
+        ArrivalsRefreshPolicy policy = new ArrivalsRefreshPolicy();
+        assertEquals(policy.getMaxMs(), policy.getInterval(ONE_MINUTE, true, 0, false));
+
+        policy.setOverride(ONE_MINUTE);
+        assertEquals(ONE_MINUTE, policy.getInterval(ONE_MINUTE, true, 0, true));
+        assertEquals(ONE_MINUTE, policy.getInterval(120 * ONE_MINUTE, true, 0, false));
+        policy.setOverride(0);
+        assertEquals(policy.getMinMs(), policy.getInterval(ONE_MINUTE, true, 0, true));
+    }
+
+    public void testFixtures() {
+        ArrivalsRefreshPolicy policy = new ArrivalsRefreshPolicy();
+        ArrivalsRefreshPolicy fixed = new ArrivalsRefreshPolicy();
+        fixed.setOverride(ONE_MINUTE);
+
+        for (String fixture : FIXTURES) {
+            ObaArrivalInfoResponse response = Resources.readAs(getContext(),
+                    Resources.getTestUri(fixture), ObaArrivalInfoResponse.class);
+            final ObaArrivalInfo[] info = response.getArrivalInfo();
+            final long start = response.getCurrentTime();
+
+            final Result adaptive = simulate(policy, info, start);
+            final Result every = simulate(fixed, info, start);
+            Log.i(TAG, String.format("%s: adaptive %d/h, mean age %ds, near age %ds; " +
+                    "fixed %d/h, mean age %ds, near age %ds", fixture,
+                    adaptive.getRequestsPerHour(), adaptive.getMeanAge() / 1000,
+                    adaptive.maxNearAge / 1000,
+                    every.getRequestsPerHour(), every.getMeanAge() / 1000,
+                    every.maxNearAge / 1000));
+            assertTrue(adaptive.requests <= every.requests);
+            assertTrue(adaptive.maxNearAge < ONE_MINUTE);
+        }
+    }
+
+    private static final class Result {
+
+        int requests;
+
+        // The sum of the age of the list over the time it was watched.
+        double ageArea;
+
+        // The oldest the list got while the next bus was near.
+        long maxNearAge;
+
+        long getRequestsPerHour() {
+            return requests * 60 * ONE_MINUTE / WATCH_MS;
+        }
+
+        long getMeanAge() {
+            return (long) (ageArea / WATCH_MS);
+        }
+    }
+
+    private static Result simulate(ArrivalsRefreshPolicy policy, ObaArrivalInfo[] info,
+            long start) {
+        Result result = new Result();
+        final long end = start + WATCH_MS;
+        for (long now = start; now < end; ) {
+            result.requests++;
+            final long interval = Math.min(
+                    policy.getInterval(reported(info, now - start), now, true), end - now);
+            result.ageArea += interval * (double) interval / 2;
+            // The list gets older until the next refresh, and the next bus
+            // gets nearer, so look at the whole interval and not only its start.
+            for (long age = interval - 1; age >= 0; age -= STEP_MS) {
+                if (getNextEta(info, now + age) <= ArrivalsRefreshPolicy.NEAR_MS) {
+                    result.maxNearAge = Math.max(result.maxNearAge, age);
+                    break;
+                }
+            }
+            now += interval;
+        }
+        return result;
+    }
+
+    /**
+     * @return The arrivals as they would be in a response this much later,
+     * with every vehicle that was reporting having reported again since.
+     */
+    private static ObaArrivalInfo[] reported(ObaArrivalInfo[] info, long later) {
+        ObaArrivalInfo[] result = new ObaArrivalInfo[info.length];
+        for (int i = 0; i < info.length; ++i) {
+            final ObaArrivalInfo a = info[i];
+            final long lastUpdate = a.getLastUpdateTime();
+            result[i] = new ObaArrivalInfo(a.getRouteId(), a.getShortName(),
+                    a.getRouteLongName(), a.getTripId(), a.getHeadsign(), a.getStopId(),
+                    a.getPredictedArrivalTime(), a.getScheduledArrivalTime(),
+                    a.getPredictedDepartureTime(), a.getScheduledDepartureTime(),
+                    a.getStatus(), a.getFrequency(), a.getVehicleId(),
+                    a.getDistanceFromStop(), a.getNumberOfStopsAway(), a.getServiceDate(),
+                    lastUpdate != 0 ? lastUpdate + later : 0, a.getPredicted(),
+                    (ObaTripStatusElement) a.getTripStatus(), a.getSituationIds(),
+                    a.getArrivalEnabled(), a.getDepartureEnabled(), a.getStopSequence(),
+                    a.getBlockTripSequence());
+        }
+        return result;
+    }
+
+    private static long getNextEta(ObaArrivalInfo[] info, long now) {
+        long nextEta = Long.MAX_VALUE;
+        for (ObaArrivalInfo arrival : info) {
+            final long eta = ArrivalsRefreshPolicy.getArrivalTime(arrival) - now;
+            if (eta >= 0) {
+                nextEta = Math.min(nextEta, eta);
+            }
+        }
+        return nextEta;
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.seattlebusbot.test;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.IsolatedContext;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+
+import com.joulespersecond.oba.provider.ObaContract;
+import com.joulespersecond.oba.provider.ObaProvider;
+import com.joulespersecond.oba.provider.test.ObaProviderTestCase;
+import com.joulespersecond.seattlebusbot.util.DebouncedContentObserver;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts how many times the stop list would be requeried for a batch of
+ * writes to the provider.
+ */
+public class DebouncedContentObserverTest extends AndroidTestCase {
+
+    private static final int ROWS = 100;
+
+    // Only to keep a broken test from hanging.
+    private static final long TIMEOUT_MS = 10 * 1000;
+
+    private static final class CountingObserver extends DebouncedContentObserver {
+
+        private int mRequeries;
+
+        CountingObserver(Handler handler) {
+            super(handler);
+        }
+
+        @Override
+        public synchronized void onChanges() {
+            mRequeries++;
+            notifyAll();
+        }
+
+        synchronized int getRequeries() {
+            return mRequeries;
+        }
+
+        synchronized boolean awaitRequeries(int requeries) throws InterruptedException {
+            final long end = SystemClock.uptimeMillis() + TIMEOUT_MS;
+            while (mRequeries < requeries) {
+                final long left = end - SystemClock.uptimeMillis();
+                if (left <= 0) {
+                    return false;
+                }
+                wait(left);
+            }
+            return true;
+        }
+    }
+
+    //
+    // The mock resolver drops the provider's notifications. This one passes
+    // the ones for the stops on to the observer, as if it were registered
+    // for them and their descendants.
+    //
+    private static final class NotifyingResolver extends MockContentResolver {
+
+        private final ContentObserver mObserver;
+
+        private int mNotifications;
+
+        NotifyingResolver(ContentObserver observer) {
+            mObserver = observer;
+        }
+
+        @Override
+        public void notifyChange(Uri uri, ContentObserver observer, boolean syncToNetwork) {
+            final String stops = ObaContract.Stops.CONTENT_URI.toString();
+            final String changed = uri.toString();
+            if (changed.equals(stops) || changed.startsWith(stops + "/")) {
+                synchronized (this) {
+                    mNotifications++;
+                }
+                mObserver.dispatchChange(false);
+            }
+        }
+
+        synchronized int getNotifications() {
+            return mNotifications;
+        }
+    }
+
+    private HandlerThread mThread;
+
+    private Handler mHandler;
+
+    private CountingObserver mObserver;
+
+    private NotifyingResolver mResolver;
+
+    private ObaProvider mProvider;
+
+    private Context mProviderContext;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mThread = new HandlerThread("DebouncedContentObserverTest");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mObserver = new CountingObserver(mHandler);
+
+        // The same as ProviderTestCase2, apart from the resolver.
+        mResolver = new NotifyingResolver(mObserver);
+        mProviderContext = new IsolatedContext(mResolver,
+                new RenamingDelegatingContext(getContext(), getContext(), "test.debounce."));
+        mProvider = new ObaProvider();
+        mProvider.attachInfo(mProviderContext, null);
+        mResolver.addProvider(ObaContract.AUTHORITY, mProvider);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mProvider.closeDB();
+        mThread.quit();
+        super.tearDown();
+    }
+
+    public void testBulkInsert() throws InterruptedException {
+        assertEquals(ROWS, insertStops());
+        assertTrue(mObserver.awaitRequeries(1));
+        // The provider notifies the stops once for the whole batch.
+        assertEquals(1, mResolver.getNotifications());
+        awaitStragglers();
+        assertEquals(1, mObserver.getRequeries());
+
+        // The next batch is requeried again.
+        insertStops();
+        assertTrue(mObserver.awaitRequeries(2));
+        assertEquals(2, mResolver.getNotifications());
+        awaitStragglers();
+        assertEquals(2, mObserver.getRequeries());
+    }
+
+    public void testApplyBatch() throws Exception {
+        insertStops();
+        assertTrue(mObserver.awaitRequeries(1));
+        final int before = mResolver.getNotifications();
+
+        // Each update notifies its own stop, which the observer debounces.
+        ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>(ROWS);
+        for (int i = 0; i < ROWS; ++i) {
+            operations.add(ContentProviderOperation
+                    .newUpdate(Uri.withAppendedPath(ObaContract.Stops.CONTENT_URI, "1_" + i))
+                    .withValue(ObaContract.Stops.FAVORITE, 1)
+                    .build());
+        }
+        mResolver.applyBatch(ObaContract.AUTHORITY, operations);
+        assertTrue(mObserver.awaitRequeries(2));
+        assertEquals(ROWS, mResolver.getNotifications() - before);
+        awaitStragglers();
+        assertEquals(2, mObserver.getRequeries());
+    }
+
+    public void testSteadyChanges() throws InterruptedException {
+        // Changes that never stop for long enough still requery
+        // within MAX_WAIT_MS of the first one, but not before.
+        final long start = SystemClock.uptimeMillis();
+        while (mObserver.getRequeries() == 0) {
+            assertTrue(SystemClock.uptimeMillis() - start < TIMEOUT_MS);
+            mObserver.dispatchChange(false);
+            Thread.sleep(DebouncedContentObserver.DELAY_MS / 2);
+        }
+        final long elapsed = SystemClock.uptimeMillis() - start;
+        assertTrue(String.valueOf(elapsed), elapsed >= DebouncedContentObserver.MAX_WAIT_MS);
+    }
+
+    public void testCancel() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mObserver.onChange(false);
+                mObserver.cancel();
+                // Runs after the requery would have.
+                mHandler.postDelayed(new Runnable() {
+                    @Override
+                    public void run() {
+                        done.countDown();
+                    }
+                }, DebouncedContentObserver.DELAY_MS);
+            }
+        });
+        assertTrue(done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(0, mObserver.getRequeries());
+    }
+
+    private int insertStops() {
+        ContentValues[] values = new ContentValues[ROWS];
+        for (int i = 0; i < ROWS; ++i) {
+            values[i] = ObaProviderTestCase.newStop("Stop " + i);
+            values[i].put(ObaContract.Stops._ID, "1_" + i);
+        }
+        return ObaContract.Stops.insertOrUpdate(mProviderContext, values, true);
+    }
+
+    //
+    // Waits until any change the observer has already been sent would
+    // have been requeried.
+    //
+    private void awaitStragglers() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        mHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        }, DebouncedContentObserver.DELAY_MS);
+        assertTrue(done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+}
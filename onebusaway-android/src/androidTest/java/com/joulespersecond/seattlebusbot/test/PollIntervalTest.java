@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.seattlebusbot.test;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.joulespersecond.oba.elements.ObaArrivalInfo;
+import com.joulespersecond.oba.mock.Resources;
+import com.joulespersecond.oba.request.ObaArrivalInfoResponse;
+import com.joulespersecond.seattlebusbot.tripservice.PollInterval;
+
+/**
+ * Simulates polling for reminders of every trip in the recorded arrivals,
+ * with the adaptive interval and with the fixed one-minute interval.
+ *
+ * Each reminder starts polling when the SchedulerTask would start it, five
+ * minutes before it's due by the schedule. The predictions are assumed to be
+ * too optimistic by DRIFT of the time left, so the bus turns up earlier
+ * than the first polls think.
+ */
+public class PollIntervalTest extends AndroidTestCase {
+
+    private static final String TAG = "PollIntervalTest";
+
+    private static final long ONE_MINUTE = 60 * 1000;
+
+    private static final long LOOKAHEAD_MS = 5 * ONE_MINUTE;
+
+    private static final double DRIFT = 0.1;
+
+    private static final String[] FIXTURES = {
+            "arrivals_and_departures_for_stop_1_10020",
+            "arrivals_and_departures_for_stop_1_29261",
+            "arrivals_and_departures_for_stop_1_75403",
+            "arrivals_and_departures_for_stop_hart_3105",
+    };
+
+    private static final long[] REMINDERS = {
+            ONE_MINUTE, 5 * ONE_MINUTE, 10 * ONE_MINUTE, 30 * ONE_MINUTE
+    };
+
+    public void testBounds() {
+        final long now = 1000 * ONE_MINUTE;
+        final long reminder = 5 * ONE_MINUTE;
+        assertEquals(PollInterval.MAX_MS,
+                PollInterval.get(now, now + 120 * ONE_MINUTE, reminder, true));
+        assertEquals(PollInterval.MIN_MS,
+                PollInterval.get(now, now + reminder + 1000, reminder, true));
+        // Once the reminder is due it's kept up to date every minute.
+        assertEquals(PollInterval.DEFAULT_MS,
+                PollInterval.get(now, now + reminder, reminder, true));
+        assertEquals(PollInterval.DEFAULT_MS,
+                PollInterval.get(now, now - ONE_MINUTE, reminder, false));
+    }
+
+    public void testDenserWhenCloser() {
+        final long now = 1000 * ONE_MINUTE;
+        final long reminder = 5 * ONE_MINUTE;
+        long previous = Long.MAX_VALUE;
+        for (long depart = now + 60 * ONE_MINUTE; depart > now + reminder;
+                depart -= ONE_MINUTE) {
+            final long interval = PollInterval.get(now, depart, reminder, true);
+            assertTrue(interval <= previous);
+            // Scheduled times are polled at least as often as predicted ones.
+            assertTrue(PollInterval.get(now, depart, reminder, false) <= interval);
+            previous = interval;
+        }
+    }
+
+    public void testFixtures() {
+        int adaptivePolls = 0;
+        int fixedPolls = 0;
+        int alerts = 0;
+        for (String fixture : FIXTURES) {
+            ObaArrivalInfoResponse response = Resources.readAs(getContext(),
+                    Resources.getTestUri(fixture), ObaArrivalInfoResponse.class);
+            for (ObaArrivalInfo info : response.getArrivalInfo()) {
+                final boolean predicted =
+                        info.getPredicted() && info.getPredictedArrivalTime() != 0;
+                final long depart = predicted ?
+                        info.getPredictedArrivalTime() : info.getScheduledArrivalTime();
+                for (long reminder : REMINDERS) {
+                    final long start =
+                            info.getScheduledArrivalTime() - reminder - LOOKAHEAD_MS;
+                    // When the server first thinks the reminder is due.
+                    final long due = depart - (long) (reminder / (1 + DRIFT));
+
+                    final long[] adaptive = simulate(start, depart, reminder, predicted, true);
+                    final long[] fixed = simulate(start, depart, reminder, predicted, false);
+                    // Never later than polling every minute could be.
+                    assertTrue(adaptive[1] <= Math.max(start, due) + PollInterval.DEFAULT_MS);
+                    assertTrue(adaptive[1] < depart);
+                    assertTrue(adaptive[0] <= fixed[0]);
+                    adaptivePolls += adaptive[0];
+                    fixedPolls += fixed[0];
+                    alerts++;
+                }
+            }
+        }
+        assertTrue(alerts > 0);
+        assertTrue(adaptivePolls < fixedPolls);
+        Log.i(TAG, String.format("%d alerts: %d polls adaptive, %d polls fixed",
+                alerts, adaptivePolls, fixedPolls));
+    }
+
+    /**
+     * @return The number of polls up to and including the one that notified,
+     * and the time it notified.
+     */
+    private static long[] simulate(long start, long depart, long reminder, boolean predicted,
+            boolean adaptive) {
+        long now = start;
+        int polls = 0;
+        while (true) {
+            polls++;
+            // What the server thinks at this time.
+            final long seen = now < depart ? depart + (long) ((depart - now) * DRIFT) : depart;
+            if (seen - now <= reminder) {
+                return new long[]{polls, now};
+            }
+            now += adaptive ? PollInterval.get(now, seen, reminder, predicted) : ONE_MINUTE;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.seattlebusbot.test;
+
+import com.joulespersecond.oba.provider.ObaContract;
+import com.joulespersecond.oba.provider.ObaContract.TripAlerts;
+import com.joulespersecond.oba.provider.ObaProvider;
+import com.joulespersecond.seattlebusbot.TripService;
+import com.joulespersecond.seattlebusbot.tripservice.WakeupScheduler;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.net.Uri;
+import android.test.ProviderTestCase2;
+
+import java.util.Arrays;
+
+public class SchedulerRestoreTest extends ProviderTestCase2<ObaProvider> {
+
+    private static final long ONE_MINUTE = 60 * 1000;
+
+    private static final long START = 1000 * ONE_MINUTE;
+
+    private static class FakeClock implements WakeupScheduler.Clock {
+
+        long mNow = START;
+
+        @Override
+        public long currentTimeMillis() {
+            return mNow;
+        }
+    }
+
+    private static class FakeAlarm implements WakeupScheduler.Alarm {
+
+        // The time the alarm is set for, or -1 if it isn't set.
+        long mTime = -1;
+
+        @Override
+        public void set(long triggerAtMillis) {
+            mTime = triggerAtMillis;
+        }
+
+        @Override
+        public void cancel() {
+            mTime = -1;
+        }
+    }
+
+    public SchedulerRestoreTest() {
+        super(ObaProvider.class, ObaContract.AUTHORITY);
+    }
+
+    public void testRestartThenLaterAlert() {
+        ContentResolver cr = getMockContentResolver();
+        // Before the process was killed, one alert was being polled and one
+        // is scheduled for later. A cancelled one is never restored.
+        final Uri polling = TripAlerts.insertIfNotExists(cr, "1_1", "1_STOP",
+                START - 5 * ONE_MINUTE);
+        TripAlerts.setState(cr, polling, TripAlerts.STATE_POLLING);
+        final Uri scheduled = TripAlerts.insertIfNotExists(cr, "1_2", "1_STOP",
+                START + 60 * ONE_MINUTE);
+        final Uri cancelled = TripAlerts.insertIfNotExists(cr, "1_3", "1_STOP",
+                START - ONE_MINUTE);
+        TripAlerts.setState(cr, cancelled, TripAlerts.STATE_CANCELLED);
+
+        // The process restarts.
+        FakeClock clock = new FakeClock();
+        FakeAlarm alarm = new FakeAlarm();
+        WakeupScheduler scheduler = TripService.createScheduler(cr, clock, alarm);
+        assertEquals(2, scheduler.size());
+        // The alert that was being polled is due now.
+        assertEquals(START, alarm.mTime);
+
+        // Editing a trip schedules an alert for later: the alarm stays put.
+        scheduler.schedule(100, START + 30 * ONE_MINUTE);
+        assertEquals(START, alarm.mTime);
+
+        assertEquals(Arrays.asList(ContentUris.parseId(polling)), scheduler.takeDue());
+        assertEquals(START + 30 * ONE_MINUTE, alarm.mTime);
+
+        cr.delete(polling, null, null);
+        cr.delete(scheduled, null, null);
+        cr.delete(cancelled, null, null);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.seattlebusbot.test;
+
+import android.test.AndroidTestCase;
+
+import com.joulespersecond.oba.elements.ObaStop;
+import com.joulespersecond.oba.mock.Resources;
+import com.joulespersecond.oba.request.ObaStopsForLocationResponse;
+import com.joulespersecond.seattlebusbot.map.StopClusterer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+public class StopClustererTest extends AndroidTestCase {
+
+    private static final int CELL_SIZE = 48;
+
+    private static final int CLUSTER_ZOOM = 15;
+
+    private static final double EPSILON = 1e-9;
+
+    private List<ObaStop> mStops;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        ObaStopsForLocationResponse response = Resources.readAs(getContext(),
+                Resources.getTestUri("stops_for_location_downtown_seattle"),
+                ObaStopsForLocationResponse.class);
+        mStops = Arrays.asList(response.getStops());
+        assertTrue(mStops.size() > 1);
+    }
+
+    public void testUnclustered() {
+        StopClusterer clusterer = new StopClusterer(mStops, CELL_SIZE, CLUSTER_ZOOM);
+        assertNull(clusterer.getClusters(CLUSTER_ZOOM));
+        assertNull(clusterer.getClusters(18));
+    }
+
+    public void testEveryStopInOneCluster() {
+        StopClusterer clusterer = new StopClusterer(mStops, CELL_SIZE, CLUSTER_ZOOM);
+        int previous = Integer.MAX_VALUE;
+        for (int zoom = CLUSTER_ZOOM - 1; zoom >= 0; --zoom) {
+            List<StopClusterer.Cluster> clusters = clusterer.getClusters(zoom);
+            HashSet<String> ids = new HashSet<String>();
+            for (StopClusterer.Cluster cluster : clusters) {
+                assertTrue(cluster.size() > 0);
+                for (ObaStop stop : cluster.getStops()) {
+                    assertTrue(ids.add(stop.getId()));
+                }
+            }
+            assertEquals(mStops.size(), ids.size());
+            // Zooming out never splits clusters.
+            assertTrue(clusters.size() <= previous);
+            previous = clusters.size();
+        }
+        // The whole of downtown is one cluster when zoomed out far enough.
+        assertEquals(1, clusterer.getClusters(0).size());
+        assertEquals(mStops.size(), clusterer.getClusters(0).get(0).size());
+    }
+
+    public void testMergedMatchesDirect() {
+        // Clusters made by merging the level above are the same as those
+        // computed from the stops at that level.
+        StopClusterer merged = new StopClusterer(mStops, CELL_SIZE, CLUSTER_ZOOM);
+        for (int zoom = CLUSTER_ZOOM - 2; zoom >= 10; --zoom) {
+            StopClusterer direct = new StopClusterer(mStops, CELL_SIZE, zoom + 1);
+            assertEquals(getPartition(direct.getClusters(zoom)),
+                    getPartition(merged.getClusters(zoom)));
+        }
+    }
+
+    public void testCached() {
+        StopClusterer clusterer = new StopClusterer(mStops, CELL_SIZE, CLUSTER_ZOOM);
+        List<StopClusterer.Cluster> clusters = clusterer.getClusters(12);
+        assertSame(clusters, clusterer.getClusters(12));
+        // The levels between were computed along the way.
+        assertNotNull(clusterer.getClusters(13));
+        assertSame(clusters, clusterer.getClusters(12));
+    }
+
+    public void testCenter() {
+        StopClusterer clusterer = new StopClusterer(mStops, CELL_SIZE, CLUSTER_ZOOM);
+        for (StopClusterer.Cluster cluster : clusterer.getClusters(CLUSTER_ZOOM - 1)) {
+            double minLat = 90, maxLat = -90, minLon = 180, maxLon = -180;
+            for (ObaStop stop : cluster.getStops()) {
+                minLat = Math.min(minLat, stop.getLatitude());
+                maxLat = Math.max(maxLat, stop.getLatitude());
+                minLon = Math.min(minLon, stop.getLongitude());
+                maxLon = Math.max(maxLon, stop.getLongitude());
+            }
+            assertTrue(cluster.getLatitude() >= minLat - EPSILON);
+            assertTrue(cluster.getLatitude() <= maxLat + EPSILON);
+            assertTrue(cluster.getLongitude() >= minLon - EPSILON);
+            assertTrue(cluster.getLongitude() <= maxLon + EPSILON);
+        }
+    }
+
+    /**
+     * @return The smallest stop ID in each stop's cluster, by stop ID.
+     */
+    private static HashMap<String, String> getPartition(List<StopClusterer.Cluster> clusters) {
+        HashMap<String, String> result = new HashMap<String, String>();
+        for (StopClusterer.Cluster cluster : clusters) {
+            String first = null;
+            for (ObaStop stop : cluster.getStops()) {
+                if (first == null || stop.getId().compareTo(first) < 0) {
+                    first = stop.getId();
+                }
+            }
+            for (ObaStop stop : cluster.getStops()) {
+                result.put(stop.getId(), first);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.seattlebusbot.test;
+
+import android.location.Location;
+import android.util.Log;
+
+import com.joulespersecond.oba.mock.Resources;
+import com.joulespersecond.oba.request.ObaStopsForLocationRequest;
+import com.joulespersecond.oba.request.ObaStopsForLocationResponse;
+import com.joulespersecond.oba.request.test.ObaTestCase;
+import com.joulespersecond.seattlebusbot.map.StopPrefetcher;
+import com.joulespersecond.seattlebusbot.map.StopTileCache;
+import com.joulespersecond.seattlebusbot.util.LocationHelp;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a recorded sequence of map gestures against the stop tile cache,
+ * with and without prefetching, and reports how long the stops took to
+ * appear after the map settled and how much more was downloaded.
+ *
+ * Time is simulated: every request takes LATENCY_MS, and requests run
+ * in parallel. The responses come from the mock connection, which only
+ * knows one stops-for-location response, so every tile gets the same stops.
+ *
+ * Results are written to the log under the "StopPrefetchReplay" tag.
+ */
+public class StopPrefetchReplayTest extends ObaTestCase {
+
+    private static final String TAG = "StopPrefetchReplay";
+
+    private static final long LATENCY_MS = 600;
+
+    // The map watcher's poll interval, and how long it waits before the map has settled.
+    private static final long POLL_MS = 250;
+
+    private static final long SETTLE_MS = 1000;
+
+    // The screen size used to convert zoom levels into spans.
+    private static final int WIDTH_PX = 480;
+
+    private static final int HEIGHT_PX = 800;
+
+    private static final Location FIXTURE_CENTER =
+            LocationHelp.makeLocation(47.61098, -122.33845);
+
+    /**
+     * A recorded session: each gesture is its duration in milliseconds, and the
+     * speed of the map during it in degrees of latitude and longitude and zoom
+     * levels per second. A gesture with no movement is a pause.
+     */
+    private static final double[][] SESSION = {
+            {2000, 0, 0.004, 0},
+            {3000, 0, 0, 0},
+            {1500, 0.003, 0.003, 0},
+            {3000, 0, 0, 0},
+            {1000, 0, 0, -1},
+            {3000, 0, 0, 0},
+            {2500, -0.006, 0, 0},
+            {3000, 0, 0, 0},
+            {1000, 0, 0, 1},
+            {3000, 0, 0, 0},
+            {3000, 0, -0.005, 0},
+            {3000, 0, 0, 0},
+    };
+
+    private static final double START_ZOOM = 16;
+
+    /**
+     * Serves requests from the mock connection, but completes them at a simulated time.
+     */
+    private class SimulatedFetcher implements StopTileCache.Fetcher {
+
+        private final ObaStopsForLocationResponse mResponse;
+
+        private final int mBytes;
+
+        long mNow;
+
+        // The time at which the last response that load() waited for arrived.
+        long mWaitUntil;
+
+        int mRequests;
+
+        long mTotalBytes;
+
+        SimulatedFetcher(ObaStopsForLocationResponse response, int bytes) {
+            mResponse = response;
+            mBytes = bytes;
+        }
+
+        @Override
+        public Future<ObaStopsForLocationResponse> fetch(Location center, double latSpan,
+                double lonSpan, int priority) {
+            mRequests++;
+            mTotalBytes += mBytes;
+            return new SimulatedFuture(this, mResponse, mNow + LATENCY_MS);
+        }
+
+        @Override
+        public boolean raisePriority(Future<ObaStopsForLocationResponse> future) {
+            // Every request takes the same time, whatever its priority.
+            return true;
+        }
+    }
+
+    private static class SimulatedFuture implements Future<ObaStopsForLocationResponse> {
+
+        private final SimulatedFetcher mFetcher;
+
+        private final ObaStopsForLocationResponse mResponse;
+
+        private final long mReadyAt;
+
+        SimulatedFuture(SimulatedFetcher fetcher, ObaStopsForLocationResponse response,
+                long readyAt) {
+            mFetcher = fetcher;
+            mResponse = response;
+            mReadyAt = readyAt;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return mFetcher.mNow >= mReadyAt;
+        }
+
+        @Override
+        public ObaStopsForLocationResponse get() {
+            mFetcher.mWaitUntil = Math.max(mFetcher.mWaitUntil, mReadyAt);
+            return mResponse;
+        }
+
+        @Override
+        public ObaStopsForLocationResponse get(long timeout, TimeUnit unit) {
+            return get();
+        }
+    }
+
+    private static class Result {
+
+        int settles;
+
+        long totalLatency;
+
+        long maxLatency;
+
+        int requests;
+
+        long bytes;
+
+        int prefetched;
+    }
+
+    public void testReplay() throws IOException {
+        // The one response the mock connection has for stops-for-location.
+        ObaStopsForLocationResponse response =
+                new ObaStopsForLocationRequest.Builder(getContext(), FIXTURE_CENTER)
+                        .build()
+                        .call();
+        assertOK(response);
+        final int bytes = getLength("stops_for_location_downtown_seattle1");
+
+        Result baseline = replay(response, bytes, false);
+        Result prefetch = replay(response, bytes, true);
+        assertEquals(0, baseline.prefetched);
+        assertTrue(prefetch.prefetched > 0);
+        assertEquals(baseline.settles, prefetch.settles);
+        assertTrue(prefetch.totalLatency <= baseline.totalLatency);
+
+        // The budget holds however long the session is.
+        final double minutes = Math.ceil(getDuration() / (60.0 * 1000));
+        assertTrue(prefetch.prefetched <= StopPrefetcher.MAX_PER_WINDOW * minutes);
+
+        log("baseline", baseline);
+        log("prefetch", prefetch);
+        Log.i(TAG, String.format("Extra bytes fetched: %d (%d requests)",
+                prefetch.bytes - baseline.bytes, prefetch.requests - baseline.requests));
+    }
+
+    private Result replay(ObaStopsForLocationResponse response, int bytes,
+            boolean prefetch) {
+        SimulatedFetcher fetcher = new SimulatedFetcher(response, bytes);
+        StopTileCache cache = new StopTileCache(fetcher, StopTileCache.DEFAULT_MAX_TILES);
+        StopPrefetcher prefetcher = new StopPrefetcher(cache);
+        Result result = new Result();
+
+        double lat = FIXTURE_CENTER.getLatitude();
+        double lon = FIXTURE_CENTER.getLongitude();
+        double zoom = START_ZOOM;
+
+        // The stops are loaded when the map is first shown.
+        load(cache, fetcher, lat, lon, zoom, null);
+
+        for (double[] gesture : SESSION) {
+            final long duration = (long) gesture[0];
+            final boolean moving = gesture[1] != 0 || gesture[2] != 0 || gesture[3] != 0;
+            long lastMove = -1;
+            for (long t = POLL_MS; t <= duration; t += POLL_MS) {
+                fetcher.mNow += POLL_MS;
+                if (moving) {
+                    lat += gesture[1] * POLL_MS / 1000;
+                    lon += gesture[2] * POLL_MS / 1000;
+                    zoom += gesture[3] * POLL_MS / 1000;
+                    lastMove = fetcher.mNow;
+                    if (prefetch) {
+                        prefetcher.onMapMoving(LocationHelp.makeLocation(lat, lon),
+                                getLatSpan(lat, zoom), getLonSpan(zoom), (float) zoom,
+                                fetcher.mNow);
+                    }
+                }
+            }
+            if (moving) {
+                // The watcher reports the new position once it has been still for a while.
+                fetcher.mNow = Math.max(fetcher.mNow, lastMove + SETTLE_MS);
+                load(cache, fetcher, lat, lon, zoom, result);
+            }
+        }
+        result.requests = fetcher.mRequests;
+        result.bytes = fetcher.mTotalBytes;
+        result.prefetched = prefetcher.getPrefetchedCount();
+        return result;
+    }
+
+    private static void load(StopTileCache cache, SimulatedFetcher fetcher,
+            double lat, double lon, double zoom, Result result) {
+        fetcher.mWaitUntil = fetcher.mNow;
+        StopTileCache.Viewport viewport = cache.load(LocationHelp.makeLocation(lat, lon),
+                getLatSpan(lat, zoom), getLonSpan(zoom));
+        assertNull(viewport.getError());
+        final long latency = fetcher.mWaitUntil - fetcher.mNow;
+        // The stops are shown once the last tile arrives.
+        fetcher.mNow = fetcher.mWaitUntil;
+        if (result != null) {
+            result.settles++;
+            result.totalLatency += latency;
+            result.maxLatency = Math.max(result.maxLatency, latency);
+        }
+    }
+
+    private static double getLonSpan(double zoom) {
+        return 360.0 * WIDTH_PX / 256 / Math.pow(2, zoom);
+    }
+
+    private static double getLatSpan(double lat, double zoom) {
+        return 360.0 * HEIGHT_PX / 256 / Math.pow(2, zoom) * Math.cos(Math.toRadians(lat));
+    }
+
+    private static long getDuration() {
+        long duration = 0;
+        for (double[] gesture : SESSION) {
+            duration += (long) gesture[0] + SETTLE_MS + LATENCY_MS;
+        }
+        return duration;
+    }
+
+    private int getLength(String name) throws IOException {
+        Reader reader = Resources.read(getContext(), Resources.getTestUri(name));
+        try {
+            char[] buffer = new char[4096];
+            int length = 0;
+            int n;
+            while ((n = reader.read(buffer)) != -1) {
+                length += n;
+            }
+            return length;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void log(String name, Result result) {
+        Log.i(TAG, String.format("%s: %d settles, stops visible after %d ms on average "
+                        + "(max %d ms), %d requests, %d bytes, %d prefetched",
+                name, result.settles, result.totalLatency / Math.max(1, result.settles),
+                result.maxLatency, result.requests, result.bytes, result.prefetched));
+    }
+}
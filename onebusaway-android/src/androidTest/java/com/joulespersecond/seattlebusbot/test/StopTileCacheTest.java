@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.seattlebusbot.test;
+
+import android.location.Location;
+import android.test.AndroidTestCase;
+
+import com.joulespersecond.oba.ObaApi;
+import com.joulespersecond.oba.elements.ObaStop;
+import com.joulespersecond.oba.mock.Resources;
+import com.joulespersecond.oba.request.ObaStopsForLocationResponse;
+import com.joulespersecond.oba.request.RequestExecutor;
+import com.joulespersecond.seattlebusbot.map.StopTileCache;
+import com.joulespersecond.seattlebusbot.util.LocationHelp;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+public class StopTileCacheTest extends AndroidTestCase {
+
+    // The center of the stops_for_location_downtown_seattle fixture
+    private static final Location CENTER = LocationHelp.makeLocation(47.61098, -122.33845);
+
+    private static final double SPAN = 0.02;
+
+    /**
+     * Returns the same response for every tile, and counts the requests.
+     * Background requests can be held in a queue instead of completing at once.
+     */
+    private static class FixtureFetcher implements StopTileCache.Fetcher {
+
+        private final ObaStopsForLocationResponse mResponse;
+
+        int mCount;
+
+        int mForegroundCount;
+
+        boolean mQueueBackground;
+
+        boolean mCanRaise = true;
+
+        int mRaised;
+
+        FixtureFetcher(ObaStopsForLocationResponse response) {
+            mResponse = response;
+        }
+
+        @Override
+        public Future<ObaStopsForLocationResponse> fetch(Location center, double latSpan,
+                double lonSpan, int priority) {
+            mCount++;
+            FutureTask<ObaStopsForLocationResponse> task =
+                    new FutureTask<ObaStopsForLocationResponse>(
+                            new Callable<ObaStopsForLocationResponse>() {
+                                @Override
+                                public ObaStopsForLocationResponse call() {
+                                    return mResponse;
+                                }
+                            });
+            if (priority == RequestExecutor.PRIORITY_FOREGROUND) {
+                mForegroundCount++;
+            }
+            if (!mQueueBackground || priority == RequestExecutor.PRIORITY_FOREGROUND) {
+                task.run();
+            }
+            return task;
+        }
+
+        @Override
+        public boolean raisePriority(Future<ObaStopsForLocationResponse> future) {
+            if (!mCanRaise) {
+                return false;
+            }
+            // It moves to the front of the queue, and runs.
+            mRaised++;
+            ((FutureTask<ObaStopsForLocationResponse>) future).run();
+            return true;
+        }
+    }
+
+    public void testTiles() {
+        assertEquals(15, StopTileCache.getTileZoom(SPAN, SPAN));
+        assertEquals(13, StopTileCache.getTileZoom(SPAN * 4, SPAN));
+
+        List<StopTileCache.Tile> tiles = StopTileCache.getTiles(CENTER, SPAN, SPAN);
+        assertTrue(tiles.size() >= 4 && tiles.size() <= 9);
+        HashSet<String> keys = new HashSet<String>();
+        for (StopTileCache.Tile tile : tiles) {
+            assertEquals(15, tile.getKey().length());
+            keys.add(tile.getKey());
+        }
+        assertEquals(tiles.size(), keys.size());
+
+        // The viewport's corners are covered
+        final double lat = CENTER.getLatitude();
+        final double lon = CENTER.getLongitude();
+        assertTrue(covers(tiles, lat - SPAN / 2, lon - SPAN / 2));
+        assertTrue(covers(tiles, lat + SPAN / 2, lon + SPAN / 2));
+    }
+
+    public void testStitch() throws IOException {
+        final ObaStopsForLocationResponse response = read(true);
+        FixtureFetcher fetcher = new FixtureFetcher(response);
+        StopTileCache cache = new StopTileCache(fetcher, StopTileCache.DEFAULT_MAX_TILES);
+
+        StopTileCache.Viewport viewport = cache.load(CENTER, SPAN, SPAN);
+        assertNull(viewport.getError());
+        assertEquals(viewport.getTiles().size(), fetcher.mCount);
+        assertEquals(fetcher.mCount, viewport.getFetchedCount());
+        assertTrue(viewport.getLimitExceeded());
+        assertFalse(viewport.getOutOfRange());
+
+        // Every tile returned all the stops, but each stop is only shown once.
+        List<ObaStop> stops = viewport.getStops();
+        assertEquals(response.getStops().length, stops.size());
+        HashSet<String> ids = new HashSet<String>();
+        for (ObaStop stop : stops) {
+            assertTrue(ids.add(stop.getId()));
+            for (String routeId : stop.getRouteIds()) {
+                assertNotNull(viewport.getReferences().getRoute(routeId));
+            }
+        }
+    }
+
+    public void testPan() throws IOException {
+        FixtureFetcher fetcher = new FixtureFetcher(read(true));
+        StopTileCache cache = new StopTileCache(fetcher, StopTileCache.DEFAULT_MAX_TILES);
+        StopTileCache.Viewport first = cache.load(CENTER, SPAN, SPAN);
+        final int fetched = fetcher.mCount;
+
+        // The same viewport comes entirely from memory.
+        assertTrue(cache.isCached(CENTER, SPAN, SPAN));
+        StopTileCache.Viewport second = cache.load(CENTER, SPAN, SPAN);
+        assertEquals(0, second.getFetchedCount());
+        assertEquals(first.getStops().size(), second.getStops().size());
+
+        // Panning by one tile only fetches the new column.
+        final double tileSize = first.getTiles().get(0).getSize();
+        Location panned = LocationHelp.makeLocation(CENTER.getLatitude(),
+                CENTER.getLongitude() + tileSize);
+        StopTileCache.Viewport third = cache.load(panned, SPAN, SPAN);
+        assertTrue(third.getFetchedCount() > 0);
+        assertTrue(third.getFetchedCount() < third.getTiles().size());
+        assertEquals(fetched + third.getFetchedCount(), fetcher.mCount);
+    }
+
+    public void testZoomInFromCompleteTile() throws IOException {
+        FixtureFetcher fetcher = new FixtureFetcher(read(false));
+        StopTileCache cache = new StopTileCache(fetcher, StopTileCache.DEFAULT_MAX_TILES);
+        StopTileCache.Viewport outer = cache.load(CENTER, SPAN * 4, SPAN * 4);
+        assertFalse(outer.getLimitExceeded());
+
+        // The smaller tiles are cut out of the larger ones.
+        StopTileCache.Viewport inner = cache.load(CENTER, SPAN, SPAN);
+        assertEquals(0, inner.getFetchedCount());
+        assertEquals(outer.getStops().size(), inner.getStops().size());
+        for (ObaStop stop : inner.getStops()) {
+            assertTrue(covers(inner.getTiles(), stop.getLatitude(), stop.getLongitude()));
+        }
+    }
+
+    public void testZoomInFromLimitExceeded() throws IOException {
+        FixtureFetcher fetcher = new FixtureFetcher(read(true));
+        StopTileCache cache = new StopTileCache(fetcher, StopTileCache.DEFAULT_MAX_TILES);
+        cache.load(CENTER, SPAN * 4, SPAN * 4);
+
+        // The larger tiles may be missing stops, so the smaller ones are fetched.
+        StopTileCache.Viewport inner = cache.load(CENTER, SPAN, SPAN);
+        assertEquals(inner.getTiles().size(), inner.getFetchedCount());
+    }
+
+    public void testEviction() throws IOException {
+        FixtureFetcher fetcher = new FixtureFetcher(read(true));
+        StopTileCache cache = new StopTileCache(fetcher, 2);
+        StopTileCache.Viewport viewport = cache.load(CENTER, SPAN, SPAN);
+        assertTrue(viewport.getTiles().size() > 2);
+        assertEquals(2, cache.size());
+        // The stops that were loaded are still returned.
+        assertEquals(read(true).getStops().length, viewport.getStops().size());
+        assertFalse(cache.isCached(CENTER, SPAN, SPAN));
+    }
+
+    public void testErrorsNotCached() {
+        FixtureFetcher fetcher = new FixtureFetcher(
+                ObaApi.getSerializer(ObaStopsForLocationResponse.class)
+                        .createFromError(ObaStopsForLocationResponse.class,
+                                ObaApi.OBA_IO_EXCEPTION, "error"));
+        StopTileCache cache = new StopTileCache(fetcher, StopTileCache.DEFAULT_MAX_TILES);
+        StopTileCache.Viewport viewport = cache.load(CENTER, SPAN, SPAN);
+        assertNotNull(viewport.getError());
+        assertEquals(ObaApi.OBA_IO_EXCEPTION, viewport.getError().getCode());
+        assertFalse(viewport.getOutOfRange());
+        assertEquals(0, cache.size());
+
+        viewport = cache.load(CENTER, SPAN, SPAN);
+        assertEquals(viewport.getTiles().size(), viewport.getFetchedCount());
+    }
+
+    public void testPrefetchRaisedForViewport() throws IOException {
+        FixtureFetcher fetcher = new FixtureFetcher(read(true));
+        fetcher.mQueueBackground = true;
+        StopTileCache cache = new StopTileCache(fetcher, StopTileCache.DEFAULT_MAX_TILES);
+        final List<StopTileCache.Tile> tiles = StopTileCache.getTiles(CENTER, SPAN, SPAN);
+        assertTrue(cache.prefetch(tiles.get(0)));
+        assertEquals(1, cache.getPendingCount());
+
+        // The prefetch is waiting behind other background requests, so loading
+        // the viewport moves it up rather than waiting for it or fetching it again.
+        StopTileCache.Viewport viewport = cache.load(CENTER, SPAN, SPAN);
+        assertNull(viewport.getError());
+        assertEquals(1, fetcher.mRaised);
+        assertEquals(tiles.size() - 1, viewport.getFetchedCount());
+        assertEquals(tiles.size() - 1, fetcher.mForegroundCount);
+        assertEquals(0, cache.getPendingCount());
+    }
+
+    public void testPrefetchReplacedForViewport() throws IOException {
+        FixtureFetcher fetcher = new FixtureFetcher(read(true));
+        fetcher.mQueueBackground = true;
+        fetcher.mCanRaise = false;
+        StopTileCache cache = new StopTileCache(fetcher, StopTileCache.DEFAULT_MAX_TILES);
+        final List<StopTileCache.Tile> tiles = StopTileCache.getTiles(CENTER, SPAN, SPAN);
+        assertTrue(cache.prefetch(tiles.get(0)));
+
+        // A prefetch that can't be moved up is cancelled and fetched in the foreground.
+        StopTileCache.Viewport viewport = cache.load(CENTER, SPAN, SPAN);
+        assertNull(viewport.getError());
+        assertEquals(tiles.size(), viewport.getFetchedCount());
+        assertEquals(tiles.size(), fetcher.mForegroundCount);
+        assertEquals(0, cache.getPendingCount());
+        assertTrue(cache.isCached(CENTER, SPAN, SPAN));
+    }
+
+    private static boolean covers(List<StopTileCache.Tile> tiles, double lat, double lon) {
+        for (StopTileCache.Tile tile : tiles) {
+            if (tile.contains(lat, lon)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private ObaStopsForLocationResponse read(boolean limitExceeded) throws IOException {
+        Reader reader = Resources.read(getContext(),
+                Resources.getTestUri("stops_for_location_downtown_seattle"));
+        StringWriter writer = new StringWriter();
+        char[] buffer = new char[4096];
+        int n;
+        while ((n = reader.read(buffer)) != -1) {
+            writer.write(buffer, 0, n);
+        }
+        reader.close();
+        String json = writer.toString();
+        if (!limitExceeded) {
+            json = json.replace("\"limitExceeded\":true", "\"limitExceeded\":false");
+        }
+        return ObaApi.getSerializer(ObaStopsForLocationResponse.class)
+                .deserialize(new StringReader(json), ObaStopsForLocationResponse.class);
+    }
+}
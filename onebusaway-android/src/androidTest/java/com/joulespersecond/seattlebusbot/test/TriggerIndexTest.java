@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.seattlebusbot.test;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.joulespersecond.oba.provider.ObaContract;
+import com.joulespersecond.seattlebusbot.tripservice.TriggerIndex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Random;
+import java.util.TimeZone;
+
+public class TriggerIndexTest extends AndroidTestCase {
+
+    private static final String TAG = "TriggerIndexTest";
+
+    private static final long ONE_MINUTE = 60 * 1000;
+
+    private static final int TRIPS = 300;
+
+    private static final int ROUNDS = 20;
+
+    private static final class Trip {
+
+        final String id;
+
+        final String stopId;
+
+        final int departure;
+
+        final int reminder;
+
+        final int days;
+
+        Trip(String id, String stopId, int departure, int reminder, int days) {
+            this.id = id;
+            this.stopId = stopId;
+            this.departure = departure;
+            this.reminder = reminder;
+            this.days = days;
+        }
+    }
+
+    public void testMatchesTime() {
+        Time tNow = new Time();
+        tNow.setToNow();
+        TriggerIndex index = new TriggerIndex();
+        index.setNow(tNow.toMillis(false));
+        assertEquals(tNow.weekDay, index.getWeekDay());
+
+        for (int i = 0; i < 7; ++i) {
+            for (int departure = 0; departure < 24 * 60; departure += 17) {
+                final long reminderMS = 10 * ONE_MINUTE;
+                assertEquals(getTriggerWithTime(tNow, i, departure, reminderMS),
+                        index.getTrigger(i, departure, reminderMS));
+            }
+        }
+    }
+
+    public void testDaylightSavings() {
+        TimeZone tz = TimeZone.getTimeZone("America/Los_Angeles");
+        Calendar cal = Calendar.getInstance(tz);
+        // The day before the clocks went forward in 2015.
+        cal.clear();
+        cal.set(2015, Calendar.MARCH, 7, 12, 0);
+        TriggerIndex index = new TriggerIndex(tz);
+        index.setNow(cal.getTimeInMillis());
+
+        // 10am on the next day is still 10am.
+        cal.set(2015, Calendar.MARCH, 8, 10, 0);
+        assertEquals(cal.getTimeInMillis() - TriggerIndex.LOOKAHEAD_DURATION_MS,
+                index.getTrigger(1, 10 * 60, 0));
+    }
+
+    public void testDayChange() {
+        TriggerIndex index = new TriggerIndex();
+        Calendar cal = Calendar.getInstance();
+        cal.set(Calendar.HOUR_OF_DAY, 8);
+        assertTrue(index.setNow(cal.getTimeInMillis()));
+        index.setScheduled("trip", "stop", 600, 10, 0x7f, 1, 1);
+
+        cal.set(Calendar.HOUR_OF_DAY, 20);
+        assertFalse(index.setNow(cal.getTimeInMillis()));
+        assertTrue(index.isScheduled("trip", "stop", 600, 10, 0x7f));
+
+        // Tomorrow all the triggers move, so everything is scheduled again.
+        cal.add(Calendar.DAY_OF_MONTH, 1);
+        assertTrue(index.setNow(cal.getTimeInMillis()));
+        assertFalse(index.isScheduled("trip", "stop", 600, 10, 0x7f));
+    }
+
+    public void testTimeZoneChange() {
+        final TimeZone saved = TimeZone.getDefault();
+        try {
+            TimeZone.setDefault(TimeZone.getTimeZone("America/Los_Angeles"));
+            TriggerIndex index = new TriggerIndex();
+            Calendar cal = Calendar.getInstance();
+            cal.clear();
+            cal.set(2015, Calendar.JUNE, 1, 8, 0);
+            final long now = cal.getTimeInMillis();
+            assertTrue(index.setNow(now));
+            index.setScheduled("trip", "stop", 600, 10, 0x7f, 1, 1);
+
+            // The departures are in the new local time, so everything
+            // is scheduled again even though the day hasn't changed.
+            final TimeZone newYork = TimeZone.getTimeZone("America/New_York");
+            TimeZone.setDefault(newYork);
+            assertTrue(index.setNow(now));
+            assertFalse(index.isScheduled("trip", "stop", 600, 10, 0x7f));
+
+            cal = Calendar.getInstance(newYork);
+            cal.clear();
+            cal.set(2015, Calendar.JUNE, 1, 10, 0);
+            assertEquals(cal.getTimeInMillis() - TriggerIndex.LOOKAHEAD_DURATION_MS,
+                    index.getTrigger(0, 10 * 60, 0));
+        } finally {
+            TimeZone.setDefault(saved);
+        }
+    }
+
+    public void testIncremental() {
+        TriggerIndex index = new TriggerIndex();
+        index.setNow(System.currentTimeMillis());
+        index.setScheduled("trip1", "stop", 600, 10, 0x7f, 1000, 1);
+        index.setScheduled("trip2", "stop", 700, 10, 0x7f, 2000, 2);
+        assertTrue(index.isScheduled("trip1", "stop", 600, 10, 0x7f));
+        assertEquals(1000, index.getNextTrigger("trip1", "stop"));
+        // Any change to the trip means it's scheduled again.
+        assertFalse(index.isScheduled("trip1", "stop", 601, 10, 0x7f));
+        assertFalse(index.isScheduled("trip1", "stop", 600, 5, 0x7f));
+        assertFalse(index.isScheduled("trip1", "stop", 600, 10, 0x01));
+        assertFalse(index.isScheduled("trip1", "stop2", 600, 10, 0x7f));
+
+        // Cancelling an alert only affects its own trip.
+        index.invalidateAlert(1);
+        assertFalse(index.isScheduled("trip1", "stop", 600, 10, 0x7f));
+        assertEquals(-1, index.getNextTrigger("trip1", "stop"));
+        assertTrue(index.isScheduled("trip2", "stop", 700, 10, 0x7f));
+
+        index.setScheduled("trip1", "stop", 600, 10, 0x7f, 1000, 3);
+        index.retainAll(Arrays.asList(TriggerIndex.getKey("trip2", "stop")));
+        assertEquals(1, index.size());
+        assertTrue(index.isScheduled("trip2", "stop", 700, 10, 0x7f));
+    }
+
+    public void testBenchmark() {
+        Random random = new Random(1234);
+        ArrayList<Trip> trips = new ArrayList<Trip>(TRIPS);
+        for (int i = 0; i < TRIPS; ++i) {
+            trips.add(new Trip("trip" + i, "stop" + (i % 50),
+                    random.nextInt(24 * 60), 5 + random.nextInt(20),
+                    1 + random.nextInt(0x7f)));
+        }
+
+        // The old way: a Time for every day probed.
+        long[] expected = new long[TRIPS];
+        long start = SystemClock.elapsedRealtime();
+        for (int round = 0; round < ROUNDS; ++round) {
+            Time tNow = new Time();
+            tNow.setToNow();
+            for (int i = 0; i < TRIPS; ++i) {
+                expected[i] = getNextTriggerWithTime(tNow, trips.get(i));
+            }
+        }
+        final long timeMs = SystemClock.elapsedRealtime() - start;
+
+        TriggerIndex index = new TriggerIndex();
+        start = SystemClock.elapsedRealtime();
+        int scheduled = 0;
+        for (int round = 0; round < ROUNDS; ++round) {
+            index.setNow(System.currentTimeMillis());
+            for (int i = 0; i < TRIPS; ++i) {
+                Trip trip = trips.get(i);
+                if (index.isScheduled(trip.id, trip.stopId, trip.departure, trip.reminder,
+                        trip.days)) {
+                    continue;
+                }
+                long trigger = getNextTrigger(index, trip);
+                index.setScheduled(trip.id, trip.stopId, trip.departure, trip.reminder,
+                        trip.days, trigger, i);
+                scheduled++;
+            }
+        }
+        final long indexMs = SystemClock.elapsedRealtime() - start;
+
+        // Only the first round schedules anything, unless the day changed.
+        assertTrue(scheduled == TRIPS || scheduled == 2 * TRIPS);
+        for (int i = 0; i < TRIPS; ++i) {
+            Trip trip = trips.get(i);
+            assertEquals(getNextTrigger(index, trip), index.getNextTrigger(trip.id, trip.stopId));
+        }
+        Log.i(TAG, String.format("%d trips x %d rounds: Time %d ms, index %d ms (%d scheduled)",
+                TRIPS, ROUNDS, timeMs, indexMs, scheduled));
+
+        // Both ways agree on the trigger times.
+        Time tNow = new Time();
+        tNow.setToNow();
+        index.setNow(tNow.toMillis(false));
+        for (int i = 0; i < TRIPS; ++i) {
+            assertEquals(getNextTriggerWithTime(tNow, trips.get(i)),
+                    getNextTrigger(index, trips.get(i)));
+        }
+    }
+
+    private static long getNextTrigger(TriggerIndex index, Trip trip) {
+        for (int i = 0; i < 7; ++i) {
+            final int bit = ObaContract.Trips.getDayBit((index.getWeekDay() + i) % 7);
+            if ((trip.days & bit) == bit) {
+                return index.getTrigger(i, trip.departure, trip.reminder * ONE_MINUTE);
+            }
+        }
+        return -1;
+    }
+
+    private static long getNextTriggerWithTime(Time tNow, Trip trip) {
+        for (int i = 0; i < 7; ++i) {
+            final int bit = ObaContract.Trips.getDayBit((tNow.weekDay + i) % 7);
+            if ((trip.days & bit) == bit) {
+                return getTriggerWithTime(tNow, i, trip.departure, trip.reminder * ONE_MINUTE);
+            }
+        }
+        return -1;
+    }
+
+    private static long getTriggerWithTime(Time tNow, int dayOffset, int departure,
+            long reminderMS) {
+        Time tmp = new Time();
+        tmp.set(0, departure, 0, tNow.monthDay + dayOffset, tNow.month, tNow.year);
+        tmp.normalize(false);
+        return tmp.toMillis(false) - reminderMS - TriggerIndex.LOOKAHEAD_DURATION_MS;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.seattlebusbot.test;
+
+import android.test.AndroidTestCase;
+
+import com.joulespersecond.seattlebusbot.tripservice.WakeupScheduler;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class WakeupSchedulerTest extends AndroidTestCase {
+
+    private static final long ONE_MINUTE = 60 * 1000;
+
+    private static final long TOLERANCE = 30 * 1000;
+
+    private static final long START = 1000 * ONE_MINUTE;
+
+    private static class FakeClock implements WakeupScheduler.Clock {
+
+        long mNow = START;
+
+        @Override
+        public long currentTimeMillis() {
+            return mNow;
+        }
+    }
+
+    private static class FakeAlarm implements WakeupScheduler.Alarm {
+
+        // The time the alarm is set for, or -1 if it isn't set.
+        long mTime = -1;
+
+        int mSetCount;
+
+        @Override
+        public void set(long triggerAtMillis) {
+            mTime = triggerAtMillis;
+            mSetCount++;
+        }
+
+        @Override
+        public void cancel() {
+            mTime = -1;
+        }
+    }
+
+    private FakeClock mClock;
+
+    private FakeAlarm mAlarm;
+
+    private WakeupScheduler mScheduler;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mClock = new FakeClock();
+        mAlarm = new FakeAlarm();
+        mScheduler = new WakeupScheduler(mClock, mAlarm, TOLERANCE);
+    }
+
+    public void testEarliestDeadline() {
+        mScheduler.schedule(1, START + 5 * ONE_MINUTE);
+        assertEquals(START + 5 * ONE_MINUTE, mAlarm.mTime);
+        mScheduler.schedule(2, START + 2 * ONE_MINUTE);
+        assertEquals(START + 2 * ONE_MINUTE, mAlarm.mTime);
+        // A later deadline doesn't touch the alarm.
+        mScheduler.schedule(3, START + 10 * ONE_MINUTE);
+        assertEquals(START + 2 * ONE_MINUTE, mAlarm.mTime);
+        assertEquals(2, mAlarm.mSetCount);
+        assertEquals(3, mScheduler.size());
+    }
+
+    public void testReschedule() {
+        mScheduler.schedule(1, START + 2 * ONE_MINUTE);
+        mScheduler.schedule(2, START + 5 * ONE_MINUTE);
+        // Moving the earliest alert later moves the alarm to the next one.
+        mScheduler.schedule(1, START + 8 * ONE_MINUTE);
+        assertEquals(2, mScheduler.size());
+        assertEquals(START + 5 * ONE_MINUTE, mAlarm.mTime);
+    }
+
+    public void testCancel() {
+        mScheduler.schedule(1, START + ONE_MINUTE);
+        mScheduler.schedule(2, START + 3 * ONE_MINUTE);
+        mScheduler.cancel(1);
+        assertEquals(START + 3 * ONE_MINUTE, mAlarm.mTime);
+        mScheduler.cancel(2);
+        assertEquals(-1, mAlarm.mTime);
+        assertEquals(-1, mScheduler.getNextDeadline());
+    }
+
+    public void testBatching() {
+        mScheduler.schedule(1, START + ONE_MINUTE);
+        mScheduler.schedule(2, START + ONE_MINUTE + 10 * 1000);
+        mScheduler.schedule(3, START + ONE_MINUTE + TOLERANCE);
+        mScheduler.schedule(4, START + ONE_MINUTE + TOLERANCE + 1);
+
+        mClock.mNow = mAlarm.mTime;
+        List<Long> due = mScheduler.takeDue();
+        assertEquals(Arrays.asList(1L, 2L, 3L), due);
+        assertEquals(1, mScheduler.getWakeupCount());
+        assertEquals(2, mScheduler.getWakeupsAvoided());
+        // The alarm is set again for the one that's left.
+        assertEquals(START + ONE_MINUTE + TOLERANCE + 1, mAlarm.mTime);
+        assertEquals(1, mScheduler.size());
+    }
+
+    public void testEarlyWakeup() {
+        mScheduler.schedule(1, START + 5 * ONE_MINUTE);
+        // Nothing is due, so nothing is handed out and the alarm stays set.
+        assertTrue(mScheduler.takeDue().isEmpty());
+        assertEquals(0, mScheduler.getWakeupCount());
+        assertEquals(START + 5 * ONE_MINUTE, mAlarm.mTime);
+    }
+
+    public void testPollingFallsIntoStep() {
+        // Three alerts start polling 20 seconds apart, each polled every minute.
+        // Without batching that's three wakeups a minute.
+        final long[] starts = {START, START + 20 * 1000, START + 40 * 1000};
+        for (int i = 0; i < starts.length; ++i) {
+            mScheduler.schedule(i, starts[i]);
+        }
+        int polls = 0;
+        for (int wakeup = 0; wakeup < 10; ++wakeup) {
+            mClock.mNow = mAlarm.mTime;
+            List<Long> due = mScheduler.takeDue();
+            assertFalse(due.isEmpty());
+            for (Long id : due) {
+                mScheduler.schedule(id, mClock.mNow + ONE_MINUTE);
+                polls++;
+            }
+        }
+        // From the second wakeup on, they are all polled together.
+        assertEquals(10, mScheduler.getWakeupCount());
+        assertEquals(polls - 10, mScheduler.getWakeupsAvoided());
+        assertTrue(polls >= 10 * starts.length - 1);
+    }
+
+    public void testRestored() {
+        assertFalse(mScheduler.isRestored());
+        mScheduler.setRestored();
+        assertTrue(mScheduler.isRestored());
+    }
+}
@@ -17,7 +17,13 @@ package com.joulespersecond.oba;
 
 import com.joulespersecond.oba.serialization.JacksonSerializer;
 
+import android.net.Uri;
+
 import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 public final class ObaApi {
 
@@ -65,4 +71,44 @@ public final class ObaApi {
     public static final <T> SerializationHandler getSerializer(Class<T> cls) {
         return JacksonSerializer.getInstance();
     }
+
+    // Query parameters that identify the client rather than the request.
+    private static final List<String> VOLATILE_PARAMS =
+            Arrays.asList("key", "app_uid", "app_ver");
+
+    /**
+     * Returns a canonical form of a request URI, suitable for identifying
+     * equivalent requests: the scheme, authority and path, followed by the
+     * query parameters that affect the response, in sorted order.
+     *
+     * @param uri The request URI.
+     * @return The canonical form of the URI.
+     */
+    public static String getCanonicalUri(Uri uri) {
+        StringBuilder key = new StringBuilder();
+        key.append(uri.getScheme());
+        key.append("://");
+        key.append(uri.getEncodedAuthority());
+        key.append(uri.getEncodedPath());
+
+        final String query = uri.getEncodedQuery();
+        if (query == null) {
+            return key.toString();
+        }
+        ArrayList<String> params = new ArrayList<String>();
+        for (String param : query.split("&")) {
+            final int separator = param.indexOf('=');
+            final String name = Uri.decode(
+                    (separator == -1) ? param : param.substring(0, separator));
+            if (param.length() != 0 && !VOLATILE_PARAMS.contains(name)) {
+                params.add(param);
+            }
+        }
+        Collections.sort(params);
+        for (int i = 0; i < params.size(); ++i) {
+            key.append((i == 0) ? '?' : '&');
+            key.append(params.get(i));
+        }
+        return key.toString();
+    }
 }
@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.oba;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.joulespersecond.seattlebusbot.BuildConfig;
+
+import android.net.Uri;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.HttpURLConnection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A connection factory that wraps another factory and caches the responses
+ * of largely static endpoints (routes, stops, shapes, agencies) on disk.
+ *
+ * Entries are keyed on the request URI without the parameters that
+ * don't affect the response (API key, app version and UID).
+ * Fresh entries are served without touching the network; stale entries
+ * are revalidated with a conditional GET using the stored ETag and/or
+ * Last-Modified validators. Requests for endpoints without a cache
+ * policy, and all POSTs, go straight to the wrapped factory.
+ */
+public class ObaCachingConnectionFactory implements ObaConnectionFactory {
+
+    private static final String TAG = "ObaCachingConnection";
+
+    private static final JsonFactory sJsonFactory = new JsonFactory();
+
+    private final ObaConnectionFactory mFactory;
+
+    private final ObaResponseCache mCache;
+
+    // Maps a path fragment to the time to live of its responses.
+    private final LinkedHashMap<String, Long> mPolicies = new LinkedHashMap<String, Long>();
+
+    private final AtomicInteger mHits = new AtomicInteger();
+
+    private final AtomicInteger mMisses = new AtomicInteger();
+
+    private final AtomicInteger mRevalidations = new AtomicInteger();
+
+    /**
+     * @param factory   The factory that creates the real connections.
+     * @param directory The directory for cache entries.
+     * @param maxSize   The maximum size of the cache, in bytes.
+     */
+    public ObaCachingConnectionFactory(ObaConnectionFactory factory, File directory,
+            long maxSize) {
+        mFactory = factory;
+        mCache = new ObaResponseCache(directory, maxSize);
+
+        setTimeToLive("/where/route/", DateUtils.DAY_IN_MILLIS);
+        setTimeToLive("/where/stop/", DateUtils.DAY_IN_MILLIS);
+        setTimeToLive("/where/shape/", DateUtils.WEEK_IN_MILLIS);
+        setTimeToLive("/where/agency/", DateUtils.WEEK_IN_MILLIS);
+        setTimeToLive("/where/agencies-with-coverage.json", DateUtils.DAY_IN_MILLIS);
+    }
+
+    /**
+     * Sets the cache policy for all request paths containing the specified fragment.
+     *
+     * @param pathFragment The path fragment, such as "/where/route/"
+     * @param ttl          The time, in milliseconds, that a response is served without
+     *                     revalidation. Zero means always revalidate; a negative value
+     *                     disables caching for this path.
+     */
+    public synchronized void setTimeToLive(String pathFragment, long ttl) {
+        if (ttl < 0) {
+            mPolicies.remove(pathFragment);
+        } else {
+            mPolicies.put(pathFragment, ttl);
+        }
+    }
+
+    /**
+     * @return The time to live for this URI, or -1 if it shouldn't be cached.
+     */
+    synchronized long getTimeToLive(Uri uri) {
+        final String path = uri.getPath();
+        if (path == null) {
+            return -1;
+        }
+        for (Map.Entry<String, Long> policy : mPolicies.entrySet()) {
+            if (path.contains(policy.getKey())) {
+                return policy.getValue();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return The number of responses served from the cache without a network request.
+     */
+    public int getHitCount() {
+        return mHits.get();
+    }
+
+    /**
+     * @return The number of cacheable requests that had to be fully downloaded.
+     */
+    public int getMissCount() {
+        return mMisses.get();
+    }
+
+    /**
+     * @return The number of stale entries the server confirmed were unchanged.
+     */
+    public int getRevalidationCount() {
+        return mRevalidations.get();
+    }
+
+    public void resetCounts() {
+        mHits.set(0);
+        mMisses.set(0);
+        mRevalidations.set(0);
+    }
+
+    /**
+     * Removes all cached responses.
+     */
+    public void clear() {
+        mCache.clear();
+    }
+
+    @Override
+    public ObaConnection newConnection(Uri uri) throws IOException {
+        final long ttl = getTimeToLive(uri);
+        if (ttl < 0) {
+            return mFactory.newConnection(uri);
+        }
+        return new CachingConnection(uri, ttl);
+    }
+
+    private final class CachingConnection implements ObaConnection {
+
+        private final Uri mUri;
+
+        private final String mKey;
+
+        private final long mTtl;
+
+        private ObaConnection mConnection;
+
+        // The body to return from get(), once the request has been resolved.
+        private String mBody;
+
+        private int mResponseCode;
+
+        CachingConnection(Uri uri, long ttl) {
+            mUri = uri;
+            mKey = ObaApi.getCanonicalUri(uri);
+            mTtl = ttl;
+        }
+
+        @Override
+        public void disconnect() {
+            if (mConnection != null) {
+                mConnection.disconnect();
+            }
+        }
+
+        @Override
+        public Reader get() throws IOException {
+            resolve();
+            if (mBody != null) {
+                return new StringReader(mBody);
+            }
+            // Not cacheable: let the real connection report the error.
+            return getConnection().get();
+        }
+
+        @Override
+        public Reader post(String string) throws IOException {
+            return getConnection().post(string);
+        }
+
+        @Override
+        public int getResponseCode() throws IOException {
+            resolve();
+            return mResponseCode;
+        }
+
+        @Override
+        public void setRequestProperty(String field, String value) {
+            getConnectionQuietly().setRequestProperty(field, value);
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            return (mConnection != null) ? mConnection.getHeaderField(name) : null;
+        }
+
+        private ObaConnection getConnection() throws IOException {
+            if (mConnection == null) {
+                mConnection = mFactory.newConnection(mUri);
+            }
+            return mConnection;
+        }
+
+        private ObaConnection getConnectionQuietly() {
+            try {
+                return getConnection();
+            } catch (IOException e) {
+                throw new IllegalStateException(e.toString());
+            }
+        }
+
+        private void resolve() throws IOException {
+            if (mResponseCode != 0) {
+                return;
+            }
+            final long now = System.currentTimeMillis();
+            final ObaResponseCache.Entry entry = mCache.get(mKey);
+            if (entry != null && now - entry.fetchedTime < mTtl) {
+                if (BuildConfig.DEBUG) {
+                    Log.d(TAG, "Cache hit: " + mKey);
+                }
+                mHits.incrementAndGet();
+                mBody = entry.body;
+                mResponseCode = HttpURLConnection.HTTP_OK;
+                return;
+            }
+
+            ObaConnection conn = getConnection();
+            if (entry != null) {
+                if (entry.etag != null) {
+                    conn.setRequestProperty("If-None-Match", entry.etag);
+                }
+                if (entry.lastModified != null) {
+                    conn.setRequestProperty("If-Modified-Since", entry.lastModified);
+                }
+            }
+            final int code = conn.getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED && entry != null) {
+                if (BuildConfig.DEBUG) {
+                    Log.d(TAG, "Cache revalidated: " + mKey);
+                }
+                mRevalidations.incrementAndGet();
+                mCache.put(mKey, new ObaResponseCache.Entry(entry.body,
+                        entry.etag, entry.lastModified, now));
+                mBody = entry.body;
+                mResponseCode = HttpURLConnection.HTTP_OK;
+                return;
+            }
+
+            mMisses.incrementAndGet();
+            mResponseCode = code;
+            if (code != HttpURLConnection.HTTP_OK) {
+                return;
+            }
+            mBody = readAll(conn.get());
+            // The API reports some errors in the body of an HTTP 200 response,
+            // and we don't want to keep serving those.
+            if (!isOkResponse(mBody)) {
+                return;
+            }
+            mCache.put(mKey, new ObaResponseCache.Entry(mBody,
+                    conn.getHeaderField("ETag"),
+                    conn.getHeaderField("Last-Modified"),
+                    now));
+        }
+    }
+
+    /**
+     * @return true if the top-level "code" of the JSON response body is OBA_OK.
+     * Elements in the body, such as stops, can have a "code" of their own,
+     * so only the fields of the outermost object are looked at.
+     */
+    static boolean isOkResponse(String body) {
+        JsonParser parser = null;
+        try {
+            parser = sJsonFactory.createParser(body);
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return false;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = parser.getCurrentName();
+                final JsonToken value = parser.nextToken();
+                if ("code".equals(name)) {
+                    return value == JsonToken.VALUE_NUMBER_INT
+                            && parser.getIntValue() == ObaApi.OBA_OK;
+                }
+                parser.skipChildren();
+            }
+            return false;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (parser != null) {
+                try {
+                    parser.close();
+                } catch (IOException e) {
+                    // Nothing to do.
+                }
+            }
+        }
+    }
+
+    private static String readAll(Reader reader) throws IOException {
+        StringWriter writer = new StringWriter();
+        char[] buffer = new char[8 * 1024];
+        int n;
+        try {
+            while ((n = reader.read(buffer)) != -1) {
+                writer.write(buffer, 0, n);
+            }
+        } finally {
+            reader.close();
+        }
+        return writer.toString();
+    }
+}
@@ -37,4 +37,14 @@ public interface ObaConnection {
     public Reader post(String string) throws IOException;
 
     public int getResponseCode() throws IOException;
+
+    /**
+     * Sets a request header. Must be called before the request is made.
+     */
+    public void setRequestProperty(String field, String value);
+
+    /**
+     * @return The value of the named response header, or null if it doesn't exist.
+     */
+    public String getHeaderField(String name);
 }
@@ -129,4 +129,14 @@ public final class ObaDefaultConnection implements ObaConnection {
     public int getResponseCode() throws IOException {
         return mConnection.getResponseCode();
     }
+
+    @Override
+    public void setRequestProperty(String field, String value) {
+        mConnection.setRequestProperty(field, value);
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+        return mConnection.getHeaderField(name);
+    }
 }
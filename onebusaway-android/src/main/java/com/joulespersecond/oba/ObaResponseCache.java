@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.oba;
+
+import com.joulespersecond.seattlebusbot.Application;
+
+import org.apache.commons.io.IOUtils;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size-bounded, least-recently-used disk cache of response bodies,
+ * along with the validators (ETag/Last-Modified) needed to revalidate them.
+ *
+ * Each entry is stored in its own file, named by the MD5 of its key.
+ * The LRU order is kept in memory and rebuilt from file modification
+ * times the first time the cache is used.
+ */
+final class ObaResponseCache {
+
+    private static final String TAG = "ObaResponseCache";
+
+    private static final int VERSION = 1;
+
+    static final class Entry {
+
+        final String body;
+
+        final String etag;
+
+        final String lastModified;
+
+        final long fetchedTime;
+
+        Entry(String body, String etag, String lastModified, long fetchedTime) {
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.fetchedTime = fetchedTime;
+        }
+    }
+
+    private final File mDirectory;
+
+    private final long mMaxSize;
+
+    // Maps file names to file sizes, in access order.
+    private LinkedHashMap<String, Long> mIndex;
+
+    private long mSize;
+
+    ObaResponseCache(File directory, long maxSize) {
+        mDirectory = directory;
+        mMaxSize = maxSize;
+    }
+
+    synchronized Entry get(String key) {
+        ensureIndex();
+        final String name = getFileName(key);
+        if (mIndex.get(name) == null) {
+            return null;
+        }
+        File file = new File(mDirectory, name);
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != VERSION || !key.equals(in.readUTF())) {
+                // Old format or a hash collision: treat it as a miss.
+                return null;
+            }
+            final long fetchedTime = in.readLong();
+            final String etag = emptyToNull(in.readUTF());
+            final String lastModified = emptyToNull(in.readUTF());
+            final byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+            file.setLastModified(System.currentTimeMillis());
+            return new Entry(new String(body, "UTF-8"), etag, lastModified, fetchedTime);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to read cache entry: " + e);
+            remove(name);
+            return null;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    synchronized void put(String key, Entry entry) {
+        ensureIndex();
+        final String name = getFileName(key);
+        File file = new File(mDirectory, name);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            out.writeInt(VERSION);
+            out.writeUTF(key);
+            out.writeLong(entry.fetchedTime);
+            out.writeUTF(nullToEmpty(entry.etag));
+            out.writeUTF(nullToEmpty(entry.lastModified));
+            final byte[] body = entry.body.getBytes("UTF-8");
+            out.writeInt(body.length);
+            out.write(body);
+            out.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to write cache entry: " + e);
+            IOUtils.closeQuietly(out);
+            remove(name);
+            return;
+        }
+        Long prev = mIndex.put(name, file.length());
+        if (prev != null) {
+            mSize -= prev;
+        }
+        mSize += file.length();
+        trimToSize();
+    }
+
+    synchronized void clear() {
+        ensureIndex();
+        for (String name : mIndex.keySet()) {
+            new File(mDirectory, name).delete();
+        }
+        mIndex.clear();
+        mSize = 0;
+    }
+
+    synchronized long size() {
+        ensureIndex();
+        return mSize;
+    }
+
+    private void remove(String name) {
+        Long size = mIndex.remove(name);
+        if (size != null) {
+            mSize -= size;
+        }
+        new File(mDirectory, name).delete();
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> it = mIndex.entrySet().iterator();
+        while (mSize > mMaxSize && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            mSize -= eldest.getValue();
+            new File(mDirectory, eldest.getKey()).delete();
+            it.remove();
+        }
+    }
+
+    private void ensureIndex() {
+        if (mIndex != null) {
+            return;
+        }
+        mIndex = new LinkedHashMap<String, Long>(32, 0.75f, true);
+        mSize = 0;
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            Log.e(TAG, "Unable to create cache directory " + mDirectory);
+            return;
+        }
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        // Oldest first, so the least recently used end up at the head.
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                final long l = lhs.lastModified();
+                final long r = rhs.lastModified();
+                return (l < r) ? -1 : ((l == r) ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            mIndex.put(file.getName(), file.length());
+            mSize += file.length();
+        }
+        trimToSize();
+    }
+
+    private static String getFileName(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            digest.update(key.getBytes("UTF-8"));
+            return Application.getHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(key.hashCode());
+        } catch (IOException e) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+
+    private static String nullToEmpty(String s) {
+        return (s != null) ? s : "";
+    }
+
+    private static String emptyToNull(String s) {
+        return (s.length() != 0) ? s : null;
+    }
+}
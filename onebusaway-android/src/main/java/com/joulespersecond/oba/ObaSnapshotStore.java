@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.oba;
+
+import com.joulespersecond.oba.request.ObaResponse;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the last good response for each screen on disk, so the screen can
+ * show it straight away when it's next opened, even after the process
+ * has died, while it waits for a fresh one.
+ *
+ * Snapshots are written in the background. The store is limited in size,
+ * and the least recently used snapshots are removed first.
+ */
+public final class ObaSnapshotStore {
+
+    private static final String TAG = "ObaSnapshotStore";
+
+    private final ObaResponseCache mCache;
+
+    // Snapshots waiting to be written, by key.
+    private final LinkedHashMap<String, ObaResponse> mPending =
+            new LinkedHashMap<String, ObaResponse>();
+
+    private Handler mHandler;
+
+    private final Runnable mWrite = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * @param directory The directory for the snapshots.
+     * @param maxSize   The maximum size of the store, in bytes.
+     */
+    public ObaSnapshotStore(File directory, long maxSize) {
+        mCache = new ObaResponseCache(directory, maxSize);
+    }
+
+    /**
+     * Reads a snapshot. This reads from the disk, so it shouldn't be
+     * called on the UI thread.
+     *
+     * @return The last response stored with this key, or null if there isn't one.
+     */
+    public <T extends ObaResponse> T get(String key, Class<T> cls) {
+        return get(key, cls, Long.MAX_VALUE);
+    }
+
+    /**
+     * Reads a snapshot, unless it's too old to be any use. This reads
+     * from the disk, so it shouldn't be called on the UI thread.
+     *
+     * @param maxAge The age, by the response's server time, after which
+     *               everything in it is in the past, in milliseconds.
+     * @return The last response stored with this key, or null if there
+     * isn't one or it's older than maxAge.
+     */
+    public <T extends ObaResponse> T get(String key, Class<T> cls, long maxAge) {
+        T response = null;
+        synchronized (this) {
+            // One that hasn't been written yet is the newest.
+            final ObaResponse pending = mPending.get(key);
+            if (cls.isInstance(pending)) {
+                response = cls.cast(pending);
+            }
+        }
+        if (response == null) {
+            final ObaResponseCache.Entry entry = mCache.get(key);
+            if (entry == null) {
+                return null;
+            }
+            response = ObaApi.getSerializer(cls).deserialize(new StringReader(entry.body), cls);
+            if (response == null || response.getCode() != ObaApi.OBA_OK) {
+                return null;
+            }
+        }
+        if (System.currentTimeMillis() - response.getCurrentTime() > maxAge) {
+            return null;
+        }
+        return response;
+    }
+
+    /**
+     * Stores a response in the background, replacing any other with the same key.
+     */
+    public void put(String key, ObaResponse response) {
+        final boolean first;
+        synchronized (this) {
+            first = mPending.isEmpty();
+            mPending.remove(key);
+            mPending.put(key, response);
+        }
+        if (first) {
+            getHandler().post(mWrite);
+        }
+    }
+
+    /**
+     * Writes the responses waiting to be stored now.
+     */
+    public void flush() {
+        while (true) {
+            final String key;
+            final ObaResponse response;
+            synchronized (this) {
+                if (mPending.isEmpty()) {
+                    return;
+                }
+                Map.Entry<String, ObaResponse> eldest = mPending.entrySet().iterator().next();
+                key = eldest.getKey();
+                response = eldest.getValue();
+            }
+            final String body = ObaApi.getSerializer(response.getClass()).serialize(response);
+            mCache.put(key, new ObaResponseCache.Entry(body, null, null,
+                    System.currentTimeMillis()));
+            synchronized (this) {
+                // Unless a newer one came in while this one was written.
+                if (mPending.get(key) == response) {
+                    mPending.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all the snapshots, including any waiting to be written.
+     */
+    public void clear() {
+        synchronized (this) {
+            mPending.clear();
+        }
+        mCache.clear();
+    }
+
+    /**
+     * @return The size of the stored snapshots, in bytes.
+     */
+    public long size() {
+        return mCache.size();
+    }
+
+    private synchronized Handler getHandler() {
+        if (mHandler == null) {
+            HandlerThread thread = new HandlerThread(TAG);
+            thread.start();
+            mHandler = new Handler(thread.getLooper());
+        }
+        return mHandler;
+    }
+}
@@ -35,6 +35,12 @@ public final class ObaArrivalInfo {
             headway = 0;
         }
 
+        public Frequency(long startTime, long endTime, long headway) {
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.headway = headway;
+        }
+
         public long getStartTime() {
             return startTime;
         }
@@ -123,6 +129,56 @@ public final class ObaArrivalInfo {
         blockTripSequence = 0;
     }
 
+    public ObaArrivalInfo(String routeId,
+            String routeShortName,
+            String routeLongName,
+            String tripId,
+            String tripHeadsign,
+            String stopId,
+            long predictedArrivalTime,
+            long scheduledArrivalTime,
+            long predictedDepartureTime,
+            long scheduledDepartureTime,
+            String status,
+            Frequency frequency,
+            String vehicleId,
+            Double distanceFromStop,
+            Integer numberOfStopsAway,
+            long serviceDate,
+            long lastUpdateTime,
+            Boolean predicted,
+            ObaTripStatusElement tripStatus,
+            String[] situationIds,
+            boolean arrivalEnabled,
+            boolean departureEnabled,
+            int stopSequence,
+            int blockTripSequence) {
+        this.routeId = routeId;
+        this.routeShortName = routeShortName;
+        this.routeLongName = routeLongName;
+        this.tripId = tripId;
+        this.tripHeadsign = tripHeadsign;
+        this.stopId = stopId;
+        this.predictedArrivalTime = predictedArrivalTime;
+        this.scheduledArrivalTime = scheduledArrivalTime;
+        this.predictedDepartureTime = predictedDepartureTime;
+        this.scheduledDepartureTime = scheduledDepartureTime;
+        this.status = status;
+        this.frequency = frequency;
+        this.vehicleId = vehicleId;
+        this.distanceFromStop = distanceFromStop;
+        this.numberOfStopsAway = numberOfStopsAway;
+        this.serviceDate = serviceDate;
+        this.lastUpdateTime = lastUpdateTime;
+        this.predicted = predicted;
+        this.tripStatus = tripStatus;
+        this.situationIds = situationIds;
+        this.arrivalEnabled = arrivalEnabled;
+        this.departureEnabled = departureEnabled;
+        this.stopSequence = stopSequence;
+        this.blockTripSequence = blockTripSequence;
+    }
+
     /**
      * @return The ID of the route.
      */
@@ -299,4 +355,13 @@ public final class ObaArrivalInfo {
     public int getBlockTripSequence() {
         return blockTripSequence;
     }
+
+    /**
+     * @return A key for this visit of the trip to the stop on its service date.
+     * The stop sequence tells apart the visits of a trip that loops past the
+     * stop twice.
+     */
+    public String getVisitKey() {
+        return tripId + '|' + serviceDate + '|' + stopSequence;
+    }
 }
@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.oba.elements;
+
+import android.location.Location;
+
+import com.joulespersecond.seattlebusbot.util.LocationHelp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A decoded polyline, stored as packed primitive arrays rather than
+ * one object per vertex. This is immutable and can be shared between threads.
+ */
+public final class ObaDecodedShape {
+
+    public static final ObaDecodedShape EMPTY_OBJECT =
+            new ObaDecodedShape(new int[0], new int[0], "");
+
+    /**
+     * The highest map zoom level; every point of a line is shown at this level.
+     */
+    public static final int MAX_ZOOM = 21;
+
+    // The encoded levels use the Google scheme of 18 levels, one per zoom level:
+    // a point with level L is shown at zoom (NUM_LEVELS - 1 - L) and above.
+    private static final int NUM_LEVELS = 18;
+
+    // The size of a pixel at zoom level 0 in degrees * 1E5: 360 degrees over 256 pixels.
+    private static final double PIXEL_E5_AT_ZOOM_0 = 360.0 / 256 * 1E5;
+
+    // Latitude and longitude of each point, interleaved, in degrees * 1E5
+    // which is the precision of the encoded polyline.
+    private final int[] mPoints;
+
+    private final int[] mLevels;
+
+    // The encoded string this was decoded from. The response holds on to it anyway,
+    // and it's a fraction of the size of the decoded points.
+    private final String mEncoded;
+
+    // The lowest zoom level at which each point needs to be drawn; computed on first use.
+    private volatile byte[] mMinZoom;
+
+    private ObaDecodedShape(int[] points, int[] levels, String encoded) {
+        mPoints = points;
+        mLevels = levels;
+        mEncoded = encoded;
+    }
+
+    /**
+     * Decodes an encoded polyline and its optional levels.
+     *
+     * @param points    The encoded points.
+     * @param levels    The encoded levels, or null or the empty string if there are none.
+     * @param numPoints The number of points; purely a hint to allocate memory.
+     * @return The decoded shape.
+     */
+    public static ObaDecodedShape decode(String points, String levels, int numPoints) {
+        final int[] decodedLevels = (levels != null && levels.length() > 0)
+                ? ObaShapeElement.decodeLevelsArray(levels, numPoints) : new int[0];
+        return new ObaDecodedShape(ObaShapeElement.decodeLineE5(points, numPoints),
+                decodedLevels, points);
+    }
+
+    /**
+     * @return The number of points in the line.
+     */
+    public int size() {
+        return mPoints.length / 2;
+    }
+
+    public double getLatitude(int i) {
+        return mPoints[i * 2] / 1E5;
+    }
+
+    public double getLongitude(int i) {
+        return mPoints[i * 2 + 1] / 1E5;
+    }
+
+    /**
+     * @return The latitude of the specified point in degrees * 1E6, as used by GeoPoint.
+     */
+    public int getLatitudeE6(int i) {
+        return mPoints[i * 2] * 10;
+    }
+
+    /**
+     * @return The longitude of the specified point in degrees * 1E6, as used by GeoPoint.
+     */
+    public int getLongitudeE6(int i) {
+        return mPoints[i * 2 + 1] * 10;
+    }
+
+    /**
+     * @return true if the encoded line had a level for each point.
+     */
+    public boolean hasLevels() {
+        return mLevels.length >= size() && mLevels.length > 0;
+    }
+
+    /**
+     * @return The level of the specified point, or 0 if the line has no levels.
+     */
+    public int getLevel(int i) {
+        return (i < mLevels.length) ? mLevels[i] : 0;
+    }
+
+    /**
+     * Converts this line to a list of Locations. This allocates an object
+     * per point, so it's only meant for callers that really need Locations.
+     */
+    public List<Location> toLocations() {
+        final int size = size();
+        ArrayList<Location> result = new ArrayList<Location>(size);
+        for (int i = 0; i < size; ++i) {
+            result.add(LocationHelp.makeLocation(getLatitude(i), getLongitude(i)));
+        }
+        return result;
+    }
+
+    /**
+     * @return The levels as a list.
+     */
+    public List<Integer> toLevelList() {
+        ArrayList<Integer> result = new ArrayList<Integer>(mLevels.length);
+        for (int level : mLevels) {
+            result.add(level);
+        }
+        return result;
+    }
+
+    /**
+     * @return true if this was decoded from the specified encoded string.
+     */
+    boolean matches(String encoded) {
+        return mEncoded.equals(encoded);
+    }
+
+    /**
+     * Ranks the points for simplification now, rather than on the first call to
+     * getIndicesForZoom() or getVertexCount(). Loaders call this so the ranking
+     * is done in the background instead of on the UI thread.
+     */
+    public void prepare() {
+        getMinZoom();
+    }
+
+    /**
+     * Returns the indices of the points to draw at the specified zoom level.
+     * The first and last points are always included, and every point is
+     * included at MAX_ZOOM.
+     *
+     * If the line has levels, those decide which points are shown; otherwise
+     * the points are ranked with the Douglas-Peucker algorithm, so that the
+     * simplified line is never more than about a pixel away from the original.
+     * The ranking is done once, so each zoom level afterwards is a linear scan.
+     *
+     * @param zoom The map zoom level.
+     * @return The indices of the points to draw, in order.
+     */
+    public int[] getIndicesForZoom(int zoom) {
+        final byte[] minZoom = getMinZoom();
+        final int count = getVertexCount(zoom);
+        final int[] result = new int[count];
+        int j = 0;
+        for (int i = 0; i < minZoom.length; ++i) {
+            if (minZoom[i] <= zoom) {
+                result[j++] = i;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The number of points to draw at the specified zoom level.
+     */
+    public int getVertexCount(int zoom) {
+        final byte[] minZoom = getMinZoom();
+        int count = 0;
+        for (int i = 0; i < minZoom.length; ++i) {
+            if (minZoom[i] <= zoom) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    private byte[] getMinZoom() {
+        byte[] minZoom = mMinZoom;
+        if (minZoom == null) {
+            minZoom = hasLevels() ? rankByLevels() : rankByDistance();
+            mMinZoom = minZoom;
+        }
+        return minZoom;
+    }
+
+    private byte[] rankByLevels() {
+        final int size = size();
+        final byte[] minZoom = new byte[size];
+        for (int i = 0; i < size; ++i) {
+            minZoom[i] = clampZoom(NUM_LEVELS - 1 - mLevels[i]);
+        }
+        if (size > 0) {
+            minZoom[0] = 0;
+            minZoom[size - 1] = 0;
+        }
+        return minZoom;
+    }
+
+    /**
+     * Ranks the points using Douglas-Peucker: each point gets the lowest zoom level
+     * at which its distance from the simplified line is more than a pixel.
+     * A point is never ranked lower than the point that split its segment,
+     * so the points at any zoom level are what Douglas-Peucker would return
+     * for that level's tolerance.
+     */
+    private byte[] rankByDistance() {
+        final int size = size();
+        final byte[] minZoom = new byte[size];
+        if (size == 0) {
+            return minZoom;
+        }
+        Arrays.fill(minZoom, (byte) MAX_ZOOM);
+        minZoom[0] = 0;
+        minZoom[size - 1] = 0;
+
+        // Segments still to be split, as (first, last, minimum zoom) triples.
+        int[] stack = new int[48];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = size - 1;
+        stack[top++] = 0;
+        while (top > 0) {
+            final int parentZoom = stack[--top];
+            final int last = stack[--top];
+            final int first = stack[--top];
+            if (last - first < 2) {
+                continue;
+            }
+            double maxDistance = -1;
+            int index = -1;
+            for (int i = first + 1; i < last; ++i) {
+                final double distance = distanceToSegment(i, first, last);
+                if (distance > maxDistance) {
+                    maxDistance = distance;
+                    index = i;
+                }
+            }
+            final int zoom = Math.max(parentZoom, zoomForDistance(maxDistance));
+            minZoom[index] = (byte) zoom;
+
+            if (top + 6 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            stack[top++] = first;
+            stack[top++] = index;
+            stack[top++] = zoom;
+            stack[top++] = index;
+            stack[top++] = last;
+            stack[top++] = zoom;
+        }
+        return minZoom;
+    }
+
+    /**
+     * @return The distance in degrees * 1E5 of point i from the segment between
+     * points first and last.
+     */
+    private double distanceToSegment(int i, int first, int last) {
+        final double x = mPoints[i * 2 + 1];
+        final double y = mPoints[i * 2];
+        final double x1 = mPoints[first * 2 + 1];
+        final double y1 = mPoints[first * 2];
+        final double dx = mPoints[last * 2 + 1] - x1;
+        final double dy = mPoints[last * 2] - y1;
+        final double lengthSquared = dx * dx + dy * dy;
+        double t = 0;
+        if (lengthSquared > 0) {
+            t = ((x - x1) * dx + (y - y1) * dy) / lengthSquared;
+            t = Math.max(0, Math.min(1, t));
+        }
+        final double px = x1 + t * dx - x;
+        final double py = y1 + t * dy - y;
+        return Math.sqrt(px * px + py * py);
+    }
+
+    /**
+     * @return The lowest zoom level at which the distance is more than a pixel.
+     */
+    private static int zoomForDistance(double distance) {
+        if (distance <= 0) {
+            return MAX_ZOOM;
+        }
+        // A pixel at zoom z is PIXEL_E5_AT_ZOOM_0 / 2^z
+        final double zoom = Math.floor(Math.log(PIXEL_E5_AT_ZOOM_0 / distance) / Math.log(2)) + 1;
+        return clampZoom((int) zoom);
+    }
+
+    private static byte clampZoom(int zoom) {
+        return (byte) Math.max(0, Math.min(MAX_ZOOM, zoom));
+    }
+}
@@ -16,6 +16,9 @@
 package com.joulespersecond.oba.elements;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 
 public final class ObaReferencesElement implements ObaReferences {
@@ -32,6 +35,18 @@ public final class ObaReferencesElement implements ObaReferences {
 
     private final ObaSituationElement[] situations;
 
+    // Indexes by ID, built on the first lookup of each type.
+    // They are transient so Jackson never sees them.
+    private transient volatile HashMap<String, ObaStopElement> mStopIndex;
+
+    private transient volatile HashMap<String, ObaRouteElement> mRouteIndex;
+
+    private transient volatile HashMap<String, ObaTripElement> mTripIndex;
+
+    private transient volatile HashMap<String, ObaAgencyElement> mAgencyIndex;
+
+    private transient volatile HashMap<String, ObaSituationElement> mSituationIndex;
+
     public ObaReferencesElement() {
         stops = ObaStopElement.EMPTY_ARRAY;
         routes = ObaRouteElement.EMPTY_ARRAY;
@@ -40,77 +55,161 @@ public final class ObaReferencesElement implements ObaReferences {
         situations = ObaSituationElement.EMPTY_ARRAY;
     }
 
+    private ObaReferencesElement(ObaReferencesElement older, ObaReferencesElement newer) {
+        stops = union(older.stops, newer.stops);
+        routes = union(older.routes, newer.routes);
+        trips = union(older.trips, newer.trips);
+        agencies = union(older.agencies, newer.agencies);
+        situations = union(older.situations, newer.situations);
+    }
+
+    /**
+     * @return The references in both older and newer. Where both have an
+     * object with the same ID, the one in newer is used.
+     */
+    public static ObaReferencesElement merge(ObaReferencesElement older,
+            ObaReferencesElement newer) {
+        return new ObaReferencesElement(older, newer);
+    }
+
     @Override
     public ObaStop getStop(String id) {
-        return findById(stops, id);
+        return getStopIndex().get(id);
     }
 
     @Override
     public List<ObaStop> getStops(String[] ids) {
-        return findList(ObaStop.class, stops, ids);
+        return findList(ObaStop.class, getStopIndex(), ids);
     }
 
     @Override
     public ObaRoute getRoute(String id) {
-        return findById(routes, id);
+        return getRouteIndex().get(id);
     }
 
     @Override
     public List<ObaRoute> getRoutes(String[] ids) {
-        return findList(ObaRoute.class, routes, ids);
+        return findList(ObaRoute.class, getRouteIndex(), ids);
     }
 
     @Override
     public ObaTrip getTrip(String id) {
-        return findById(trips, id);
+        return getTripIndex().get(id);
     }
 
     @Override
     public List<ObaTrip> getTrips(String[] ids) {
-        return findList(ObaTrip.class, trips, ids);
+        return findList(ObaTrip.class, getTripIndex(), ids);
     }
 
     @Override
     public ObaAgency getAgency(String id) {
-        return findById(agencies, id);
+        return getAgencyIndex().get(id);
     }
 
     @Override
     public List<ObaAgency> getAgencies(String[] ids) {
-        return findList(ObaAgency.class, agencies, ids);
+        return findList(ObaAgency.class, getAgencyIndex(), ids);
     }
 
     @Override
     public ObaSituation getSituation(String id) {
-        return findById(situations, id);
+        return getSituationIndex().get(id);
     }
 
     @Override
     public List<ObaSituation> getSituations(String[] ids) {
-        return findList(ObaSituation.class, situations, ids);
+        return findList(ObaSituation.class, getSituationIndex(), ids);
     }
 
-    //
-    // TODO: This will be much easier when we convert to HashMap storage.
-    //
-    private static <T extends ObaElement> T findById(T[] objects, String id) {
-        final int len = objects.length;
-        for (int i = 0; i < len; ++i) {
+    private HashMap<String, ObaStopElement> getStopIndex() {
+        HashMap<String, ObaStopElement> index = mStopIndex;
+        if (index == null) {
+            index = buildIndex(stops);
+            mStopIndex = index;
+        }
+        return index;
+    }
+
+    private HashMap<String, ObaRouteElement> getRouteIndex() {
+        HashMap<String, ObaRouteElement> index = mRouteIndex;
+        if (index == null) {
+            index = buildIndex(routes);
+            mRouteIndex = index;
+        }
+        return index;
+    }
+
+    private HashMap<String, ObaTripElement> getTripIndex() {
+        HashMap<String, ObaTripElement> index = mTripIndex;
+        if (index == null) {
+            index = buildIndex(trips);
+            mTripIndex = index;
+        }
+        return index;
+    }
+
+    private HashMap<String, ObaAgencyElement> getAgencyIndex() {
+        HashMap<String, ObaAgencyElement> index = mAgencyIndex;
+        if (index == null) {
+            index = buildIndex(agencies);
+            mAgencyIndex = index;
+        }
+        return index;
+    }
+
+    private HashMap<String, ObaSituationElement> getSituationIndex() {
+        HashMap<String, ObaSituationElement> index = mSituationIndex;
+        if (index == null) {
+            index = buildIndex(situations);
+            mSituationIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * Builds an index of the objects by ID. The index is never modified once it
+     * has been published through a volatile field, so any number of threads can
+     * read it. Two threads may race to build the same index; the result is the same.
+     */
+    private static <T extends ObaElement> HashMap<String, T> buildIndex(T[] objects) {
+        final HashMap<String, T> index = new HashMap<String, T>(objects.length * 4 / 3 + 1);
+        // Iterate backwards so the first object with a given ID wins,
+        // the same result as a linear search.
+        for (int i = objects.length - 1; i >= 0; --i) {
             final T obj = objects[i];
-            if (obj.getId().equals(id)) {
-                return obj;
+            index.put(obj.getId(), obj);
+        }
+        return index;
+    }
+
+    private static <T extends ObaElement> T[] union(T[] older, T[] newer) {
+        if (older.length == 0) {
+            return newer;
+        }
+        if (newer.length == 0) {
+            return older;
+        }
+        final LinkedHashMap<String, T> byId =
+                new LinkedHashMap<String, T>((older.length + newer.length) * 4 / 3 + 1);
+        for (T obj : older) {
+            if (!byId.containsKey(obj.getId())) {
+                byId.put(obj.getId(), obj);
             }
         }
-        return null;
+        // Replaces the older object, but keeps its place.
+        for (T obj : newer) {
+            byId.put(obj.getId(), obj);
+        }
+        return byId.values().toArray(Arrays.copyOf(newer, 0));
     }
 
     private static <E extends ObaElement, T extends E> List<E> findList(
-            Class<E> cls, T[] objects, String[] ids) {
-        ArrayList<E> result = new ArrayList<E>();
+            Class<E> cls, HashMap<String, T> index, String[] ids) {
         final int len = ids.length;
+        ArrayList<E> result = new ArrayList<E>(len);
         for (int i = 0; i < len; ++i) {
-            final String id = ids[i];
-            final T obj = findById(objects, id);
+            final T obj = index.get(ids[i]);
             if (obj != null) {
                 result.add(obj);
             }
@@ -55,4 +55,12 @@ public interface ObaShape {
      * @return The string encoding of the points in this line.
      */
     public String getRawPoints();
+
+    /**
+     * Returns the points and levels in this line as packed arrays.
+     * The line is decoded once, on the first call.
+     *
+     * @return The decoded line.
+     */
+    public ObaDecodedShape getDecodedShape();
 }
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.oba.elements;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A process-wide LRU cache of decoded shapes, keyed by shape or route ID.
+ * The same route is often shown several times in a session, and each time
+ * it arrives in a new response that would have to be decoded again.
+ *
+ * The cache is bounded by the total number of points, rather than the number
+ * of shapes, since a single long route can be larger than dozens of short ones.
+ */
+public final class ObaShapeCache {
+
+    // About 1.6MB of coordinates and levels, plus the encoded strings.
+    private static final int DEFAULT_MAX_POINTS = 128 * 1024;
+
+    private static class SingletonHolder {
+
+        public static final ObaShapeCache INSTANCE = new ObaShapeCache(DEFAULT_MAX_POINTS);
+    }
+
+    public static ObaShapeCache getInstance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    private final LinkedHashMap<String, ObaDecodedShape> mShapes =
+            new LinkedHashMap<String, ObaDecodedShape>(16, 0.75f, true);
+
+    private final int mMaxPoints;
+
+    private int mPoints;
+
+    private int mHits;
+
+    private int mMisses;
+
+    public ObaShapeCache(int maxPoints) {
+        mMaxPoints = maxPoints;
+    }
+
+    /**
+     * Returns the decoded version of the shape. If the cache has an entry for
+     * this ID that was decoded from the same encoded points, that is returned;
+     * otherwise the shape is decoded and cached.
+     *
+     * @param id    The ID of the shape, or of the route and the index of the shape.
+     * @param shape The shape.
+     * @return The decoded shape.
+     */
+    public ObaDecodedShape get(String id, ObaShape shape) {
+        final String encoded = shape.getRawPoints();
+        synchronized (this) {
+            final ObaDecodedShape cached = mShapes.get(id);
+            if (cached != null && cached.matches(encoded)) {
+                mHits++;
+                return cached;
+            }
+            mMisses++;
+        }
+        final ObaDecodedShape decoded = shape.getDecodedShape();
+        put(id, decoded);
+        return decoded;
+    }
+
+    /**
+     * Adds a decoded shape to the cache.
+     */
+    public synchronized void put(String id, ObaDecodedShape shape) {
+        final ObaDecodedShape old = mShapes.put(id, shape);
+        if (old != null) {
+            mPoints -= old.size();
+        }
+        mPoints += shape.size();
+        trimToSize();
+    }
+
+    public synchronized void clear() {
+        mShapes.clear();
+        mPoints = 0;
+    }
+
+    /**
+     * @return The total number of points in the cached shapes.
+     */
+    public synchronized int getPointCount() {
+        return mPoints;
+    }
+
+    public synchronized int getHitCount() {
+        return mHits;
+    }
+
+    public synchronized int getMissCount() {
+        return mMisses;
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, ObaDecodedShape>> it = mShapes.entrySet().iterator();
+        // Always keep the most recent entry, even if it's larger than the cache.
+        while (mPoints > mMaxPoints && mShapes.size() > 1 && it.hasNext()) {
+            mPoints -= it.next().getValue().size();
+            it.remove();
+        }
+    }
+}
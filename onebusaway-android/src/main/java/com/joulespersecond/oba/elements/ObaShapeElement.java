@@ -20,6 +20,7 @@ import android.location.Location;
 import com.joulespersecond.seattlebusbot.util.LocationHelp;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public final class ObaShapeElement implements ObaShape {
@@ -34,6 +35,9 @@ public final class ObaShapeElement implements ObaShape {
 
     private final String levels;
 
+    // Decoded on first use; transient so Jackson never sees it.
+    private transient volatile ObaDecodedShape mDecoded;
+
     private ObaShapeElement() {
         points = "";
         length = 0;
@@ -52,12 +56,12 @@ public final class ObaShapeElement implements ObaShape {
 
     @Override
     public List<Integer> getLevels() {
-        return decodeLevels(levels, length);
+        return getDecodedShape().toLevelList();
     }
 
     @Override
     public List<Location> getPoints() {
-        return decodeLine(points, length);
+        return getDecodedShape().toLocations();
     }
 
     @Override
@@ -65,6 +69,16 @@ public final class ObaShapeElement implements ObaShape {
         return points;
     }
 
+    @Override
+    public ObaDecodedShape getDecodedShape() {
+        ObaDecodedShape decoded = mDecoded;
+        if (decoded == null) {
+            decoded = ObaDecodedShape.decode(points, levels, length);
+            mDecoded = decoded;
+        }
+        return decoded;
+    }
+
     /**
      * Decodes an encoded polyline into a list of points.
      * Adapted from http://georgelantz.com/files/polyline_decoder.rb
@@ -78,8 +92,30 @@ public final class ObaShapeElement implements ObaShape {
      * @return A list of points from the encoded string.
      */
     public static List<Location> decodeLine(String encoded, int numPoints) {
+        final int[] coords = decodeLineE5(encoded, numPoints);
+        final int count = coords.length / 2;
+        ArrayList<Location> array = new ArrayList<Location>(count);
+        for (int i = 0; i < count; ++i) {
+            // The polyline encodes in degrees * 1E5, we need decimal degrees
+            array.add(LocationHelp.makeLocation(coords[i * 2] / 1E5, coords[i * 2 + 1] / 1E5));
+        }
+        return array;
+    }
+
+    /**
+     * Decodes an encoded polyline into a packed array of coordinates,
+     * without allocating an object per point.
+     *
+     * @param encoded   The encoded string.
+     * @param numPoints The number of points. This is purely used as a hint
+     *                  to allocate memory.
+     * @return The latitude and longitude of each point, interleaved,
+     * in degrees * 1E5.
+     */
+    public static int[] decodeLineE5(String encoded, int numPoints) {
         assert (numPoints >= 0);
-        ArrayList<Location> array = new ArrayList<Location>(numPoints);
+        int[] array = new int[Math.max(numPoints, 1) * 2];
+        int count = 0;
 
         final int len = encoded.length();
         int i = 0;
@@ -114,11 +150,14 @@ public final class ObaShapeElement implements ObaShape {
             final int dlon = ((result & 1) == 1 ? ~(result >> 1) : (result >> 1));
             lon += dlon;
 
-            // The polyline encodes in degrees * 1E5, we need decimal degrees
-            array.add(LocationHelp.makeLocation(lat / 1E5, lon / 1E5));
+            if (count + 2 > array.length) {
+                array = Arrays.copyOf(array, array.length * 2);
+            }
+            array[count++] = lat;
+            array[count++] = lon;
         }
 
-        return array;
+        return (count == array.length) ? array : Arrays.copyOf(array, count);
     }
 
     /**
@@ -132,8 +171,26 @@ public final class ObaShapeElement implements ObaShape {
      * @return A list of levels from the encoded string.
      */
     public static List<Integer> decodeLevels(String encoded, int numPoints) {
+        final int[] levels = decodeLevelsArray(encoded, numPoints);
+        ArrayList<Integer> array = new ArrayList<Integer>(levels.length);
+        for (int level : levels) {
+            array.add(level);
+        }
+        return array;
+    }
+
+    /**
+     * Decodes encoded levels into an array, without boxing each level.
+     *
+     * @param encoded   The encoded string.
+     * @param numPoints The number of points. This is purely used as a hint
+     *                  to allocate memory.
+     * @return The levels from the encoded string.
+     */
+    public static int[] decodeLevelsArray(String encoded, int numPoints) {
         assert (numPoints >= 0);
-        ArrayList<Integer> array = new ArrayList<Integer>(numPoints);
+        int[] array = new int[Math.max(numPoints, 1)];
+        int count = 0;
 
         final int len = encoded.length();
         int i = 0;
@@ -150,9 +207,12 @@ public final class ObaShapeElement implements ObaShape {
                 ++i;
             } while (b >= 0x20);
 
-            array.add(result);
+            if (count == array.length) {
+                array = Arrays.copyOf(array, array.length * 2);
+            }
+            array[count++] = result;
         }
 
-        return array;
+        return (count == array.length) ? array : Arrays.copyOf(array, count);
     }
 }
@@ -60,6 +60,24 @@ public final class ObaStopElement implements ObaStop {
         routeIds = EMPTY_ROUTES;
     }
 
+    public ObaStopElement(String id,
+            double lat,
+            double lon,
+            String direction,
+            int locationType,
+            String name,
+            String code,
+            String[] routeIds) {
+        this.id = id;
+        this.lat = lat;
+        this.lon = lon;
+        this.direction = direction;
+        this.locationType = locationType;
+        this.name = name;
+        this.code = code;
+        this.routeIds = routeIds;
+    }
+
     public String getId() {
         return id;
     }
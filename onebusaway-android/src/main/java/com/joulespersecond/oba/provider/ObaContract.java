@@ -18,14 +18,18 @@ package com.joulespersecond.oba.provider;
 import com.joulespersecond.oba.elements.ObaRegion;
 import com.joulespersecond.oba.elements.ObaRegionElement;
 
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.RemoteException;
 import android.provider.BaseColumns;
 import android.text.format.Time;
+import android.util.Log;
 
 import java.util.ArrayList;
 
@@ -38,12 +42,31 @@ import java.util.ArrayList;
  */
 public final class ObaContract {
 
+    private static final String TAG = "ObaContract";
+
     /** The authority portion of the URI for the Oba provider */
     public static final String AUTHORITY = "com.joulespersecond.oba";
 
     /** The base URI for the Oba provider */
     public static final Uri AUTHORITY_URI = Uri.parse("content://" + AUTHORITY);
 
+    /**
+     * The query parameter for inserting into {@link Stops} or {@link Routes}:
+     * if the row already exists, it's updated instead. With the value
+     * {@link #UPSERT_MARK_USED}, its use count and access time are updated too.
+     */
+    public static final String UPSERT = "upsert";
+
+    public static final String UPSERT_UPDATE = "update";
+
+    public static final String UPSERT_MARK_USED = "used";
+
+    /**
+     * The query parameter for the number of uses to add with
+     * {@link #UPSERT_MARK_USED}, if it's more than one.
+     */
+    public static final String UPSERT_USES = "uses";
+
     protected interface StopsColumns {
 
         /**
@@ -434,45 +457,40 @@ public final class ObaContract {
         public static final String CONTENT_DIR_TYPE
                 = "vnd.android.dir/com.joulespersecond.oba.stop";
 
+        /**
+         * Inserts the stop, or updates it if it's already there, in a single
+         * call to the provider.
+         *
+         * @param markAsUsed Whether to increment the use count and set the
+         *                   access time of the stop.
+         */
         public static Uri insertOrUpdate(Context context,
                 String id,
                 ContentValues values,
                 boolean markAsUsed) {
-            ContentResolver cr = context.getContentResolver();
-            final Uri uri = Uri.withAppendedPath(CONTENT_URI, id);
-            Cursor c = cr.query(uri, new String[]{USE_COUNT}, null, null,
-                    null);
-            Uri result;
-            if (c != null && c.getCount() > 0) {
-                // Update
-                if (markAsUsed) {
-                    c.moveToFirst();
-                    int count = c.getInt(0);
-                    values.put(USE_COUNT, count + 1);
-                    values.put(ACCESS_TIME, System.currentTimeMillis());
-                }
-                cr.update(uri, values, null, null);
-                result = uri;
-            } else {
-                // Insert
-                if (markAsUsed) {
-                    values.put(USE_COUNT, 1);
-                    values.put(ACCESS_TIME, System.currentTimeMillis());
-                } else {
-                    values.put(USE_COUNT, 0);
-                }
-                values.put(_ID, id);
-                result = cr.insert(CONTENT_URI, values);
-            }
-            if (c != null) {
-                c.close();
-            }
-            return result;
+            values.put(_ID, id);
+            return context.getContentResolver().insert(getUpsertUri(CONTENT_URI, markAsUsed),
+                    values);
+        }
+
+        /**
+         * Inserts or updates many stops at once, in a single transaction.
+         *
+         * @param values The values of each stop, including its {@link #_ID}.
+         * @return The number of stops.
+         */
+        public static int insertOrUpdate(Context context,
+                ContentValues[] values,
+                boolean markAsUsed) {
+            return context.getContentResolver().bulkInsert(
+                    getUpsertUri(CONTENT_URI, markAsUsed), values);
         }
 
         public static boolean markAsFavorite(Context context,
                 Uri uri,
                 boolean favorite) {
+            // The stop may only have been recorded so far.
+            UsageRecorder.flushPending();
             ContentResolver cr = context.getContentResolver();
             ContentValues values = new ContentValues();
             values.put(ObaContract.Stops.FAVORITE, favorite ? 1 : 0);
@@ -480,6 +498,8 @@ public final class ObaContract {
         }
 
         public static boolean markAsUnused(Context context, Uri uri) {
+            // The stop may only have been recorded so far.
+            UsageRecorder.flushPending();
             ContentResolver cr = context.getContentResolver();
             ContentValues values = new ContentValues();
             values.put(ObaContract.Stops.USE_COUNT, 0);
@@ -508,43 +528,38 @@ public final class ObaContract {
         public static final String CONTENT_DIR_TYPE
                 = "vnd.android.dir/com.joulespersecond.oba.route";
 
+        /**
+         * Inserts the route, or updates it if it's already there, in a single
+         * call to the provider.
+         *
+         * @param markAsUsed Whether to increment the use count and set the
+         *                   access time of the route.
+         */
         public static Uri insertOrUpdate(Context context,
                 String id,
                 ContentValues values,
                 boolean markAsUsed) {
-            ContentResolver cr = context.getContentResolver();
-            final Uri uri = Uri.withAppendedPath(CONTENT_URI, id);
-            Cursor c = cr.query(uri, new String[]{USE_COUNT}, null, null,
-                    null);
-            Uri result;
-            if (c != null && c.getCount() > 0) {
-                // Update
-                if (markAsUsed) {
-                    c.moveToFirst();
-                    int count = c.getInt(0);
-                    values.put(USE_COUNT, count + 1);
-                    values.put(ACCESS_TIME, System.currentTimeMillis());
-                }
-                cr.update(uri, values, null, null);
-                result = uri;
-            } else {
-                // Insert
-                if (markAsUsed) {
-                    values.put(USE_COUNT, 1);
-                    values.put(ACCESS_TIME, System.currentTimeMillis());
-                } else {
-                    values.put(USE_COUNT, 0);
-                }
-                values.put(_ID, id);
-                result = cr.insert(CONTENT_URI, values);
-            }
-            if (c != null) {
-                c.close();
-            }
-            return result;
+            values.put(_ID, id);
+            return context.getContentResolver().insert(getUpsertUri(CONTENT_URI, markAsUsed),
+                    values);
+        }
+
+        /**
+         * Inserts or updates many routes at once, in a single transaction.
+         *
+         * @param values The values of each route, including its {@link #_ID}.
+         * @return The number of routes.
+         */
+        public static int insertOrUpdate(Context context,
+                ContentValues[] values,
+                boolean markAsUsed) {
+            return context.getContentResolver().bulkInsert(
+                    getUpsertUri(CONTENT_URI, markAsUsed), values);
         }
 
         public static boolean markAsUnused(Context context, Uri uri) {
+            // The route may only have been recorded so far.
+            UsageRecorder.flushPending();
             ContentResolver cr = context.getContentResolver();
             ContentValues values = new ContentValues();
             values.put(ObaContract.Routes.USE_COUNT, 0);
@@ -609,20 +624,21 @@ public final class ObaContract {
                 String stopId,
                 ArrayList<String> filter) {
             // First, delete any existing rows for this stop.
-            // Then, insert all of these rows.
-            // Should we put this in a transaction? We could,
-            // but it's not terribly important.
+            // Then, insert all of these rows, all in one transaction.
             final String[] selectionArgs = {stopId};
-            ContentResolver cr = context.getContentResolver();
-            cr.delete(CONTENT_URI, FILTER_WHERE, selectionArgs);
-
-            ContentValues args = new ContentValues();
-            args.put(STOP_ID, stopId);
+            ArrayList<ContentProviderOperation> ops =
+                    new ArrayList<ContentProviderOperation>(filter.size() + 1);
+            ops.add(ContentProviderOperation.newDelete(CONTENT_URI)
+                    .withSelection(FILTER_WHERE, selectionArgs)
+                    .build());
             final int len = filter.size();
             for (int i = 0; i < len; ++i) {
-                args.put(ROUTE_ID, filter.get(i));
-                cr.insert(CONTENT_URI, args);
+                ops.add(ContentProviderOperation.newInsert(CONTENT_URI)
+                        .withValue(STOP_ID, stopId)
+                        .withValue(ROUTE_ID, filter.get(i))
+                        .build());
             }
+            applyBatch(context.getContentResolver(), ops);
         }
     }
 
@@ -794,6 +810,15 @@ public final class ObaContract {
 
         public static final int STATE_CANCELLED = 3;
 
+        /**
+         * The reminder time of the alert's trip, in minutes, from the trips table.
+         * This can only be queried.
+         * <P>
+         * Type: INTEGER
+         * </P>
+         */
+        public static final String TRIP_REMINDER = "trip_reminder";
+
         public static final Uri buildUri(int id) {
             return CONTENT_URI.buildUpon().appendPath(String.valueOf(id))
                     .build();
@@ -1062,4 +1087,39 @@ public final class ObaContract {
             return null;
         }
     }
+
+    private static Uri getUpsertUri(Uri uri, boolean markAsUsed) {
+        return getUpsertUri(uri, markAsUsed ? 1 : 0);
+    }
+
+    static Uri getUpsertUri(Uri uri, int uses) {
+        Uri.Builder builder = uri.buildUpon();
+        if (uses == 0) {
+            builder.appendQueryParameter(UPSERT, UPSERT_UPDATE);
+        } else {
+            builder.appendQueryParameter(UPSERT, UPSERT_MARK_USED);
+            if (uses > 1) {
+                builder.appendQueryParameter(UPSERT_USES, String.valueOf(uses));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Applies the operations to the provider in a single transaction.
+     *
+     * @return false if the operations couldn't be applied, in which case
+     * none of them were.
+     */
+    public static boolean applyBatch(ContentResolver cr, ArrayList<ContentProviderOperation> ops) {
+        try {
+            cr.applyBatch(AUTHORITY, ops);
+            return true;
+        } catch (RemoteException e) {
+            Log.e(TAG, "Batch failed", e);
+        } catch (OperationApplicationException e) {
+            Log.e(TAG, "Batch failed", e);
+        }
+        return false;
+    }
 }
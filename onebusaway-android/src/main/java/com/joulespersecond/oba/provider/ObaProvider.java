@@ -15,29 +15,47 @@
  */
 package com.joulespersecond.oba.provider;
 
+import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.BaseColumns;
+import android.text.TextUtils;
+import android.util.Log;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 
 public class ObaProvider extends ContentProvider {
 
+    private static final String TAG = "ObaProvider";
+
     private static final String DATABASE_NAME = "com.joulespersecond.seattlebusbot.db";
 
     private class OpenHelper extends SQLiteOpenHelper {
 
-        private static final int DATABASE_VERSION = 20;
+        private static final int DATABASE_VERSION = 21;
 
         public OpenHelper(Context context) {
             super(context, DATABASE_NAME, null, DATABASE_VERSION);
@@ -183,9 +201,60 @@ public class ObaProvider extends ContentProvider {
                 db.execSQL(
                         "ALTER TABLE " + ObaContract.Regions.PATH +
                                 " ADD COLUMN " + ObaContract.Regions.EXPERIMENTAL + " INTEGER");
+                ++oldVersion;
+            }
+            if (oldVersion == 20) {
+                createIndexes(db);
+                ++oldVersion;
             }
         }
 
+        //
+        // The indexes for the columns that the app filters and sorts on.
+        // See ProviderQueryPlanTest for the queries they're for.
+        //
+        private void createIndexes(SQLiteDatabase db) {
+            createIndex(db, "trips_id_stop", ObaContract.Trips.PATH,
+                    ObaContract.Trips._ID + ", " + ObaContract.Trips.STOP_ID);
+            createIndex(db, "trips_stop", ObaContract.Trips.PATH,
+                    ObaContract.Trips.STOP_ID);
+            // Also used by the trip_alerts_cleanup trigger.
+            createIndex(db, "trip_alerts_trip_stop", ObaContract.TripAlerts.PATH,
+                    ObaContract.TripAlerts.TRIP_ID + ", " +
+                            ObaContract.TripAlerts.STOP_ID + ", " +
+                            ObaContract.TripAlerts.START_TIME);
+            createIndex(db, "trip_alerts_start_time", ObaContract.TripAlerts.PATH,
+                    ObaContract.TripAlerts.START_TIME);
+            createIndex(db, "trip_alerts_state", ObaContract.TripAlerts.PATH,
+                    ObaContract.TripAlerts.STATE);
+            createIndex(db, "stop_routes_filter_stop", ObaContract.StopRouteFilters.PATH,
+                    ObaContract.StopRouteFilters.STOP_ID);
+            createIndex(db, "stops_favorite", ObaContract.Stops.PATH,
+                    ObaContract.Stops.FAVORITE + ", " + ObaContract.Stops.USE_COUNT);
+            createIndex(db, "stops_user_name", ObaContract.Stops.PATH,
+                    ObaContract.Stops.USER_NAME);
+            createIndex(db, "stops_access_time", ObaContract.Stops.PATH,
+                    ObaContract.Stops.ACCESS_TIME);
+            createIndex(db, "stops_use_count", ObaContract.Stops.PATH,
+                    ObaContract.Stops.USE_COUNT);
+            createIndex(db, "stops_region", ObaContract.Stops.PATH,
+                    ObaContract.Stops.REGION_ID);
+            createIndex(db, "routes_access_time", ObaContract.Routes.PATH,
+                    ObaContract.Routes.ACCESS_TIME);
+            createIndex(db, "routes_use_count", ObaContract.Routes.PATH,
+                    ObaContract.Routes.USE_COUNT);
+            createIndex(db, "routes_region", ObaContract.Routes.PATH,
+                    ObaContract.Routes.REGION_ID);
+            // Also used by the region_bounds_cleanup trigger.
+            createIndex(db, "region_bounds_region", ObaContract.RegionBounds.PATH,
+                    ObaContract.RegionBounds.REGION_ID);
+        }
+
+        private void createIndex(SQLiteDatabase db, String name, String table, String columns) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS " + name + " ON " + table +
+                    " (" + columns + ");");
+        }
+
         private void bootstrapDatabase(SQLiteDatabase db) {
             db.execSQL(
                     "CREATE TABLE " +
@@ -278,22 +347,22 @@ public class ObaProvider extends ContentProvider {
 
     private static final HashMap<String, String> sRegionBoundsProjectionMap;
 
-    // Insert helpers are useful.
-    private DatabaseUtils.InsertHelper mStopsInserter;
+    // Compiled insert statements for each table.
+    private Inserter mStopsInserter;
 
-    private DatabaseUtils.InsertHelper mRoutesInserter;
+    private Inserter mRoutesInserter;
 
-    private DatabaseUtils.InsertHelper mTripsInserter;
+    private Inserter mTripsInserter;
 
-    private DatabaseUtils.InsertHelper mTripAlertsInserter;
+    private Inserter mTripAlertsInserter;
 
-    private DatabaseUtils.InsertHelper mFilterInserter;
+    private Inserter mFilterInserter;
 
-    private DatabaseUtils.InsertHelper mServiceAlertsInserter;
+    private Inserter mServiceAlertsInserter;
 
-    private DatabaseUtils.InsertHelper mRegionsInserter;
+    private Inserter mRegionsInserter;
 
-    private DatabaseUtils.InsertHelper mRegionBoundsInserter;
+    private Inserter mRegionBoundsInserter;
 
     static {
         sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
@@ -366,6 +435,14 @@ public class ObaProvider extends ContentProvider {
         sTripAlertsProjectionMap
                 .put(ObaContract.TripAlerts.START_TIME, ObaContract.TripAlerts.START_TIME);
         sTripAlertsProjectionMap.put(ObaContract.TripAlerts.STATE, ObaContract.TripAlerts.STATE);
+        sTripAlertsProjectionMap.put(ObaContract.TripAlerts.TRIP_REMINDER,
+                "(SELECT " + ObaContract.Trips.REMINDER +
+                        " FROM " + ObaContract.Trips.PATH +
+                        " WHERE " + ObaContract.Trips.PATH + "." + ObaContract.Trips._ID +
+                        "=" + ObaContract.TripAlerts.PATH + "." + ObaContract.TripAlerts.TRIP_ID +
+                        " AND " + ObaContract.Trips.PATH + "." + ObaContract.Trips.STOP_ID +
+                        "=" + ObaContract.TripAlerts.PATH + "." + ObaContract.TripAlerts.STOP_ID +
+                        ") AS " + ObaContract.TripAlerts.TRIP_REMINDER);
         sTripAlertsProjectionMap.put(ObaContract.TripAlerts._COUNT, "count(*)");
 
         sServiceAlertsProjectionMap = new HashMap<String, String>();
@@ -412,6 +489,25 @@ public class ObaProvider extends ContentProvider {
 
     private OpenHelper mOpenHelper;
 
+    // The URIs that have changed in the batch being applied on each thread.
+    private final ThreadLocal<LinkedHashSet<Uri>> mBatchChanges =
+            new ThreadLocal<LinkedHashSet<Uri>>();
+
+    // Changes are notified a moment after they're made, so a burst of
+    // writes notifies each URI once rather than once per row.
+    private static final long NOTIFY_DELAY_MS = 50;
+
+    private final LinkedHashSet<Uri> mPendingChanges = new LinkedHashSet<Uri>();
+
+    private Handler mNotifyHandler;
+
+    private final Runnable mNotify = new Runnable() {
+        @Override
+        public void run() {
+            notifyPendingChanges();
+        }
+    };
+
     public static File getDatabasePath(Context context) {
         return context.getDatabasePath(DATABASE_NAME);
     }
@@ -419,6 +515,7 @@ public class ObaProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mOpenHelper = new OpenHelper(getContext());
+        mNotifyHandler = new Handler(Looper.getMainLooper());
         return true;
     }
 
@@ -467,11 +564,56 @@ public class ObaProvider extends ContentProvider {
         db.beginTransaction();
         try {
             Uri result = insertInternal(db, uri, values);
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
+            db.setTransactionSuccessful();
+            return result;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        final SQLiteDatabase db = getDatabase();
+        boolean success = false;
+        beginBatch();
+        db.beginTransaction();
+        try {
+            for (ContentValues v : values) {
+                insertInternal(db, uri, v);
+            }
+            if (values.length > 0) {
+                notifyChange(uri);
+            }
+            db.setTransactionSuccessful();
+            success = true;
+        } finally {
+            db.endTransaction();
+            endBatch(success);
+        }
+        return values.length;
+    }
+
+    /**
+     * Applies all the operations in a single transaction: either all of them
+     * succeed or none of them do. Observers are notified once per URI after
+     * the transaction has been committed, rather than once per operation.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = getDatabase();
+        boolean success = false;
+        beginBatch();
+        db.beginTransaction();
+        try {
+            ContentProviderResult[] result = super.applyBatch(operations);
             db.setTransactionSuccessful();
+            success = true;
             return result;
         } finally {
             db.endTransaction();
+            endBatch(success);
         }
     }
 
@@ -490,7 +632,7 @@ public class ObaProvider extends ContentProvider {
         try {
             int result = updateInternal(db, uri, values, selection, selectionArgs);
             if (result > 0) {
-                getContext().getContentResolver().notifyChange(uri, null);
+                notifyChange(uri);
             }
             db.setTransactionSuccessful();
             return result;
@@ -506,7 +648,7 @@ public class ObaProvider extends ContentProvider {
         try {
             int result = deleteInternal(db, uri, selection, selectionArgs);
             if (result > 0) {
-                getContext().getContentResolver().notifyChange(uri, null);
+                notifyChange(uri);
             }
             db.setTransactionSuccessful();
             return result;
@@ -515,6 +657,117 @@ public class ObaProvider extends ContentProvider {
         }
     }
 
+    private void beginBatch() {
+        mBatchChanges.set(new LinkedHashSet<Uri>());
+    }
+
+    //
+    // Notifies the observers of everything that changed in the batch,
+    // if it was committed.
+    //
+    private void endBatch(boolean committed) {
+        final LinkedHashSet<Uri> changes = mBatchChanges.get();
+        mBatchChanges.remove();
+        if (!committed) {
+            return;
+        }
+        for (Uri uri : changes) {
+            postChange(uri);
+        }
+    }
+
+    //
+    // Notifies the observers of the URI, or if this is part of a batch,
+    // once the batch has finished.
+    //
+    private void notifyChange(Uri uri) {
+        // Observers don't care how the change was made, such as by an upsert.
+        uri = uri.buildUpon().clearQuery().build();
+        final LinkedHashSet<Uri> changes = mBatchChanges.get();
+        if (changes != null) {
+            changes.add(uri);
+        } else {
+            postChange(uri);
+        }
+    }
+
+    private void postChange(Uri uri) {
+        synchronized (mPendingChanges) {
+            if (mPendingChanges.isEmpty()) {
+                mNotifyHandler.postDelayed(mNotify, NOTIFY_DELAY_MS);
+            }
+            mPendingChanges.add(uri);
+        }
+    }
+
+    private void notifyPendingChanges() {
+        final Uri[] changes;
+        synchronized (mPendingChanges) {
+            changes = mPendingChanges.toArray(new Uri[mPendingChanges.size()]);
+            mPendingChanges.clear();
+        }
+        for (Uri uri : changes) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    //
+    // Inserts the stop or route, or updates it if it already exists.
+    // The use count is incremented in SQL rather than read and written back,
+    // so concurrent uses are never lost.
+    //
+    private static void upsertInternal(SQLiteDatabase db, Uri uri, String table, String id,
+            ContentValues values) {
+        final boolean markAsUsed =
+                ObaContract.UPSERT_MARK_USED.equals(uri.getQueryParameter(ObaContract.UPSERT));
+        final String usesParam = uri.getQueryParameter(ObaContract.UPSERT_USES);
+        final int uses = usesParam != null ? Integer.parseInt(usesParam) : 1;
+        // Uses recorded earlier come with the time of the last one.
+        final Long accessTime = values.containsKey(ObaContract.Stops.ACCESS_TIME) ?
+                values.getAsLong(ObaContract.Stops.ACCESS_TIME) : System.currentTimeMillis();
+
+        // Update it first, and only insert it if there was nothing to update.
+        // Going by the result of an ignored insert isn't reliable before Honeycomb.
+        ContentValues updateValues = new ContentValues(values);
+        updateValues.remove(BaseColumns._ID);
+        if (markAsUsed) {
+            updateValues.remove(ObaContract.Stops.USE_COUNT);
+            updateValues.remove(ObaContract.Stops.ACCESS_TIME);
+        }
+        StringBuilder sql = new StringBuilder("UPDATE ").append(table).append(" SET ");
+        ArrayList<Object> args = new ArrayList<Object>(updateValues.size() + 3);
+        for (Map.Entry<String, Object> entry : updateValues.valueSet()) {
+            sql.append(entry.getKey()).append("=?, ");
+            args.add(entry.getValue());
+        }
+        if (markAsUsed) {
+            sql.append(ObaContract.Stops.USE_COUNT).append('=')
+                    .append(ObaContract.Stops.USE_COUNT).append("+?, ")
+                    .append(ObaContract.Stops.ACCESS_TIME).append("=?, ");
+            args.add(uses);
+            args.add(accessTime);
+        }
+        // This keeps the statement valid when there's nothing else to set,
+        // and the row still counts as changed.
+        sql.append(BaseColumns._ID).append('=').append(BaseColumns._ID)
+                .append(" WHERE ").append(BaseColumns._ID).append("=?");
+        args.add(id);
+        db.execSQL(sql.toString(), args.toArray());
+        // We're in a transaction, so this is the same connection as the update.
+        if (DatabaseUtils.longForQuery(db, "SELECT changes()", null) > 0) {
+            return;
+        }
+
+        ContentValues insertValues = new ContentValues(values);
+        if (markAsUsed) {
+            insertValues.put(ObaContract.Stops.USE_COUNT, uses);
+            insertValues.put(ObaContract.Stops.ACCESS_TIME, accessTime);
+        } else if (!insertValues.containsKey(ObaContract.Stops.USE_COUNT)) {
+            insertValues.put(ObaContract.Stops.USE_COUNT, 0);
+        }
+        db.insertOrThrow(table, null, insertValues);
+    }
+
     private Uri insertInternal(SQLiteDatabase db, Uri uri, ContentValues values) {
         final int match = sUriMatcher.match(uri);
         String id;
@@ -530,7 +783,11 @@ public class ObaProvider extends ContentProvider {
                     throw new IllegalArgumentException("Need a stop ID to insert! " + uri);
                 }
                 result = Uri.withAppendedPath(ObaContract.Stops.CONTENT_URI, id);
-                mStopsInserter.insert(values);
+                if (uri.getQueryParameter(ObaContract.UPSERT) != null) {
+                    upsertInternal(db, uri, ObaContract.Stops.PATH, id, values);
+                } else {
+                    mStopsInserter.insert(values);
+                }
                 return result;
 
             case ROUTES:
@@ -541,7 +798,11 @@ public class ObaProvider extends ContentProvider {
                     throw new IllegalArgumentException("Need a routes ID to insert! " + uri);
                 }
                 result = Uri.withAppendedPath(ObaContract.Routes.CONTENT_URI, id);
-                mRoutesInserter.insert(values);
+                if (uri.getQueryParameter(ObaContract.UPSERT) != null) {
+                    upsertInternal(db, uri, ObaContract.Routes.PATH, id, values);
+                } else {
+                    mRoutesInserter.insert(values);
+                }
                 return result;
 
             case TRIPS:
@@ -611,17 +872,20 @@ public class ObaProvider extends ContentProvider {
     private Cursor queryInternal(SQLiteDatabase db,
             Uri uri, String[] projection, String selection,
             String[] selectionArgs, String sortOrder) {
-        final int match = sUriMatcher.match(uri);
         final String limit = uri.getQueryParameter("limit");
+        return newQueryBuilder(uri).query(mDb, projection, selection, selectionArgs,
+                null, null, sortOrder, limit);
+    }
 
+    private SQLiteQueryBuilder newQueryBuilder(Uri uri) {
+        final int match = sUriMatcher.match(uri);
         SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
 
         switch (match) {
             case STOPS:
                 qb.setTables(ObaContract.Stops.PATH);
                 qb.setProjectionMap(sStopsProjectionMap);
-                return qb.query(mDb, projection, selection, selectionArgs,
-                        null, null, sortOrder, limit);
+                return qb;
 
             case STOPS_ID:
                 qb.setTables(ObaContract.Stops.PATH);
@@ -629,14 +893,12 @@ public class ObaProvider extends ContentProvider {
                 qb.appendWhere(ObaContract.Stops._ID);
                 qb.appendWhere("=");
                 qb.appendWhereEscapeString(uri.getLastPathSegment());
-                return qb.query(mDb, projection, selection, selectionArgs,
-                        null, null, sortOrder, limit);
+                return qb;
 
             case ROUTES:
                 qb.setTables(ObaContract.Routes.PATH);
                 qb.setProjectionMap(sRoutesProjectionMap);
-                return qb.query(mDb, projection, selection, selectionArgs,
-                        null, null, sortOrder, limit);
+                return qb;
 
             case ROUTES_ID:
                 qb.setTables(ObaContract.Routes.PATH);
@@ -644,27 +906,23 @@ public class ObaProvider extends ContentProvider {
                 qb.appendWhere(ObaContract.Routes._ID);
                 qb.appendWhere("=");
                 qb.appendWhereEscapeString(uri.getLastPathSegment());
-                return qb.query(mDb, projection, selection, selectionArgs,
-                        null, null, sortOrder, limit);
+                return qb;
 
             case TRIPS:
                 qb.setTables(ObaContract.Trips.PATH);
                 qb.setProjectionMap(sTripsProjectionMap);
-                return qb.query(mDb, projection, selection, selectionArgs,
-                        null, null, sortOrder, limit);
+                return qb;
 
             case TRIPS_ID:
                 qb.setTables(ObaContract.Trips.PATH);
                 qb.setProjectionMap(sTripsProjectionMap);
                 qb.appendWhere(tripWhere(uri));
-                return qb.query(mDb, projection, selection, selectionArgs,
-                        null, null, sortOrder, limit);
+                return qb;
 
             case TRIP_ALERTS:
                 qb.setTables(ObaContract.TripAlerts.PATH);
                 qb.setProjectionMap(sTripAlertsProjectionMap);
-                return qb.query(mDb, projection, selection, selectionArgs,
-                        null, null, sortOrder, limit);
+                return qb;
 
             case TRIP_ALERTS_ID:
                 qb.setTables(ObaContract.TripAlerts.PATH);
@@ -672,19 +930,16 @@ public class ObaProvider extends ContentProvider {
                 qb.appendWhere(ObaContract.TripAlerts._ID);
                 qb.appendWhere("=");
                 qb.appendWhere(String.valueOf(ContentUris.parseId(uri)));
-                return qb.query(mDb, projection, selection, selectionArgs,
-                        null, null, sortOrder, limit);
+                return qb;
 
             case STOP_ROUTE_FILTERS:
                 qb.setTables(ObaContract.StopRouteFilters.PATH);
-                return qb.query(mDb, projection, selection, selectionArgs,
-                        null, null, sortOrder, limit);
+                return qb;
 
             case SERVICE_ALERTS:
                 qb.setTables(ObaContract.ServiceAlerts.PATH);
                 qb.setProjectionMap(sServiceAlertsProjectionMap);
-                return qb.query(mDb, projection, selection, selectionArgs,
-                        null, null, sortOrder, limit);
+                return qb;
 
             case SERVICE_ALERTS_ID:
                 qb.setTables(ObaContract.ServiceAlerts.PATH);
@@ -692,14 +947,12 @@ public class ObaProvider extends ContentProvider {
                 qb.appendWhere(ObaContract.ServiceAlerts._ID);
                 qb.appendWhere("=");
                 qb.appendWhere(String.valueOf(ContentUris.parseId(uri)));
-                return qb.query(mDb, projection, selection, selectionArgs,
-                        null, null, sortOrder, limit);
+                return qb;
 
             case REGIONS:
                 qb.setTables(ObaContract.Regions.PATH);
                 qb.setProjectionMap(sRegionsProjectionMap);
-                return qb.query(mDb, projection, selection, selectionArgs,
-                        null, null, sortOrder, limit);
+                return qb;
 
             case REGIONS_ID:
                 qb.setTables(ObaContract.Regions.PATH);
@@ -707,14 +960,12 @@ public class ObaProvider extends ContentProvider {
                 qb.appendWhere(ObaContract.Regions._ID);
                 qb.appendWhere("=");
                 qb.appendWhere(String.valueOf(ContentUris.parseId(uri)));
-                return qb.query(mDb, projection, selection, selectionArgs,
-                        null, null, sortOrder, limit);
+                return qb;
 
             case REGION_BOUNDS:
                 qb.setTables(ObaContract.RegionBounds.PATH);
                 qb.setProjectionMap(sRegionBoundsProjectionMap);
-                return qb.query(mDb, projection, selection, selectionArgs,
-                        null, null, sortOrder, limit);
+                return qb;
 
             case REGION_BOUNDS_ID:
                 qb.setTables(ObaContract.RegionBounds.PATH);
@@ -722,8 +973,7 @@ public class ObaProvider extends ContentProvider {
                 qb.appendWhere(ObaContract.RegionBounds._ID);
                 qb.appendWhere("=");
                 qb.appendWhere(String.valueOf(ContentUris.parseId(uri)));
-                return qb.query(mDb, projection, selection, selectionArgs,
-                        null, null, sortOrder, limit);
+                return qb;
 
             default:
                 throw new IllegalArgumentException("Unknown URI: " + uri);
@@ -886,27 +1136,182 @@ public class ObaProvider extends ContentProvider {
     private SQLiteDatabase getDatabase() {
         if (mDb == null) {
             mDb = mOpenHelper.getWritableDatabase();
-            // Initialize the insert helpers
-            mStopsInserter = new DatabaseUtils.InsertHelper(mDb, ObaContract.Stops.PATH);
-            mRoutesInserter = new DatabaseUtils.InsertHelper(mDb, ObaContract.Routes.PATH);
-            mTripsInserter = new DatabaseUtils.InsertHelper(mDb, ObaContract.Trips.PATH);
-            mTripAlertsInserter = new DatabaseUtils.InsertHelper(mDb, ObaContract.TripAlerts.PATH);
-            mFilterInserter = new DatabaseUtils.InsertHelper(mDb,
-                    ObaContract.StopRouteFilters.PATH);
-            mServiceAlertsInserter = new DatabaseUtils.InsertHelper(mDb,
-                    ObaContract.ServiceAlerts.PATH);
-            mRegionsInserter = new DatabaseUtils.InsertHelper(mDb, ObaContract.Regions.PATH);
-            mRegionBoundsInserter = new DatabaseUtils.InsertHelper(mDb,
-                    ObaContract.RegionBounds.PATH);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                enableWriteAheadLogging(mDb);
+            }
+            // Initialize the inserters
+            mStopsInserter = new Inserter(mDb, ObaContract.Stops.PATH);
+            mRoutesInserter = new Inserter(mDb, ObaContract.Routes.PATH);
+            mTripsInserter = new Inserter(mDb, ObaContract.Trips.PATH);
+            mTripAlertsInserter = new Inserter(mDb, ObaContract.TripAlerts.PATH);
+            mFilterInserter = new Inserter(mDb, ObaContract.StopRouteFilters.PATH);
+            mServiceAlertsInserter = new Inserter(mDb, ObaContract.ServiceAlerts.PATH);
+            mRegionsInserter = new Inserter(mDb, ObaContract.Regions.PATH);
+            mRegionBoundsInserter = new Inserter(mDb, ObaContract.RegionBounds.PATH);
         }
         return mDb;
     }
 
+    //
+    // With write-ahead logging, queries read from their own connections and
+    // aren't blocked by a write in progress, such as a region refresh.
+    // SQLite checkpoints the log back into the database as it grows.
+    // It's only used from Jelly Bean on, whose SQLite can report whether
+    // a checkpoint copied the whole log (see checkpoint()).
+    //
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static void enableWriteAheadLogging(SQLiteDatabase db) {
+        if (!db.enableWriteAheadLogging()) {
+            Log.w(TAG, "Unable to enable write-ahead logging");
+        }
+    }
+
+    /**
+     * Copies everything in the write-ahead log back into the database file,
+     * so the file can be copied on its own. This waits for any write in
+     * progress to finish.
+     *
+     * @return true if the whole log was copied, false if the database was
+     * still too busy for that and the file may be missing recent writes.
+     */
+    public boolean checkpoint() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            // There's no log.
+            return true;
+        }
+        // A plain (passive) checkpoint skips whatever a reader or writer is
+        // using, without saying so. The pragma returns a row, so it has to
+        // be run as a query: the first column is non-zero if it was blocked.
+        Cursor c = getDatabase().rawQuery("PRAGMA wal_checkpoint(FULL)", null);
+        try {
+            return c.moveToFirst() && c.getInt(0) == 0;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Returns the plan SQLite would use for a query on a URI, from EXPLAIN QUERY PLAN.
+     * This is for checking that the queries the app makes use the indexes.
+     *
+     * @return The detail of each step of the plan.
+     */
+    public List<String> getQueryPlan(Uri uri, String[] projection, String selection,
+            String[] selectionArgs, String sortOrder) {
+        @SuppressWarnings("deprecation")
+        final String sql = newQueryBuilder(uri).buildQuery(projection, selection, selectionArgs,
+                null, null, sortOrder, uri.getQueryParameter("limit"));
+        return getQueryPlan(sql, selectionArgs);
+    }
+
+    /**
+     * Returns the plan SQLite would use for a statement, from EXPLAIN QUERY PLAN.
+     *
+     * @return The detail of each step of the plan.
+     */
+    public List<String> getQueryPlan(String sql, String[] selectionArgs) {
+        Cursor c = getDatabase().rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        ArrayList<String> result = new ArrayList<String>();
+        try {
+            final int col = c.getColumnIndexOrThrow("detail");
+            while (c.moveToNext()) {
+                result.add(c.getString(col));
+            }
+        } finally {
+            c.close();
+        }
+        return result;
+    }
+
     //
     // Closes the database
     //
     public void closeDB() {
+        if (mDb != null) {
+            mStopsInserter.close();
+            mRoutesInserter.close();
+            mTripsInserter.close();
+            mTripAlertsInserter.close();
+            mFilterInserter.close();
+            mServiceAlertsInserter.close();
+            mRegionsInserter.close();
+            mRegionBoundsInserter.close();
+        }
+        // Closing the last connection checkpoints and removes the log.
         mOpenHelper.close();
         mDb = null;
     }
+
+    //
+    // Inserts rows into a table with compiled statements.
+    // A statement is compiled for each set of columns that's inserted,
+    // so columns that aren't given get their default values.
+    //
+    private static final class Inserter {
+
+        private final SQLiteDatabase mDb;
+
+        private final String mTable;
+
+        private final HashMap<String, SQLiteStatement> mStatements =
+                new HashMap<String, SQLiteStatement>();
+
+        Inserter(SQLiteDatabase db, String table) {
+            mDb = db;
+            mTable = table;
+        }
+
+        //
+        // Returns the row ID of the new row, or -1 if there was an error.
+        //
+        synchronized long insert(ContentValues values) {
+            // Sorted, so the same columns always find the same statement.
+            ArrayList<String> columns = new ArrayList<String>(values.size());
+            for (Map.Entry<String, Object> entry : values.valueSet()) {
+                columns.add(entry.getKey());
+            }
+            Collections.sort(columns);
+            final String key = TextUtils.join(",", columns);
+
+            try {
+                SQLiteStatement statement = mStatements.get(key);
+                if (statement == null) {
+                    statement = mDb.compileStatement(buildSql(columns));
+                    mStatements.put(key, statement);
+                }
+                statement.clearBindings();
+                for (int i = 0; i < columns.size(); ++i) {
+                    DatabaseUtils.bindObjectToProgram(statement, i + 1,
+                            values.get(columns.get(i)));
+                }
+                return statement.executeInsert();
+            } catch (SQLException e) {
+                Log.e(TAG, "Error inserting " + values + " into table " + mTable, e);
+                return -1;
+            }
+        }
+
+        synchronized void close() {
+            for (SQLiteStatement statement : mStatements.values()) {
+                statement.close();
+            }
+            mStatements.clear();
+        }
+
+        private String buildSql(ArrayList<String> columns) {
+            if (columns.isEmpty()) {
+                return "INSERT INTO " + mTable + " DEFAULT VALUES";
+            }
+            StringBuilder sql = new StringBuilder("INSERT INTO ");
+            sql.append(mTable);
+            sql.append(" (");
+            sql.append(TextUtils.join(",", columns));
+            sql.append(") VALUES (?");
+            for (int i = 1; i < columns.size(); ++i) {
+                sql.append(",?");
+            }
+            sql.append(")");
+            return sql.toString();
+        }
+    }
 }
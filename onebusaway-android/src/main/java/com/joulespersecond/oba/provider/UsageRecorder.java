@@ -0,0 +1,370 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.oba.provider;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Records uses of stops and routes in memory, and writes them to the
+ * provider together in one transaction a while later. Viewing a stop then
+ * doesn't write to the database and reload every list that shows stops.
+ *
+ * Pending uses are also kept in a journal in shared preferences, so they
+ * aren't lost if the process dies before they're written; they're written
+ * the next time the recorder starts.
+ *
+ * Anything that changes a stop or route directly should call
+ * {@link #flushPending()} first, so the row exists and its counts are
+ * up to date.
+ */
+public final class UsageRecorder {
+
+    private static final String TAG = "UsageRecorder";
+
+    private static final String JOURNAL_NAME = "usage_journal";
+
+    /**
+     * How long after the first pending use they're all written.
+     */
+    public static final long FLUSH_DELAY_MS = 30 * 1000;
+
+    private static final String JSON_USES = "uses";
+
+    private static final String JSON_ACCESS_TIME = "time";
+
+    private static final String JSON_VALUES = "values";
+
+    private static final class Entry {
+
+        final Uri contentUri;
+
+        final String id;
+
+        final ContentValues values;
+
+        int uses;
+
+        long accessTime;
+
+        Entry(Uri contentUri, String id, ContentValues values, int uses, long accessTime) {
+            this.contentUri = contentUri;
+            this.id = id;
+            this.values = values;
+            this.uses = uses;
+            this.accessTime = accessTime;
+        }
+
+        void merge(Entry newer) {
+            values.putAll(newer.values);
+            uses += newer.uses;
+            accessTime = Math.max(accessTime, newer.accessTime);
+        }
+    }
+
+    private static UsageRecorder sInstance;
+
+    private final ContentResolver mResolver;
+
+    private final SharedPreferences mJournal;
+
+    // Pending entries by their journal key.
+    private final HashMap<String, Entry> mPending = new HashMap<String, Entry>();
+
+    private final Object mFlushLock = new Object();
+
+    private Handler mHandler;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * Starts the recorder for the app, and writes any uses left over
+     * from the last time the app ran.
+     */
+    public static synchronized void init(Context context) {
+        if (sInstance == null) {
+            context = context.getApplicationContext();
+            sInstance = new UsageRecorder(context.getContentResolver(),
+                    context.getSharedPreferences(JOURNAL_NAME, Context.MODE_PRIVATE));
+            sInstance.restore();
+        }
+    }
+
+    /**
+     * @return The recorder for the app.
+     */
+    public static synchronized UsageRecorder get(Context context) {
+        init(context);
+        return sInstance;
+    }
+
+    /**
+     * Writes any pending uses now, if the recorder has been started.
+     */
+    public static void flushPending() {
+        final UsageRecorder recorder;
+        synchronized (UsageRecorder.class) {
+            recorder = sInstance;
+        }
+        if (recorder != null) {
+            recorder.flush();
+        }
+    }
+
+    public UsageRecorder(ContentResolver resolver, SharedPreferences journal) {
+        mResolver = resolver;
+        mJournal = journal;
+    }
+
+    /**
+     * Records that the user viewed a stop.
+     *
+     * @param values The stop's information, to insert or update along with its use.
+     */
+    public void recordStop(String id, ContentValues values) {
+        record(new Entry(ObaContract.Stops.CONTENT_URI, id, new ContentValues(values), 1,
+                System.currentTimeMillis()));
+    }
+
+    /**
+     * Records that the user viewed a route.
+     *
+     * @param values The route's information, to insert or update along with its use.
+     */
+    public void recordRoute(String id, ContentValues values) {
+        record(new Entry(ObaContract.Routes.CONTENT_URI, id, new ContentValues(values), 1,
+                System.currentTimeMillis()));
+    }
+
+    /**
+     * @return The number of stops and routes with uses that haven't been written.
+     */
+    public synchronized int getPendingCount() {
+        return mPending.size();
+    }
+
+    /**
+     * Writes the uses to the provider in the background, soon.
+     */
+    public void flushSoon() {
+        final Handler handler = getHandler();
+        handler.removeCallbacks(mFlush);
+        handler.post(mFlush);
+    }
+
+    /**
+     * Writes all the pending uses to the provider in one transaction.
+     *
+     * @return false if they couldn't be written, in which case they're
+     * still pending.
+     */
+    public boolean flush() {
+        // Only one flush at a time, so the uses are written in order.
+        synchronized (mFlushLock) {
+            final HashMap<String, Entry> flushing;
+            synchronized (this) {
+                if (mPending.isEmpty()) {
+                    return true;
+                }
+                flushing = new HashMap<String, Entry>(mPending);
+                mPending.clear();
+            }
+
+            ArrayList<ContentProviderOperation> ops =
+                    new ArrayList<ContentProviderOperation>(flushing.size());
+            for (Entry entry : flushing.values()) {
+                ContentValues values = new ContentValues(entry.values);
+                values.put(ObaContract.Stops._ID, entry.id);
+                values.put(ObaContract.Stops.ACCESS_TIME, entry.accessTime);
+                ops.add(ContentProviderOperation
+                        .newInsert(ObaContract.getUpsertUri(entry.contentUri, entry.uses))
+                        .withValues(values)
+                        .build());
+            }
+            final boolean success = ObaContract.applyBatch(mResolver, ops);
+
+            synchronized (this) {
+                SharedPreferences.Editor edit = mJournal.edit();
+                for (Map.Entry<String, Entry> e : flushing.entrySet()) {
+                    final String key = e.getKey();
+                    final Entry newer = mPending.get(key);
+                    if (success) {
+                        // Uses recorded since have already replaced the journal entry.
+                        if (newer == null) {
+                            edit.remove(key);
+                        }
+                    } else {
+                        final Entry entry = e.getValue();
+                        if (newer != null) {
+                            entry.merge(newer);
+                        }
+                        mPending.put(key, entry);
+                        edit.putString(key, toJson(entry));
+                    }
+                }
+                edit.apply();
+            }
+            if (!success) {
+                getHandler().postDelayed(mFlush, FLUSH_DELAY_MS);
+            }
+            return success;
+        }
+    }
+
+    private void record(Entry entry) {
+        final String key = getKey(entry.contentUri, entry.id);
+        final boolean first;
+        synchronized (this) {
+            first = mPending.isEmpty();
+            final Entry existing = mPending.get(key);
+            if (existing != null) {
+                existing.merge(entry);
+                entry = existing;
+            } else {
+                mPending.put(key, entry);
+            }
+            // Written in the background, so it doesn't slow down the UI.
+            mJournal.edit().putString(key, toJson(entry)).apply();
+        }
+        if (first) {
+            getHandler().postDelayed(mFlush, FLUSH_DELAY_MS);
+        }
+    }
+
+    /**
+     * Reads the uses that were still pending when the process last stopped,
+     * and writes them soon.
+     */
+    public void restore() {
+        synchronized (this) {
+            for (Map.Entry<String, ?> e : mJournal.getAll().entrySet()) {
+                final String key = e.getKey();
+                final Entry entry = fromJson(key, String.valueOf(e.getValue()));
+                if (entry != null) {
+                    mPending.put(key, entry);
+                } else {
+                    mJournal.edit().remove(key).apply();
+                }
+            }
+            if (mPending.isEmpty()) {
+                return;
+            }
+        }
+        flushSoon();
+    }
+
+    /**
+     * Stops writing in the background. Uses that are still pending
+     * stay in the journal.
+     */
+    public synchronized void close() {
+        if (mHandler != null) {
+            mHandler.removeCallbacks(mFlush);
+            mHandler.getLooper().quit();
+            mHandler = null;
+        }
+    }
+
+    private synchronized Handler getHandler() {
+        if (mHandler == null) {
+            HandlerThread thread = new HandlerThread(TAG);
+            thread.start();
+            mHandler = new Handler(thread.getLooper());
+        }
+        return mHandler;
+    }
+
+    private static String getKey(Uri contentUri, String id) {
+        return contentUri.getLastPathSegment() + "/" + id;
+    }
+
+    private static String toJson(Entry entry) {
+        try {
+            JSONObject values = new JSONObject();
+            for (Map.Entry<String, Object> e : entry.values.valueSet()) {
+                values.put(e.getKey(), e.getValue());
+            }
+            JSONObject json = new JSONObject();
+            json.put(JSON_USES, entry.uses);
+            json.put(JSON_ACCESS_TIME, entry.accessTime);
+            json.put(JSON_VALUES, values);
+            return json.toString();
+        } catch (JSONException e) {
+            Log.e(TAG, "Unable to write usage for " + entry.id, e);
+            return null;
+        }
+    }
+
+    private static Entry fromJson(String key, String str) {
+        final int slash = key.indexOf('/');
+        if (slash < 0) {
+            return null;
+        }
+        final String path = key.substring(0, slash);
+        final Uri contentUri;
+        if (ObaContract.Stops.PATH.equals(path)) {
+            contentUri = ObaContract.Stops.CONTENT_URI;
+        } else if (ObaContract.Routes.PATH.equals(path)) {
+            contentUri = ObaContract.Routes.CONTENT_URI;
+        } else {
+            return null;
+        }
+        try {
+            JSONObject json = new JSONObject(str);
+            JSONObject jsonValues = json.getJSONObject(JSON_VALUES);
+            ContentValues values = new ContentValues();
+            Iterator<?> it = jsonValues.keys();
+            while (it.hasNext()) {
+                final String column = (String) it.next();
+                final Object value = jsonValues.get(column);
+                if (value instanceof String) {
+                    values.put(column, (String) value);
+                } else if (value instanceof Integer || value instanceof Long) {
+                    values.put(column, ((Number) value).longValue());
+                } else if (value instanceof Number) {
+                    values.put(column, ((Number) value).doubleValue());
+                } else if (value instanceof Boolean) {
+                    values.put(column, (Boolean) value);
+                }
+            }
+            return new Entry(contentUri, key.substring(slash + 1), values,
+                    json.getInt(JSON_USES), json.getLong(JSON_ACCESS_TIME));
+        } catch (JSONException e) {
+            Log.e(TAG, "Unable to read usage for " + key, e);
+            return null;
+        }
+    }
+}
@@ -59,6 +59,10 @@ public final class ObaAgenciesWithCoverageRequest extends RequestBase implements
         return call(ObaAgenciesWithCoverageResponse.class);
     }
 
+    public RequestFuture<ObaAgenciesWithCoverageResponse> callAsync(int priority) {
+        return callAsync(ObaAgenciesWithCoverageResponse.class, this, priority);
+    }
+
     @Override
     public String toString() {
         return "ObaAgenciesWithCoverageRequest [mUri=" + mUri + "]";
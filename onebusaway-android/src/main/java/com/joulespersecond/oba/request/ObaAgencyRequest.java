@@ -59,6 +59,10 @@ public final class ObaAgencyRequest extends RequestBase implements Callable<ObaA
         return call(ObaAgencyResponse.class);
     }
 
+    public RequestFuture<ObaAgencyResponse> callAsync(int priority) {
+        return callAsync(ObaAgencyResponse.class, this, priority);
+    }
+
 
     @Override
     public String toString() {
@@ -39,6 +39,20 @@ public final class ObaArrivalInfoRequest extends RequestBase implements
             mBuilder.appendQueryParameter("minutesAfter", String.valueOf(minutesAfter));
         }
 
+        /**
+         * Requests only the arrivals in a window of time.
+         *
+         * @param time          The start of the window, as milliseconds since the epoch
+         *                      on the API server.
+         * @param minutesAfter  The length of the window.
+         */
+        public Builder(Context context, String stopId, long time, int minutesAfter) {
+            super(context, getPathWithId("/arrivals-and-departures-for-stop/", stopId));
+            mBuilder.appendQueryParameter("time", String.valueOf(time));
+            mBuilder.appendQueryParameter("minutesBefore", "0");
+            mBuilder.appendQueryParameter("minutesAfter", String.valueOf(minutesAfter));
+        }
+
         public ObaArrivalInfoRequest build() {
             return new ObaArrivalInfoRequest(buildUri());
         }
@@ -68,9 +82,28 @@ public final class ObaArrivalInfoRequest extends RequestBase implements
         return new Builder(context, stopId, minutesAfter).build();
     }
 
+    /**
+     * Helper method for constructing new instances.
+     *
+     * @param context      The package context.
+     * @param stopId       The stop Id to request.
+     * @param time         includes vehicles arriving or departing from this time,
+     *                     in milliseconds since the epoch on the server
+     * @param minutesAfter until minutesAfter minutes after it
+     * @return The new request instance.
+     */
+    public static ObaArrivalInfoRequest newRequest(Context context, String stopId,
+            long time, int minutesAfter) {
+        return new Builder(context, stopId, time, minutesAfter).build();
+    }
+
     @Override
     public ObaArrivalInfoResponse call() {
         return call(ObaArrivalInfoResponse.class);
     }
 
+    public RequestFuture<ObaArrivalInfoResponse> callAsync(int priority) {
+        return callAsync(ObaArrivalInfoResponse.class, this, priority);
+    }
+
 }
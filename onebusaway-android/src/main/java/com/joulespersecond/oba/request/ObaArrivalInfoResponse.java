@@ -21,6 +21,9 @@ import com.joulespersecond.oba.elements.ObaReferencesElement;
 import com.joulespersecond.oba.elements.ObaSituation;
 import com.joulespersecond.oba.elements.ObaStop;
 
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 
 /**
@@ -48,15 +51,37 @@ public final class ObaArrivalInfoResponse extends ObaResponseWithRefs {
             nearbyStopIds = new String[]{};
             situationIds = new String[]{};
         }
+
+        private Entry(Entry older, Entry newer) {
+            stopId = older.stopId;
+            arrivalsAndDepartures =
+                    mergeArrivals(older.arrivalsAndDepartures, newer.arrivalsAndDepartures);
+            nearbyStopIds = newer.nearbyStopIds.length != 0 ?
+                    newer.nearbyStopIds : older.nearbyStopIds;
+            LinkedHashSet<String> situations = new LinkedHashSet<String>();
+            situations.addAll(Arrays.asList(older.situationIds));
+            situations.addAll(Arrays.asList(newer.situationIds));
+            situationIds = situations.toArray(new String[situations.size()]);
+        }
     }
 
     private static final class Data {
 
         private static final Data EMPTY_OBJECT = new Data();
 
-        private final ObaReferencesElement references = ObaReferencesElement.EMPTY_OBJECT;
+        private final ObaReferencesElement references;
+
+        private final Entry entry;
+
+        private Data() {
+            references = ObaReferencesElement.EMPTY_OBJECT;
+            entry = Entry.EMPTY_OBJECT;
+        }
 
-        private final Entry entry = Entry.EMPTY_OBJECT;
+        private Data(Data older, Data newer) {
+            references = ObaReferencesElement.merge(older.references, newer.references);
+            entry = new Entry(older.entry, newer.entry);
+        }
     }
 
     private final Data data;
@@ -65,6 +90,26 @@ public final class ObaArrivalInfoResponse extends ObaResponseWithRefs {
         data = Data.EMPTY_OBJECT;
     }
 
+    private ObaArrivalInfoResponse(ObaArrivalInfoResponse older, ObaArrivalInfoResponse newer) {
+        super(newer, older.getCurrentTime());
+        data = new Data(older.data, newer.data);
+    }
+
+    /**
+     * Merges the arrivals from a request for a later window of time at the
+     * same stop into this response. An arrival in both responses is
+     * replaced by the one in the later response.
+     *
+     * The result keeps this response's time, since most of its arrivals
+     * are as old as this response.
+     *
+     * @param later The response for the later window.
+     * @return A new response with the arrivals in both.
+     */
+    public ObaArrivalInfoResponse merge(ObaArrivalInfoResponse later) {
+        return new ObaArrivalInfoResponse(this, later);
+    }
+
     /**
      * @return The stop information for this arrival info.
      */
@@ -91,4 +136,17 @@ public final class ObaArrivalInfoResponse extends ObaResponseWithRefs {
     protected ObaReferences getRefs() {
         return data.references;
     }
+
+    private static ObaArrivalInfo[] mergeArrivals(ObaArrivalInfo[] older,
+            ObaArrivalInfo[] newer) {
+        final LinkedHashMap<String, ObaArrivalInfo> byKey = new LinkedHashMap<String, ObaArrivalInfo>(
+                (older.length + newer.length) * 4 / 3 + 1);
+        for (ObaArrivalInfo info : older) {
+            byKey.put(info.getVisitKey(), info);
+        }
+        for (ObaArrivalInfo info : newer) {
+            byKey.put(info.getVisitKey(), info);
+        }
+        return byKey.values().toArray(new ObaArrivalInfo[byKey.size()]);
+    }
 }
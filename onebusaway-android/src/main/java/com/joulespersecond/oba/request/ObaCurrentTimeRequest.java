@@ -59,6 +59,10 @@ public final class ObaCurrentTimeRequest extends RequestBase
         return call(ObaCurrentTimeResponse.class);
     }
 
+    public RequestFuture<ObaCurrentTimeResponse> callAsync(int priority) {
+        return callAsync(ObaCurrentTimeResponse.class, this, priority);
+    }
+
     @Override
     public String toString() {
         return "ObaCurrentTimeRequest [mUri=" + mUri + "]";
@@ -87,6 +87,10 @@ public final class ObaRegionsRequest extends RequestBase implements
         }
     }
 
+    public RequestFuture<ObaRegionsResponse> callAsync(int priority) {
+        return callAsync(ObaRegionsResponse.class, this, priority);
+    }
+
     @Override
     public String toString() {
         return "ObaRegionsRequest [mUri=" + mUri + "]";
@@ -105,6 +105,10 @@ public final class ObaReportProblemWithStopRequest extends RequestBase
         return callPostHack(ObaReportProblemWithStopResponse.class);
     }
 
+    public RequestFuture<ObaReportProblemWithStopResponse> callAsync(int priority) {
+        return callAsync(ObaReportProblemWithStopResponse.class, this, priority);
+    }
+
     @Override
     public String toString() {
         return "ObaReportProblemWithStopRequest [mUri=" + mUri + "]";
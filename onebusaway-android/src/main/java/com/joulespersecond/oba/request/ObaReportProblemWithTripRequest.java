@@ -160,6 +160,10 @@ public final class ObaReportProblemWithTripRequest extends RequestBase
         return callPostHack(ObaReportProblemWithTripResponse.class);
     }
 
+    public RequestFuture<ObaReportProblemWithTripResponse> callAsync(int priority) {
+        return callAsync(ObaReportProblemWithTripResponse.class, this, priority);
+    }
+
     @Override
     public String toString() {
         return "ObaReportProblemWithTripRequest [mUri=" + mUri + "]";
@@ -39,6 +39,16 @@ public class ObaResponse {
         text = "ERROR";
     }
 
+    /**
+     * Copies the status of another response, with a different time.
+     */
+    protected ObaResponse(ObaResponse other, long currentTime) {
+        version = other.version;
+        code = other.code;
+        this.currentTime = currentTime;
+        text = other.text;
+    }
+
     /**
      * @return The version of this response.
      */
@@ -26,6 +26,13 @@ import java.util.List;
 
 public abstract class ObaResponseWithRefs extends ObaResponse implements ObaReferences {
 
+    protected ObaResponseWithRefs() {
+    }
+
+    protected ObaResponseWithRefs(ObaResponse other, long currentTime) {
+        super(other, currentTime);
+    }
+
     @Override
     public ObaStop getStop(String id) {
         return getRefs().getStop(id);
@@ -60,6 +60,10 @@ public final class ObaRouteIdsForAgencyRequest extends RequestBase
         return call(ObaRouteIdsForAgencyResponse.class);
     }
 
+    public RequestFuture<ObaRouteIdsForAgencyResponse> callAsync(int priority) {
+        return callAsync(ObaRouteIdsForAgencyResponse.class, this, priority);
+    }
+
     @Override
     public String toString() {
         return "ObaRouteIdsForAgencyRequest [mUri=" + mUri + "]";
@@ -59,6 +59,10 @@ public final class ObaRouteRequest extends RequestBase implements Callable<ObaRo
         return call(ObaRouteResponse.class);
     }
 
+    public RequestFuture<ObaRouteResponse> callAsync(int priority) {
+        return callAsync(ObaRouteResponse.class, this, priority);
+    }
+
     @Override
     public String toString() {
         return "ObaRouteRequest [mUri=" + mUri + "]";
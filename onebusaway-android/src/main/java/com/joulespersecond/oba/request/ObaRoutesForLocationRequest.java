@@ -96,6 +96,10 @@ public final class ObaRoutesForLocationRequest extends RequestBase
         return call(ObaRoutesForLocationResponse.class);
     }
 
+    public RequestFuture<ObaRoutesForLocationResponse> callAsync(int priority) {
+        return callAsync(ObaRoutesForLocationResponse.class, this, priority);
+    }
+
     @Override
     public String toString() {
         return "ObaRoutesForLocationRequest [mUri=" + mUri + "]";
@@ -61,6 +61,10 @@ public final class ObaScheduleForStopRequest extends RequestBase
         return call(ObaScheduleForStopResponse.class);
     }
 
+    public RequestFuture<ObaScheduleForStopResponse> callAsync(int priority) {
+        return callAsync(ObaScheduleForStopResponse.class, this, priority);
+    }
+
     @Override
     public String toString() {
         return "ObaScheduleForStopRequest [mUri=" + mUri + "]";
@@ -59,6 +59,10 @@ public final class ObaShapeRequest extends RequestBase implements Callable<ObaSh
         return call(ObaShapeResponse.class);
     }
 
+    public RequestFuture<ObaShapeResponse> callAsync(int priority) {
+        return callAsync(ObaShapeResponse.class, this, priority);
+    }
+
     @Override
     public String toString() {
         return "ObaShapeRequest [mUri=" + mUri + "]";
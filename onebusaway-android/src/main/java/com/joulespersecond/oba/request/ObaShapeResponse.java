@@ -15,6 +15,7 @@
  */
 package com.joulespersecond.oba.request;
 
+import com.joulespersecond.oba.elements.ObaDecodedShape;
 import com.joulespersecond.oba.elements.ObaShape;
 import com.joulespersecond.oba.elements.ObaShapeElement;
 
@@ -67,4 +68,9 @@ public final class ObaShapeResponse extends ObaResponse implements ObaShape {
     public String getRawPoints() {
         return data.entry.getRawPoints();
     }
+
+    @Override
+    public ObaDecodedShape getDecodedShape() {
+        return data.entry.getDecodedShape();
+    }
 }
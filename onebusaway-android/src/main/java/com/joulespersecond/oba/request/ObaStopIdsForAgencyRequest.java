@@ -60,6 +60,10 @@ public final class ObaStopIdsForAgencyRequest extends RequestBase
         return call(ObaStopIdsForAgencyResponse.class);
     }
 
+    public RequestFuture<ObaStopIdsForAgencyResponse> callAsync(int priority) {
+        return callAsync(ObaStopIdsForAgencyResponse.class, this, priority);
+    }
+
     @Override
     public String toString() {
         return "ObaStopIdsForAgencyRequest [mUri=" + mUri + "]";
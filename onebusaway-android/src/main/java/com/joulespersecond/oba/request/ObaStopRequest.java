@@ -59,6 +59,10 @@ public final class ObaStopRequest extends RequestBase implements Callable<ObaSto
         return call(ObaStopResponse.class);
     }
 
+    public RequestFuture<ObaStopResponse> callAsync(int priority) {
+        return callAsync(ObaStopResponse.class, this, priority);
+    }
+
     @Override
     public String toString() {
         return "ObaStopRequest [mUri=" + mUri + "]";
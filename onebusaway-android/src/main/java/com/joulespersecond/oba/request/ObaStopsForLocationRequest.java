@@ -96,6 +96,10 @@ public final class ObaStopsForLocationRequest extends RequestBase
         return call(ObaStopsForLocationResponse.class);
     }
 
+    public RequestFuture<ObaStopsForLocationResponse> callAsync(int priority) {
+        return callAsync(ObaStopsForLocationResponse.class, this, priority);
+    }
+
     @Override
     public String toString() {
         return "ObaStopsForLocationRequest [mUri=" + mUri + "]";
@@ -55,6 +55,10 @@ public final class ObaStopsForRouteRequest extends RequestBase
         return call(ObaStopsForRouteResponse.class);
     }
 
+    public RequestFuture<ObaStopsForRouteResponse> callAsync(int priority) {
+        return callAsync(ObaStopsForRouteResponse.class, this, priority);
+    }
+
     @Override
     public String toString() {
         return "ObaStopsForRouteRequest [mUri=" + mUri + "]";
@@ -93,6 +93,10 @@ public final class ObaTripDetailsRequest extends RequestBase
         return call(ObaTripDetailsResponse.class);
     }
 
+    public RequestFuture<ObaTripDetailsResponse> callAsync(int priority) {
+        return callAsync(ObaTripDetailsResponse.class, this, priority);
+    }
+
     @Override
     public String toString() {
         return "ObaTripDetailsRequest [mUri=" + mUri + "]";
@@ -59,6 +59,10 @@ public final class ObaTripRequest extends RequestBase implements Callable<ObaTri
         return call(ObaTripResponse.class);
     }
 
+    public RequestFuture<ObaTripResponse> callAsync(int priority) {
+        return callAsync(ObaTripResponse.class, this, priority);
+    }
+
     @Override
     public String toString() {
         return "ObaTripRequest [mUri=" + mUri + "]";
@@ -86,6 +86,10 @@ public final class ObaTripsForLocationRequest extends RequestBase
         return call(ObaTripsForLocationResponse.class);
     }
 
+    public RequestFuture<ObaTripsForLocationResponse> callAsync(int priority) {
+        return callAsync(ObaTripsForLocationResponse.class, this, priority);
+    }
+
     @Override
     public String toString() {
         return "ObaTripsForLocationRequest [mUri=" + mUri + "]";
@@ -30,6 +30,10 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.Reader;
 import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * The base class for Oba requests.
@@ -119,11 +123,188 @@ public class RequestBase {
         }
     }
 
+    /**
+     * A request that is currently being fetched and deserialized,
+     * along with the number of callers waiting on its result.
+     */
+    private static final class Flight {
+
+        // The key in mInFlight, or null for requests that are never shared.
+        final String mKey;
+
+        final CountDownLatch mDone = new CountDownLatch(1);
+
+        int mWaiters = 1;
+
+        // Set once every caller has cancelled: the connection is disconnected
+        // and the flight is no longer shared.
+        boolean mAbandoned;
+
+        ObaConnection mConnection;
+
+        Object mResult;
+
+        Flight(String key) {
+            mKey = key;
+        }
+
+        /**
+         * @return false if the flight was abandoned, and the connection shouldn't be used.
+         */
+        boolean attach(ObaConnection conn) {
+            synchronized (mInFlight) {
+                if (mAbandoned) {
+                    return false;
+                }
+                mConnection = conn;
+                return true;
+            }
+        }
+    }
+
+    // In-flight GET requests, keyed by response class and canonical URI.
+    private static final HashMap<String, Flight> mInFlight = new HashMap<String, Flight>();
+
+    // The flight this request is performing or waiting on.
+    private volatile Flight mFlight;
+
+    private volatile boolean mCancelled;
+
+    private final AtomicBoolean mReleased = new AtomicBoolean();
+
+    /**
+     * Cancels this request. If no other caller is waiting on the same response,
+     * the connection is disconnected and call() returns an OBA_IO_EXCEPTION error;
+     * otherwise the request continues for the benefit of the other callers.
+     */
+    public void cancel() {
+        mCancelled = true;
+        releaseFlight();
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    private void releaseFlight() {
+        final Flight flight = mFlight;
+        if (flight == null || !mReleased.compareAndSet(false, true)) {
+            return;
+        }
+        ObaConnection conn;
+        synchronized (mInFlight) {
+            if (flight.mDone.getCount() == 0 || --flight.mWaiters > 0) {
+                return;
+            }
+            flight.mAbandoned = true;
+            if (flight.mKey != null && mInFlight.get(flight.mKey) == flight) {
+                mInFlight.remove(flight.mKey);
+            }
+            conn = flight.mConnection;
+        }
+        if (conn != null) {
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * Submits this request to the shared RequestExecutor.
+     *
+     * @param cls      The response class, used to create an error response if the request
+     *                 fails or is cancelled.
+     * @param task     The task that performs the request, normally the request itself.
+     * @param priority One of the RequestExecutor PRIORITY_ constants.
+     */
+    protected <T> RequestFuture<T> callAsync(Class<T> cls, Callable<T> task, int priority) {
+        return RequestExecutor.getInstance()
+                .submit(new RequestFuture<T>(this, cls, task, priority));
+    }
+
+    /**
+     * Performs the request and returns the deserialized response.
+     * Concurrent GET requests for the same response class and URI (ignoring the
+     * API key and app info) are coalesced: the first caller performs the request,
+     * and every other caller receives the same response object.
+     * Responses are immutable, so sharing them is safe.
+     */
     protected <T> T call(Class<T> cls) {
+        if (mCancelled) {
+            return ObaApi.getSerializer(cls)
+                    .createFromError(cls, ObaApi.OBA_IO_EXCEPTION, "Cancelled");
+        }
+        if (mPostData != null) {
+            final Flight flight = new Flight(null);
+            mFlight = flight;
+            try {
+                return fetch(cls, flight);
+            } finally {
+                flight.mDone.countDown();
+            }
+        }
+        final String key = cls.getName() + " " + ObaApi.getCanonicalUri(mUri);
+        Flight flight;
+        boolean leader = false;
+        synchronized (mInFlight) {
+            flight = mInFlight.get(key);
+            if (flight == null) {
+                flight = new Flight(key);
+                mInFlight.put(key, flight);
+                leader = true;
+            } else {
+                flight.mWaiters++;
+            }
+            mFlight = flight;
+        }
+
+        if (leader) {
+            T result = null;
+            try {
+                result = fetch(cls, flight);
+            } finally {
+                // Anyone who arrives from now on starts a new request.
+                synchronized (mInFlight) {
+                    if (mInFlight.get(key) == flight) {
+                        mInFlight.remove(key);
+                    }
+                }
+                flight.mResult = result;
+                flight.mDone.countDown();
+            }
+            if (mCancelled) {
+                return ObaApi.getSerializer(cls)
+                        .createFromError(cls, ObaApi.OBA_IO_EXCEPTION, "Cancelled");
+            }
+            return result;
+        }
+
+        try {
+            flight.mDone.await();
+        } catch (InterruptedException e) {
+            releaseFlight();
+            Thread.currentThread().interrupt();
+            return ObaApi.getSerializer(cls)
+                    .createFromError(cls, ObaApi.OBA_IO_EXCEPTION, e.toString());
+        }
+        if (mCancelled) {
+            return ObaApi.getSerializer(cls)
+                    .createFromError(cls, ObaApi.OBA_IO_EXCEPTION, "Cancelled");
+        }
+        if (flight.mResult == null) {
+            // The request failed with an unchecked exception in the leader.
+            return ObaApi.getSerializer(cls)
+                    .createFromError(cls, ObaApi.OBA_INTERNAL_ERROR, "Request failed");
+        }
+        return cls.cast(flight.mResult);
+    }
+
+    private <T> T fetch(Class<T> cls, Flight flight) {
         ObaApi.SerializationHandler handler = ObaApi.getSerializer(cls);
         ObaConnection conn = null;
         try {
             conn = ObaApi.getDefaultContext().getConnectionFactory().newConnection(mUri);
+            if (!flight.attach(conn)) {
+                return handler.createFromError(cls, ObaApi.OBA_IO_EXCEPTION, "Cancelled");
+            }
             Reader reader;
             if (mPostData != null) {
                 reader = conn.post(mPostData);
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.oba.request;
+
+import android.os.Process;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The shared, bounded executor for asynchronous requests.
+ * Queued requests run in priority order, and in submission order
+ * within the same priority, so that foreground requests (such as arrivals
+ * for the stop the user is looking at) aren't stuck behind prefetching,
+ * polling or region refreshes.
+ *
+ * At most MAX_QUEUE_DEPTH requests wait for a thread. When the queue is full,
+ * the newest of the lowest priority requests is cancelled to make room,
+ * unless the new request is of that priority or lower, in which case it's
+ * cancelled instead. Each request runs at a thread priority that matches its
+ * own priority.
+ *
+ * @see RequestBase#callAsync(Class, java.util.concurrent.Callable, int)
+ */
+public final class RequestExecutor {
+
+    /**
+     * Requests for content that the user is currently waiting on.
+     */
+    public static final int PRIORITY_FOREGROUND = 0;
+
+    /**
+     * Requests that the user will probably need soon.
+     */
+    public static final int PRIORITY_NORMAL = 1;
+
+    /**
+     * Requests that no one is waiting on: prefetching, polling and region refreshes.
+     */
+    public static final int PRIORITY_BACKGROUND = 2;
+
+    /**
+     * The most requests that can be waiting for a thread at once.
+     */
+    public static final int MAX_QUEUE_DEPTH = 32;
+
+    private static final int POOL_SIZE = 3;
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static class SingletonHolder {
+
+        public static final RequestExecutor INSTANCE = new RequestExecutor();
+    }
+
+    public static RequestExecutor getInstance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    private final PriorityBlockingQueue<Runnable> mQueue = new PriorityBlockingQueue<Runnable>();
+
+    private final ThreadPoolExecutor mExecutor;
+
+    private final AtomicLong mSequence = new AtomicLong();
+
+    private final AtomicInteger mMaxQueueDepth = new AtomicInteger();
+
+    private final AtomicLong mDropped = new AtomicLong();
+
+    private final AtomicLong mCompleted = new AtomicLong();
+
+    private final AtomicLong mTotalQueueTime = new AtomicLong();
+
+    private final AtomicLong mTotalRunTime = new AtomicLong();
+
+    private RequestExecutor() {
+        mExecutor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, mQueue, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "ObaRequest #" + mCount.incrementAndGet());
+            }
+        }) {
+            @Override
+            protected void beforeExecute(Thread t, Runnable r) {
+                // Called on the thread that's about to run the request.
+                Process.setThreadPriority(getThreadPriority(((RequestFuture<?>) r).getPriority()));
+            }
+        };
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private static int getThreadPriority(int priority) {
+        switch (priority) {
+            case PRIORITY_FOREGROUND:
+                return Process.THREAD_PRIORITY_DEFAULT;
+            case PRIORITY_NORMAL:
+                return Process.THREAD_PRIORITY_DEFAULT + Process.THREAD_PRIORITY_LESS_FAVORABLE;
+            default:
+                return Process.THREAD_PRIORITY_BACKGROUND;
+        }
+    }
+
+    <T> RequestFuture<T> submit(RequestFuture<T> future) {
+        future.setSequence(mSequence.getAndIncrement());
+        synchronized (mQueue) {
+            if (mQueue.size() >= MAX_QUEUE_DEPTH) {
+                final RequestFuture<?> lowest = getLowestQueued();
+                if (lowest == null || lowest.compareTo(future) < 0) {
+                    // Nothing queued is less important than this one.
+                    future.cancel(false);
+                    mDropped.incrementAndGet();
+                    return future;
+                }
+                // Unless a thread has just taken it, in which case there's room anyway.
+                if (mQueue.remove(lowest)) {
+                    lowest.cancel(false);
+                    mDropped.incrementAndGet();
+                }
+            }
+            mExecutor.execute(future);
+        }
+        final int depth = mQueue.size();
+        int max;
+        do {
+            max = mMaxQueueDepth.get();
+        } while (depth > max && !mMaxQueueDepth.compareAndSet(max, depth));
+        return future;
+    }
+
+    /**
+     * Raises the priority of a request that is still waiting for a thread,
+     * so that it runs before any queued request of a lower priority.
+     *
+     * @return true if the request will run at this priority or higher, or is
+     * already running or done; false if it was cancelled.
+     */
+    public boolean raisePriority(RequestFuture<?> future, int priority) {
+        synchronized (mQueue) {
+            if (future.getPriority() > priority && mQueue.remove(future)) {
+                // The queue is ordered when a request is added, so it has to
+                // be taken out while its priority changes.
+                future.setPriority(priority);
+                mExecutor.execute(future);
+            }
+        }
+        return !future.isCancelled();
+    }
+
+    /**
+     * @return The queued request that would run last.
+     */
+    private RequestFuture<?> getLowestQueued() {
+        RequestFuture<?> lowest = null;
+        for (Runnable r : mQueue) {
+            final RequestFuture<?> future = (RequestFuture<?>) r;
+            if (lowest == null || future.compareTo(lowest) > 0) {
+                lowest = future;
+            }
+        }
+        return lowest;
+    }
+
+    void onComplete(long queueTime, long runTime) {
+        mCompleted.incrementAndGet();
+        mTotalQueueTime.addAndGet(queueTime);
+        mTotalRunTime.addAndGet(runTime);
+    }
+
+    /**
+     * @return The number of requests waiting for a thread.
+     */
+    public int getQueueDepth() {
+        return mQueue.size();
+    }
+
+    /**
+     * @return The largest number of requests that have been waiting at once.
+     */
+    public int getMaxQueueDepth() {
+        return mMaxQueueDepth.get();
+    }
+
+    /**
+     * @return The number of requests cancelled because the queue was full.
+     */
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    /**
+     * @return The number of requests that have run to completion.
+     */
+    public long getCompletedCount() {
+        return mCompleted.get();
+    }
+
+    /**
+     * @return The average time, in milliseconds, a completed request spent in the queue.
+     */
+    public long getAverageQueueTime() {
+        final long completed = mCompleted.get();
+        return (completed != 0) ? mTotalQueueTime.get() / completed : 0;
+    }
+
+    /**
+     * @return The average time, in milliseconds, a completed request spent running.
+     */
+    public long getAverageRunTime() {
+        final long completed = mCompleted.get();
+        return (completed != 0) ? mTotalRunTime.get() / completed : 0;
+    }
+}
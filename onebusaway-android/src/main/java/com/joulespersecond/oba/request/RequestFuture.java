@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.oba.request;
+
+import com.joulespersecond.oba.ObaApi;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The pending result of a request submitted with callAsync().
+ * Cancelling the future cancels the underlying request, which disconnects
+ * its connection unless other callers are sharing the same response.
+ */
+public final class RequestFuture<T> extends FutureTask<T>
+        implements Comparable<RequestFuture<?>> {
+
+    private final RequestBase mRequest;
+
+    private final Class<T> mClass;
+
+    // Only changed while the future isn't in the executor's queue.
+    private volatile int mPriority;
+
+    private final long mQueuedTime;
+
+    private long mSequence;
+
+    RequestFuture(RequestBase request, Class<T> cls, Callable<T> callable, int priority) {
+        super(callable);
+        mRequest = request;
+        mClass = cls;
+        mPriority = priority;
+        mQueuedTime = SystemClock.elapsedRealtime();
+    }
+
+    void setSequence(long sequence) {
+        mSequence = sequence;
+    }
+
+    public int getPriority() {
+        return mPriority;
+    }
+
+    void setPriority(int priority) {
+        mPriority = priority;
+    }
+
+    @Override
+    public void run() {
+        final long start = SystemClock.elapsedRealtime();
+        super.run();
+        RequestExecutor.getInstance().onComplete(start - mQueuedTime,
+                SystemClock.elapsedRealtime() - start);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        final boolean result = super.cancel(mayInterruptIfRunning);
+        if (result) {
+            mRequest.cancel();
+        }
+        return result;
+    }
+
+    /**
+     * Waits for the response. Unlike get(), this never throws: if the request
+     * was cancelled, interrupted or failed, this returns an error response instead.
+     *
+     * @return The response.
+     */
+    public T getResponse() {
+        try {
+            return get();
+        } catch (InterruptedException e) {
+            cancel(true);
+            Thread.currentThread().interrupt();
+            return createFromError(ObaApi.OBA_IO_EXCEPTION, e.toString());
+        } catch (CancellationException e) {
+            return createFromError(ObaApi.OBA_IO_EXCEPTION, "Cancelled");
+        } catch (ExecutionException e) {
+            return createFromError(ObaApi.OBA_INTERNAL_ERROR, String.valueOf(e.getCause()));
+        }
+    }
+
+    private T createFromError(int code, String error) {
+        return ObaApi.getSerializer(mClass).createFromError(mClass, code, error);
+    }
+
+    @Override
+    public int compareTo(RequestFuture<?> another) {
+        if (mPriority != another.mPriority) {
+            return (mPriority < another.mPriority) ? -1 : 1;
+        }
+        return (mSequence < another.mSequence) ? -1 : ((mSequence == another.mSequence) ? 0 : 1);
+    }
+}
@@ -26,11 +26,14 @@ import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.MappingJsonFactory;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.introspect.VisibilityChecker;
+import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.TextNode;
-import com.fasterxml.jackson.databind.node.TreeTraversingParser;
 import com.joulespersecond.oba.ObaApi;
+import com.joulespersecond.oba.elements.ObaArrivalInfo;
+import com.joulespersecond.oba.elements.ObaStopElement;
 
 import android.util.Log;
 
@@ -38,6 +41,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringWriter;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class JacksonSerializer implements ObaApi.SerializationHandler {
 
@@ -52,11 +56,30 @@ public class JacksonSerializer implements ObaApi.SerializationHandler {
 
     static {
         mMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        // Only fields, so a serialized response reads back the same way
+        // as the API's JSON, without the values computed by its getters.
         mMapper.setVisibilityChecker(
                 VisibilityChecker.Std.defaultInstance()
-                        .withFieldVisibility(JsonAutoDetect.Visibility.ANY));
+                        .withFieldVisibility(JsonAutoDetect.Visibility.ANY)
+                        .withGetterVisibility(JsonAutoDetect.Visibility.NONE)
+                        .withIsGetterVisibility(JsonAutoDetect.Visibility.NONE));
+
+        // Hand-written streaming deserializers for the element types that
+        // dominate the most frequent responses (arrivals and map stops).
+        // These must be registered before any readers are created.
+        SimpleModule module = new SimpleModule("ObaStreamingDeserializers");
+        module.addDeserializer(ObaArrivalInfo.class, new ObaArrivalInfoDeserializer());
+        module.addDeserializer(ObaStopElement.class, new ObaStopDeserializer());
+        mMapper.registerModule(module);
     }
 
+    /**
+     * ObjectReaders are immutable and thread-safe, so we build one per
+     * response class the first time it's needed and reuse it afterwards.
+     */
+    private static final ConcurrentHashMap<Class<?>, ObjectReader> mReaders =
+            new ConcurrentHashMap<Class<?>, ObjectReader>();
+
     private JacksonSerializer() { /* singleton */ }
 
     /**
@@ -66,9 +89,25 @@ public class JacksonSerializer implements ObaApi.SerializationHandler {
         return SingletonHolder.INSTANCE;
     }
 
+    private static ObjectReader getReader(Class<?> cls) {
+        ObjectReader reader = mReaders.get(cls);
+        if (reader == null) {
+            reader = mMapper.reader(cls);
+            ObjectReader prev = mReaders.putIfAbsent(cls, reader);
+            if (prev != null) {
+                reader = prev;
+            }
+        }
+        return reader;
+    }
+
+    /**
+     * Returns a streaming parser that binds directly from the reader,
+     * without building an intermediate JsonNode tree first.
+     */
     private static JsonParser getJsonParser(Reader reader)
             throws IOException, JsonProcessingException {
-        TreeTraversingParser parser = new TreeTraversingParser(mMapper.readTree(reader));
+        JsonParser parser = mMapper.getFactory().createParser(reader);
         parser.setCodec(mMapper);
         return parser;
     }
@@ -87,7 +126,7 @@ public class JacksonSerializer implements ObaApi.SerializationHandler {
 
         try {
             // Hopefully this never returns null or throws.
-            return mMapper.readValue(json, cls);
+            return getReader(cls).readValue(json);
         } catch (JsonParseException e) {
             Log.e(TAG, e.toString());
         } catch (JsonMappingException e) {
@@ -103,8 +142,10 @@ public class JacksonSerializer implements ObaApi.SerializationHandler {
     }
 
     public <T> T deserialize(Reader reader, Class<T> cls) {
+        JsonParser parser = null;
         try {
-            T t = getJsonParser(reader).readValueAs(cls);
+            parser = getJsonParser(reader);
+            T t = getReader(cls).readValue(parser);
             if (t == null) {
                 // TODO: test switching from Gson for errors
                 t = createFromError(cls, ObaApi.OBA_INTERNAL_ERROR, "Json error");
@@ -116,6 +157,19 @@ public class JacksonSerializer implements ObaApi.SerializationHandler {
             return createFromError(cls, ObaApi.OBA_INTERNAL_ERROR, e.toString());
         } catch (IOException e) {
             return createFromError(cls, ObaApi.OBA_IO_EXCEPTION, e.toString());
+        } finally {
+            closeQuietly(parser);
+        }
+    }
+
+    private static void closeQuietly(JsonParser parser) {
+        if (parser == null) {
+            return;
+        }
+        try {
+            parser.close();
+        } catch (IOException e) {
+            Log.e(TAG, e.toString());
         }
     }
 
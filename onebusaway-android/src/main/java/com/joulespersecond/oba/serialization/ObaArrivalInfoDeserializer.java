@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.oba.serialization;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.joulespersecond.oba.elements.ObaArrivalInfo;
+import com.joulespersecond.oba.elements.ObaTripStatusElement;
+
+import java.io.IOException;
+
+/**
+ * Hand-written streaming deserializer for arrival and departure elements,
+ * used by the arrivals-and-departures-for-stop response. Trip status is
+ * less common and still goes through the default bean deserializer.
+ */
+public final class ObaArrivalInfoDeserializer extends JsonDeserializer<ObaArrivalInfo> {
+
+    @Override
+    public ObaArrivalInfo deserialize(JsonParser jp, DeserializationContext ctxt)
+            throws IOException {
+        if (jp.getCurrentToken() != JsonToken.START_OBJECT) {
+            throw ctxt.mappingException(ObaArrivalInfo.class);
+        }
+        // Defaults match the no-argument constructor of ObaArrivalInfo.
+        String routeId = "";
+        String routeShortName = "";
+        String routeLongName = "";
+        String tripId = "";
+        String tripHeadsign = "";
+        String stopId = "";
+        long predictedArrivalTime = 0;
+        long scheduledArrivalTime = 0;
+        long predictedDepartureTime = 0;
+        long scheduledDepartureTime = 0;
+        String status = "";
+        ObaArrivalInfo.Frequency frequency = null;
+        String vehicleId = null;
+        Double distanceFromStop = null;
+        Integer numberOfStopsAway = null;
+        long serviceDate = 0;
+        long lastUpdateTime = 0;
+        Boolean predicted = null;
+        ObaTripStatusElement tripStatus = null;
+        String[] situationIds = null;
+        boolean arrivalEnabled = true;
+        boolean departureEnabled = true;
+        int stopSequence = 0;
+        int blockTripSequence = 0;
+
+        while (jp.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = jp.getCurrentName();
+            final JsonToken token = jp.nextToken();
+            if ("routeId".equals(field)) {
+                routeId = ParserHelp.readString(jp);
+            } else if ("routeShortName".equals(field)) {
+                routeShortName = ParserHelp.readString(jp);
+            } else if ("routeLongName".equals(field)) {
+                routeLongName = ParserHelp.readString(jp);
+            } else if ("tripId".equals(field)) {
+                tripId = ParserHelp.readString(jp);
+            } else if ("tripHeadsign".equals(field)) {
+                tripHeadsign = ParserHelp.readString(jp);
+            } else if ("stopId".equals(field)) {
+                stopId = ParserHelp.readString(jp);
+            } else if ("predictedArrivalTime".equals(field)) {
+                predictedArrivalTime = jp.getValueAsLong();
+            } else if ("scheduledArrivalTime".equals(field)) {
+                scheduledArrivalTime = jp.getValueAsLong();
+            } else if ("predictedDepartureTime".equals(field)) {
+                predictedDepartureTime = jp.getValueAsLong();
+            } else if ("scheduledDepartureTime".equals(field)) {
+                scheduledDepartureTime = jp.getValueAsLong();
+            } else if ("status".equals(field)) {
+                status = ParserHelp.readString(jp);
+            } else if ("frequency".equals(field)) {
+                frequency = readFrequency(jp);
+            } else if ("vehicleId".equals(field)) {
+                vehicleId = ParserHelp.readString(jp);
+            } else if ("distanceFromStop".equals(field)) {
+                distanceFromStop = ParserHelp.readDoubleObject(jp);
+            } else if ("numberOfStopsAway".equals(field)) {
+                numberOfStopsAway = ParserHelp.readIntObject(jp);
+            } else if ("serviceDate".equals(field)) {
+                serviceDate = jp.getValueAsLong();
+            } else if ("lastUpdateTime".equals(field)) {
+                lastUpdateTime = jp.getValueAsLong();
+            } else if ("predicted".equals(field)) {
+                predicted = ParserHelp.readBooleanObject(jp);
+            } else if ("tripStatus".equals(field)) {
+                if (token != JsonToken.VALUE_NULL) {
+                    tripStatus = jp.readValueAs(ObaTripStatusElement.class);
+                }
+            } else if ("situationIds".equals(field)) {
+                situationIds = ParserHelp.readStringArray(jp);
+            } else if ("arrivalEnabled".equals(field)) {
+                arrivalEnabled = jp.getValueAsBoolean();
+            } else if ("departureEnabled".equals(field)) {
+                departureEnabled = jp.getValueAsBoolean();
+            } else if ("stopSequence".equals(field)) {
+                stopSequence = jp.getValueAsInt();
+            } else if ("blockTripSequence".equals(field)) {
+                blockTripSequence = jp.getValueAsInt();
+            } else {
+                jp.skipChildren();
+            }
+        }
+        return new ObaArrivalInfo(routeId, routeShortName, routeLongName, tripId, tripHeadsign,
+                stopId, predictedArrivalTime, scheduledArrivalTime, predictedDepartureTime,
+                scheduledDepartureTime, status, frequency, vehicleId, distanceFromStop,
+                numberOfStopsAway, serviceDate, lastUpdateTime, predicted, tripStatus,
+                situationIds, arrivalEnabled, departureEnabled, stopSequence, blockTripSequence);
+    }
+
+    private static ObaArrivalInfo.Frequency readFrequency(JsonParser jp) throws IOException {
+        if (jp.getCurrentToken() != JsonToken.START_OBJECT) {
+            jp.skipChildren();
+            return null;
+        }
+        long startTime = 0;
+        long endTime = 0;
+        long headway = 0;
+        while (jp.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = jp.getCurrentName();
+            jp.nextToken();
+            if ("startTime".equals(field)) {
+                startTime = jp.getValueAsLong();
+            } else if ("endTime".equals(field)) {
+                endTime = jp.getValueAsLong();
+            } else if ("headway".equals(field)) {
+                headway = jp.getValueAsLong();
+            } else {
+                jp.skipChildren();
+            }
+        }
+        return new ObaArrivalInfo.Frequency(startTime, endTime, headway);
+    }
+}
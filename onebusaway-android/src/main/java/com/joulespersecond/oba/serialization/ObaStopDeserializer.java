@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.oba.serialization;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.joulespersecond.oba.elements.ObaStop;
+import com.joulespersecond.oba.elements.ObaStopElement;
+
+import java.io.IOException;
+
+/**
+ * Hand-written streaming deserializer for stop elements.
+ * Stops make up the bulk of stops-for-location responses and of the
+ * references in nearly every other response, so this avoids the
+ * reflective field binding for them.
+ */
+public final class ObaStopDeserializer extends JsonDeserializer<ObaStopElement> {
+
+    @Override
+    public ObaStopElement deserialize(JsonParser jp, DeserializationContext ctxt)
+            throws IOException {
+        if (jp.getCurrentToken() != JsonToken.START_OBJECT) {
+            throw ctxt.mappingException(ObaStopElement.class);
+        }
+        String id = "";
+        double lat = 0;
+        double lon = 0;
+        String direction = "";
+        int locationType = ObaStop.LOCATION_STOP;
+        String name = "";
+        String code = "";
+        String[] routeIds = ObaStopElement.EMPTY_ROUTES;
+
+        while (jp.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = jp.getCurrentName();
+            jp.nextToken();
+            if ("id".equals(field)) {
+                id = ParserHelp.readString(jp);
+            } else if ("lat".equals(field)) {
+                lat = jp.getValueAsDouble();
+            } else if ("lon".equals(field)) {
+                lon = jp.getValueAsDouble();
+            } else if ("direction".equals(field)) {
+                direction = ParserHelp.readString(jp);
+            } else if ("locationType".equals(field)) {
+                locationType = jp.getValueAsInt();
+            } else if ("name".equals(field)) {
+                name = ParserHelp.readString(jp);
+            } else if ("code".equals(field)) {
+                code = ParserHelp.readString(jp);
+            } else if ("routeIds".equals(field)) {
+                routeIds = ParserHelp.readStringArray(jp);
+            } else {
+                jp.skipChildren();
+            }
+        }
+        return new ObaStopElement(id, lat, lon, direction, locationType, name, code, routeIds);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.oba.serialization;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Small helpers shared by the hand-written streaming deserializers.
+ * They follow the same coercion rules as the reflective bean deserializer:
+ * JSON nulls become null for objects and 0 for primitives.
+ */
+final class ParserHelp {
+
+    private ParserHelp() {
+        throw new AssertionError();
+    }
+
+    static String readString(JsonParser jp) throws IOException {
+        if (jp.getCurrentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        return jp.getValueAsString();
+    }
+
+    static Double readDoubleObject(JsonParser jp) throws IOException {
+        if (jp.getCurrentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        return jp.getValueAsDouble();
+    }
+
+    static Integer readIntObject(JsonParser jp) throws IOException {
+        if (jp.getCurrentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        return jp.getValueAsInt();
+    }
+
+    static Boolean readBooleanObject(JsonParser jp) throws IOException {
+        if (jp.getCurrentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        return jp.getValueAsBoolean();
+    }
+
+    /**
+     * Reads an array of strings. The parser must be positioned on the
+     * START_ARRAY (or VALUE_NULL) token.
+     */
+    static String[] readStringArray(JsonParser jp) throws IOException {
+        if (jp.getCurrentToken() != JsonToken.START_ARRAY) {
+            jp.skipChildren();
+            return null;
+        }
+        ArrayList<String> result = new ArrayList<String>();
+        while (jp.nextToken() != JsonToken.END_ARRAY) {
+            result.add(readString(jp));
+        }
+        return result.toArray(new String[result.size()]);
+    }
+}
@@ -14,6 +14,7 @@
  */
 package com.joulespersecond.seattlebusbot;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.pm.PackageInfo;
@@ -28,10 +29,15 @@ import com.google.android.gms.analytics.GoogleAnalytics;
 import com.google.android.gms.analytics.Tracker;
 import com.joulespersecond.oba.ObaAnalytics;
 import com.joulespersecond.oba.ObaApi;
+import com.joulespersecond.oba.ObaCachingConnectionFactory;
+import com.joulespersecond.oba.ObaDefaultConnectionFactory;
+import com.joulespersecond.oba.ObaSnapshotStore;
 import com.joulespersecond.oba.elements.ObaRegion;
 import com.joulespersecond.oba.provider.ObaContract.Regions;
+import com.joulespersecond.oba.provider.UsageRecorder;
 import com.joulespersecond.seattlebusbot.util.PreferenceHelp;
 
+import java.io.File;
 import java.security.MessageDigest;
 import java.util.HashMap;
 import java.util.UUID;
@@ -43,9 +49,17 @@ public class Application extends android.app.Application {
     // Region preference (long id)
     private static final String TAG = "Application";
 
+    // Maximum size of the on-disk cache of static API responses
+    private static final long RESPONSE_CACHE_SIZE = 2 * 1024 * 1024;
+
+    // Maximum size of the on-disk snapshots of the last arrivals for each stop
+    private static final long SNAPSHOT_STORE_SIZE = 1024 * 1024;
+
     //private static final String PREFS_NAME = "com.joulespersecond.seattlebusbot.prefs";
     private SharedPreferences mPrefs;
 
+    private ObaSnapshotStore mSnapshots;
+
     private static Application mApp;
 
     /**
@@ -71,11 +85,22 @@ public class Application extends android.app.Application {
 
         initOba();
         initObaRegion();
+        UsageRecorder.init(this);
 
         ObaAnalytics.initAnalytics(this);
         reportAnalytics();
     }
 
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            // The app has gone to the background, so write the recorded uses.
+            UsageRecorder.get(this).flushSoon();
+        }
+    }
+
     @Override
     public void onTerminate() {
         super.onTerminate();
@@ -93,6 +118,13 @@ public class Application extends android.app.Application {
         return get().mPrefs;
     }
 
+    /**
+     * @return The store of the last good responses for each screen.
+     */
+    public ObaSnapshotStore getSnapshotStore() {
+        return mSnapshots;
+    }
+
     //
     // Helper to get/set the regions
     //
@@ -190,6 +222,13 @@ public class Application extends android.app.Application {
     }
 
     private void initOba() {
+        ObaApi.getDefaultContext().setConnectionFactory(new ObaCachingConnectionFactory(
+                ObaDefaultConnectionFactory.getInstance(),
+                new File(getCacheDir(), "responses"),
+                RESPONSE_CACHE_SIZE));
+        mSnapshots = new ObaSnapshotStore(new File(getCacheDir(), "snapshots"),
+                SNAPSHOT_STORE_SIZE);
+
         String uuid = mPrefs.getString(APP_UID, null);
         if (uuid == null) {
             // Generate one and save that.
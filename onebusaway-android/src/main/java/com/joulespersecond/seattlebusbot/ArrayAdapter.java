@@ -44,6 +44,8 @@ public abstract class ArrayAdapter<T> extends android.widget.ArrayAdapter<T> {
 
     @TargetApi(11)
     public void setData(List<T> data) {
+        // Tell the list once, rather than after the clear and every add.
+        setNotifyOnChange(false);
         clear();
         if (data != null) {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
@@ -54,6 +56,8 @@ public abstract class ArrayAdapter<T> extends android.widget.ArrayAdapter<T> {
                 }
             }
         }
+        // This also turns notifying on change back on.
+        notifyDataSetChanged();
     }
 
     @Override
@@ -20,44 +20,143 @@ import com.joulespersecond.oba.elements.ObaArrivalInfo.Frequency;
 
 import android.content.Context;
 import android.content.res.Resources;
+import android.text.TextUtils;
+import android.util.SparseArray;
 
 import java.text.DateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 
 final class ArrivalInfo {
 
     final static class InfoComparator implements Comparator<ArrivalInfo> {
 
         public int compare(ArrivalInfo lhs, ArrivalInfo rhs) {
-            return (int) (lhs.mEta - rhs.mEta);
+            // Compare rather than subtract, so large differences can't overflow.
+            if (lhs.mEta != rhs.mEta) {
+                return lhs.mEta < rhs.mEta ? -1 : 1;
+            }
+            // Within the same minute, the earlier time first.
+            if (lhs.mDisplayTime != rhs.mDisplayTime) {
+                return lhs.mDisplayTime < rhs.mDisplayTime ? -1 : 1;
+            }
+            return 0;
         }
     }
 
-    public static final ArrayList<ArrivalInfo> convertObaArrivalInfo(Context context,
-            ObaArrivalInfo[] arrivalInfo,
-            ArrayList<String> filter) {
-        final int len = arrivalInfo.length;
-        ArrayList<ArrivalInfo> result = new ArrayList<ArrivalInfo>(len);
-        final long ms = System.currentTimeMillis();
-        if (filter != null && filter.size() > 0) {
+    private static final InfoComparator sComparator = new InfoComparator();
+
+    /**
+     * Converts arrivals for the list, reusing what it can from the last
+     * conversion. Arrivals whose times haven't changed since are not worked
+     * out again, and the status labels, which most arrivals share, are only
+     * formatted once.
+     */
+    static final class Converter {
+
+        private final Context mContext;
+
+        private final Resources mResources;
+
+        // Formatted labels, by resource ID and then by count.
+        private final SparseArray<SparseArray<String>> mQuantityStrings =
+                new SparseArray<SparseArray<String>>();
+
+        private final SparseArray<String> mStrings = new SparseArray<String>();
+
+        private DateFormat mTimeFormat;
+
+        // The arrivals from the last conversion, by visit (see ObaArrivalInfo.getVisitKey).
+        private HashMap<String, ArrivalInfo> mLast = new HashMap<String, ArrivalInfo>();
+
+        Converter(Context context) {
+            mContext = context;
+            mResources = context.getResources();
+        }
+
+        /**
+         * @param arrivalInfo The arrivals to convert.
+         * @param filter      The routes to include, or null or empty to include all of them.
+         * @param now         The current time.
+         * @return The arrivals in order of arrival.
+         */
+        ArrayList<ArrivalInfo> convert(ObaArrivalInfo[] arrivalInfo,
+                Collection<String> filter, long now) {
+            final int len = arrivalInfo.length;
+            final HashSet<String> routes = filter != null && !filter.isEmpty() ?
+                    new HashSet<String>(filter) : null;
+            final long nowMins = now / ms_in_mins;
+            final HashMap<String, ArrivalInfo> last = mLast;
+            final HashMap<String, ArrivalInfo> current =
+                    new HashMap<String, ArrivalInfo>(len * 4 / 3 + 1);
+            ArrayList<ArrivalInfo> result = new ArrayList<ArrivalInfo>(len);
             for (int i = 0; i < len; ++i) {
-                ObaArrivalInfo arrival = arrivalInfo[i];
-                if (filter.contains(arrival.getRouteId())) {
-                    result.add(new ArrivalInfo(context, arrival, ms));
+                final ObaArrivalInfo arrival = arrivalInfo[i];
+                if (routes != null && !routes.contains(arrival.getRouteId())) {
+                    continue;
+                }
+                final String key = arrival.getVisitKey();
+                final ArrivalInfo prev = last.get(key);
+                final ArrivalInfo info;
+                if (prev == null || prev.mNowMins != nowMins || !prev.hasSameTimes(arrival)) {
+                    info = new ArrivalInfo(this, arrival, now);
+                } else if (prev.mInfo == arrival) {
+                    info = prev;
+                } else {
+                    info = new ArrivalInfo(prev, arrival);
                 }
+                current.put(key, info);
+                result.add(info);
             }
-        } else {
-            for (int i = 0; i < len; ++i) {
-                result.add(new ArrivalInfo(context, arrivalInfo[i], ms));
+            mLast = current;
+
+            // Sort by ETA
+            Collections.sort(result, sComparator);
+            return result;
+        }
+
+        String getString(int id) {
+            String str = mStrings.get(id);
+            if (str == null) {
+                str = mContext.getString(id);
+                mStrings.put(id, str);
             }
+            return str;
         }
 
-        // Sort by ETA
-        Collections.sort(result, new InfoComparator());
-        return result;
+        String getQuantityString(int id, long quantity) {
+            SparseArray<String> strings = mQuantityStrings.get(id);
+            if (strings == null) {
+                strings = new SparseArray<String>();
+                mQuantityStrings.put(id, strings);
+            }
+            final int count = (int) quantity;
+            String str = strings.get(count);
+            if (str == null) {
+                str = mResources.getQuantityString(id, count, quantity);
+                strings.put(count, str);
+            }
+            return str;
+        }
+
+        String getFrequencyString(int id, int headway, long time) {
+            if (mTimeFormat == null) {
+                mTimeFormat = DateFormat.getTimeInstance(DateFormat.SHORT);
+            }
+            String label = mTimeFormat.format(new Date(time));
+            return mContext.getString(id, headway, label);
+        }
+    }
+
+    public static final ArrayList<ArrivalInfo> convertObaArrivalInfo(Context context,
+            ObaArrivalInfo[] arrivalInfo,
+            ArrayList<String> filter) {
+        return new Converter(context).convert(arrivalInfo, filter, System.currentTimeMillis());
     }
 
     private final ObaArrivalInfo mInfo;
@@ -70,12 +169,16 @@ final class ArrivalInfo {
 
     private final int mColor;
 
+    // The minute the ETA was worked out in.
+    private final long mNowMins;
+
     private static final int ms_in_mins = 60 * 1000;
 
-    public ArrivalInfo(Context context, ObaArrivalInfo info, long now) {
+    private ArrivalInfo(Converter labels, ObaArrivalInfo info, long now) {
         mInfo = info;
         // First, all times have to have to be converted to 'minutes'
         final long nowMins = now / ms_in_mins;
+        mNowMins = nowMins;
         long scheduled, predicted;
         // If this is the first stop in the sequence, show the departure time.
         if (info.getStopSequence() != 0) {
@@ -99,11 +202,50 @@ final class ArrivalInfo {
 
         mColor = computeColor(scheduled, predicted);
 
-        mStatusText = computeStatusLabel(context, info, now, predicted,
+        mStatusText = computeStatusLabel(labels, info, now, predicted,
                 scheduledMins, predictedMins);
 
     }
 
+    // An arrival whose times haven't changed, with the new information.
+    private ArrivalInfo(ArrivalInfo prev, ObaArrivalInfo info) {
+        mInfo = info;
+        mEta = prev.mEta;
+        mDisplayTime = prev.mDisplayTime;
+        mStatusText = prev.mStatusText;
+        mColor = prev.mColor;
+        mNowMins = prev.mNowMins;
+    }
+
+    // Whether this was converted from an arrival with the same times.
+    private boolean hasSameTimes(ObaArrivalInfo info) {
+        final ObaArrivalInfo old = mInfo;
+        return old == info || (old.getFrequency() == null && info.getFrequency() == null &&
+                old.getStopSequence() == info.getStopSequence() &&
+                old.getServiceDate() == info.getServiceDate() &&
+                old.getScheduledArrivalTime() == info.getScheduledArrivalTime() &&
+                old.getPredictedArrivalTime() == info.getPredictedArrivalTime() &&
+                old.getScheduledDepartureTime() == info.getScheduledDepartureTime() &&
+                old.getPredictedDepartureTime() == info.getPredictedDepartureTime());
+    }
+
+    /**
+     * @return true if this arrival looks the same in the list as another.
+     */
+    final boolean hasSameDisplay(ArrivalInfo other) {
+        if (other == this) {
+            return true;
+        }
+        final ObaArrivalInfo info = other.mInfo;
+        return mEta == other.mEta &&
+                mDisplayTime == other.mDisplayTime &&
+                mColor == other.mColor &&
+                TextUtils.equals(mStatusText, other.mStatusText) &&
+                TextUtils.equals(mInfo.getTripId(), info.getTripId()) &&
+                TextUtils.equals(mInfo.getShortName(), info.getShortName()) &&
+                TextUtils.equals(mInfo.getHeadsign(), info.getHeadsign());
+    }
+
     private int computeColor(final long scheduled, final long predicted) {
 
         if (predicted != 0) {
@@ -126,21 +268,18 @@ final class ArrivalInfo {
         }
     }
 
-    private String computeStatusLabel(Context context,
+    private String computeStatusLabel(Converter labels,
             ObaArrivalInfo info,
             final long now,
             final long predicted,
             final long scheduledMins,
             final long predictedMins) {
 
-        final Resources res = context.getResources();
-
         Frequency frequency = info.getFrequency();
 
         if (frequency != null) {
 
             int headwayAsMinutes = (int) (frequency.getHeadway() / 60);
-            DateFormat formatter = DateFormat.getTimeInstance(DateFormat.SHORT);
 
             int statusLabelId = -1;
             long time = 0;
@@ -153,8 +292,7 @@ final class ArrivalInfo {
                 time = frequency.getEndTime();
             }
 
-            String label = formatter.format(new Date(time));
-            return context.getString(statusLabelId, headwayAsMinutes, label);
+            return labels.getFrequencyString(statusLabelId, headwayAsMinutes, time);
         }
 
         if (predicted != 0) {
@@ -165,45 +303,38 @@ final class ArrivalInfo {
                 // Bus is arriving
                 if (delay > 0) {
                     // Arriving delayed
-                    return res.getQuantityString(
-                            R.plurals.stop_info_arrive_delayed, (int) delay,
-                            delay);
+                    return labels.getQuantityString(
+                            R.plurals.stop_info_arrive_delayed, delay);
                 } else if (delay < 0) {
                     // Arriving early
                     delay = -delay;
-                    return res
-                            .getQuantityString(
-                                    R.plurals.stop_info_arrive_early,
-                                    (int) delay, delay);
+                    return labels.getQuantityString(
+                            R.plurals.stop_info_arrive_early, delay);
                 } else {
                     // Arriving on time
-                    return context.getString(R.string.stop_info_ontime);
+                    return labels.getString(R.string.stop_info_ontime);
                 }
             } else {
                 // Bus is departing
                 if (delay > 0) {
                     // Departing delayed
-                    return res.getQuantityString(
-                            R.plurals.stop_info_depart_delayed, (int) delay,
-                            delay);
+                    return labels.getQuantityString(
+                            R.plurals.stop_info_depart_delayed, delay);
                 } else if (delay < 0) {
                     // Departing early
                     delay = -delay;
-                    return res
-                            .getQuantityString(
-                                    R.plurals.stop_info_depart_early,
-                                    (int) delay, delay);
+                    return labels.getQuantityString(
+                            R.plurals.stop_info_depart_early, delay);
                 } else {
                     // Departing on time
-                    return context.getString(R.string.stop_info_ontime);
+                    return labels.getString(R.string.stop_info_ontime);
                 }
             }
         } else {
             if (mEta > 0) {
-                return context.getString(R.string.stop_info_scheduled_arrival);
+                return labels.getString(R.string.stop_info_scheduled_arrival);
             } else {
-                return context
-                        .getString(R.string.stop_info_scheduled_departure);
+                return labels.getString(R.string.stop_info_scheduled_departure);
             }
         }
     }
@@ -31,35 +31,95 @@ import java.util.ArrayList;
 
 public class ArrivalsListAdapter extends ArrayAdapter<ArrivalInfo> {
 
+    // The views of a row, and what they were last bound to.
+    private static final class ViewHolder {
+
+        TextView route;
+
+        TextView destination;
+
+        TextView time;
+
+        TextView status;
+
+        TextView eta;
+
+        TextView tripInfo;
+
+        ArrivalInfo boundInfo;
+
+        int boundTripsVersion;
+    }
+
     private ContentQueryMap mTripsForStop;
 
+    // Changes whenever the trips do, so the rows are bound again.
+    private int mTripsVersion;
+
+    private final ArrivalInfo.Converter mConverter;
+
     public ArrivalsListAdapter(Context context) {
         super(context, R.layout.arrivals_list_item);
+        mConverter = new ArrivalInfo.Converter(context);
     }
 
     public void setTripsForStop(ContentQueryMap tripsForStop) {
         mTripsForStop = tripsForStop;
+        mTripsVersion++;
         notifyDataSetChanged();
     }
 
     public void setData(ObaArrivalInfo[] arrivals, ArrayList<String> routesFilter) {
         if (arrivals != null) {
-            ArrayList<ArrivalInfo> list =
-                    ArrivalInfo.convertObaArrivalInfo(getContext(),
-                            arrivals, routesFilter);
-            setData(list);
+            ArrayList<ArrivalInfo> list = mConverter.convert(arrivals, routesFilter,
+                    System.currentTimeMillis());
+            if (!isSameData(list)) {
+                setData(list);
+            }
         } else {
             setData(null);
         }
     }
 
+    // Whether the list already has exactly these arrivals.
+    private boolean isSameData(ArrayList<ArrivalInfo> list) {
+        final int count = getCount();
+        if (count == 0 || count != list.size()) {
+            return false;
+        }
+        for (int i = 0; i < count; ++i) {
+            if (getItem(i) != list.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     @Override
     protected void initView(View view, ArrivalInfo stopInfo) {
-        TextView route = (TextView) view.findViewById(R.id.route);
-        TextView destination = (TextView) view.findViewById(R.id.destination);
-        TextView time = (TextView) view.findViewById(R.id.time);
-        TextView status = (TextView) view.findViewById(R.id.status);
-        TextView etaView = (TextView) view.findViewById(R.id.eta);
+        ViewHolder holder = (ViewHolder) view.getTag();
+        if (holder == null) {
+            holder = new ViewHolder();
+            holder.route = (TextView) view.findViewById(R.id.route);
+            holder.destination = (TextView) view.findViewById(R.id.destination);
+            holder.time = (TextView) view.findViewById(R.id.time);
+            holder.status = (TextView) view.findViewById(R.id.status);
+            holder.eta = (TextView) view.findViewById(R.id.eta);
+            holder.tripInfo = (TextView) view.findViewById(R.id.trip_info);
+            view.setTag(holder);
+        } else if (holder.boundInfo != null && holder.boundTripsVersion == mTripsVersion &&
+                holder.boundInfo.hasSameDisplay(stopInfo)) {
+            // Nothing in this row has changed.
+            return;
+        }
+        holder.boundInfo = stopInfo;
+        holder.boundTripsVersion = mTripsVersion;
+
+        TextView route = holder.route;
+        TextView destination = holder.destination;
+        TextView time = holder.time;
+        TextView status = holder.status;
+        TextView etaView = holder.eta;
 
         final ObaArrivalInfo arrivalInfo = stopInfo.getInfo();
         final Context context = getContext();
@@ -93,7 +153,7 @@ public class ArrivalsListAdapter extends ArrayAdapter<ArrivalInfo> {
         if (values != null) {
             String tripName = values.getAsString(ObaContract.Trips.NAME);
 
-            TextView tripInfo = (TextView) view.findViewById(R.id.trip_info);
+            TextView tripInfo = holder.tripInfo;
             if (tripName.length() == 0) {
                 tripName = context.getString(R.string.trip_info_noname);
             }
@@ -102,8 +162,7 @@ public class ArrivalsListAdapter extends ArrayAdapter<ArrivalInfo> {
         } else {
             // Explicitly set this to invisible because we might be reusing
             // this view.
-            View tripInfo = view.findViewById(R.id.trip_info);
-            tripInfo.setVisibility(View.GONE);
+            holder.tripInfo.setVisibility(View.GONE);
         }
     }
 }
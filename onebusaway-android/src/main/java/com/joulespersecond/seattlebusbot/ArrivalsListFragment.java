@@ -52,6 +52,7 @@ import com.joulespersecond.oba.elements.ObaRoute;
 import com.joulespersecond.oba.elements.ObaSituation;
 import com.joulespersecond.oba.elements.ObaStop;
 import com.joulespersecond.oba.provider.ObaContract;
+import com.joulespersecond.oba.provider.UsageRecorder;
 import com.joulespersecond.oba.request.ObaArrivalInfoResponse;
 import com.joulespersecond.seattlebusbot.util.MyTextUtils;
 import com.joulespersecond.seattlebusbot.util.UIHelp;
@@ -69,7 +70,7 @@ public class ArrivalsListFragment extends ListFragment
 
     private static final String TAG = "ArrivalsListFragment";
 
-    private static final long RefreshPeriod = 60 * 1000;
+    private static final long RETRY_PERIOD = 60 * 1000;
 
     private static int TRIPS_FOR_STOP_LOADER = 1;
 
@@ -104,6 +105,9 @@ public class ArrivalsListFragment extends ListFragment
 
     private TripsForStopCallback mTripsForStopCallback;
 
+    // Picks how long to wait before refreshing the arrivals.
+    private final ArrivalsRefreshPolicy mRefreshPolicy = new ArrivalsRefreshPolicy();
+
     // The list of situation alerts
     private ArrayList<SituationAlert> mSituationAlerts;
 
@@ -207,13 +211,15 @@ public class ArrivalsListFragment extends ListFragment
 
         // If our timer would have gone off, then refresh.
         long lastResponseTime = getArrivalsLoader().getLastResponseTime();
-        long newPeriod = Math.min(RefreshPeriod, (lastResponseTime + RefreshPeriod)
+        final long refreshPeriod =
+                getRefreshPeriod(getArrivalsLoader().getLastGoodResponse(), true);
+        long newPeriod = Math.min(refreshPeriod, (lastResponseTime + refreshPeriod)
                 - System.currentTimeMillis());
-        // Wait at least one second at least, and the full minute at most.
         //Log.d(TAG, "Refresh period:" + newPeriod);
         if (newPeriod <= 0) {
             refresh();
         } else {
+            mRefreshHandler.removeCallbacks(mRefresh);
             mRefreshHandler.postDelayed(mRefresh, newPeriod);
         }
 
@@ -250,7 +256,9 @@ public class ArrivalsListFragment extends ListFragment
     @Override
     public void onLoadFinished(Loader<ObaArrivalInfoResponse> loader,
                                ObaArrivalInfoResponse result) {
-        UIHelp.showProgress(this, false);
+        // A stored snapshot is shown while the fresh arrivals are still loading.
+        final boolean snapshot = getArrivalsLoader().isSnapshot(result);
+        UIHelp.showProgress(this, snapshot);
 
         ObaArrivalInfo[] info = null;
         List<ObaSituation> situations = null;
@@ -289,8 +297,14 @@ public class ArrivalsListFragment extends ListFragment
             setListShownNoAnimation(true);
         }
 
-        // Post an update
-        mRefreshHandler.postDelayed(mRefresh, RefreshPeriod);
+        if (snapshot) {
+            return;
+        }
+
+        // Post an update, replacing any that's still waiting.
+        mRefreshHandler.removeCallbacks(mRefresh);
+        mRefreshHandler.postDelayed(mRefresh,
+                getRefreshPeriod(getArrivalsLoader().getLastGoodResponse(), isResumed()));
 
         // If the user just tried to load more arrivals, determine if we 
         // should show a Toast in the case where no additional arrivals were loaded
@@ -485,6 +499,8 @@ public class ArrivalsListFragment extends ListFragment
             values.put(ObaContract.Stops.USER_NAME, name);
             mStopUserName = name;
         }
+        // The stop may only have been recorded so far.
+        UsageRecorder.flushPending();
         cr.update(mStopUri, values, null, null);
     }
 
@@ -721,6 +737,18 @@ public class ArrivalsListFragment extends ListFragment
         }
     }
 
+    //
+    // How long to wait before refreshing, given the last good response.
+    //
+    private long getRefreshPeriod(ObaArrivalInfoResponse lastGood, boolean foreground) {
+        if (lastGood == null || getArrivalsLoader().isSnapshot(lastGood)) {
+            // Nothing fresh has loaded yet, so try again in a minute.
+            return RETRY_PERIOD;
+        }
+        return mRefreshPolicy.getInterval(lastGood.getArrivalInfo(), lastGood.getCurrentTime(),
+                foreground);
+    }
+
     private final Handler mRefreshHandler = new Handler();
 
     private final Runnable mRefresh = new Runnable() {
@@ -772,7 +800,7 @@ public class ArrivalsListFragment extends ListFragment
         if (Application.get().getCurrentRegion() != null) {
             values.put(ObaContract.Stops.REGION_ID, Application.get().getCurrentRegion().getId());
         }
-        ObaContract.Stops.insertOrUpdate(getActivity(), stop.getId(), values, true);
+        UsageRecorder.get(getActivity()).recordStop(stop.getId(), values);
     }
 
     private static final String[] TRIPS_PROJECTION = {
@@ -17,10 +17,15 @@
 package com.joulespersecond.seattlebusbot;
 
 import com.joulespersecond.oba.ObaApi;
+import com.joulespersecond.oba.ObaSnapshotStore;
 import com.joulespersecond.oba.request.ObaArrivalInfoRequest;
 import com.joulespersecond.oba.request.ObaArrivalInfoResponse;
+import com.joulespersecond.oba.request.RequestExecutor;
+import com.joulespersecond.oba.request.RequestFuture;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.content.AsyncTaskLoader;
 
 
@@ -28,17 +33,40 @@ class ArrivalsListLoader extends AsyncTaskLoader<ObaArrivalInfoResponse> {
 
     private final String mStopId;
 
-    private ObaArrivalInfoResponse mLastGoodResponse;
+    private volatile ObaArrivalInfoResponse mLastGoodResponse;
 
     private long mLastResponseTime = 0;
 
-    private long mLastGoodResponseTime = 0;
+    private volatile long mLastGoodResponseTime = 0;
 
     private int mMinutesAfter = 35;
             // includes vehicles arriving or departing in the next minutesAfter minutes
 
     private static final int MINUTES_INCREMENT = 30; // minutes
 
+    // Arrivals older than this are refetched rather than extended.
+    private static final long EXTEND_MAX_AGE = 60 * 1000;
+
+    // How many minutes after its server time the last good response covers.
+    private volatile int mCoveredMinutes;
+
+    // The minutes covered by the response being loaded, and whether it
+    // extends the last good response rather than replacing it.
+    private volatile int mLoadingMinutes;
+
+    private volatile boolean mLoadingExtension;
+
+    // The request currently being loaded, so it can be cancelled.
+    private volatile RequestFuture<ObaArrivalInfoResponse> mFuture;
+
+    // Whether the stored snapshot has been looked for, and whether the last
+    // good response is that snapshot rather than a fresh response.
+    private volatile boolean mSnapshotChecked;
+
+    private boolean mLastGoodFromSnapshot;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
     public ArrivalsListLoader(Context context, String stopId) {
         super(context);
         mStopId = stopId;
@@ -46,19 +74,113 @@ class ArrivalsListLoader extends AsyncTaskLoader<ObaArrivalInfoResponse> {
 
     @Override
     public ObaArrivalInfoResponse loadInBackground() {
-        return ObaArrivalInfoRequest.newRequest(getContext(), mStopId, mMinutesAfter).call();
+        final int minutesAfter = mMinutesAfter;
+        final ObaArrivalInfoResponse lastGood = mLastGoodResponse;
+        final int covered = mCoveredMinutes;
+        if (lastGood != null && covered < minutesAfter &&
+                System.currentTimeMillis() - mLastGoodResponseTime < EXTEND_MAX_AGE) {
+            // Only fetch the minutes the last response doesn't cover.
+            ObaArrivalInfoResponse later = await(start(ObaArrivalInfoRequest.newRequest(
+                    getContext(), mStopId, lastGood.getCurrentTime() + covered * 60 * 1000L,
+                    minutesAfter - covered)));
+            if (later.getCode() != ObaApi.OBA_OK) {
+                return later;
+            }
+            mLoadingMinutes = minutesAfter;
+            mLoadingExtension = true;
+            return lastGood.merge(later);
+        }
+        mLoadingMinutes = minutesAfter;
+        mLoadingExtension = false;
+        RequestFuture<ObaArrivalInfoResponse> future =
+                start(ObaArrivalInfoRequest.newRequest(getContext(), mStopId, minutesAfter));
+        if (lastGood == null && !mSnapshotChecked) {
+            // Read it while the request is on its way.
+            mSnapshotChecked = true;
+            postSnapshot(minutesAfter);
+        }
+        return await(future);
+    }
+
+    // Shows the arrivals stored the last time the stop was loaded,
+    // while the fresh ones load. Once every arrival it covered is in
+    // the past there's nothing worth showing, so it's left out.
+    private void postSnapshot(int minutesAfter) {
+        final ObaSnapshotStore store = Application.get().getSnapshotStore();
+        if (store == null) {
+            return;
+        }
+        final ObaArrivalInfoResponse snapshot = store.get(getSnapshotKey(),
+                ObaArrivalInfoResponse.class, minutesAfter * 60 * 1000L);
+        if (snapshot == null) {
+            return;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                deliverSnapshot(snapshot);
+            }
+        });
+    }
+
+    private void deliverSnapshot(ObaArrivalInfoResponse snapshot) {
+        // Too late if the request has already been answered.
+        if (mLastResponseTime != 0 || mLastGoodResponse != null || !isStarted()) {
+            return;
+        }
+        mLastGoodResponse = snapshot;
+        mLastGoodResponseTime = snapshot.getCurrentTime();
+        mCoveredMinutes = 0;
+        mLastGoodFromSnapshot = true;
+        super.deliverResult(snapshot);
+    }
+
+    private String getSnapshotKey() {
+        return "arrivals/" + mStopId;
+    }
+
+    private RequestFuture<ObaArrivalInfoResponse> start(ObaArrivalInfoRequest request) {
+        RequestFuture<ObaArrivalInfoResponse> future =
+                request.callAsync(RequestExecutor.PRIORITY_FOREGROUND);
+        mFuture = future;
+        return future;
+    }
+
+    private ObaArrivalInfoResponse await(RequestFuture<ObaArrivalInfoResponse> future) {
+        try {
+            return future.getResponse();
+        } finally {
+            mFuture = null;
+        }
     }
 
     @Override
     public void deliverResult(ObaArrivalInfoResponse data) {
         mLastResponseTime = System.currentTimeMillis();
         if (data.getCode() == ObaApi.OBA_OK) {
+            mLastGoodFromSnapshot = false;
+            // An extended response is only as new as the one it extends.
+            if (!mLoadingExtension) {
+                mLastGoodResponseTime = mLastResponseTime;
+            }
             mLastGoodResponse = data;
-            mLastGoodResponseTime = mLastResponseTime;
+            mCoveredMinutes = mLoadingMinutes;
+            final ObaSnapshotStore store = Application.get().getSnapshotStore();
+            if (store != null) {
+                store.put(getSnapshotKey(), data);
+            }
         }
         super.deliverResult(data);
     }
 
+    /**
+     * @return true if the response is the snapshot stored the last time the
+     * stop was loaded, rather than a fresh response.
+     */
+    public boolean isSnapshot(ObaArrivalInfoResponse response) {
+        return mLastGoodFromSnapshot && response == mLastGoodResponse;
+    }
+
     public long getLastResponseTime() {
         return mLastResponseTime;
     }
@@ -86,6 +208,10 @@ class ArrivalsListLoader extends AsyncTaskLoader<ObaArrivalInfoResponse> {
     protected void onStopLoading() {
         // Attempt to cancel the current load task if possible.
         cancelLoad();
+        RequestFuture<ObaArrivalInfoResponse> future = mFuture;
+        if (future != null) {
+            future.cancel(true);
+        }
     }
 
     /**
@@ -96,6 +222,8 @@ class ArrivalsListLoader extends AsyncTaskLoader<ObaArrivalInfoResponse> {
         super.onReset();
         mLastGoodResponse = null;
         mLastGoodResponseTime = 0;
+        mCoveredMinutes = 0;
+        mLastGoodFromSnapshot = false;
         // Ensure the loader is stopped
         onStopLoading();
     }
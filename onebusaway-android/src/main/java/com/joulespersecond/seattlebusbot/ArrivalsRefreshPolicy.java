@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.seattlebusbot;
+
+import com.joulespersecond.oba.elements.ObaArrivalInfo;
+
+/**
+ * Decides how long the arrivals list waits before refreshing, from what
+ * the last response said.
+ *
+ * While the next bus is near, the list is refreshed at the minimum interval.
+ * Otherwise the wait is a fraction of the time until the next bus, so the
+ * list is refreshed rarely when the next one is a long way off, but never
+ * later than when that bus gets near. Fresh real-time predictions change as
+ * the bus moves, so they get a smaller fraction than schedule times or
+ * predictions from a vehicle that has stopped reporting.
+ *
+ * The minimum is the period the list used to be refreshed at, so it is
+ * never refreshed more often than it used to be.
+ */
+public final class ArrivalsRefreshPolicy {
+
+    public static final long DEFAULT_MIN_MS = 60 * 1000;
+
+    public static final long DEFAULT_MAX_MS = 5 * 60 * 1000;
+
+    /**
+     * Predictions from a vehicle that reported longer ago than this are
+     * treated like schedule times.
+     */
+    public static final long FRESH_MS = 2 * 60 * 1000;
+
+    /**
+     * While the next bus is this close, the list is refreshed at the minimum interval.
+     */
+    public static final long NEAR_MS = 5 * 60 * 1000;
+
+    private static final double PREDICTED_FRACTION = 0.2;
+
+    private static final double SCHEDULED_FRACTION = 0.4;
+
+    private final long mMinMs;
+
+    private final long mMaxMs;
+
+    private long mOverrideMs;
+
+    public ArrivalsRefreshPolicy() {
+        this(DEFAULT_MIN_MS, DEFAULT_MAX_MS);
+    }
+
+    public ArrivalsRefreshPolicy(long minMs, long maxMs) {
+        if (minMs <= 0 || maxMs < minMs) {
+            throw new IllegalArgumentException("Bad bounds: " + minMs + ", " + maxMs);
+        }
+        mMinMs = minMs;
+        mMaxMs = maxMs;
+    }
+
+    public long getMinMs() {
+        return mMinMs;
+    }
+
+    public long getMaxMs() {
+        return mMaxMs;
+    }
+
+    /**
+     * Refreshes at a fixed period, whatever the arrivals are.
+     *
+     * @param periodMs The period, or 0 to go back to choosing it from the arrivals.
+     */
+    public void setOverride(long periodMs) {
+        mOverrideMs = periodMs;
+    }
+
+    public long getOverride() {
+        return mOverrideMs;
+    }
+
+    /**
+     * @param info       The arrivals in the last response.
+     * @param now        The time of the last response.
+     * @param foreground Whether the arrivals are being shown.
+     * @return How long to wait before refreshing, in milliseconds.
+     */
+    public long getInterval(ObaArrivalInfo[] info, long now, boolean foreground) {
+        // Find the next bus to arrive.
+        ObaArrivalInfo next = null;
+        long nextEta = Long.MAX_VALUE;
+        if (info != null) {
+            for (ObaArrivalInfo arrival : info) {
+                final long eta = getArrivalTime(arrival) - now;
+                if (eta >= 0 && eta < nextEta) {
+                    next = arrival;
+                    nextEta = eta;
+                }
+            }
+        }
+        if (next == null) {
+            return getInterval(-1, false, 0, foreground);
+        }
+        final long lastUpdate = next.getLastUpdateTime();
+        return getInterval(nextEta, isPredicted(next),
+                lastUpdate != 0 ? now - lastUpdate : Long.MAX_VALUE, foreground);
+    }
+
+    /**
+     * @param nextEtaMs     How long until the next bus arrives, or -1 if
+     *                      there are no more buses.
+     * @param predicted     Whether that time is a real-time prediction.
+     * @param updateAgeMs   How long ago the bus last reported its position.
+     * @param foreground    Whether the arrivals are being shown.
+     * @return How long to wait before refreshing, in milliseconds.
+     */
+    public long getInterval(long nextEtaMs, boolean predicted, long updateAgeMs,
+            boolean foreground) {
+        if (mOverrideMs > 0) {
+            return mOverrideMs;
+        }
+        if (!foreground || nextEtaMs < 0) {
+            return mMaxMs;
+        }
+        if (nextEtaMs <= NEAR_MS) {
+            return mMinMs;
+        }
+        final boolean fresh = predicted && updateAgeMs <= FRESH_MS;
+        final double fraction = fresh ? PREDICTED_FRACTION : SCHEDULED_FRACTION;
+        final long interval = Math.min((long) (nextEtaMs * fraction), nextEtaMs - NEAR_MS);
+        return Math.max(mMinMs, Math.min(mMaxMs, interval));
+    }
+
+    private static boolean isPredicted(ObaArrivalInfo arrival) {
+        return arrival.getPredicted() && arrival.getPredictedArrivalTime() != 0;
+    }
+
+    /**
+     * @return The time the bus is expected to arrive: the predicted time if
+     * there is one, otherwise the scheduled time.
+     */
+    public static long getArrivalTime(ObaArrivalInfo arrival) {
+        return isPredicted(arrival) ?
+                arrival.getPredictedArrivalTime() : arrival.getScheduledArrivalTime();
+    }
+}
@@ -15,12 +15,13 @@
  */
 package com.joulespersecond.seattlebusbot;
 
+import com.joulespersecond.seattlebusbot.util.DebouncedContentObserver;
+
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.content.ContentResolver;
 import android.content.DialogInterface;
-import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
@@ -45,18 +46,15 @@ abstract class MyListFragmentBase extends ListFragment
 
     private static final Handler mHandler = new Handler();
 
-    private class Observer extends ContentObserver {
+    // Requeries once a burst of changes, such as a batch of writes, is over.
+    private class Observer extends DebouncedContentObserver {
 
         Observer() {
             super(mHandler);
         }
 
         @Override
-        public boolean deliverSelfNotifications() {
-            return false;
-        }
-
-        public void onChange(boolean selfChange) {
+        public void onChanges() {
             if (isAdded()) {
                 getLoaderManager().restartLoader(0, null, MyListFragmentBase.this);
             }
@@ -91,6 +89,7 @@ abstract class MyListFragmentBase extends ListFragment
         if (mObserver != null) {
             ContentResolver cr = getActivity().getContentResolver();
             cr.unregisterContentObserver(mObserver);
+            mObserver.cancel();
             mObserver = null;
         }
         super.onDestroy();
@@ -41,6 +41,7 @@ import com.joulespersecond.oba.elements.ObaStop;
 import com.joulespersecond.oba.elements.ObaStopGroup;
 import com.joulespersecond.oba.elements.ObaStopGrouping;
 import com.joulespersecond.oba.provider.ObaContract;
+import com.joulespersecond.oba.provider.UsageRecorder;
 import com.joulespersecond.oba.request.ObaRouteRequest;
 import com.joulespersecond.oba.request.ObaRouteResponse;
 import com.joulespersecond.oba.request.ObaStopsForRouteRequest;
@@ -466,7 +467,7 @@ public class RouteInfoListFragment extends ListFragment {
                     values.put(ObaContract.Routes.REGION_ID,
                             Application.get().getCurrentRegion().getId());
                 }
-                ObaContract.Routes.insertOrUpdate(getActivity(), mRouteInfo.getId(), values, true);
+                UsageRecorder.get(getActivity()).recordRoute(mRouteInfo.getId(), values);
             }
         } else {
             setEmptyText(getString(UIHelp.getRouteErrorString(getActivity(), routeInfo.getCode())));
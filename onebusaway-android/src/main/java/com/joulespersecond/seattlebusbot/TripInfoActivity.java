@@ -453,7 +453,7 @@ public class TripInfoActivity extends SherlockFragmentActivity {
             if (c != null) {
                 c.close();
             }
-            TripService.scheduleAll(getActivity());
+            TripService.scheduleTrip(getActivity(), mTripUri);
 
             Toast.makeText(getActivity(), R.string.trip_info_saved, Toast.LENGTH_SHORT)
                     .show();
@@ -537,7 +537,7 @@ public class TripInfoActivity extends SherlockFragmentActivity {
                                     public void onClick(DialogInterface dialog, int which) {
                                         ContentResolver cr = getActivity().getContentResolver();
                                         cr.delete(tripUri, null, null);
-                                        TripService.scheduleAll(getActivity());
+                                        TripService.scheduleTrip(getActivity(), tripUri);
                                         getActivity().finish();
                                     }
                                 }
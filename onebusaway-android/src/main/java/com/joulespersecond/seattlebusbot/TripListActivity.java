@@ -16,8 +16,8 @@
 package com.joulespersecond.seattlebusbot;
 
 import android.content.ContentResolver;
-import android.database.ContentObserver;
 import android.database.Cursor;
+import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.support.v4.app.FragmentManager;
@@ -35,6 +35,7 @@ import android.widget.TextView;
 import com.actionbarsherlock.app.SherlockFragmentActivity;
 import com.actionbarsherlock.view.MenuItem;
 import com.joulespersecond.oba.provider.ObaContract;
+import com.joulespersecond.seattlebusbot.util.DebouncedContentObserver;
 import com.joulespersecond.seattlebusbot.util.MyTextUtils;
 import com.joulespersecond.seattlebusbot.util.UIHelp;
 
@@ -91,18 +92,15 @@ public class TripListActivity extends SherlockFragmentActivity {
 
         private static final Handler mHandler = new Handler();
 
-        private class Observer extends ContentObserver {
+        // Requeries once a burst of changes, such as a batch of writes, is over.
+        private class Observer extends DebouncedContentObserver {
 
             Observer() {
                 super(mHandler);
             }
 
             @Override
-            public boolean deliverSelfNotifications() {
-                return false;
-            }
-
-            public void onChange(boolean selfChange) {
+            public void onChanges() {
                 if (isAdded()) {
                     getLoaderManager().restartLoader(0, null, TripListFragment.this);
                 }
@@ -137,6 +135,7 @@ public class TripListActivity extends SherlockFragmentActivity {
             if (mObserver != null) {
                 ContentResolver cr = getActivity().getContentResolver();
                 cr.unregisterContentObserver(mObserver);
+                mObserver.cancel();
                 mObserver = null;
             }
             super.onDestroy();
@@ -286,8 +285,9 @@ public class TripListActivity extends SherlockFragmentActivity {
 
             // TODO: Confirmation dialog?
             ContentResolver cr = getActivity().getContentResolver();
-            cr.delete(ObaContract.Trips.buildUri(ids[0], ids[1]), null, null);
-            TripService.scheduleAll(getActivity());
+            Uri tripUri = ObaContract.Trips.buildUri(ids[0], ids[1]);
+            cr.delete(tripUri, null, null);
+            TripService.scheduleTrip(getActivity(), tripUri);
 
             getLoaderManager().getLoader(0).onContentChanged();
         }
@@ -20,6 +20,8 @@ import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
+import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
@@ -30,12 +32,15 @@ import android.os.RemoteException;
 import android.util.Log;
 
 import com.joulespersecond.oba.provider.ObaContract;
+import com.joulespersecond.oba.provider.ObaContract.TripAlerts;
 import com.joulespersecond.oba.provider.ObaContract.Trips;
 import com.joulespersecond.seattlebusbot.tripservice.CancelNotifyTask;
 import com.joulespersecond.seattlebusbot.tripservice.NotifierTask;
 import com.joulespersecond.seattlebusbot.tripservice.PollerTask;
 import com.joulespersecond.seattlebusbot.tripservice.SchedulerTask;
 import com.joulespersecond.seattlebusbot.tripservice.TaskContext;
+import com.joulespersecond.seattlebusbot.tripservice.TriggerIndex;
+import com.joulespersecond.seattlebusbot.tripservice.WakeupScheduler;
 import com.joulespersecond.seattlebusbot.util.UIHelp;
 
 import java.util.concurrent.ConcurrentHashMap;
@@ -61,6 +66,10 @@ public class TripService extends Service {
 
     private static final String EXTRA_TIMEDIFF = ".timeDiff";
 
+    private static WakeupScheduler sScheduler;
+
+    private static final TriggerIndex sTriggerIndex = new TriggerIndex();
+
     private ExecutorService mThreadPool;
 
     private NotificationManager mNM;
@@ -154,7 +163,7 @@ public class TripService extends Service {
             return START_REDELIVER_INTENT;
 
         } else if (ACTION_POLL.equals(action)) {
-            mThreadPool.submit(new PollerTask(this, taskContext, uri));
+            mThreadPool.submit(new PollerTask(this, taskContext));
             return START_NOT_STICKY;
 
         } else if (ACTION_NOTIFY.equals(action)) {
@@ -194,21 +203,90 @@ public class TripService extends Service {
     // Trip helpers
     //
     public static void scheduleAll(Context context) {
+        scheduleTrip(context, Trips.CONTENT_URI);
+    }
+
+    /**
+     * Schedules a single trip after it has been added, changed or deleted.
+     *
+     * @param tripUri The trip's URI, from Trips.buildUri().
+     */
+    public static void scheduleTrip(Context context, Uri tripUri) {
         final Intent intent = new Intent(context, TripService.class);
         intent.setAction(TripService.ACTION_SCHEDULE);
-        intent.setData(Trips.CONTENT_URI);
+        intent.setData(tripUri);
         context.startService(intent);
     }
 
+    /**
+     * @return The alerts the saved trips are scheduled with.
+     */
+    public static TriggerIndex getTriggerIndex() {
+        return sTriggerIndex;
+    }
+
+    /**
+     * Schedules a poll of a trip alert. All the alerts share one alarm,
+     * which goes off for the earliest of them.
+     *
+     * @param alertUri The alert to poll.
+     */
     public static void pollTrip(Context context, Uri alertUri, long triggerTime) {
-        Intent intent = new Intent(TripService.ACTION_POLL, alertUri,
-                context, AlarmReceiver.class);
-        PendingIntent alarmIntent = PendingIntent.getBroadcast(context, 0,
-                intent, PendingIntent.FLAG_ONE_SHOT);
-
-        AlarmManager alarm =
-                (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
-        alarm.set(AlarmManager.RTC_WAKEUP, triggerTime, alarmIntent);
+        getScheduler(context).schedule(ContentUris.parseId(alertUri), triggerTime);
+    }
+
+    /**
+     * The first call in a process reads the alerts from the provider,
+     * so this shouldn't be called on the UI thread.
+     *
+     * @return The scheduler for the polls of all the trip alerts in this process.
+     */
+    public static synchronized WakeupScheduler getScheduler(Context context) {
+        if (sScheduler == null) {
+            sScheduler = createScheduler(context.getContentResolver(),
+                    WakeupScheduler.SYSTEM_CLOCK,
+                    new AlarmManagerAlarm(context.getApplicationContext()));
+        }
+        return sScheduler;
+    }
+
+    /**
+     * Creates a scheduler with its queue rebuilt from the alerts in the provider.
+     * The alarm may still be set for alerts that were due before the process
+     * was killed, and it's shared by all the alerts, so the queue has to be
+     * complete before anything is scheduled or the alarm would be moved past them.
+     */
+    public static WakeupScheduler createScheduler(ContentResolver cr,
+            WakeupScheduler.Clock clock, WakeupScheduler.Alarm alarm) {
+        WakeupScheduler scheduler = new WakeupScheduler(clock, alarm,
+                WakeupScheduler.DEFAULT_TOLERANCE_MS);
+        PollerTask.restore(cr, scheduler, clock.currentTimeMillis());
+        return scheduler;
+    }
+
+    private static final class AlarmManagerAlarm implements WakeupScheduler.Alarm {
+
+        private final AlarmManager mAlarmManager;
+
+        private final PendingIntent mIntent;
+
+        AlarmManagerAlarm(Context context) {
+            mAlarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+            Intent intent = new Intent(TripService.ACTION_POLL, TripAlerts.CONTENT_URI,
+                    context, AlarmReceiver.class);
+            mIntent = PendingIntent.getBroadcast(context, 0,
+                    intent, PendingIntent.FLAG_UPDATE_CURRENT);
+        }
+
+        @Override
+        public void set(long triggerAtMillis) {
+            mAlarmManager.set(AlarmManager.RTC_WAKEUP, triggerAtMillis, mIntent);
+        }
+
+        @Override
+        public void cancel() {
+            mAlarmManager.cancel(mIntent);
+        }
     }
 
     public static void notifyTrip(Context context, Uri alertUri, long diffTime) {
@@ -25,6 +25,7 @@ import android.content.ContentProviderClient;
 import android.content.Context;
 import android.os.Build;
 import android.os.Environment;
+import android.os.SystemClock;
 
 import java.io.File;
 import java.io.IOException;
@@ -45,6 +46,10 @@ public final class Backup {
 
     private static final String BACKUP_NAME = "db.backup";
 
+    private static final int CHECKPOINT_ATTEMPTS = 3;
+
+    private static final long CHECKPOINT_RETRY_MS = 100;
+
     public static boolean isBackupEnabled() {
         return Build.VERSION.SDK_INT >= Build.VERSION_CODES.FROYO;
     }
@@ -72,10 +77,35 @@ public final class Backup {
         // 1. The path to the database;
         // 2. The path on the SD card to the backup file.
         File backupPath = getBackup(context);
-        FileUtils.copyFile(getDB(context), backupPath);
+        // Anything still in the write-ahead log needs to be in the file.
+        ContentProviderClient client = null;
+        try {
+            client = context.getContentResolver()
+                    .acquireContentProviderClient(ObaContract.AUTHORITY);
+            ObaProvider provider = (ObaProvider) client.getLocalContentProvider();
+            checkpoint(provider);
+
+            FileUtils.copyFile(getDB(context), backupPath);
+
+        } finally {
+            if (client != null) {
+                client.release();
+            }
+        }
         return backupPath.getAbsolutePath();
     }
 
+    private static void checkpoint(ObaProvider provider) throws IOException {
+        for (int i = 0; i < CHECKPOINT_ATTEMPTS; ++i) {
+            if (provider.checkpoint()) {
+                return;
+            }
+            SystemClock.sleep(CHECKPOINT_RETRY_MS);
+        }
+        // Better no backup than one that's missing the latest changes.
+        throw new IOException("The database is busy");
+    }
+
     /**
      * Performs a restore from the SD card.
      *
@@ -92,6 +122,9 @@ public final class Backup {
                     .acquireContentProviderClient(ObaContract.AUTHORITY);
             ObaProvider provider = (ObaProvider) client.getLocalContentProvider();
             provider.closeDB();
+            // A log left behind belongs to the old database, not this one.
+            new File(dbPath.getPath() + "-wal").delete();
+            new File(dbPath.getPath() + "-shm").delete();
 
             FileUtils.copyFile(backupPath, dbPath);
 
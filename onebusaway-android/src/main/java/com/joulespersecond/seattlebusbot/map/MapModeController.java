@@ -20,8 +20,8 @@ import android.location.Location;
 import android.os.Bundle;
 import android.view.View;
 
+import com.joulespersecond.oba.elements.ObaDecodedShape;
 import com.joulespersecond.oba.elements.ObaReferences;
-import com.joulespersecond.oba.elements.ObaShape;
 import com.joulespersecond.oba.elements.ObaStop;
 
 import java.util.List;
@@ -87,7 +87,7 @@ public interface MapModeController {
         float getZoomLevelAsFloat();
 
         // Set lines to be shown on the map view
-        void setRouteOverlay(int lineOverlayColor, ObaShape[] shapes);
+        void setRouteOverlay(int lineOverlayColor, ObaDecodedShape[] shapes);
 
         // Zoom to line overlay of route
         void zoomToRoute();
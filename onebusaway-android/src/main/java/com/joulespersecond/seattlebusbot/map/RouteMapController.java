@@ -27,7 +27,10 @@ import android.view.View;
 import android.widget.TextView;
 
 import com.joulespersecond.oba.ObaApi;
+import com.joulespersecond.oba.elements.ObaDecodedShape;
 import com.joulespersecond.oba.elements.ObaRoute;
+import com.joulespersecond.oba.elements.ObaShape;
+import com.joulespersecond.oba.elements.ObaShapeCache;
 import com.joulespersecond.oba.elements.ObaStop;
 import com.joulespersecond.oba.request.ObaStopsForRouteRequest;
 import com.joulespersecond.oba.request.ObaStopsForRouteResponse;
@@ -139,7 +142,8 @@ public class RouteMapController implements MapModeController,
 
         mRoutePopup.show(response.getRoute(response.getRouteId()));
 
-        obaMapView.setRouteOverlay(mLineOverlayColor, response.getShapes());
+        obaMapView.setRouteOverlay(mLineOverlayColor,
+                getDecodedShapes(response.getRouteId(), response.getShapes()));
 
         // Set the stops for this route
         List<ObaStop> stops = response.getStops();
@@ -166,6 +170,18 @@ public class RouteMapController implements MapModeController,
         onLoadFinished(loader, response);
     }
 
+    /**
+     * Returns the decoded shapes of a route, from the shape cache if possible.
+     */
+    static ObaDecodedShape[] getDecodedShapes(String routeId, ObaShape[] shapes) {
+        final ObaShapeCache cache = ObaShapeCache.getInstance();
+        final ObaDecodedShape[] result = new ObaDecodedShape[shapes.length];
+        for (int i = 0; i < shapes.length; ++i) {
+            result[i] = cache.get(routeId + "#" + i, shapes[i]);
+        }
+        return result;
+    }
+
     //
     // Map popup
     //
@@ -245,10 +261,19 @@ public class RouteMapController implements MapModeController,
                 return null;
             }
             //Make OBA REST API call to the server and return result
-            return new ObaStopsForRouteRequest.Builder(getContext(), mRouteId)
-                    .setIncludeShapes(true)
-                    .build()
-                    .call();
+            ObaStopsForRouteResponse response =
+                    new ObaStopsForRouteRequest.Builder(getContext(), mRouteId)
+                            .setIncludeShapes(true)
+                            .build()
+                            .call();
+            if (response.getCode() == ObaApi.OBA_OK) {
+                // Decode and simplify the shapes here rather than on the UI thread
+                for (ObaDecodedShape shape : getDecodedShapes(response.getRouteId(),
+                        response.getShapes())) {
+                    shape.prepare();
+                }
+            }
+            return response;
         }
 
         @Override
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.seattlebusbot.map;
+
+import com.joulespersecond.oba.elements.ObaStop;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups stops into clusters by the grid cell they fall into on screen.
+ *
+ * The grid is fixed to the map's world pixel coordinates rather than to the
+ * screen, so panning never changes the clusters, and each cell at one zoom
+ * level is exactly four cells at the next. The clusters for a zoom level are
+ * computed once, by merging the clusters of the level above it, and cached.
+ */
+public final class StopClusterer {
+
+    // The size of the world at zoom level 0, in pixels.
+    private static final int TILE_SIZE = 256;
+
+    /**
+     * A group of stops in the same grid cell.
+     */
+    public static final class Cluster {
+
+        private final int mCellX;
+
+        private final int mCellY;
+
+        private final List<ObaStop> mStops;
+
+        private final double mLatitude;
+
+        private final double mLongitude;
+
+        Cluster(int cellX, int cellY, List<ObaStop> stops) {
+            mCellX = cellX;
+            mCellY = cellY;
+            mStops = Collections.unmodifiableList(stops);
+            double lat = 0;
+            double lon = 0;
+            for (ObaStop stop : stops) {
+                lat += stop.getLatitude();
+                lon += stop.getLongitude();
+            }
+            mLatitude = lat / stops.size();
+            mLongitude = lon / stops.size();
+        }
+
+        public int size() {
+            return mStops.size();
+        }
+
+        public List<ObaStop> getStops() {
+            return mStops;
+        }
+
+        /**
+         * @return The latitude of the center of the stops.
+         */
+        public double getLatitude() {
+            return mLatitude;
+        }
+
+        /**
+         * @return The longitude of the center of the stops.
+         */
+        public double getLongitude() {
+            return mLongitude;
+        }
+    }
+
+    private final List<ObaStop> mStops;
+
+    private final int mCellSize;
+
+    private final int mClusterZoom;
+
+    // The clusters for each zoom level below mClusterZoom, computed on demand.
+    private final List<Cluster>[] mLevels;
+
+    /**
+     * @param stops       The stops.
+     * @param cellSize    The size of a grid cell, in pixels.
+     * @param clusterZoom The lowest zoom level at which stops aren't clustered.
+     */
+    @SuppressWarnings("unchecked")
+    public StopClusterer(List<ObaStop> stops, int cellSize, int clusterZoom) {
+        mStops = stops;
+        mCellSize = Math.max(1, cellSize);
+        mClusterZoom = Math.max(0, clusterZoom);
+        mLevels = new List[mClusterZoom];
+    }
+
+    public int getClusterZoom() {
+        return mClusterZoom;
+    }
+
+    /**
+     * @param zoom The map zoom level.
+     * @return The clusters at this zoom level, or null if stops aren't clustered at it.
+     */
+    public List<Cluster> getClusters(int zoom) {
+        if (zoom >= mClusterZoom) {
+            return null;
+        }
+        zoom = Math.max(0, zoom);
+        List<Cluster> result = mLevels[zoom];
+        if (result == null) {
+            result = (zoom == mClusterZoom - 1) ? cluster(zoom) : merge(getClusters(zoom + 1));
+            mLevels[zoom] = result;
+        }
+        return result;
+    }
+
+    private List<Cluster> cluster(int zoom) {
+        final double worldSize = (double) TILE_SIZE * (1L << zoom);
+        LinkedHashMap<Long, ArrayList<ObaStop>> cells =
+                new LinkedHashMap<Long, ArrayList<ObaStop>>();
+        for (ObaStop stop : mStops) {
+            final double x = getWorldX(stop.getLongitude()) * worldSize;
+            final double y = getWorldY(stop.getLatitude()) * worldSize;
+            addToCell(cells, (int) Math.floor(x / mCellSize), (int) Math.floor(y / mCellSize),
+                    Collections.singletonList(stop));
+        }
+        return toClusters(cells);
+    }
+
+    /**
+     * @return The clusters one zoom level out: every 2x2 cells become one.
+     */
+    private static List<Cluster> merge(List<Cluster> clusters) {
+        LinkedHashMap<Long, ArrayList<ObaStop>> cells =
+                new LinkedHashMap<Long, ArrayList<ObaStop>>();
+        for (Cluster cluster : clusters) {
+            addToCell(cells, cluster.mCellX >> 1, cluster.mCellY >> 1, cluster.mStops);
+        }
+        return toClusters(cells);
+    }
+
+    private static void addToCell(LinkedHashMap<Long, ArrayList<ObaStop>> cells, int x, int y,
+            List<ObaStop> stops) {
+        final Long key = getKey(x, y);
+        ArrayList<ObaStop> cell = cells.get(key);
+        if (cell == null) {
+            cell = new ArrayList<ObaStop>(stops.size());
+            cells.put(key, cell);
+        }
+        cell.addAll(stops);
+    }
+
+    private static List<Cluster> toClusters(LinkedHashMap<Long, ArrayList<ObaStop>> cells) {
+        ArrayList<Cluster> result = new ArrayList<Cluster>(cells.size());
+        for (Map.Entry<Long, ArrayList<ObaStop>> cell : cells.entrySet()) {
+            final long key = cell.getKey();
+            result.add(new Cluster((int) (key >> 32), (int) key, cell.getValue()));
+        }
+        return result;
+    }
+
+    private static long getKey(int x, int y) {
+        return ((long) x << 32) | (y & 0xffffffffL);
+    }
+
+    /**
+     * @return The x coordinate of this longitude in the Mercator projection, from 0 to 1.
+     */
+    static double getWorldX(double lon) {
+        return (lon + 180) / 360;
+    }
+
+    /**
+     * @return The y coordinate of this latitude in the Mercator projection, from 0 to 1.
+     */
+    static double getWorldY(double lat) {
+        final double sin = Math.sin(Math.toRadians(Math.max(-85, Math.min(85, lat))));
+        return 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+    }
+}
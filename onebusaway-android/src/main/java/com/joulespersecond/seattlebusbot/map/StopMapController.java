@@ -17,6 +17,7 @@ package com.joulespersecond.seattlebusbot.map;
 
 import android.location.Location;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.content.AsyncTaskLoader;
 import android.support.v4.content.Loader;
@@ -26,18 +27,14 @@ import android.util.Log;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GooglePlayServicesUtil;
 import com.google.android.gms.location.LocationClient;
-import com.joulespersecond.oba.ObaApi;
-import com.joulespersecond.oba.elements.ObaStop;
 import com.joulespersecond.oba.region.RegionUtils;
-import com.joulespersecond.oba.request.ObaStopsForLocationRequest;
-import com.joulespersecond.oba.request.ObaStopsForLocationResponse;
 import com.joulespersecond.seattlebusbot.Application;
 import com.joulespersecond.seattlebusbot.BuildConfig;
 import com.joulespersecond.seattlebusbot.map.googlemapsv1.BaseMapActivity;
 import com.joulespersecond.seattlebusbot.util.LocationHelp;
 
-import java.util.Arrays;
-import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 final class StopsRequest {
 
@@ -77,58 +74,35 @@ final class StopsResponse {
 
     private final StopsRequest mRequest;
 
-    private final ObaStopsForLocationResponse mResponse;
+    private final StopTileCache.Viewport mViewport;
 
-    StopsResponse(StopsRequest req, ObaStopsForLocationResponse response) {
+    StopsResponse(StopsRequest req, StopTileCache.Viewport viewport) {
         mRequest = req;
-        mResponse = response;
+        mViewport = viewport;
     }
 
     StopsRequest getRequest() {
         return mRequest;
     }
 
-    ObaStopsForLocationResponse getResponse() {
-        return mResponse;
+    StopTileCache.Viewport getViewport() {
+        return mViewport;
     }
 
     /**
      * Returns true if newReq also fulfills response.
      */
     boolean fulfills(StopsRequest newReq) {
-        if (mRequest.getCenter() == null) {
-            //Log.d(TAG, "No center");
+        if (mRequest.getCenter() == null || newReq.getCenter() == null) {
             return false;
         }
-        if (!mRequest.getCenter().equals(newReq.getCenter())) {
-            //Log.d(TAG, "Center not the same");
+        if (mViewport == null || mViewport.getError() != null) {
             return false;
         }
-        if (mResponse != null) {
-            if ((newReq.getZoomLevel() > mRequest.getZoomLevel()) &&
-                    mResponse.getLimitExceeded()) {
-                //Log.d(TAG, "Zooming in -- limit exceeded");
-                return false;
-            } else if (newReq.getZoomLevel() < mRequest.getZoomLevel()) {
-                //Log.d(TAG, "Zooming out");
-                return false;
-            }
-        }
-        return true;
-
-        // Otherwise:
-
-        // If the new request's is zoomed in and the current
-        // response has limitExceeded, then no.
-
-        // If the new request's lat/lon span is contained
-        // entirely within the old one:
-        //  Then the new request is fulfilled IFF the old request's
-        //  limitExceeded == false.
-
-        // If the new request's lat/lon span is not contained
-        // entirely within the old one (fuzzy match)
-        //  FALSE
+        // The same tiles cover the new request, so it would load the same stops.
+        // Any other request is answered from the tile cache as far as possible.
+        return mViewport.getTiles().equals(StopTileCache.getTiles(newReq.getCenter(),
+                newReq.getLatSpan(), newReq.getLonSpan()));
     }
 }
 
@@ -149,6 +123,13 @@ public class StopMapController implements MapModeController,
 
     private MapWatcher mMapWatcher;
 
+    private final StopTileCache mCache;
+
+    private final StopPrefetcher mPrefetcher;
+
+    // Uses the tile cache for the prefetcher, off the UI thread.
+    private final ExecutorService mPrefetchExecutor;
+
     /**
      * Google Location Services
      */
@@ -156,6 +137,10 @@ public class StopMapController implements MapModeController,
 
     public StopMapController(Callback callback) {
         mFragment = callback;
+        mCache = new StopTileCache(StopTileCache.newFetcher(mFragment.getActivity()),
+                StopTileCache.DEFAULT_MAX_TILES);
+        mPrefetchExecutor = Executors.newSingleThreadExecutor();
+        mPrefetcher = new StopPrefetcher(mCache, mPrefetchExecutor);
 
         // Init Google Play Services as early as possible in the Fragment lifecycle to give it time
         if (GooglePlayServicesUtil.isGooglePlayServicesAvailable(mFragment.getActivity()) == ConnectionResult.SUCCESS) {
@@ -204,6 +189,8 @@ public class StopMapController implements MapModeController,
         //mFragment.getLoaderManager().destroyLoader(STOPS_LOADER);
         getLoader().reset();
         watchMap(false);
+        mPrefetchExecutor.shutdownNow();
+        mCache.clear();
     }
 
     @Override
@@ -241,7 +228,7 @@ public class StopMapController implements MapModeController,
 
     @Override
     public Loader<StopsResponse> onCreateLoader(int id, Bundle args) {
-        StopsLoader loader = new StopsLoader(mFragment);
+        StopsLoader loader = new StopsLoader(mFragment, mCache);
         StopsRequest req = new StopsRequest(mFragment.getMapView());
         loader.update(req);
         return loader;
@@ -251,17 +238,17 @@ public class StopMapController implements MapModeController,
     public void onLoadFinished(Loader<StopsResponse> loader,
             StopsResponse _response) {
         mFragment.showProgress(false);
-        final ObaStopsForLocationResponse response = _response.getResponse();
-        if (response == null) {
+        final StopTileCache.Viewport viewport = _response.getViewport();
+        if (viewport == null) {
             return;
         }
 
-        if (response.getCode() != ObaApi.OBA_OK) {
-            BaseMapActivity.showMapError(mFragment.getActivity(), response);
+        if (viewport.getError() != null) {
+            BaseMapActivity.showMapError(mFragment.getActivity(), viewport.getError());
             return;
         }
 
-        if (response.getOutOfRange()) {
+        if (viewport.getOutOfRange()) {
             mFragment.notifyOutOfRange();
             return;
         }
@@ -283,7 +270,7 @@ public class StopMapController implements MapModeController,
                         + ", long = " + myLocation.getLongitude());
             }
 
-            if (!inRegion && Arrays.asList(response.getStops()).isEmpty()) {
+            if (!inRegion && viewport.getStops().isEmpty()) {
                 if (BuildConfig.DEBUG) {
                     Log.d(TAG, "Device location is outside region range, notifying...");
                 }
@@ -292,8 +279,7 @@ public class StopMapController implements MapModeController,
             }
         }
 
-        List<ObaStop> stops = Arrays.asList(response.getStops());
-        mFragment.showStops(stops, response);
+        mFragment.showStops(viewport.getStops(), viewport.getReferences());
     }
 
     @Override
@@ -341,20 +327,22 @@ public class StopMapController implements MapModeController,
 
         private final Callback mFragment;
 
+        private final StopTileCache mCache;
+
         private StopsRequest mRequest;
 
         private StopsResponse mResponse;
 
-        public StopsLoader(Callback fragment) {
+        public StopsLoader(Callback fragment, StopTileCache cache) {
             super(fragment.getActivity());
             mFragment = fragment;
+            mCache = cache;
         }
 
         @Override
         public StopsResponse loadInBackground() {
             StopsRequest req = mRequest;
-            if (Application.get().getCurrentRegion() == null &&
-                    TextUtils.isEmpty(Application.get().getCustomApiUrl())) {
+            if (!hasApiEndpoint()) {
                 //We don't have region info or manually entered API to know what server to contact
                 if (BuildConfig.DEBUG) {
                     Log.d(TAG, "Trying to load stops from server without " +
@@ -362,14 +350,10 @@ public class StopMapController implements MapModeController,
                 }
                 return new StopsResponse(req, null);
             }
-            //Make OBA REST API call to the server and return result
-            ObaStopsForLocationResponse response =
-                    new ObaStopsForLocationRequest.Builder(getContext(),
-                            req.getCenter())
-                            .setSpan(req.getLatSpan(), req.getLonSpan())
-                            .build()
-                            .call();
-            return new StopsResponse(req, response);
+            //Fetch the tiles we don't have from the server, and stitch them together
+            StopTileCache.Viewport viewport =
+                    mCache.load(req.getCenter(), req.getLatSpan(), req.getLonSpan());
+            return new StopsResponse(req, viewport);
         }
 
         @Override
@@ -399,6 +383,26 @@ public class StopMapController implements MapModeController,
         }
     }
 
+    private static boolean hasApiEndpoint() {
+        return Application.get().getCurrentRegion() != null ||
+                !TextUtils.isEmpty(Application.get().getCustomApiUrl());
+    }
+
+    /**
+     * Prefetches the stops for where the map is heading.
+     */
+    private void prefetch() {
+        if (!hasApiEndpoint()) {
+            return;
+        }
+        MapModeController.ObaMapView view = mFragment.getMapView();
+        mPrefetcher.onMapMoving(view.getMapCenterAsLocation(),
+                view.getLatitudeSpanInDecDegrees(),
+                view.getLongitudeSpanInDecDegrees(),
+                view.getZoomLevelAsFloat(),
+                SystemClock.elapsedRealtime());
+    }
+
     //
     // Map watcher
     //
@@ -419,6 +423,7 @@ public class StopMapController implements MapModeController,
     @Override
     public void onMapZoomChanging() {
         //Log.d(TAG, "Map zoom changing");
+        prefetch();
     }
 
     @Override
@@ -430,6 +435,7 @@ public class StopMapController implements MapModeController,
     @Override
     public void onMapCenterChanging() {
         //Log.d(TAG, "Map center changing");
+        prefetch();
     }
 
     @Override
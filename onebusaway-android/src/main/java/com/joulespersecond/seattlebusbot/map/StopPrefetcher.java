@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.seattlebusbot.map;
+
+import android.location.Location;
+
+import com.joulespersecond.seattlebusbot.util.LocationHelp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Prefetches the stop tiles that are about to come into view while the map
+ * is moving, so that they're already cached when the map settles.
+ *
+ * The pan and zoom velocity is estimated from the positions reported while
+ * the map moves, and the viewport is extrapolated to where it will be when
+ * the map watcher reports that it has settled. Prefetches run at background
+ * priority, and are limited both in number at any one time, so that they
+ * never hold up the requests for the visible map, and in number per minute,
+ * so that a long fling doesn't download a whole city.
+ *
+ * The velocity is tracked on the thread that reports the map position, but
+ * the tile cache is only used from the executor passed to the constructor,
+ * so that the UI thread never waits on it.
+ */
+public final class StopPrefetcher {
+
+    // How far ahead to extrapolate; about the time between the map
+    // settling and the watcher reporting it.
+    static final long LOOKAHEAD_MS = 1000;
+
+    static final int MAX_IN_FLIGHT = 2;
+
+    static final int MAX_PER_WINDOW = 16;
+
+    static final long WINDOW_MS = 60 * 1000;
+
+    // Samples further apart than this are the start of a new gesture.
+    private static final long MAX_SAMPLE_GAP_MS = 1000;
+
+    // The weight of the newest sample in the smoothed velocity.
+    private static final double SMOOTHING = 0.5;
+
+    private final StopTileCache mCache;
+
+    private final Executor mExecutor;
+
+    private long mLastTime = -1;
+
+    private double mLastLat;
+
+    private double mLastLon;
+
+    private float mLastZoom;
+
+    // Degrees or zoom levels per millisecond
+    private double mLatVelocity;
+
+    private double mLonVelocity;
+
+    private double mZoomVelocity;
+
+    // The times of the most recent prefetches, as a ring buffer.
+    // These are only used on the executor.
+    private final long[] mIssued = new long[MAX_PER_WINDOW];
+
+    private int mIssuedCount;
+
+    private volatile int mPrefetched;
+
+    /**
+     * Creates a prefetcher that uses the cache on the calling thread.
+     */
+    public StopPrefetcher(StopTileCache cache) {
+        this(cache, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+    }
+
+    /**
+     * @param executor The executor on which to use the cache. It has to run
+     *                 one task at a time, in order.
+     */
+    public StopPrefetcher(StopTileCache cache, Executor executor) {
+        mCache = cache;
+        mExecutor = executor;
+    }
+
+    /**
+     * Called with the map position while the map is moving.
+     *
+     * @param now The current time, in milliseconds from any fixed point.
+     */
+    public void onMapMoving(Location center, double latSpan, double lonSpan, float zoom,
+            final long now) {
+        final double lat = center.getLatitude();
+        final double lon = center.getLongitude();
+        final long elapsed = now - mLastTime;
+        if (mLastTime < 0 || elapsed <= 0 || elapsed > MAX_SAMPLE_GAP_MS) {
+            mLatVelocity = 0;
+            mLonVelocity = 0;
+            mZoomVelocity = 0;
+        } else {
+            double lonDelta = lon - mLastLon;
+            if (lonDelta > 180) {
+                lonDelta -= 360;
+            } else if (lonDelta < -180) {
+                lonDelta += 360;
+            }
+            mLatVelocity = smooth(mLatVelocity, (lat - mLastLat) / elapsed);
+            mLonVelocity = smooth(mLonVelocity, lonDelta / elapsed);
+            mZoomVelocity = smooth(mZoomVelocity, (zoom - mLastZoom) / elapsed);
+        }
+        mLastTime = now;
+        mLastLat = lat;
+        mLastLon = lon;
+        mLastZoom = zoom;
+
+        if (mLatVelocity == 0 && mLonVelocity == 0 && mZoomVelocity == 0) {
+            // Nothing to extrapolate yet.
+            return;
+        }
+
+        // Each zoom level halves the span.
+        final double scale = Math.pow(2, -mZoomVelocity * LOOKAHEAD_MS);
+        double predictedLon = lon + mLonVelocity * LOOKAHEAD_MS;
+        if (predictedLon >= 180) {
+            predictedLon -= 360;
+        } else if (predictedLon < -180) {
+            predictedLon += 360;
+        }
+        final Location predicted = LocationHelp.makeLocation(
+                Math.max(-90, Math.min(90, lat + mLatVelocity * LOOKAHEAD_MS)), predictedLon);
+        final double predictedLatSpan = latSpan * scale;
+        final double predictedLonSpan = lonSpan * scale;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                prefetch(predicted, predictedLatSpan, predictedLonSpan, now);
+            }
+        });
+    }
+
+    /**
+     * @return The total number of tiles that were prefetched.
+     */
+    public int getPrefetchedCount() {
+        return mPrefetched;
+    }
+
+    private void prefetch(final Location center, double latSpan, double lonSpan, long now) {
+        List<StopTileCache.Tile> tiles = new ArrayList<StopTileCache.Tile>(
+                StopTileCache.getTiles(center, latSpan, lonSpan));
+        // The tiles nearest the center are the most likely to be shown.
+        Collections.sort(tiles, new Comparator<StopTileCache.Tile>() {
+            @Override
+            public int compare(StopTileCache.Tile lhs, StopTileCache.Tile rhs) {
+                return Float.compare(center.distanceTo(lhs.getCenter()),
+                        center.distanceTo(rhs.getCenter()));
+            }
+        });
+
+        int count = 0;
+        int inFlight = mCache.getPendingCount();
+        for (StopTileCache.Tile tile : tiles) {
+            if (inFlight >= MAX_IN_FLIGHT || !isWithinBudget(now)) {
+                break;
+            }
+            if (mCache.prefetch(tile)) {
+                mIssued[mIssuedCount % MAX_PER_WINDOW] = now;
+                mIssuedCount++;
+                inFlight++;
+                count++;
+            }
+        }
+        mPrefetched += count;
+    }
+
+    private boolean isWithinBudget(long now) {
+        if (mIssuedCount < MAX_PER_WINDOW) {
+            return true;
+        }
+        // The oldest of the last MAX_PER_WINDOW prefetches
+        final long oldest = mIssued[mIssuedCount % MAX_PER_WINDOW];
+        return now - oldest >= WINDOW_MS;
+    }
+
+    private static double smooth(double previous, double sample) {
+        return previous + SMOOTHING * (sample - previous);
+    }
+}
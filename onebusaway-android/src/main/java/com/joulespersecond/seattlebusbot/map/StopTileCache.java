@@ -0,0 +1,782 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.seattlebusbot.map;
+
+import android.content.Context;
+import android.location.Location;
+import android.util.Log;
+
+import com.joulespersecond.oba.ObaApi;
+import com.joulespersecond.oba.elements.ObaAgency;
+import com.joulespersecond.oba.elements.ObaElement;
+import com.joulespersecond.oba.elements.ObaReferences;
+import com.joulespersecond.oba.elements.ObaRoute;
+import com.joulespersecond.oba.elements.ObaSituation;
+import com.joulespersecond.oba.elements.ObaStop;
+import com.joulespersecond.oba.elements.ObaTrip;
+import com.joulespersecond.oba.request.ObaStopsForLocationRequest;
+import com.joulespersecond.oba.request.ObaStopsForLocationResponse;
+import com.joulespersecond.oba.request.RequestExecutor;
+import com.joulespersecond.oba.request.RequestFuture;
+import com.joulespersecond.seattlebusbot.BuildConfig;
+import com.joulespersecond.seattlebusbot.util.LocationHelp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Caches the stops on the map in square tiles, so that panning and zooming
+ * around an area that has already been seen doesn't need new requests.
+ *
+ * The world is divided into a quadtree of tiles, and a viewport is answered
+ * with the tiles at the level whose tiles are about half the size of the viewport.
+ * Each tile is fetched with its own stops-for-location request. A tile that
+ * isn't cached can also be cut out of a cached ancestor tile, unless the
+ * ancestor's response exceeded the server's limit, in which case it may be
+ * missing stops.
+ */
+public final class StopTileCache {
+
+    private static final String TAG = "StopTileCache";
+
+    public static final int DEFAULT_MAX_TILES = 128;
+
+    static final int MIN_TILE_ZOOM = 1;
+
+    static final int MAX_TILE_ZOOM = 18;
+
+    /**
+     * Fetches the stops in a bounding box.
+     */
+    public interface Fetcher {
+
+        /**
+         * @param priority One of the RequestExecutor priorities.
+         */
+        Future<ObaStopsForLocationResponse> fetch(Location center, double latSpan,
+                double lonSpan, int priority);
+
+        /**
+         * Raises a fetch to foreground priority, because the user is now waiting on it.
+         *
+         * @return false if the fetch can't be raised, and should be fetched again.
+         */
+        boolean raisePriority(Future<ObaStopsForLocationResponse> future);
+    }
+
+    /**
+     * The default fetcher, which runs the requests on the shared request executor.
+     */
+    public static Fetcher newFetcher(final Context context) {
+        return new Fetcher() {
+            @Override
+            public Future<ObaStopsForLocationResponse> fetch(Location center, double latSpan,
+                    double lonSpan, int priority) {
+                return new ObaStopsForLocationRequest.Builder(context, center)
+                        .setSpan(latSpan, lonSpan)
+                        .build()
+                        .callAsync(priority);
+            }
+
+            @Override
+            public boolean raisePriority(Future<ObaStopsForLocationResponse> future) {
+                return RequestExecutor.getInstance().raisePriority(
+                        (RequestFuture<?>) future, RequestExecutor.PRIORITY_FOREGROUND);
+            }
+        };
+    }
+
+    /**
+     * A tile of the quadtree. Tiles are square in degrees; at zoom z a tile
+     * is 360 / 2^z degrees on each side.
+     */
+    public static final class Tile {
+
+        private final int mX;
+
+        private final int mY;
+
+        private final int mZoom;
+
+        Tile(int x, int y, int zoom) {
+            mX = x;
+            mY = y;
+            mZoom = zoom;
+        }
+
+        static double getSize(int zoom) {
+            return 360.0 / (1 << zoom);
+        }
+
+        static Tile forLocation(double lat, double lon, int zoom) {
+            final double size = getSize(zoom);
+            final int columns = 1 << zoom;
+            final int rows = Math.max(1, columns / 2);
+            int x = (int) Math.floor((lon + 180) / size) % columns;
+            if (x < 0) {
+                x += columns;
+            }
+            int y = (int) Math.floor((lat + 90) / size);
+            y = Math.max(0, Math.min(rows - 1, y));
+            return new Tile(x, y, zoom);
+        }
+
+        public int getZoom() {
+            return mZoom;
+        }
+
+        public double getSouth() {
+            return mY * getSize(mZoom) - 90;
+        }
+
+        public double getWest() {
+            return mX * getSize(mZoom) - 180;
+        }
+
+        public double getSize() {
+            return getSize(mZoom);
+        }
+
+        public Location getCenter() {
+            final double half = getSize() / 2;
+            return LocationHelp.makeLocation(getSouth() + half, getWest() + half);
+        }
+
+        public boolean contains(double lat, double lon) {
+            final double south = getSouth();
+            final double west = getWest();
+            final double size = getSize();
+            return lat >= south && lat < south + size && lon >= west && lon < west + size;
+        }
+
+        Tile getAncestor(int levels) {
+            return new Tile(mX >> levels, mY >> levels, mZoom - levels);
+        }
+
+        /**
+         * @return The quadkey of this tile: one digit per level, so a tile's key
+         * starts with the keys of all its ancestors.
+         */
+        public String getKey() {
+            final char[] key = new char[mZoom];
+            for (int i = mZoom; i > 0; --i) {
+                final int mask = 1 << (i - 1);
+                int digit = 0;
+                if ((mX & mask) != 0) {
+                    digit += 1;
+                }
+                if ((mY & mask) != 0) {
+                    digit += 2;
+                }
+                key[mZoom - i] = (char) ('0' + digit);
+            }
+            return new String(key);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Tile)) {
+                return false;
+            }
+            Tile other = (Tile) o;
+            return mX == other.mX && mY == other.mY && mZoom == other.mZoom;
+        }
+
+        @Override
+        public int hashCode() {
+            return (mZoom * 31 + mX) * 31 + mY;
+        }
+
+        @Override
+        public String toString() {
+            return "Tile [" + getKey() + "]";
+        }
+    }
+
+    private static final class Pending {
+
+        final Tile tile;
+
+        final Future<ObaStopsForLocationResponse> future;
+
+        Pending(Tile tile, Future<ObaStopsForLocationResponse> future) {
+            this.tile = tile;
+            this.future = future;
+        }
+    }
+
+    private static final class Entry {
+
+        final List<ObaStop> stops;
+
+        final ObaReferences refs;
+
+        final boolean limitExceeded;
+
+        final boolean outOfRange;
+
+        Entry(List<ObaStop> stops, ObaReferences refs, boolean limitExceeded,
+                boolean outOfRange) {
+            this.stops = stops;
+            this.refs = refs;
+            this.limitExceeded = limitExceeded;
+            this.outOfRange = outOfRange;
+        }
+    }
+
+    /**
+     * The stops in a viewport, stitched together from its tiles.
+     */
+    public static final class Viewport {
+
+        private final List<Tile> mTiles;
+
+        private final List<ObaStop> mStops;
+
+        private final ObaReferences mRefs;
+
+        private final boolean mLimitExceeded;
+
+        private final boolean mOutOfRange;
+
+        private final ObaStopsForLocationResponse mError;
+
+        private final int mFetched;
+
+        Viewport(List<Tile> tiles, List<ObaStop> stops, ObaReferences refs,
+                boolean limitExceeded, boolean outOfRange,
+                ObaStopsForLocationResponse error, int fetched) {
+            mTiles = tiles;
+            mStops = stops;
+            mRefs = refs;
+            mLimitExceeded = limitExceeded;
+            mOutOfRange = outOfRange;
+            mError = error;
+            mFetched = fetched;
+        }
+
+        public List<Tile> getTiles() {
+            return mTiles;
+        }
+
+        public List<ObaStop> getStops() {
+            return mStops;
+        }
+
+        public ObaReferences getReferences() {
+            return mRefs;
+        }
+
+        /**
+         * @return true if any of the tiles had more stops than the server returned.
+         */
+        public boolean getLimitExceeded() {
+            return mLimitExceeded;
+        }
+
+        /**
+         * @return true if every tile is outside of the coverage area.
+         */
+        public boolean getOutOfRange() {
+            return mOutOfRange;
+        }
+
+        /**
+         * @return The first failed response, or null if every tile was loaded.
+         */
+        public ObaStopsForLocationResponse getError() {
+            return mError;
+        }
+
+        /**
+         * @return The number of tiles that had to be fetched from the server.
+         */
+        public int getFetchedCount() {
+            return mFetched;
+        }
+    }
+
+    private final Fetcher mFetcher;
+
+    private final int mMaxTiles;
+
+    private final LinkedHashMap<String, Entry> mTiles =
+            new LinkedHashMap<String, Entry>(32, 0.75f, true);
+
+    // Prefetches that haven't been added to the cache yet, by tile key
+    private final LinkedHashMap<String, Pending> mPending = new LinkedHashMap<String, Pending>();
+
+    private int mHits;
+
+    private int mMisses;
+
+    public StopTileCache(Fetcher fetcher, int maxTiles) {
+        mFetcher = fetcher;
+        mMaxTiles = maxTiles;
+    }
+
+    /**
+     * @return The tile zoom level used for a viewport of this size.
+     */
+    public static int getTileZoom(double latSpan, double lonSpan) {
+        final double span = Math.max(latSpan, lonSpan);
+        if (span <= 0) {
+            return MAX_TILE_ZOOM;
+        }
+        // The largest zoom whose tiles are at least half the span
+        final int zoom = (int) Math.floor(Math.log(720 / span) / Math.log(2));
+        return Math.max(MIN_TILE_ZOOM, Math.min(MAX_TILE_ZOOM, zoom));
+    }
+
+    /**
+     * @return The tiles covering the viewport.
+     */
+    public static List<Tile> getTiles(Location center, double latSpan, double lonSpan) {
+        final int zoom = getTileZoom(latSpan, lonSpan);
+        final double lat = center.getLatitude();
+        final double lon = center.getLongitude();
+        final Tile southWest = Tile.forLocation(lat - latSpan / 2, lon - lonSpan / 2, zoom);
+        final Tile northEast = Tile.forLocation(lat + latSpan / 2, lon + lonSpan / 2, zoom);
+        final int columns = 1 << zoom;
+        int width = northEast.mX - southWest.mX;
+        if (width < 0) {
+            // Crosses the antimeridian
+            width += columns;
+        }
+        ArrayList<Tile> result = new ArrayList<Tile>();
+        for (int y = southWest.mY; y <= northEast.mY; ++y) {
+            for (int i = 0; i <= width; ++i) {
+                result.add(new Tile((southWest.mX + i) % columns, y, zoom));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return true if every tile of the viewport can be answered from memory.
+     */
+    public boolean isCached(Location center, double latSpan, double lonSpan) {
+        for (Tile tile : getTiles(center, latSpan, lonSpan)) {
+            if (lookup(tile) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the stops in the viewport, fetching only the tiles that aren't cached.
+     * This blocks while tiles are being fetched, so it can't be called from the UI thread.
+     */
+    public Viewport load(Location center, double latSpan, double lonSpan) {
+        final List<Tile> tiles = getTiles(center, latSpan, lonSpan);
+        final Entry[] entries = new Entry[tiles.size()];
+        final ArrayList<Future<ObaStopsForLocationResponse>> futures =
+                new ArrayList<Future<ObaStopsForLocationResponse>>(tiles.size());
+
+        // Start fetching all the missing tiles at once. Tiles that are already
+        // being prefetched are moved up to foreground priority, so they aren't
+        // stuck behind other background requests.
+        addCompletedPrefetches();
+        int fetched = 0;
+        for (int i = 0; i < entries.length; ++i) {
+            final Tile tile = tiles.get(i);
+            entries[i] = lookup(tile);
+            Future<ObaStopsForLocationResponse> future = null;
+            if (entries[i] != null) {
+                countLookup(true);
+            } else {
+                countLookup(false);
+                future = takePending(tile);
+                if (future != null && !mFetcher.raisePriority(future)) {
+                    future.cancel(true);
+                    future = null;
+                }
+                if (future == null) {
+                    future = mFetcher.fetch(tile.getCenter(), tile.getSize(), tile.getSize(),
+                            RequestExecutor.PRIORITY_FOREGROUND);
+                    ++fetched;
+                }
+            }
+            futures.add(future);
+        }
+
+        ObaStopsForLocationResponse error = null;
+        for (int i = 0; i < entries.length; ++i) {
+            final Future<ObaStopsForLocationResponse> future = futures.get(i);
+            if (future == null) {
+                continue;
+            }
+            final ObaStopsForLocationResponse response = getResponse(future);
+            if (response.getCode() != ObaApi.OBA_OK) {
+                if (error == null) {
+                    error = response;
+                }
+                continue;
+            }
+            entries[i] = add(tiles.get(i), response);
+        }
+
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "Viewport: " + tiles.size() + " tiles, " + fetched + " fetched");
+        }
+
+        // Stitch the tiles together. A stop is only ever in one tile.
+        ArrayList<ObaStop> stops = new ArrayList<ObaStop>();
+        ArrayList<ObaReferences> refs = new ArrayList<ObaReferences>(entries.length);
+        boolean limitExceeded = false;
+        boolean outOfRange = true;
+        for (Entry entry : entries) {
+            if (entry == null) {
+                continue;
+            }
+            stops.addAll(entry.stops);
+            if (!refs.contains(entry.refs)) {
+                refs.add(entry.refs);
+            }
+            limitExceeded |= entry.limitExceeded;
+            outOfRange &= entry.outOfRange;
+        }
+        outOfRange &= stops.isEmpty() && error == null;
+        return new Viewport(tiles, stops, new CompositeReferences(refs),
+                limitExceeded, outOfRange, error, fetched);
+    }
+
+    /**
+     * Starts fetching a tile in the background, if it isn't cached or already
+     * being fetched. The tile is added to the cache once it has been loaded
+     * and the cache is used again.
+     * This may have to cut the tile out of a cached ancestor, so it shouldn't
+     * be called from the UI thread.
+     *
+     * @return true if a request was made.
+     */
+    public boolean prefetch(Tile tile) {
+        synchronized (mTiles) {
+            if (mPending.containsKey(tile.getKey()) || lookup(tile) != null) {
+                return false;
+            }
+            mPending.put(tile.getKey(), new Pending(tile, mFetcher.fetch(tile.getCenter(),
+                    tile.getSize(), tile.getSize(), RequestExecutor.PRIORITY_BACKGROUND)));
+            return true;
+        }
+    }
+
+    /**
+     * Adds the completed prefetches to the cache, so like prefetch(),
+     * this shouldn't be called from the UI thread.
+     *
+     * @return The number of prefetches that haven't completed.
+     */
+    public int getPendingCount() {
+        addCompletedPrefetches();
+        synchronized (mTiles) {
+            return mPending.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (mTiles) {
+            for (Pending pending : mPending.values()) {
+                pending.future.cancel(true);
+            }
+            mPending.clear();
+            mTiles.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (mTiles) {
+            return mTiles.size();
+        }
+    }
+
+    /**
+     * @return The number of tiles found in memory.
+     */
+    public int getHitCount() {
+        synchronized (mTiles) {
+            return mHits;
+        }
+    }
+
+    /**
+     * @return The number of tiles that weren't found in memory.
+     */
+    public int getMissCount() {
+        synchronized (mTiles) {
+            return mMisses;
+        }
+    }
+
+    /**
+     * @return The entry for this tile, from the cache or cut out of a cached ancestor,
+     * or null if it needs to be fetched.
+     */
+    private Entry lookup(Tile tile) {
+        synchronized (mTiles) {
+            Entry entry = mTiles.get(tile.getKey());
+            if (entry != null) {
+                return entry;
+            }
+            for (int levels = 1; tile.mZoom - levels >= MIN_TILE_ZOOM; ++levels) {
+                final Entry ancestor = mTiles.get(tile.getAncestor(levels).getKey());
+                if (ancestor == null) {
+                    continue;
+                }
+                if (ancestor.limitExceeded) {
+                    // It may not have all the stops in this tile, and neither will
+                    // the larger tiles above it.
+                    break;
+                }
+                entry = new Entry(filter(ancestor.stops, tile), ancestor.refs, false,
+                        ancestor.outOfRange);
+                put(tile, entry);
+                return entry;
+            }
+            return null;
+        }
+    }
+
+    private void countLookup(boolean hit) {
+        synchronized (mTiles) {
+            if (hit) {
+                mHits++;
+            } else {
+                mMisses++;
+            }
+        }
+    }
+
+    /**
+     * Adds a successful response to the cache.
+     */
+    private Entry add(Tile tile, ObaStopsForLocationResponse response) {
+        final Entry entry = new Entry(filter(response.getStops(), tile), response,
+                response.getLimitExceeded(), response.getOutOfRange());
+        put(tile, entry);
+        return entry;
+    }
+
+    /**
+     * @return The future of a pending prefetch of this tile, or null if there is none.
+     */
+    private Future<ObaStopsForLocationResponse> takePending(Tile tile) {
+        synchronized (mTiles) {
+            final Pending pending = mPending.remove(tile.getKey());
+            return (pending != null) ? pending.future : null;
+        }
+    }
+
+    private void addCompletedPrefetches() {
+        ArrayList<Pending> completed = null;
+        synchronized (mTiles) {
+            Iterator<Pending> it = mPending.values().iterator();
+            while (it.hasNext()) {
+                final Pending pending = it.next();
+                if (pending.future.isDone()) {
+                    if (completed == null) {
+                        completed = new ArrayList<Pending>();
+                    }
+                    completed.add(pending);
+                    it.remove();
+                }
+            }
+        }
+        if (completed == null) {
+            return;
+        }
+        for (Pending pending : completed) {
+            final ObaStopsForLocationResponse response = getResponse(pending.future);
+            if (response.getCode() == ObaApi.OBA_OK) {
+                add(pending.tile, response);
+            }
+        }
+    }
+
+    private void put(Tile tile, Entry entry) {
+        synchronized (mTiles) {
+            mTiles.put(tile.getKey(), entry);
+            if (mTiles.size() > mMaxTiles) {
+                // Evict the least recently used tile
+                mTiles.remove(mTiles.keySet().iterator().next());
+            }
+        }
+    }
+
+    private static List<ObaStop> filter(ObaStop[] stops, Tile tile) {
+        return filter(Arrays.asList(stops), tile);
+    }
+
+    private static List<ObaStop> filter(List<ObaStop> stops, Tile tile) {
+        ArrayList<ObaStop> result = new ArrayList<ObaStop>();
+        for (ObaStop stop : stops) {
+            if (tile.contains(stop.getLatitude(), stop.getLongitude())) {
+                result.add(stop);
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    private static ObaStopsForLocationResponse getResponse(
+            Future<ObaStopsForLocationResponse> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return createFromError(ObaApi.OBA_IO_EXCEPTION, e.toString());
+        } catch (ExecutionException e) {
+            return createFromError(ObaApi.OBA_INTERNAL_ERROR, String.valueOf(e.getCause()));
+        } catch (CancellationException e) {
+            return createFromError(ObaApi.OBA_IO_EXCEPTION, "Cancelled");
+        }
+    }
+
+    private static ObaStopsForLocationResponse createFromError(int code, String error) {
+        return ObaApi.getSerializer(ObaStopsForLocationResponse.class)
+                .createFromError(ObaStopsForLocationResponse.class, code, error);
+    }
+
+    /**
+     * The references of all the responses that make up a viewport.
+     */
+    private static final class CompositeReferences implements ObaReferences {
+
+        private final List<ObaReferences> mRefs;
+
+        CompositeReferences(List<ObaReferences> refs) {
+            mRefs = refs;
+        }
+
+        @Override
+        public ObaStop getStop(String id) {
+            for (ObaReferences refs : mRefs) {
+                ObaStop result = refs.getStop(id);
+                if (result != null) {
+                    return result;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public List<ObaStop> getStops(String[] ids) {
+            LinkedHashMap<String, ObaStop> result = new LinkedHashMap<String, ObaStop>();
+            for (ObaReferences refs : mRefs) {
+                addAll(result, refs.getStops(ids));
+            }
+            return new ArrayList<ObaStop>(result.values());
+        }
+
+        @Override
+        public ObaRoute getRoute(String id) {
+            for (ObaReferences refs : mRefs) {
+                ObaRoute result = refs.getRoute(id);
+                if (result != null) {
+                    return result;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public List<ObaRoute> getRoutes(String[] ids) {
+            LinkedHashMap<String, ObaRoute> result = new LinkedHashMap<String, ObaRoute>();
+            for (ObaReferences refs : mRefs) {
+                addAll(result, refs.getRoutes(ids));
+            }
+            return new ArrayList<ObaRoute>(result.values());
+        }
+
+        @Override
+        public ObaTrip getTrip(String id) {
+            for (ObaReferences refs : mRefs) {
+                ObaTrip result = refs.getTrip(id);
+                if (result != null) {
+                    return result;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public List<ObaTrip> getTrips(String[] ids) {
+            LinkedHashMap<String, ObaTrip> result = new LinkedHashMap<String, ObaTrip>();
+            for (ObaReferences refs : mRefs) {
+                addAll(result, refs.getTrips(ids));
+            }
+            return new ArrayList<ObaTrip>(result.values());
+        }
+
+        @Override
+        public ObaAgency getAgency(String id) {
+            for (ObaReferences refs : mRefs) {
+                ObaAgency result = refs.getAgency(id);
+                if (result != null) {
+                    return result;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public List<ObaAgency> getAgencies(String[] ids) {
+            LinkedHashMap<String, ObaAgency> result = new LinkedHashMap<String, ObaAgency>();
+            for (ObaReferences refs : mRefs) {
+                addAll(result, refs.getAgencies(ids));
+            }
+            return new ArrayList<ObaAgency>(result.values());
+        }
+
+        @Override
+        public ObaSituation getSituation(String id) {
+            for (ObaReferences refs : mRefs) {
+                ObaSituation result = refs.getSituation(id);
+                if (result != null) {
+                    return result;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public List<ObaSituation> getSituations(String[] ids) {
+            LinkedHashMap<String, ObaSituation> result =
+                    new LinkedHashMap<String, ObaSituation>();
+            for (ObaReferences refs : mRefs) {
+                addAll(result, refs.getSituations(ids));
+            }
+            return new ArrayList<ObaSituation>(result.values());
+        }
+
+        private static <T extends ObaElement> void addAll(Map<String, T> result,
+                List<T> elements) {
+            for (T element : elements) {
+                if (!result.containsKey(element.getId())) {
+                    result.put(element.getId(), element);
+                }
+            }
+        }
+    }
+}
@@ -398,7 +398,7 @@ abstract public class BaseMapActivity extends SherlockMapActivity
         }
 
         if (stops != null) {
-            mStopOverlay = new StopOverlay(stops, getActivity());
+            mStopOverlay = new StopOverlay(stops, getActivity(), mMapView.getZoomLevel());
             mStopOverlay.setOnFocusChangeListener(mFocusChangeListener);
             mStopPopup.setReferences(refs);
 
@@ -466,7 +466,7 @@ abstract public class BaseMapActivity extends SherlockMapActivity
                 final OverlayItem newFocus) {
             mStopChangedHandler.post(new Runnable() {
                 public void run() {
-                    if (newFocus != null) {
+                    if (newFocus instanceof StopOverlayItem) {
                         final StopOverlay.StopOverlayItem item = (StopOverlayItem) newFocus;
                         final ObaStop stop = item.getStop();
                         mFocusStopId = stop.getId();
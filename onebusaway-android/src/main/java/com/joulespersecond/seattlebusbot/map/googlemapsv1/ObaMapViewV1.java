@@ -30,7 +30,7 @@ import com.google.android.maps.MapController;
 import com.google.android.maps.MapView;
 import com.google.android.maps.Overlay;
 import com.google.android.maps.Projection;
-import com.joulespersecond.oba.elements.ObaShape;
+import com.joulespersecond.oba.elements.ObaDecodedShape;
 import com.joulespersecond.seattlebusbot.map.MapModeController;
 
 import java.util.ArrayList;
@@ -105,7 +105,7 @@ public class ObaMapViewV1 extends com.google.android.maps.MapView
     }
 
     @Override
-    public void setRouteOverlay(int lineOverlayColor, ObaShape[] shapes) {
+    public void setRouteOverlay(int lineOverlayColor, ObaDecodedShape[] shapes) {
         List<Overlay> overlays = getOverlays();
 
         if (mLineOverlay == null) {
@@ -144,8 +144,21 @@ public class ObaMapViewV1 extends com.google.android.maps.MapView
 
             private final Paint mPaint;
 
+            // The shape the points came from, if any, used to pick the points
+            // that need to be drawn at the current zoom level.
+            private final ObaDecodedShape mShape;
+
+            private int mZoom = -1;
+
+            private int[] mIndices;
+
             public Line(int color, List<GeoPoint> points) {
+                this(color, points, null);
+            }
+
+            Line(int color, List<GeoPoint> points, ObaDecodedShape shape) {
                 mPoints = points;
+                mShape = shape;
                 mPaint = new Paint();
                 mPaint.setColor(color);
                 mPaint.setAlpha(128);
@@ -162,6 +175,21 @@ public class ObaMapViewV1 extends com.google.android.maps.MapView
             public Paint getPaint() {
                 return mPaint;
             }
+
+            /**
+             * @return The indices of the points to draw at this zoom level,
+             * or null to draw all of them.
+             */
+            int[] getIndices(int zoom) {
+                if (mShape == null) {
+                    return null;
+                }
+                if (zoom != mZoom) {
+                    mIndices = mShape.getIndicesForZoom(zoom);
+                    mZoom = zoom;
+                }
+                return mIndices;
+            }
         }
 
         private ArrayList<Line> mLines = new ArrayList<Line>();
@@ -171,24 +199,24 @@ public class ObaMapViewV1 extends com.google.android.maps.MapView
             // TODO: Invalidate
         }
 
-        public void addLine(int color, ObaShape line) {
-            List<Location> points = line.getPoints();
-            List<GeoPoint> geoPoints = new ArrayList<GeoPoint>();
-            for (Location p : points) {
-                geoPoints.add(MapHelp.makeGeoPoint(p));
+        public void addLine(int color, ObaDecodedShape line) {
+            final int size = line.size();
+            List<GeoPoint> geoPoints = new ArrayList<GeoPoint>(size);
+            for (int i = 0; i < size; ++i) {
+                geoPoints.add(new GeoPoint(line.getLatitudeE6(i), line.getLongitudeE6(i)));
             }
-            mLines.add(new Line(color, geoPoints));
+            mLines.add(new Line(color, geoPoints, line));
             // TODO: Invalidate
         }
 
-        public void addLines(int color, ObaShape[] lines) {
+        public void addLines(int color, ObaDecodedShape[] lines) {
             final int len = lines.length;
             for (int i = 0; i < len; ++i) {
                 addLine(color, lines[i]);
             }
         }
 
-        public void setLines(int color, ObaShape[] lines) {
+        public void setLines(int color, ObaDecodedShape[] lines) {
             mLines.clear();
             addLines(color, lines);
         }
@@ -210,17 +238,24 @@ public class ObaMapViewV1 extends com.google.android.maps.MapView
             final int len = mLines.size();
             // Log.d(TAG, String.format("Drawing %d line(s)", len));
 
+            // Only project the points that make a visible difference at this zoom
+            final int zoom = mapView.getZoomLevel();
+
             Path path = new Path();
             for (int i = 0; i < len; ++i) {
                 final Line line = mLines.get(i);
                 final List<GeoPoint> geoPoints = line.getPoints();
-                int numPts = geoPoints.size();
-                projection.toPixels(geoPoints.get(0), pt);
+                final int[] indices = line.getIndices(zoom);
+                int numPts = (indices != null) ? indices.length : geoPoints.size();
+                if (numPts == 0) {
+                    continue;
+                }
+                projection.toPixels(geoPoints.get(indices != null ? indices[0] : 0), pt);
                 path.moveTo(pt.x, pt.y);
 
                 int j = 1;
                 for (; j < numPts; ++j) {
-                    projection.toPixels(geoPoints.get(j), pt);
+                    projection.toPixels(geoPoints.get(indices != null ? indices[j] : j), pt);
                     path.lineTo(pt.x, pt.y);
                 }
                 canvas.drawPath(path, line.getPaint());
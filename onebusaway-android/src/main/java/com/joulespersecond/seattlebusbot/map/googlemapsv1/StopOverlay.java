@@ -16,6 +16,12 @@
 package com.joulespersecond.seattlebusbot.map.googlemapsv1;
 
 import android.app.Activity;
+import android.content.res.Resources;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.location.Location;
 import android.view.KeyEvent;
@@ -31,18 +37,66 @@ import com.joulespersecond.oba.elements.ObaStop;
 import com.joulespersecond.seattlebusbot.Application;
 import com.joulespersecond.seattlebusbot.ArrivalsListActivity;
 import com.joulespersecond.seattlebusbot.R;
+import com.joulespersecond.seattlebusbot.map.StopClusterer;
 import com.joulespersecond.seattlebusbot.util.LocationHelp;
 
 import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 
 public class StopOverlay extends ItemizedOverlay<OverlayItem> {
     //private static final String TAG = "StopOverlay";
 
+    /**
+     * Stops are grouped into clusters below this zoom level.
+     */
+    public static final int DEFAULT_CLUSTER_ZOOM = 15;
+
+    // The level shown when stops aren't clustered.
+    private static final int UNCLUSTERED = Integer.MAX_VALUE;
+
     private final List<ObaStop> mStops;
 
     private final Activity mActivity;
 
+    private final StopClusterer mClusterer;
+
+    // The index of each stop in mStops, by stop ID
+    private final HashMap<String, Integer> mIndexById;
+
+    // The items for each stop, created as they're first shown
+    private final StopOverlayItem[] mStopItems;
+
+    private final HashMap<StopClusterer.Cluster, ClusterItem> mClusterItems =
+            new HashMap<StopClusterer.Cluster, ClusterItem>();
+
+    // The items being shown
+    private final ArrayList<OverlayItem> mItems = new ArrayList<OverlayItem>();
+
+    // The IDs of the stops that are shown on their own, or null if all of them are.
+    private HashSet<String> mShownIds;
+
+    // The zoom level that mItems is for, or UNCLUSTERED.
+    private int mLevel = -1;
+
+    private MapView mMapView;
+
+    // Set while a change of level is waiting to be shown.
+    private boolean mLevelPosted;
+
+    private final Runnable mShowLevel = new Runnable() {
+        @Override
+        public void run() {
+            mLevelPosted = false;
+            if (mMapView != null) {
+                showLevel(mMapView.getZoomLevel());
+                mMapView.invalidate();
+            }
+        }
+    };
+
     private static final int getResourceIdForDirection(String direction) {
         if (direction.equals("N")) {
             return R.drawable.stop_n;
@@ -79,28 +133,204 @@ public class StopOverlay extends ItemizedOverlay<OverlayItem> {
         }
     }
 
+    /**
+     * A marker for a group of stops that are too close together to show at this zoom level.
+     */
+    public static class ClusterItem extends OverlayItem {
+
+        private final StopClusterer.Cluster mCluster;
+
+        public ClusterItem(StopClusterer.Cluster cluster) {
+            super(MapHelp.makeGeoPoint(cluster.getLatitude(), cluster.getLongitude()),
+                    null, null);
+            mCluster = cluster;
+        }
+
+        public StopClusterer.Cluster getCluster() {
+            return mCluster;
+        }
+    }
+
+    /**
+     * Draws a cluster marker: a circle with the number of stops in it.
+     */
+    private static class ClusterDrawable extends Drawable {
+
+        private final String mText;
+
+        private final int mRadius;
+
+        private final Paint mCirclePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+        private final Paint mTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+        ClusterDrawable(Resources res, int count) {
+            mText = String.valueOf(count);
+            mRadius = res.getDimensionPixelSize(R.dimen.stop_cluster_radius);
+            mCirclePaint.setColor(res.getColor(R.color.stop_cluster));
+            mTextPaint.setColor(res.getColor(R.color.stop_cluster_text));
+            mTextPaint.setTextSize(res.getDimension(R.dimen.stop_cluster_text_size));
+            mTextPaint.setTextAlign(Paint.Align.CENTER);
+        }
+
+        @Override
+        public void draw(Canvas canvas) {
+            final Rect bounds = getBounds();
+            final float x = bounds.exactCenterX();
+            final float y = bounds.exactCenterY();
+            canvas.drawCircle(x, y, mRadius, mCirclePaint);
+            // Center the text vertically on its x-height
+            final float baseline = y - (mTextPaint.ascent() + mTextPaint.descent()) / 2;
+            canvas.drawText(mText, x, baseline, mTextPaint);
+        }
+
+        @Override
+        public int getIntrinsicWidth() {
+            return mRadius * 2;
+        }
+
+        @Override
+        public int getIntrinsicHeight() {
+            return mRadius * 2;
+        }
+
+        @Override
+        public void setAlpha(int alpha) {
+            mCirclePaint.setAlpha(alpha);
+            mTextPaint.setAlpha(alpha);
+        }
+
+        @Override
+        public void setColorFilter(ColorFilter cf) {
+            mCirclePaint.setColorFilter(cf);
+            mTextPaint.setColorFilter(cf);
+        }
+
+        @Override
+        public int getOpacity() {
+            return PixelFormat.TRANSLUCENT;
+        }
+    }
+
+    public StopOverlay(List<ObaStop> stops,
+                       Activity activity,
+                       int zoomLevel) {
+        this(stops, activity, zoomLevel, DEFAULT_CLUSTER_ZOOM);
+    }
+
+    /**
+     * @param zoomLevel   The current zoom level of the map.
+     * @param clusterZoom Stops are grouped into clusters below this zoom level.
+     */
     public StopOverlay(List<ObaStop> stops,
-                       Activity activity) {
+                       Activity activity,
+                       int zoomLevel,
+                       int clusterZoom) {
         super(boundCenterBottom(activity.getResources().getDrawable(R.drawable.stop_u)));
         mStops = stops;
         mActivity = activity;
-        populate();
+        mClusterer = new StopClusterer(stops, activity.getResources()
+                .getDimensionPixelSize(R.dimen.stop_cluster_cell_size), clusterZoom);
+        final int size = stops.size();
+        mIndexById = new HashMap<String, Integer>(size * 2);
+        for (int i = size - 1; i >= 0; --i) {
+            mIndexById.put(stops.get(i).getId(), i);
+        }
+        mStopItems = new StopOverlayItem[size];
+        showLevel(zoomLevel);
     }
 
     @Override
     protected OverlayItem
     createItem(int i) {
-        final ObaStop stop = mStops.get(i);
-        final OverlayItem item = new StopOverlayItem(stop);
-        int res = getResourceIdForDirection(stop.getDirection());
-        final Drawable marker = mActivity.getResources().getDrawable(res);
-        item.setMarker(boundCenterBottom(marker));
-        return item;
+        return mItems.get(i);
     }
 
     @Override
     public int size() {
-        return mStops.size();
+        return mItems.size();
+    }
+
+    @Override
+    public void draw(Canvas canvas, MapView mapView, boolean shadow) {
+        mMapView = mapView;
+        if (!shadow && !mLevelPosted && getLevel(mapView.getZoomLevel()) != mLevel) {
+            // The items can't change while ItemizedOverlay is drawing them, so
+            // the new level is shown before the next frame instead.
+            mLevelPosted = true;
+            mapView.post(mShowLevel);
+        }
+        super.draw(canvas, mapView, shadow);
+    }
+
+    /**
+     * @return The zoom level that items are created for, or UNCLUSTERED.
+     */
+    private int getLevel(int zoomLevel) {
+        return (zoomLevel < mClusterer.getClusterZoom()) ? zoomLevel : UNCLUSTERED;
+    }
+
+    /**
+     * Shows the stops or clusters for a zoom level.
+     */
+    private void showLevel(int zoomLevel) {
+        final int level = getLevel(zoomLevel);
+        if (level == mLevel) {
+            return;
+        }
+        final List<StopClusterer.Cluster> clusters = mClusterer.getClusters(zoomLevel);
+        final String focusedId = (mLevel != -1) ? getFocusedId() : null;
+        mItems.clear();
+        if (clusters == null) {
+            final int size = mStops.size();
+            mItems.ensureCapacity(size);
+            for (int i = 0; i < size; ++i) {
+                mItems.add(getStopItem(i));
+            }
+            mShownIds = null;
+        } else {
+            mShownIds = new HashSet<String>();
+            for (StopClusterer.Cluster cluster : clusters) {
+                if (cluster.size() == 1) {
+                    final ObaStop stop = cluster.getStops().get(0);
+                    mItems.add(getStopItem(mIndexById.get(stop.getId())));
+                    mShownIds.add(stop.getId());
+                } else {
+                    mItems.add(getClusterItem(cluster));
+                }
+            }
+        }
+        mLevel = level;
+        setLastFocusedIndex(-1);
+        populate();
+        // Keep the focus on the same stop if it's still shown on its own.
+        if (focusedId != null && !setFocusById(focusedId)) {
+            setFocus(null);
+        }
+    }
+
+    private StopOverlayItem getStopItem(int i) {
+        StopOverlayItem item = mStopItems[i];
+        if (item == null) {
+            final ObaStop stop = mStops.get(i);
+            item = new StopOverlayItem(stop);
+            int res = getResourceIdForDirection(stop.getDirection());
+            final Drawable marker = mActivity.getResources().getDrawable(res);
+            item.setMarker(boundCenterBottom(marker));
+            mStopItems[i] = item;
+        }
+        return item;
+    }
+
+    private ClusterItem getClusterItem(StopClusterer.Cluster cluster) {
+        ClusterItem item = mClusterItems.get(cluster);
+        if (item == null) {
+            item = new ClusterItem(cluster);
+            item.setMarker(boundCenter(
+                    new ClusterDrawable(mActivity.getResources(), cluster.size())));
+            mClusterItems.put(cluster, item);
+        }
+        return item;
     }
 
     @Override
@@ -134,7 +364,7 @@ public class StopOverlay extends ItemizedOverlay<OverlayItem> {
             }
         } else if (action == MotionEvent.ACTION_UP) {
             final OverlayItem focus = getFocus();
-            if (focus != null) {
+            if (focus instanceof StopOverlayItem) {
                 ArrivalsListActivity.start(mActivity, ((StopOverlayItem) focus).getStop());
             }
         }
@@ -160,7 +390,7 @@ public class StopOverlay extends ItemizedOverlay<OverlayItem> {
                 break;
             case KeyEvent.KEYCODE_DPAD_CENTER:
                 final OverlayItem focus = getFocus();
-                if (focus != null) {
+                if (focus instanceof StopOverlayItem) {
                     ArrivalsListActivity.start(mActivity, ((StopOverlayItem) focus).getStop());
                 }
                 break;
@@ -175,20 +405,18 @@ public class StopOverlay extends ItemizedOverlay<OverlayItem> {
     }
 
     boolean setFocusById(String id) {
-        final int size = size();
-        for (int i = 0; i < size; ++i) {
-            StopOverlayItem item = (StopOverlayItem) getItem(i);
-            if (id.equals(item.getStop().getId())) {
-                setFocus(item);
-                return true;
-            }
+        final Integer index = mIndexById.get(id);
+        if (index == null || (mShownIds != null && !mShownIds.contains(id))) {
+            // Not a stop, or it's part of a cluster
+            return false;
         }
-        return false;
+        setFocus(getStopItem(index));
+        return true;
     }
 
     String getFocusedId() {
         final OverlayItem focus = getFocus();
-        if (focus != null) {
+        if (focus instanceof StopOverlayItem) {
             return ((StopOverlayItem) focus).getStop().getId();
         }
         return null;
@@ -204,8 +432,14 @@ public class StopOverlay extends ItemizedOverlay<OverlayItem> {
     @Override
     protected boolean onTap(int index) {
         final OverlayItem item = getItem(index);
-        if (item.equals(getFocus())) {
-            ObaStop stop = mStops.get(index);
+        if (item instanceof ClusterItem) {
+            // Zoom in on the cluster
+            if (mMapView != null) {
+                mMapView.getController().animateTo(item.getPoint());
+                mMapView.getController().zoomIn();
+            }
+        } else if (item.equals(getFocus())) {
+            ObaStop stop = ((StopOverlayItem) item).getStop();
             ArrivalsListActivity.start(mActivity, stop);
         } else {
             setFocus(item);
@@ -215,7 +449,7 @@ public class StopOverlay extends ItemizedOverlay<OverlayItem> {
             //Track analytics
             Location myLocation = LocationHelp.getLocation2(mActivity, null);
             ObaRegion region = Application.get().getCurrentRegion();
-            ObaStop stop = mStops.get(index);
+            ObaStop stop = ((StopOverlayItem) item).getStop();
             Location stopLocation = stop.getLocation();
             if (region != null && region.getName() != null) {
                 ObaAnalytics.reportEventWithCategory(ObaAnalytics.ObaEventCategory.UI_ACTION.toString(),
@@ -254,6 +488,10 @@ public class StopOverlay extends ItemizedOverlay<OverlayItem> {
 
         for (int i = 0; i < size; ++i) {
             OverlayItem item = getItem(i);
+            if (!(item instanceof StopOverlayItem)) {
+                // Clusters can't be focused
+                continue;
+            }
             GeoPoint point = item.getPoint();
             final int distX = point.getLongitudeE6() - initialPoint.getLongitudeE6();
             final int distY = point.getLatitudeE6() - initialPoint.getLatitudeE6();
@@ -44,12 +44,15 @@ public final class CancelNotifyTask implements Runnable {
             // Get the notification from the alert ID.
             long alertId = ContentUris.parseId(mUri);
             mTaskContext.cancelNotification((int) alertId);
+            TripService.getScheduler(mContext).cancel(alertId);
 
             ContentResolver cr = mContext.getContentResolver();
             ContentValues values = new ContentValues();
             values.put(TripAlerts.STATE, TripAlerts.STATE_CANCELLED);
             cr.update(mUri, values, null, null);
 
+            // The trip moves on to its next day.
+            TripService.getTriggerIndex().invalidateAlert(alertId);
             TripService.scheduleAll(mContext);
         } finally {
             mTaskContext.taskComplete();
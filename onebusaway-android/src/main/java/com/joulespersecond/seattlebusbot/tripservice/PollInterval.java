@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.seattlebusbot.tripservice;
+
+/**
+ * Decides how long to wait before polling a trip alert again.
+ *
+ * The wait is a fraction of the time left until the reminder is due, so
+ * polls are sparse while the bus is far away and dense as it gets close.
+ * Scheduled times are less trustworthy than predicted ones (a prediction
+ * can appear at any time and move the departure earlier), so they get a
+ * smaller fraction.
+ */
+public final class PollInterval {
+
+    public static final long MIN_MS = 30 * 1000;
+
+    public static final long MAX_MS = 10 * 60 * 1000;
+
+    // When the trip can't be found, or the reminder is already due.
+    public static final long DEFAULT_MS = 60 * 1000;
+
+    private static final double PREDICTED_FRACTION = 0.5;
+
+    private static final double SCHEDULED_FRACTION = 0.25;
+
+    private PollInterval() {
+    }
+
+    /**
+     * @param now        The current time.
+     * @param departMS   The predicted departure time, or the scheduled one
+     *                   if there's no prediction.
+     * @param reminderMS How long before the departure the reminder is due.
+     * @param predicted  Whether the departure time is a prediction.
+     * @return How long to wait before the next poll, in milliseconds.
+     */
+    public static long get(long now, long departMS, long reminderMS, boolean predicted) {
+        final long untilReminder = departMS - reminderMS - now;
+        if (untilReminder <= 0) {
+            // The reminder has been sent; keep it up to date.
+            return DEFAULT_MS;
+        }
+        final double fraction = predicted ? PREDICTED_FRACTION : SCHEDULED_FRACTION;
+        final long interval = (long) (untilReminder * fraction);
+        return Math.max(MIN_MS, Math.min(MAX_MS, interval));
+    }
+}
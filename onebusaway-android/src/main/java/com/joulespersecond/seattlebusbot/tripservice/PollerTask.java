@@ -20,17 +20,28 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
+import android.text.TextUtils;
 
 import com.joulespersecond.oba.ObaApi;
 import com.joulespersecond.oba.elements.ObaArrivalInfo;
 import com.joulespersecond.oba.provider.ObaContract;
 import com.joulespersecond.oba.provider.ObaContract.TripAlerts;
-import com.joulespersecond.oba.provider.ObaContract.Trips;
 import com.joulespersecond.oba.request.ObaArrivalInfoRequest;
 import com.joulespersecond.oba.request.ObaArrivalInfoResponse;
+import com.joulespersecond.oba.request.RequestExecutor;
+import com.joulespersecond.oba.request.RequestFuture;
 import com.joulespersecond.seattlebusbot.TripService;
-import com.joulespersecond.seattlebusbot.util.UIHelp;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Polls the arrivals for all the trip alerts that are due. The alerts are
+ * grouped by stop, so each stop's arrivals are only requested once however
+ * many alerts there are for it. Which alerts are due is decided by the
+ * {@link WakeupScheduler}, which batches alerts that are due close together.
+ */
 public final class PollerTask implements Runnable {
     //private static final String TAG = "PollerTask";
 
@@ -42,6 +53,12 @@ public final class PollerTask implements Runnable {
             ObaContract.TripAlerts.STOP_ID,
             ObaContract.TripAlerts.START_TIME,
             ObaContract.TripAlerts.STATE,
+            ObaContract.TripAlerts.TRIP_REMINDER,
+    };
+
+    private static final String[] RESTORE_PROJECTION = {
+            ObaContract.TripAlerts._ID,
+            ObaContract.TripAlerts.START_TIME,
     };
 
     private static final int COL_ID = 0;
@@ -54,30 +71,51 @@ public final class PollerTask implements Runnable {
 
     private static final int COL_STATE = 4;
 
+    private static final int COL_TRIP_REMINDER = 5;
+
+    private static final class Alert {
+
+        final Uri uri;
+
+        final String tripId;
+
+        final long reminderMS;
+
+        Alert(Uri uri, String tripId, long reminderMS) {
+            this.uri = uri;
+            this.tripId = tripId;
+            this.reminderMS = reminderMS;
+        }
+    }
+
     private final Context mContext;
 
     private final ContentResolver mCR;
 
     private final TaskContext mTaskContext;
 
-    private final Uri mUri;
-
-    public PollerTask(Context context, TaskContext taskContext, Uri uri) {
+    public PollerTask(Context context, TaskContext taskContext) {
         mContext = context;
         mCR = mContext.getContentResolver();
         mTaskContext = taskContext;
-        mUri = uri;
     }
 
     @Override
     public void run() {
-        Cursor c = mCR.query(mUri, ALERT_PROJECTION, null, null, null);
-
+        final long now = System.currentTimeMillis();
+        final WakeupScheduler scheduler = TripService.getScheduler(mContext);
+        Cursor c = null;
         try {
+            final List<Long> due = scheduler.takeDue();
+            if (due.isEmpty()) {
+                return;
+            }
+            c = mCR.query(TripAlerts.CONTENT_URI, ALERT_PROJECTION,
+                    TripAlerts.STATE + "<>" + TripAlerts.STATE_CANCELLED + " AND " +
+                            TripAlerts._ID + " IN (" + TextUtils.join(",", due) + ")",
+                    null, null);
             if (c != null) {
-                while (c.moveToNext()) {
-                    poll1(c);
-                }
+                poll(c, now);
             }
         } finally {
             if (c != null) {
@@ -87,82 +125,136 @@ public final class PollerTask implements Runnable {
         }
     }
 
-    private void poll1(Cursor c) {
-        final Uri alertUri = TripAlerts.buildUri(c.getInt(COL_ID));
-        final int state = c.getInt(COL_STATE);
-        if (state == TripAlerts.STATE_CANCELLED) {
-            return;
+    /**
+     * Rebuilds the scheduler's queue from the alerts in the provider,
+     * after the process has been restarted. Alerts that are already
+     * due are scheduled for now.
+     */
+    public static void restore(ContentResolver cr, WakeupScheduler scheduler, long now) {
+        // An IN rather than <> CANCELLED, so that it can use the index on state.
+        Cursor c = cr.query(TripAlerts.CONTENT_URI, RESTORE_PROJECTION,
+                TripAlerts.STATE + " IN (" +
+                        TripAlerts.STATE_SCHEDULED + "," +
+                        TripAlerts.STATE_POLLING + "," +
+                        TripAlerts.STATE_NOTIFY + ")",
+                null, null);
+        if (c != null) {
+            try {
+                while (c.moveToNext()) {
+                    scheduler.schedule(c.getLong(0), Math.max(c.getLong(1), now));
+                }
+            } finally {
+                c.close();
+            }
         }
-        long now = System.currentTimeMillis();
+        scheduler.setRestored();
+    }
 
-        final long startTime = c.getLong(COL_START_TIME);
-        // After a half-hour we can completely give up.
-        if (startTime < (now - ONE_MINUTE * 30)) {
-            ContentValues values = new ContentValues();
-            values.put(TripAlerts.STATE, TripAlerts.STATE_CANCELLED);
-            mCR.update(alertUri, values, null, null);
+    private void poll(Cursor c, long now) {
+        final LinkedHashMap<String, ArrayList<Alert>> alertsByStop =
+                new LinkedHashMap<String, ArrayList<Alert>>();
+        boolean cancelled = false;
 
+        while (c.moveToNext()) {
+            final Uri alertUri = TripAlerts.buildUri(c.getInt(COL_ID));
+            final long startTime = c.getLong(COL_START_TIME);
+            // After a half-hour we can completely give up.
+            if (startTime < (now - ONE_MINUTE * 30)) {
+                ContentValues values = new ContentValues();
+                values.put(TripAlerts.STATE, TripAlerts.STATE_CANCELLED);
+                mCR.update(alertUri, values, null, null);
+                TripService.getTriggerIndex().invalidateAlert(c.getLong(COL_ID));
+                cancelled = true;
+                continue;
+            }
+
+            // If this is just scheduled, mark it as polling.
+            if (c.getInt(COL_STATE) == TripAlerts.STATE_SCHEDULED) {
+                TripAlerts.setState(mContext, alertUri, TripAlerts.STATE_POLLING);
+            }
+
+            final String stopId = c.getString(COL_STOP_ID);
+            ArrayList<Alert> alerts = alertsByStop.get(stopId);
+            if (alerts == null) {
+                alerts = new ArrayList<Alert>();
+                alertsByStop.put(stopId, alerts);
+            }
+            alerts.add(new Alert(alertUri, c.getString(COL_TRIP_ID),
+                    c.getLong(COL_TRIP_REMINDER) * ONE_MINUTE));
+        }
+
+        if (cancelled) {
             TripService.scheduleAll(mContext);
+        }
+        if (alertsByStop.isEmpty()) {
             return;
         }
 
         // Before we do anything else, schedule another poll in a minute.
         // That way we know the polling will continue even if we're killed.
-        TripService.pollTrip(mContext, alertUri, now + ONE_MINUTE);
-
-        // If this is just scheduled, mark it as polling.
-        if (state == TripAlerts.STATE_SCHEDULED) {
-            TripAlerts.setState(mContext, alertUri, TripAlerts.STATE_POLLING);
+        // Once we know where the bus is, this is replaced by a poll
+        // that's sooner or later depending on how close it is.
+        for (ArrayList<Alert> alerts : alertsByStop.values()) {
+            for (Alert alert : alerts) {
+                TripService.pollTrip(mContext, alert.uri, now + PollInterval.DEFAULT_MS);
+            }
         }
 
-        final String tripId = c.getString(COL_TRIP_ID);
-        final String stopId = c.getString(COL_STOP_ID);
-        final long reminderMS = getReminderMS(tripId, stopId);
-
-        ObaArrivalInfoResponse response = ObaArrivalInfoRequest
-                .newRequest(mContext, stopId).call();
-
-        Long departMS = null;
-        if (response.getCode() == ObaApi.OBA_OK) {
-            departMS = checkArrivals(response, c);
+        // Request the arrivals for all the stops at once.
+        final ArrayList<RequestFuture<ObaArrivalInfoResponse>> requests =
+                new ArrayList<RequestFuture<ObaArrivalInfoResponse>>(alertsByStop.size());
+        for (String stopId : alertsByStop.keySet()) {
+            requests.add(ObaArrivalInfoRequest
+                    .newRequest(mContext, stopId)
+                    .callAsync(RequestExecutor.PRIORITY_BACKGROUND));
         }
 
-        if (departMS != null) {
-            final long diffTime = departMS - System.currentTimeMillis();
-            if (diffTime <= reminderMS) {
-                // Bus is within the reminder interval (or it possibly has left!)
-                // Send off a notification.
-                //Log.d(TAG, "Notify for trip: " + alertUri);
-                TripService.notifyTrip(mContext, mUri, diffTime);
+        int i = 0;
+        for (ArrayList<Alert> alerts : alertsByStop.values()) {
+            final ObaArrivalInfoResponse response = requests.get(i++).getResponse();
+            if (response.getCode() != ObaApi.OBA_OK) {
+                continue;
+            }
+            for (Alert alert : alerts) {
+                checkAlert(response, alert);
             }
         }
     }
 
-    private long getReminderMS(String tripId, String stopId) {
-        final Uri uri = Trips.buildUri(tripId, stopId);
-        return (long) UIHelp.intForQuery(mContext, uri, Trips.REMINDER) * ONE_MINUTE;
+    private void checkAlert(ObaArrivalInfoResponse response, Alert alert) {
+        final ObaArrivalInfo info = checkArrivals(response, alert.tripId);
+        if (info == null) {
+            // Leave the poll that's already scheduled.
+            return;
+        }
+        // We notify when the reminder time when calculated with
+        // the *predicted* arrival time is past now.
+        final boolean predicted = info.getPredicted() && info.getPredictedArrivalTime() != 0;
+        final long departMS = predicted ?
+                info.getPredictedArrivalTime() : info.getScheduledArrivalTime();
+        final long now = System.currentTimeMillis();
+        final long diffTime = departMS - now;
+        if (diffTime <= alert.reminderMS) {
+            // Bus is within the reminder interval (or it possibly has left!)
+            // Send off a notification.
+            //Log.d(TAG, "Notify for trip: " + alert.uri);
+            TripService.notifyTrip(mContext, alert.uri, diffTime);
+        }
+        TripService.pollTrip(mContext, alert.uri,
+                now + PollInterval.get(now, departMS, alert.reminderMS, predicted));
     }
 
     //
-    // Return the difference between now and the predicted/scheduled
-    // arrival time, or null if the arrival can't be found.
+    // Return the arrival for the trip, or null if it can't be found.
     //
-    private Long checkArrivals(ObaArrivalInfoResponse response, Cursor c) {
-        final String tripId = c.getString(COL_TRIP_ID);
+    private static ObaArrivalInfo checkArrivals(ObaArrivalInfoResponse response,
+            String tripId) {
         final ObaArrivalInfo[] arrivals = response.getArrivalInfo();
         final int length = arrivals.length;
         for (int i = 0; i < length; ++i) {
             ObaArrivalInfo info = arrivals[i];
             if (tripId.equals(info.getTripId())) {
-                // We found the trip. We notify when the reminder time
-                // when calculated with the *predicted* arrival time
-                // is past now.
-                long depart = info.getPredictedArrivalTime();
-                if (depart == 0) {
-                    depart = info.getScheduledArrivalTime();
-                }
-
-                return depart;
+                return info;
             }
         }
         // Didn't find it.
@@ -20,11 +20,14 @@ import com.joulespersecond.oba.provider.ObaContract.TripAlerts;
 import com.joulespersecond.seattlebusbot.TripService;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
-import android.text.format.Time;
+
+import java.util.HashSet;
+import java.util.List;
 
 /**
  * This is the runnable that implements scheduling of trips.
@@ -37,8 +40,6 @@ public final class SchedulerTask implements Runnable {
 
     private static final long ONE_MINUTE = 60 * 1000;
 
-    private static final long LOOKAHEAD_DURATION_MS = 5 * ONE_MINUTE;
-
     private static final String[] PROJECTION = {
             ObaContract.Trips._ID,
             ObaContract.Trips.STOP_ID,
@@ -78,15 +79,23 @@ public final class SchedulerTask implements Runnable {
         Cursor c = mCR.query(mUri, PROJECTION, null, null, null);
 
         try {
-            Time tNow = new Time();
-            tNow.setToNow();
-            final long now = tNow.toMillis(false);
+            final TriggerIndex index = TripService.getTriggerIndex();
+            index.setNow(System.currentTimeMillis());
 
+            final HashSet<String> keys = new HashSet<String>();
             if (c != null) {
                 while (c.moveToNext()) {
-                    schedule1(c, tNow, now);
+                    keys.add(schedule1(c, index));
                 }
             }
+            final List<String> segments = mUri.getPathSegments();
+            if (segments.size() == 1) {
+                // All the trips: forget any that have been deleted.
+                index.retainAll(keys);
+            } else if (segments.size() == 3 && keys.isEmpty()) {
+                // A single trip that's been deleted.
+                index.remove(segments.get(1), segments.get(2));
+            }
         } finally {
             if (c != null) {
                 c.close();
@@ -97,61 +106,65 @@ public final class SchedulerTask implements Runnable {
 
     // This schedules an alarm to go off when we need it to start polling,
     // and instantiates an TripAlert in the database if needed.
+    // Trips that haven't changed since they were last scheduled are skipped.
+    // Returns the trip's key in the index.
 
-    private void schedule1(Cursor c, Time tNow, long now) {
+    private String schedule1(Cursor c, TriggerIndex index) {
         final String tripId = c.getString(COL_ID);
         final String stopId = c.getString(COL_STOP_ID);
-        final Uri tripUri = ObaContract.Trips.buildUri(tripId, stopId);
-
+        final String key = TriggerIndex.getKey(tripId, stopId);
         final int departureMins = c.getInt(COL_DEPARTURE);
-        final long reminderMS = c.getInt(COL_REMINDER) * ONE_MINUTE;
+        final int reminderMins = c.getInt(COL_REMINDER);
+        final int days = c.getInt(COL_DAYS);
+        if (index.isScheduled(tripId, stopId, departureMins, reminderMins, days)) {
+            return key;
+        }
+        index.remove(tripId, stopId);
+
+        final long reminderMS = reminderMins * ONE_MINUTE;
         if (reminderMS == 0) {
-            return;
+            return key;
         }
-        final int days = c.getInt(COL_DAYS);
+        final Uri tripUri = ObaContract.Trips.buildUri(tripId, stopId);
         if (days == 0) {
-            Time tmp = new Time();
-            tmp.set(0, departureMins, 0, tNow.monthDay, tNow.month, tNow.year);
-            tmp.normalize(false);
-            long remindTime = tmp.toMillis(false) - reminderMS;
-            long triggerTime = remindTime - LOOKAHEAD_DURATION_MS;
-
-            if (!scheduleAlert(tripUri, tripId, stopId, triggerTime)) {
+            long triggerTime = index.getTrigger(0, departureMins, reminderMS);
+            long alertId = scheduleAlert(tripId, stopId, triggerTime);
+            if (alertId == -1) {
                 // If we failed to schedule a one-off alert, then it's
                 // probably been cancelled or in the past and we should
                 // just delete it.
                 mCR.delete(tripUri, null, null);
+            } else {
+                index.setScheduled(tripId, stopId, departureMins, reminderMins, days,
+                        triggerTime, alertId);
             }
         } else {
-            final int currentWeekDay = tNow.weekDay;
+            final int currentWeekDay = index.getWeekDay();
             for (int i = 0; i < 7; ++i) {
                 final int day = (currentWeekDay + i) % 7;
                 final int bit = ObaContract.Trips.getDayBit(day);
                 if ((days & bit) == bit) {
-                    Time tmp = new Time();
-                    tmp.set(0, departureMins, 0, tNow.monthDay + i, tNow.month,
-                            tNow.year);
-                    tmp.normalize(false);
-                    long remindTime = tmp.toMillis(false) - reminderMS;
-                    long triggerTime = remindTime - LOOKAHEAD_DURATION_MS;
-
-                    if (scheduleAlert(tripUri, tripId, stopId, triggerTime)) {
-                        return;
+                    long triggerTime = index.getTrigger(i, departureMins, reminderMS);
+                    long alertId = scheduleAlert(tripId, stopId, triggerTime);
+                    if (alertId != -1) {
+                        index.setScheduled(tripId, stopId, departureMins, reminderMins, days,
+                                triggerTime, alertId);
+                        return key;
                     }
                 }
             }
         }
+        return key;
     }
 
-    private boolean scheduleAlert(Uri uri,
-            String tripId,
+    //
+    // Returns the ID of the alert, or -1 if it's been cancelled.
+    //
+    private long scheduleAlert(String tripId,
             String stopId,
             long triggerTime) {
 
-        Time tmp = new Time();
-        tmp.set(triggerTime);
-        //Log.d(TAG, "Scheduling poll: " + uri.toString() + "  "
-        //        + tmp.format2445());
+        //Log.d(TAG, "Scheduling poll: " + tripId + " " + stopId + " " + triggerTime);
 
         // Check to see if this alert has already been cancelled.
         Uri alertUri = null;
@@ -169,7 +182,7 @@ public final class SchedulerTask implements Runnable {
             try {
                 if (cAlert.moveToNext()) {
                     if (cAlert.getInt(1) == TripAlerts.STATE_CANCELLED) {
-                        return false;
+                        return -1;
                     }
                     alertUri = TripAlerts.buildUri(cAlert.getInt(0));
 
@@ -190,7 +203,7 @@ public final class SchedulerTask implements Runnable {
         // Should we schedule it in every case here??? What about when it's
         // already polling???
         TripService.pollTrip(mContext, alertUri, triggerTime);
-        return true;
+        return ContentUris.parseId(alertUri);
     }
 
     /**
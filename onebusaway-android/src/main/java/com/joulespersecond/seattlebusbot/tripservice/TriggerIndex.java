@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.seattlebusbot.tripservice;
+
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.TimeZone;
+
+/**
+ * Remembers the alert each saved trip was last scheduled with, so that
+ * rescheduling all the trips only touches the ones that have changed.
+ *
+ * The trigger times are computed from the midnights of the next seven days,
+ * which are only recomputed when the day or the time zone changes, so finding
+ * a trip's next trigger is a few bit tests and additions.
+ *
+ * The index only lives in memory. The trips table is the persistent record,
+ * and the first schedule after the process starts fills it in again.
+ */
+public final class TriggerIndex {
+
+    private static final long ONE_MINUTE = 60 * 1000;
+
+    /**
+     * How long before the reminder is due the alert starts polling.
+     */
+    public static final long LOOKAHEAD_DURATION_MS = 5 * ONE_MINUTE;
+
+    private static final class Entry {
+
+        final int departure;
+
+        final int reminder;
+
+        final int days;
+
+        final long trigger;
+
+        final long alertId;
+
+        Entry(int departure, int reminder, int days, long trigger, long alertId) {
+            this.departure = departure;
+            this.reminder = reminder;
+            this.days = days;
+            this.trigger = trigger;
+            this.alertId = alertId;
+        }
+    }
+
+    // The time zone to use, or null to follow the default one.
+    private final TimeZone mFixedTimeZone;
+
+    // The time zone the midnights are in.
+    private TimeZone mTimeZone;
+
+    private final HashMap<String, Entry> mEntries = new HashMap<String, Entry>();
+
+    // The midnight at the start of each of the next seven days, starting with today.
+    private final long[] mMidnights = new long[7];
+
+    private int mWeekDay;
+
+    /**
+     * Creates an index in the default time zone, which follows the default
+     * if it changes.
+     */
+    public TriggerIndex() {
+        mFixedTimeZone = null;
+    }
+
+    public TriggerIndex(TimeZone timeZone) {
+        mFixedTimeZone = timeZone;
+    }
+
+    /**
+     * Sets the current time, which the trigger times are relative to.
+     *
+     * @return true if the day or the time zone has changed, in which case
+     * every trip needs to be scheduled again.
+     */
+    public synchronized boolean setNow(long now) {
+        // The default is a copy, so compare the rules rather than the object.
+        final TimeZone timeZone =
+                mFixedTimeZone != null ? mFixedTimeZone : TimeZone.getDefault();
+        if (mTimeZone != null && mTimeZone.hasSameRules(timeZone) &&
+                now >= mMidnights[0] && now < mMidnights[1]) {
+            return false;
+        }
+        mTimeZone = timeZone;
+        Calendar cal = Calendar.getInstance(mTimeZone);
+        cal.setTimeInMillis(now);
+        cal.set(Calendar.HOUR_OF_DAY, 0);
+        cal.set(Calendar.MINUTE, 0);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        // Calendar counts the days of the week from 1, Time from 0.
+        mWeekDay = cal.get(Calendar.DAY_OF_WEEK) - Calendar.SUNDAY;
+        for (int i = 0; i < mMidnights.length; ++i) {
+            mMidnights[i] = cal.getTimeInMillis();
+            cal.add(Calendar.DAY_OF_MONTH, 1);
+        }
+        mEntries.clear();
+        return true;
+    }
+
+    /**
+     * @return The day of the week of today, from Time.SUNDAY to Time.SATURDAY.
+     */
+    public synchronized int getWeekDay() {
+        return mWeekDay;
+    }
+
+    /**
+     * @param dayOffset  The number of days after today, from 0 to 6.
+     * @param departure  The departure time, in minutes after midnight.
+     * @param reminderMS How long before the departure the reminder is due.
+     * @return The time to start polling for the departure on that day.
+     */
+    public synchronized long getTrigger(int dayOffset, int departure, long reminderMS) {
+        final long midnight = mMidnights[dayOffset];
+        long departureTime = midnight + departure * ONE_MINUTE;
+        // The departure is in wall clock time, so account for any
+        // daylight savings change between midnight and the departure.
+        departureTime += mTimeZone.getOffset(midnight) - mTimeZone.getOffset(departureTime);
+        return departureTime - reminderMS - LOOKAHEAD_DURATION_MS;
+    }
+
+    /**
+     * @return Whether the trip is still scheduled with these settings,
+     * since the day last changed.
+     */
+    public synchronized boolean isScheduled(String tripId, String stopId,
+            int departure, int reminder, int days) {
+        Entry entry = mEntries.get(getKey(tripId, stopId));
+        return entry != null &&
+                entry.departure == departure &&
+                entry.reminder == reminder &&
+                entry.days == days;
+    }
+
+    /**
+     * Records the alert the trip has been scheduled with.
+     */
+    public synchronized void setScheduled(String tripId, String stopId,
+            int departure, int reminder, int days, long trigger, long alertId) {
+        mEntries.put(getKey(tripId, stopId),
+                new Entry(departure, reminder, days, trigger, alertId));
+    }
+
+    /**
+     * @return The time the trip was last scheduled to start polling, or -1.
+     */
+    public synchronized long getNextTrigger(String tripId, String stopId) {
+        Entry entry = mEntries.get(getKey(tripId, stopId));
+        return entry != null ? entry.trigger : -1;
+    }
+
+    public synchronized void remove(String tripId, String stopId) {
+        mEntries.remove(getKey(tripId, stopId));
+    }
+
+    /**
+     * Forgets the trip this alert was scheduled for, so the trip is
+     * scheduled again the next time around.
+     */
+    public synchronized void invalidateAlert(long alertId) {
+        Iterator<Entry> it = mEntries.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().alertId == alertId) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Forgets every trip that isn't one of these.
+     *
+     * @param keys The keys of the trips to keep, from {@link #getKey(String, String)}.
+     */
+    public synchronized void retainAll(Collection<String> keys) {
+        mEntries.keySet().retainAll(keys);
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    public static String getKey(String tripId, String stopId) {
+        return tripId + '\n' + stopId;
+    }
+}
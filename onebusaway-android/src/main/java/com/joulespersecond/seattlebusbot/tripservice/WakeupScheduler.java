@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.seattlebusbot.tripservice;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the deadlines of all the pending trip alert work and wakes the
+ * device once for all of them, rather than once for each.
+ *
+ * There is only ever a single alarm, set for the earliest deadline. When
+ * it goes off, every alert due within the tolerance window is handed out
+ * together, so alerts due a few seconds apart share one wakeup, and after
+ * one poll they stay in step with each other.
+ *
+ * The queue only lives as long as the process. The alert states in the
+ * provider are the persistent record, so after the process has been killed
+ * the queue is rebuilt from them as soon as the scheduler is created, before
+ * anything else can move the alarm (see {@link PollerTask#restore}).
+ */
+public final class WakeupScheduler {
+
+    /**
+     * The source of the current time.
+     */
+    public interface Clock {
+
+        long currentTimeMillis();
+    }
+
+    /**
+     * The single alarm that wakes up the device.
+     */
+    public interface Alarm {
+
+        /**
+         * Sets the alarm, replacing any time it was set to before.
+         */
+        void set(long triggerAtMillis);
+
+        void cancel();
+    }
+
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    public static final long DEFAULT_TOLERANCE_MS = 30 * 1000;
+
+    private static final class Entry implements Comparable<Entry> {
+
+        final long alertId;
+
+        final long deadline;
+
+        Entry(long alertId, long deadline) {
+            this.alertId = alertId;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public int compareTo(Entry another) {
+            if (deadline != another.deadline) {
+                return deadline < another.deadline ? -1 : 1;
+            }
+            return alertId < another.alertId ? -1 : (alertId == another.alertId ? 0 : 1);
+        }
+    }
+
+    private final Clock mClock;
+
+    private final Alarm mAlarm;
+
+    private final long mTolerance;
+
+    private final PriorityQueue<Entry> mQueue = new PriorityQueue<Entry>();
+
+    private final HashMap<Long, Entry> mEntries = new HashMap<Long, Entry>();
+
+    // The time the alarm is set for, or -1 if it isn't set.
+    private long mArmedAt = -1;
+
+    private boolean mRestored;
+
+    private int mWakeups;
+
+    private int mWakeupsAvoided;
+
+    public WakeupScheduler(Clock clock, Alarm alarm, long tolerance) {
+        mClock = clock;
+        mAlarm = alarm;
+        mTolerance = tolerance;
+    }
+
+    /**
+     * Schedules work for an alert, replacing any time it was scheduled for before.
+     */
+    public synchronized void schedule(long alertId, long deadline) {
+        Entry old = mEntries.remove(alertId);
+        if (old != null) {
+            mQueue.remove(old);
+        }
+        Entry entry = new Entry(alertId, deadline);
+        mEntries.put(alertId, entry);
+        mQueue.add(entry);
+        arm();
+    }
+
+    public synchronized void cancel(long alertId) {
+        Entry old = mEntries.remove(alertId);
+        if (old != null) {
+            mQueue.remove(old);
+            arm();
+        }
+    }
+
+    /**
+     * Called when the alarm goes off.
+     *
+     * @return The IDs of the alerts that are due now or within the
+     * tolerance window, in order of their deadline. They are removed
+     * from the queue, so they need to be scheduled again if there's more
+     * work to do for them.
+     */
+    public synchronized List<Long> takeDue() {
+        // The alarm that woke us is spent.
+        mArmedAt = -1;
+        final long limit = mClock.currentTimeMillis() + mTolerance;
+        ArrayList<Long> result = new ArrayList<Long>();
+        Entry entry;
+        while ((entry = mQueue.peek()) != null && entry.deadline <= limit) {
+            mQueue.poll();
+            mEntries.remove(entry.alertId);
+            result.add(entry.alertId);
+        }
+        if (!result.isEmpty()) {
+            mWakeups++;
+            // Each of these would otherwise have had an alarm of its own.
+            mWakeupsAvoided += result.size() - 1;
+        }
+        arm();
+        return result;
+    }
+
+    /**
+     * @return The earliest deadline, or -1 if nothing is scheduled.
+     */
+    public synchronized long getNextDeadline() {
+        Entry entry = mQueue.peek();
+        return entry != null ? entry.deadline : -1;
+    }
+
+    public synchronized int size() {
+        return mQueue.size();
+    }
+
+    /**
+     * @return Whether the queue has been rebuilt from the provider since
+     * the process started.
+     */
+    public synchronized boolean isRestored() {
+        return mRestored;
+    }
+
+    public synchronized void setRestored() {
+        mRestored = true;
+    }
+
+    /**
+     * @return The number of wakeups that handed out any work.
+     */
+    public synchronized int getWakeupCount() {
+        return mWakeups;
+    }
+
+    /**
+     * @return The number of wakeups saved by handing out more than one
+     * alert in the same wakeup.
+     */
+    public synchronized int getWakeupsAvoided() {
+        return mWakeupsAvoided;
+    }
+
+    private void arm() {
+        Entry first = mQueue.peek();
+        if (first == null) {
+            if (mArmedAt != -1) {
+                mAlarm.cancel();
+                mArmedAt = -1;
+            }
+        } else if (first.deadline != mArmedAt) {
+            mAlarm.set(first.deadline);
+            mArmedAt = first.deadline;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2015 individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.joulespersecond.seattlebusbot.util;
+
+import android.database.ContentObserver;
+import android.os.Handler;
+import android.os.SystemClock;
+
+/**
+ * A content observer that waits for a burst of changes to finish before
+ * reacting, so a list is requeried once per burst rather than once per row.
+ *
+ * If the changes keep coming, it still reacts at least every
+ * {@link #MAX_WAIT_MS}, so the list doesn't go stale.
+ */
+public abstract class DebouncedContentObserver extends ContentObserver {
+
+    public static final long DELAY_MS = 250;
+
+    public static final long MAX_WAIT_MS = 1000;
+
+    private final Handler mHandler;
+
+    // When the first change of the burst came, or 0 if there isn't one.
+    private long mFirstChange;
+
+    private final Runnable mChanged = new Runnable() {
+        @Override
+        public void run() {
+            mFirstChange = 0;
+            onChanges();
+        }
+    };
+
+    /**
+     * @param handler The handler to call {@link #onChanges()} on.
+     */
+    public DebouncedContentObserver(Handler handler) {
+        super(handler);
+        mHandler = handler;
+    }
+
+    @Override
+    public boolean deliverSelfNotifications() {
+        return false;
+    }
+
+    @Override
+    public final void onChange(boolean selfChange) {
+        final long now = SystemClock.uptimeMillis();
+        if (mFirstChange == 0) {
+            mFirstChange = now;
+        }
+        mHandler.removeCallbacks(mChanged);
+        mHandler.postAtTime(mChanged, Math.min(now + DELAY_MS, mFirstChange + MAX_WAIT_MS));
+    }
+
+    /**
+     * Stops waiting for a burst of changes to finish, without reacting to it.
+     */
+    public void cancel() {
+        mHandler.removeCallbacks(mChanged);
+        mFirstChange = 0;
+    }
+
+    /**
+     * Called once a burst of changes has finished.
+     */
+    public abstract void onChanges();
+}
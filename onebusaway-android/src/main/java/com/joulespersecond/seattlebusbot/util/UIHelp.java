@@ -174,8 +174,9 @@ public final class UIHelp {
 
         public StopUserInfoMap(Context context) {
             ContentResolver cr = context.getContentResolver();
+            // ">= ''" matches every name, like IS NOT NULL, but it can use the index.
             Cursor c = cr.query(ObaContract.Stops.CONTENT_URI, STOP_USER_PROJECTION, "("
-                    + ObaContract.Stops.USER_NAME + " IS NOT NULL)" + "OR ("
+                    + ObaContract.Stops.USER_NAME + " >= '')" + "OR ("
                     + ObaContract.Stops.FAVORITE + "=1)", null, null);
             mMap = new ContentQueryMap(c, ObaContract.Stops._ID, true, null);
         }